@@ -0,0 +1,43 @@
+package org.genericspatialdao.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Levels of detail of a geometry property. On persist and merge the DAO
+ * stores a topology preserving simplification of the geometry in each level
+ * property; queries with a resolution hint read the coarsest level whose
+ * tolerance does not exceed the resolution. Usage:
+ * 
+ * <pre>
+ * &#064;SpatialLod(levels = { &quot;coastLow&quot;, &quot;coastMedium&quot; }, tolerances = { 0.1, 0.01 })
+ * &#064;Type(type = &quot;org.hibernate.spatial.GeometryType&quot;)
+ * private MultiPolygon coast;
+ * </pre>
+ * 
+ * Level properties must be mapped geometry properties of the same entity
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface SpatialLod {
+
+	/**
+	 * 
+	 * @return properties holding the simplified copies, one per tolerance
+	 */
+	String[] levels();
+
+	/**
+	 * 
+	 * @return simplification distance tolerances, in the units of the
+	 *         geometry
+	 */
+	double[] tolerances();
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+package org.genericspatialdao.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Geometry property kept cut in small pieces (ST_Subdivide) in a shadow
+ * table named after the table and column of the property, with a _subdivided
+ * suffix. The table is created and filled on the first write, and updated by
+ * the DAO on persist, merge and remove. Bulk updates through executeHQLUpdate
+ * and executeSQLUpdate refill it from the table, which costs a full
+ * subdivision. Intersection restrictions on the property are answered from
+ * the pieces, other relations from the table. Usage:
+ * 
+ * <pre>
+ * &#064;Subdivided(maxVertices = 256)
+ * &#064;Type(type = &quot;org.hibernate.spatial.GeometryType&quot;)
+ * private MultiPolygon territory;
+ * </pre>
+ * 
+ * Changes of managed entities flushed without the DAO write methods do not
+ * reach the pieces
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Subdivided {
+
+	/**
+	 * 
+	 * @return maximum number of vertices of a piece, at least 8
+	 */
+	int maxVertices() default 256;
+}
\ No newline at end of file
@@ -0,0 +1,206 @@
+package org.genericspatialdao.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Description of a write, used to invalidate cached results: the written
+ * entity, the envelopes of its geometries and its identifiers. Unknown
+ * envelopes or identifiers make the event cover the whole entity. Events
+ * travel between processes as text, identifiers being sent by their string
+ * value
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class CacheEvent {
+
+	/**
+	 * Entity name of events covering every entity
+	 */
+	public static final String ALL = "*";
+
+	private static final String UNKNOWN = "?";
+	private static final char FIELD_SEPARATOR = ';';
+	private static final char LIST_SEPARATOR = '|';
+	private static final char ORDINATE_SEPARATOR = ',';
+
+	private final String entityName;
+	private final List<Envelope> envelopes;
+	private final List<?> ids;
+
+	/**
+	 * 
+	 * @param entityName
+	 * @param envelopes
+	 *            envelopes of the written geometries, or null if unknown
+	 * @param ids
+	 *            identifiers of the written entities, or null if unknown
+	 */
+	public CacheEvent(String entityName, List<Envelope> envelopes, List<?> ids) {
+		this.entityName = entityName;
+		this.envelopes = envelopes;
+		this.ids = ids;
+	}
+
+	/**
+	 * 
+	 * @return an event invalidating everything, sent after bulk updates
+	 */
+	public static CacheEvent all() {
+		return new CacheEvent(ALL, null, null);
+	}
+
+	public String getEntityName() {
+		return entityName;
+	}
+
+	public List<Envelope> getEnvelopes() {
+		return envelopes;
+	}
+
+	public List<?> getIds() {
+		return ids;
+	}
+
+	public boolean isAll() {
+		return ALL.equals(entityName);
+	}
+
+	/**
+	 * 
+	 * @return true if the rows written are unknown
+	 */
+	public boolean isEntityWide() {
+		return envelopes == null || ids == null;
+	}
+
+	/**
+	 * Encode the event, coarsening it until it fits: envelopes are merged
+	 * into one, then identifiers and envelope are dropped
+	 * 
+	 * @param maxLength
+	 * @return text of the event
+	 */
+	public String encode(int maxLength) {
+		String text = encode(entityName, envelopes, ids);
+		if (text.length() > maxLength && envelopes != null
+				&& envelopes.size() > 1) {
+			Envelope union = new Envelope();
+			for (Envelope envelope : envelopes) {
+				union.expandToInclude(envelope);
+			}
+			text = encode(entityName, Collections.singletonList(union), ids);
+		}
+		if (text.length() > maxLength) {
+			text = encode(entityName, null, null);
+		}
+		return text;
+	}
+
+	/**
+	 * 
+	 * @param text
+	 *            text built by {@link #encode(int)}
+	 * @return the event, with identifiers as strings
+	 */
+	public static CacheEvent decode(String text) {
+		int first = text.indexOf(FIELD_SEPARATOR);
+		int second = text.indexOf(FIELD_SEPARATOR, first + 1);
+		if (first < 0 || second < 0) {
+			throw new IllegalArgumentException("Invalid cache event: " + text);
+		}
+		String entityName = text.substring(0, first);
+		String envelopesText = text.substring(first + 1, second);
+		String idsText = text.substring(second + 1);
+
+		List<Envelope> envelopes = null;
+		if (!UNKNOWN.equals(envelopesText)) {
+			envelopes = new ArrayList<Envelope>();
+			for (String envelopeText : split(envelopesText, LIST_SEPARATOR)) {
+				List<String> ordinates = split(envelopeText, ORDINATE_SEPARATOR);
+				envelopes.add(new Envelope(Double.parseDouble(ordinates.get(0)),
+						Double.parseDouble(ordinates.get(2)), Double
+								.parseDouble(ordinates.get(1)), Double
+								.parseDouble(ordinates.get(3))));
+			}
+		}
+		List<String> ids = null;
+		if (!UNKNOWN.equals(idsText)) {
+			ids = split(idsText, LIST_SEPARATOR);
+		}
+		return new CacheEvent(entityName, envelopes, ids);
+	}
+
+	private static String encode(String entityName, List<Envelope> envelopes,
+			List<?> ids) {
+		StringBuilder builder = new StringBuilder(entityName);
+		builder.append(FIELD_SEPARATOR);
+		if (envelopes == null) {
+			builder.append(UNKNOWN);
+		} else {
+			for (int i = 0; i < envelopes.size(); i++) {
+				Envelope envelope = envelopes.get(i);
+				if (i > 0) {
+					builder.append(LIST_SEPARATOR);
+				}
+				builder.append(envelope.getMinX()).append(ORDINATE_SEPARATOR)
+						.append(envelope.getMinY()).append(ORDINATE_SEPARATOR)
+						.append(envelope.getMaxX()).append(ORDINATE_SEPARATOR)
+						.append(envelope.getMaxY());
+			}
+		}
+		builder.append(FIELD_SEPARATOR);
+		String idsText = encodeIds(ids);
+		builder.append(idsText == null ? UNKNOWN : idsText);
+		return builder.toString();
+	}
+
+	/**
+	 * 
+	 * @return identifiers separated by |, or null if one of them cannot be
+	 *         told apart from the separators
+	 */
+	private static String encodeIds(List<?> ids) {
+		if (ids == null) {
+			return null;
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < ids.size(); i++) {
+			String id = String.valueOf(ids.get(i));
+			if (id.indexOf(LIST_SEPARATOR) >= 0
+					|| id.indexOf(FIELD_SEPARATOR) >= 0 || id.equals(UNKNOWN)
+					|| id.length() == 0) {
+				return null;
+			}
+			if (i > 0) {
+				builder.append(LIST_SEPARATOR);
+			}
+			builder.append(id);
+		}
+		return builder.toString();
+	}
+
+	private static List<String> split(String text, char separator) {
+		List<String> parts = new ArrayList<String>();
+		if (text.length() == 0) {
+			return parts;
+		}
+		int start = 0;
+		int end;
+		while ((end = text.indexOf(separator, start)) >= 0) {
+			parts.add(text.substring(start, end));
+			start = end + 1;
+		}
+		parts.add(text.substring(start));
+		return parts;
+	}
+
+	@Override
+	public String toString() {
+		return encode(entityName, envelopes, ids);
+	}
+}
\ No newline at end of file
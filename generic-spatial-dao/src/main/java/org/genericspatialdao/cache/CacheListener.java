@@ -0,0 +1,19 @@
+package org.genericspatialdao.cache;
+
+/**
+ * Receiver of the writes made through the DAOs of a configuration, local or
+ * announced by other processes
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public interface CacheListener {
+
+	/**
+	 * Called by the writing thread, or by the notification listener, once the
+	 * write is committed. Must return quickly
+	 * 
+	 * @param event
+	 */
+	void invalidated(CacheEvent event);
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+package org.genericspatialdao.cache;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Grid cell of the results of a query: entity, criteria signature, geometry
+ * property and cell coordinates
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class CellKey {
+
+	private final String entityName;
+	private final Object signature;
+	private final String property;
+	private final long x;
+	private final long y;
+
+	/**
+	 * 
+	 * @param entityName
+	 * @param signature
+	 *            value identifying the other conditions of the query,
+	 *            compared with equals
+	 * @param property
+	 *            geometry property
+	 * @param x
+	 *            column of the cell
+	 * @param y
+	 *            row of the cell
+	 */
+	public CellKey(String entityName, Object signature, String property,
+			long x, long y) {
+		this.entityName = entityName;
+		this.signature = signature;
+		this.property = property;
+		this.x = x;
+		this.y = y;
+	}
+
+	public String getEntityName() {
+		return entityName;
+	}
+
+	public Object getSignature() {
+		return signature;
+	}
+
+	public String getProperty() {
+		return property;
+	}
+
+	public long getX() {
+		return x;
+	}
+
+	public long getY() {
+		return y;
+	}
+
+	/**
+	 * 
+	 * @param cellSize
+	 * @return envelope of the cell
+	 */
+	public Envelope getEnvelope(double cellSize) {
+		return new Envelope(x * cellSize, (x + 1) * cellSize, y * cellSize,
+				(y + 1) * cellSize);
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder().append(entityName).append(signature)
+				.append(property).append(x).append(y).toHashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CellKey)) {
+			return false;
+		}
+		CellKey other = (CellKey) obj;
+		return new EqualsBuilder().append(entityName, other.entityName)
+				.append(signature, other.signature)
+				.append(property, other.property).append(x, other.x)
+				.append(y, other.y).isEquals();
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+				.append("entityName", entityName)
+				.append("signature", signature).append("property", property)
+				.append("x", x).append("y", y).toString();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+package org.genericspatialdao.cache;
+
+import java.io.Serializable;
+
+/**
+ * Reference kept by the query cache in place of a managed entity, resolved
+ * again through the session of the caller on each hit
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class EntityRef {
+
+	private final String entityName;
+	private final Serializable id;
+
+	public EntityRef(String entityName, Serializable id) {
+		this.entityName = entityName;
+		this.id = id;
+	}
+
+	public String getEntityName() {
+		return entityName;
+	}
+
+	public Serializable getId() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return entityName + "#" + id;
+	}
+}
\ No newline at end of file
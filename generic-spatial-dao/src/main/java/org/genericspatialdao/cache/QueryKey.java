@@ -0,0 +1,112 @@
+package org.genericspatialdao.cache;
+
+import java.util.Arrays;
+
+import org.genericspatialdao.util.WKBUtils;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Key of a cached query: its text with whitespace collapsed outside quoted
+ * literals and identifiers, plus its parameters. Geometry and byte array parameters are compared by their EWKB
+ * hex text, since their own equals does not compare contents
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class QueryKey {
+
+	private final String query;
+	private final Object[] params;
+	private final int hashCode;
+
+	private QueryKey(String query, Object[] params) {
+		this.query = query;
+		this.params = params;
+		this.hashCode = 31 * query.hashCode() + Arrays.hashCode(params);
+	}
+
+	/**
+	 * 
+	 * @param query
+	 * @param params
+	 *            may be null
+	 * @return key of the query
+	 */
+	public static QueryKey of(String query, Object... params) {
+		Object[] normalized = params == null ? new Object[0]
+				: new Object[params.length];
+		for (int i = 0; i < normalized.length; i++) {
+			normalized[i] = normalize(params[i]);
+		}
+		return new QueryKey(collapseWhitespace(query.trim()), normalized);
+	}
+
+	/**
+	 * 
+	 * @param query
+	 * @return the query with each run of whitespace outside quotes replaced
+	 *         by a single space. Doubled quotes inside a literal close and
+	 *         reopen it, which leaves it unchanged
+	 */
+	private static String collapseWhitespace(String query) {
+		StringBuilder result = new StringBuilder(query.length());
+		char quote = 0;
+		boolean space = false;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (quote == 0 && Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (space) {
+				result.append(' ');
+				space = false;
+			}
+			if (quote == 0 && (c == '\'' || c == '"')) {
+				quote = c;
+			} else if (c == quote) {
+				quote = 0;
+			}
+			result.append(c);
+		}
+		return result.toString();
+	}
+
+	private static Object normalize(Object param) {
+		if (param instanceof Geometry) {
+			return WKBUtils.toHex(WKBUtils.write((Geometry) param));
+		}
+		if (param instanceof byte[]) {
+			return WKBUtils.toHex((byte[]) param);
+		}
+		return param;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof QueryKey)) {
+			return false;
+		}
+		QueryKey other = (QueryKey) obj;
+		return hashCode == other.hashCode && query.equals(other.query)
+				&& Arrays.equals(params, other.params);
+	}
+
+	@Override
+	public String toString() {
+		return query + " " + Arrays.toString(params);
+	}
+}
\ No newline at end of file
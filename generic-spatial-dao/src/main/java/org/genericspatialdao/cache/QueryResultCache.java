@@ -0,0 +1,184 @@
+package org.genericspatialdao.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Results of queries, bounded in number of entries and in age. Each entry is
+ * tagged with the query spaces (tables) it reads; a write to one of them
+ * drops the entry. A query that started before a write to one of its spaces
+ * cannot store its result, which may be stale. Thread safe
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class QueryResultCache {
+
+	private static final Logger LOG = Logger.getLogger(QueryResultCache.class);
+
+	private final int maxEntries;
+	private final long ttlMillis;
+	// access ordered: iteration starts at the least recently used entry
+	private final LinkedHashMap<QueryKey, Entry> entries = new LinkedHashMap<QueryKey, Entry>(
+			16, 0.75f, true);
+	// stamp of the last invalidation of each space
+	private final Map<String, Long> invalidations = new HashMap<String, Long>();
+	private long stamp;
+	private long clearStamp;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+
+	/**
+	 * 
+	 * @param maxEntries
+	 * @param ttlMillis
+	 *            time an entry is served after being stored
+	 */
+	public QueryResultCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * 
+	 * @return stamp to take before running a query, and to give to
+	 *         {@link #put(QueryKey, List, Set, long)}
+	 */
+	public synchronized long nextStamp() {
+		return ++stamp;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @return cached result, or null if absent or expired
+	 */
+	public synchronized List<?> get(QueryKey key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.expiresAt < System.currentTimeMillis()) {
+			entries.remove(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.result;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @param result
+	 * @param spaces
+	 *            query spaces read by the query
+	 * @param startStamp
+	 *            stamp taken before running the query
+	 * @return true if the result was stored
+	 */
+	public synchronized boolean put(QueryKey key, List<?> result,
+			Set<String> spaces, long startStamp) {
+		if (clearStamp > startStamp) {
+			return false;
+		}
+		for (String space : spaces) {
+			Long invalidated = invalidations.get(space);
+			if (invalidated != null && invalidated > startStamp) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Not caching result of " + key + ": " + space
+							+ " written while it ran");
+				}
+				return false;
+			}
+		}
+		entries.put(key, new Entry(Collections.unmodifiableList(result),
+				spaces, System.currentTimeMillis() + ttlMillis));
+		if (entries.size() > maxEntries) {
+			Iterator<Entry> iterator = entries.values().iterator();
+			iterator.next();
+			iterator.remove();
+			evictions++;
+		}
+		return true;
+	}
+
+	/**
+	 * Drop the entries reading one of the spaces
+	 * 
+	 * @param spaces
+	 */
+	public synchronized void invalidate(Collection<String> spaces) {
+		long now = ++stamp;
+		for (String space : spaces) {
+			invalidations.put(space, now);
+		}
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			if (!Collections.disjoint(iterator.next().spaces, spaces)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drop all entries, and the results of queries still running
+	 */
+	public synchronized void clear() {
+		clearStamp = ++stamp;
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QueryResultCache [entries=" + entries.size() + ", maxEntries="
+				+ maxEntries + ", ttlMillis=" + ttlMillis + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions
+				+ ", expirations=" + expirations + "]";
+	}
+
+	private static final class Entry {
+
+		private final List<?> result;
+		private final Set<String> spaces;
+		private final long expiresAt;
+
+		private Entry(List<?> result, Set<String> spaces, long expiresAt) {
+			this.result = result;
+			this.spaces = spaces;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,497 @@
+package org.genericspatialdao.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.dao.ResultHandler;
+import org.genericspatialdao.dao.impl.DaoFactory;
+import org.genericspatialdao.dao.impl.SpatialMetadata;
+import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.service.SpatialCacheService;
+import org.genericspatialdao.type.LazyGeometry;
+import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * In-memory read replica of the entities of a table, indexed by an STR-tree
+ * of prepared geometries, answering spatial lookups without touching the
+ * database.
+ * 
+ * The mirror follows the writes made through the DAOs of its configuration,
+ * and those announced by other processes when cache notifications are
+ * enabled: written rows are read again by a background thread, and bulk
+ * updates of its table reload it. With a version property, rows changed by
+ * other means are found by polling for versions greater than the last one
+ * seen, or for any version while none was seen; rows deleted by other means
+ * are only dropped by {@link #load()}.
+ * 
+ * Changes are kept apart from the tree until they outgrow a fraction of it,
+ * then the tree is rebuilt. Lookups read an immutable snapshot and never
+ * block. Returned entities are detached and shared, and must be treated as
+ * read only. Loads and syncs use the entity manager of the calling thread and
+ * detach the entities they read from it
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class SpatialMirror<T> implements CacheListener {
+
+	public static final long DEFAULT_POLL_MILLIS = 1000;
+
+	private static final int NODE_CAPACITY = 10;
+	private static final int MIN_REBUILD_CHANGES = 1024;
+	// the tree is rebuilt when the changes exceed 1/8 of its entries
+	private static final int REBUILD_RATIO = 8;
+	private static final String THREAD_NAME_PREFIX = "genericspatialdao-mirror-";
+	private static final String UNKNOWN_PROPERTY = "Unknown property: ";
+	private static final Logger LOG = Logger.getLogger(SpatialMirror.class);
+
+	private final Class<T> entityClass;
+	private final DaoConfiguration configuration;
+	private final String geometryProperty;
+	private final Dao<T> dao;
+	private final GeometryFactory geometryFactory = new GeometryFactory();
+	private String versionProperty;
+	private long pollMillis = DEFAULT_POLL_MILLIS;
+
+	private volatile Snapshot<T> snapshot = new Snapshot<T>();
+	// writes waiting for the sync thread, guarded by pendingLock
+	private final Object pendingLock = new Object();
+	private Set<Object> pendingIds = new HashSet<Object>();
+	private boolean pendingReload;
+	private volatile Thread thread;
+	private boolean listening;
+	private SpatialMetadata metadata;
+	private Comparable<Object> lastVersion;
+
+	/**
+	 * 
+	 * @param entityClass
+	 * @param configuration
+	 * @param geometryProperty
+	 *            property indexed by the mirror, a geometry or lazy geometry
+	 */
+	public SpatialMirror(Class<T> entityClass, DaoConfiguration configuration,
+			String geometryProperty) {
+		this.entityClass = entityClass;
+		this.configuration = configuration;
+		this.geometryProperty = geometryProperty;
+		this.dao = DaoFactory.getDAO(entityClass, configuration);
+	}
+
+	/**
+	 * 
+	 * @return property holding a version or modification time increasing on
+	 *         every write, or null to follow DAO writes only
+	 */
+	public String getVersionProperty() {
+		return versionProperty;
+	}
+
+	public void setVersionProperty(String versionProperty) {
+		this.versionProperty = versionProperty;
+	}
+
+	public long getPollMillis() {
+		return pollMillis;
+	}
+
+	/**
+	 * 
+	 * @param pollMillis
+	 *            longest time between two syncs of the background thread
+	 */
+	public void setPollMillis(long pollMillis) {
+		this.pollMillis = pollMillis;
+	}
+
+	/**
+	 * Load the whole table, replacing the content of the mirror, and start
+	 * following writes
+	 */
+	public synchronized void load() {
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Loading mirror of " + entityClass.getName());
+		}
+		if (!listening) {
+			SpatialCacheService.addListener(configuration, this);
+			listening = true;
+		}
+		synchronized (pendingLock) {
+			pendingIds = new HashSet<Object>();
+			pendingReload = false;
+		}
+		// streamed entities are detached from the entity manager of the thread
+		final Map<Object, Entry<T>> entries = new HashMap<Object, Entry<T>>();
+		lastVersion = null;
+		dao.streamByCriteria(null, null, new ResultHandler<T>() {
+			@Override
+			public void handle(List<T> chunk) {
+				for (T t : chunk) {
+					Entry<T> entry = createEntry(t);
+					if (entry != null) {
+						entries.put(entry.id, entry);
+					}
+				}
+			}
+		});
+		snapshot = new Snapshot<T>(entries);
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Mirror of " + entityClass.getName() + " loaded "
+					+ entries.size() + " entities");
+		}
+	}
+
+	/**
+	 * Apply the pending writes and, with a version property, the rows changed
+	 * since the last sync
+	 */
+	public synchronized void sync() {
+		Set<Object> ids;
+		boolean reload;
+		synchronized (pendingLock) {
+			ids = pendingIds;
+			reload = pendingReload;
+			pendingIds = new HashSet<Object>();
+			pendingReload = false;
+		}
+		if (reload) {
+			load();
+			return;
+		}
+		Map<Object, Entry<T>> changes = new HashMap<Object, Entry<T>>();
+		if (!ids.isEmpty()) {
+			// ids not found were removed
+			for (Object id : ids) {
+				changes.put(id, null);
+			}
+			List<T> found = dao.find(ids.toArray());
+			if (found != null) {
+				for (T t : found) {
+					putChange(changes, t);
+				}
+			}
+		}
+		if (versionProperty != null) {
+			List<Criterion> criterions = new ArrayList<Criterion>();
+			// nothing seen yet, as when the table was empty at load
+			criterions.add(lastVersion == null ? Restrictions
+					.isNotNull(versionProperty) : Restrictions.gt(
+					versionProperty, lastVersion));
+			for (T t : dao.findByCriteria(criterions)) {
+				putChange(changes, t);
+			}
+		}
+		if (!changes.isEmpty()) {
+			apply(changes);
+		}
+	}
+
+	/**
+	 * Start a daemon thread syncing the mirror every poll interval, or as
+	 * soon as a write is received. Loads the mirror first if it is empty
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		if (snapshot.base.isEmpty()) {
+			load();
+		}
+		Thread newThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runSyncLoop();
+			}
+		}, THREAD_NAME_PREFIX + entityClass.getSimpleName());
+		newThread.setDaemon(true);
+		thread = newThread;
+		newThread.start();
+	}
+
+	/**
+	 * Stop the sync thread and stop following writes
+	 */
+	public synchronized void stop() {
+		SpatialCacheService.removeListener(configuration, this);
+		listening = false;
+		Thread current = thread;
+		thread = null;
+		if (current != null) {
+			current.interrupt();
+		}
+	}
+
+	@Override
+	public void invalidated(CacheEvent event) {
+		boolean mirrored = event.isAll()
+				|| event.getEntityName().equals(getEntityName());
+		if (!mirrored) {
+			return;
+		}
+		synchronized (pendingLock) {
+			if (event.isAll() || event.isEntityWide()) {
+				pendingReload = true;
+			} else {
+				pendingIds.addAll(event.getIds());
+			}
+			pendingLock.notifyAll();
+		}
+	}
+
+	/**
+	 * 
+	 * @param point
+	 * @return entities whose geometry contains the point
+	 */
+	public List<T> containing(Point point) {
+		Snapshot<T> current = snapshot;
+		List<T> result = new ArrayList<T>();
+		for (Entry<T> entry : current.query(new Envelope(point
+				.getCoordinate()))) {
+			if (entry.prepared.contains(point)) {
+				result.add(entry.entity);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param envelope
+	 * @return entities whose geometry intersects the envelope
+	 */
+	public List<T> intersecting(Envelope envelope) {
+		Snapshot<T> current = snapshot;
+		Geometry box = geometryFactory.toGeometry(envelope);
+		List<T> result = new ArrayList<T>();
+		for (Entry<T> entry : current.query(envelope)) {
+			if (envelope.contains(entry.envelope)
+					|| entry.prepared.intersects(box)) {
+				result.add(entry.entity);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return number of mirrored entities
+	 */
+	public int size() {
+		return snapshot.size();
+	}
+
+	private void runSyncLoop() {
+		try {
+			while (thread == Thread.currentThread()) {
+				try {
+					synchronized (pendingLock) {
+						if (pendingIds.isEmpty() && !pendingReload) {
+							pendingLock.wait(pollMillis);
+						}
+					}
+					sync();
+				} catch (InterruptedException e) {
+					return;
+				} catch (RuntimeException e) {
+					LOG.error("Failed to sync mirror of "
+							+ entityClass.getName() + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			// entity manager of the sync thread
+			dao.close();
+		}
+	}
+
+	private void apply(Map<Object, Entry<T>> changes) {
+		Snapshot<T> current = snapshot;
+		Map<Object, Entry<T>> delta = new HashMap<Object, Entry<T>>(
+				current.delta);
+		delta.putAll(changes);
+		if (delta.size() > Math.max(MIN_REBUILD_CHANGES, current.base.size()
+				/ REBUILD_RATIO)) {
+			Map<Object, Entry<T>> entries = new HashMap<Object, Entry<T>>(
+					current.base);
+			for (Map.Entry<Object, Entry<T>> change : delta.entrySet()) {
+				if (change.getValue() == null) {
+					entries.remove(change.getKey());
+				} else {
+					entries.put(change.getKey(), change.getValue());
+				}
+			}
+			LOG.debug("Rebuilding mirror tree");
+			snapshot = new Snapshot<T>(entries);
+		} else {
+			snapshot = new Snapshot<T>(current, delta);
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Applied " + changes.size() + " changes to mirror of "
+					+ entityClass.getName());
+		}
+	}
+
+	private void putChange(Map<Object, Entry<T>> changes, T t) {
+		// mirrored entities must not stay in the entity manager of the thread
+		Session session = dao.getSession();
+		if (session.contains(t)) {
+			session.evict(t);
+		}
+		Entry<T> entry = createEntry(t);
+		if (entry != null) {
+			changes.put(entry.id, entry);
+		} else {
+			// no geometry any more
+			changes.put(getMetadata().getIdentifier(t), null);
+		}
+	}
+
+	/**
+	 * 
+	 * @return entry of an entity, or null if its geometry is null or empty
+	 */
+	@SuppressWarnings("unchecked")
+	private Entry<T> createEntry(T t) {
+		SpatialMetadata spatialMetadata = getMetadata();
+		if (versionProperty != null) {
+			Comparable<Object> version = (Comparable<Object>) spatialMetadata
+					.getClassMetadata().getPropertyValue(t, versionProperty);
+			if (version != null
+					&& (lastVersion == null || version.compareTo(lastVersion) > 0)) {
+				lastVersion = version;
+			}
+		}
+		Object value = spatialMetadata.getClassMetadata().getPropertyValue(t,
+				geometryProperty);
+		Geometry geometry = value instanceof LazyGeometry ? ((LazyGeometry) value)
+				.getGeometry() : (Geometry) value;
+		if (geometry == null || geometry.isEmpty()) {
+			return null;
+		}
+		return new Entry<T>(spatialMetadata.getIdentifier(t), t,
+				PreparedGeometryFactory.prepare(geometry));
+	}
+
+	private SpatialMetadata getMetadata() {
+		if (metadata == null) {
+			metadata = SpatialMetadata.of(dao.getSession(), entityClass);
+			checkProperty(geometryProperty);
+			if (versionProperty != null) {
+				checkProperty(versionProperty);
+			}
+		}
+		return metadata;
+	}
+
+	private void checkProperty(String property) {
+		for (String name : metadata.getClassMetadata().getPropertyNames()) {
+			if (name.equals(property)) {
+				return;
+			}
+		}
+		String message = UNKNOWN_PROPERTY + property;
+		LOG.error(message);
+		throw new DaoException(message);
+	}
+
+	private String getEntityName() {
+		return entityClass.getName();
+	}
+
+	private static final class Entry<T> {
+
+		private final Object id;
+		private final T entity;
+		private final PreparedGeometry prepared;
+		private final Envelope envelope;
+
+		private Entry(Object id, T entity, PreparedGeometry prepared) {
+			this.id = id;
+			this.entity = entity;
+			this.prepared = prepared;
+			this.envelope = prepared.getGeometry().getEnvelopeInternal();
+		}
+	}
+
+	/**
+	 * Immutable state of the mirror: a tree over the base entries, and the
+	 * entries changed since it was built, null for removed ones
+	 */
+	private static final class Snapshot<T> {
+
+		private final Map<Object, Entry<T>> base;
+		private final STRtree tree;
+		private final Map<Object, Entry<T>> delta;
+		private final int size;
+
+		private Snapshot() {
+			this(Collections.<Object, Entry<T>> emptyMap());
+		}
+
+		private Snapshot(Map<Object, Entry<T>> entries) {
+			this.base = entries;
+			this.tree = new STRtree(NODE_CAPACITY);
+			for (Entry<T> entry : entries.values()) {
+				tree.insert(entry.envelope, entry);
+			}
+			tree.build();
+			this.delta = Collections.emptyMap();
+			this.size = entries.size();
+		}
+
+		private Snapshot(Snapshot<T> previous, Map<Object, Entry<T>> delta) {
+			this.base = previous.base;
+			this.tree = previous.tree;
+			this.delta = delta;
+			int count = base.size();
+			for (Map.Entry<Object, Entry<T>> change : delta.entrySet()) {
+				boolean inBase = base.containsKey(change.getKey());
+				if (change.getValue() == null && inBase) {
+					count--;
+				} else if (change.getValue() != null && !inBase) {
+					count++;
+				}
+			}
+			this.size = count;
+		}
+
+		private int size() {
+			return size;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<Entry<T>> query(Envelope envelope) {
+			List<Entry<T>> result = new ArrayList<Entry<T>>();
+			for (Object item : tree.query(envelope)) {
+				Entry<T> entry = (Entry<T>) item;
+				if (!delta.containsKey(entry.id)) {
+					result.add(entry);
+				}
+			}
+			for (Entry<T> entry : delta.values()) {
+				if (entry != null && entry.envelope.intersects(envelope)) {
+					result.add(entry);
+				}
+			}
+			return result;
+		}
+	}
+}
\ No newline at end of file
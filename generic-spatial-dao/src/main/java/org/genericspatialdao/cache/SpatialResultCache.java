@@ -0,0 +1,246 @@
+package org.genericspatialdao.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Results of envelope queries, stored by grid cell. A query is answered by
+ * the cells covering its envelope, so overlapping viewports share entries.
+ * Memory is bounded by the estimated size of the entries; the least recently
+ * used cells are evicted first. A query that started before a write to its
+ * entity cannot store its cells, which may be stale. Thread safe
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class SpatialResultCache {
+
+	private static final Logger LOG = Logger
+			.getLogger(SpatialResultCache.class);
+
+	private final long maxBytes;
+	private final double cellSize;
+	// access ordered: iteration starts at the least recently used cell
+	private final LinkedHashMap<CellKey, Cell> cells = new LinkedHashMap<CellKey, Cell>(
+			16, 0.75f, true);
+	// stamp of the last invalidation of each entity
+	private final Map<String, Long> invalidations = new HashMap<String, Long>();
+	private long stamp;
+	private long clearStamp;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * 
+	 * @param maxBytes
+	 *            bound of the estimated size of the cached entries
+	 * @param cellSize
+	 *            side of the grid cells, in the units of the geometries
+	 */
+	public SpatialResultCache(long maxBytes, double cellSize) {
+		this.maxBytes = maxBytes;
+		this.cellSize = cellSize;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * 
+	 * @return stamp to take before loading cells, and to give to
+	 *         {@link #put(CellKey, List, Set, long, long)}
+	 */
+	public synchronized long nextStamp() {
+		return ++stamp;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @return entries intersecting the cell, or null if it is not cached
+	 */
+	public synchronized List<?> get(CellKey key) {
+		Cell cell = cells.get(key);
+		if (cell == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return cell.entries;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @param entries
+	 *            all entries whose geometry intersects the cell
+	 * @param ids
+	 *            identifiers of the entries
+	 * @param weight
+	 *            estimated size of the entries in bytes
+	 * @param startStamp
+	 *            stamp taken before loading the entries
+	 * @return true if the cell was stored
+	 */
+	public synchronized boolean put(CellKey key, List<?> entries, Set<?> ids,
+			long weight, long startStamp) {
+		if (weight > maxBytes || clearStamp > startStamp) {
+			return false;
+		}
+		Long invalidated = invalidations.get(key.getEntityName());
+		if (invalidated != null && invalidated > startStamp) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Not caching " + key + ": "
+						+ key.getEntityName() + " written while it loaded");
+			}
+			return false;
+		}
+		Cell previous = cells.put(key,
+				new Cell(Collections.unmodifiableList(entries), ids, weight));
+		if (previous != null) {
+			bytes -= previous.weight;
+		}
+		bytes += weight;
+		Iterator<Cell> iterator = cells.values().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= iterator.next().weight;
+			iterator.remove();
+			evictions++;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the cells of an entity touched by a write: cells intersecting
+	 * one of the envelopes, where entities were written, or holding one of
+	 * the identifiers, where they were before
+	 * 
+	 * @param entityName
+	 * @param envelopes
+	 * @param ids
+	 */
+	public synchronized void invalidate(String entityName,
+			Collection<Envelope> envelopes, Collection<?> ids) {
+		invalidations.put(entityName, ++stamp);
+		int removed = 0;
+		Iterator<Map.Entry<CellKey, Cell>> iterator = cells.entrySet()
+				.iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<CellKey, Cell> entry = iterator.next();
+			CellKey key = entry.getKey();
+			if (key.getEntityName().equals(entityName)
+					&& (intersects(key.getEnvelope(cellSize), envelopes) || containsAny(
+							entry.getValue().ids, ids))) {
+				bytes -= entry.getValue().weight;
+				iterator.remove();
+				removed++;
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Invalidated " + removed + " cells of " + entityName);
+		}
+	}
+
+	/**
+	 * Remove all cells of an entity
+	 * 
+	 * @param entityName
+	 */
+	public synchronized void invalidate(String entityName) {
+		invalidations.put(entityName, ++stamp);
+		Iterator<Map.Entry<CellKey, Cell>> iterator = cells.entrySet()
+				.iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<CellKey, Cell> entry = iterator.next();
+			if (entry.getKey().getEntityName().equals(entityName)) {
+				bytes -= entry.getValue().weight;
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all cells, and the cells of loads still running
+	 */
+	public synchronized void clear() {
+		clearStamp = ++stamp;
+		cells.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return cells.size();
+	}
+
+	/**
+	 * 
+	 * @return estimated size of the cached entries
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SpatialResultCache [cells=" + cells.size() + ", bytes="
+				+ bytes + ", maxBytes=" + maxBytes + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+	private static boolean intersects(Envelope cell,
+			Collection<Envelope> envelopes) {
+		for (Envelope envelope : envelopes) {
+			if (cell.intersects(envelope)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsAny(Set<?> cellIds, Collection<?> ids) {
+		for (Object id : ids) {
+			if (cellIds.contains(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final class Cell {
+
+		private final List<?> entries;
+		private final Set<?> ids;
+		private final long weight;
+
+		private Cell(List<?> entries, Set<?> ids, long weight) {
+			this.entries = entries;
+			this.ids = ids;
+			this.weight = weight;
+		}
+	}
+}
\ No newline at end of file
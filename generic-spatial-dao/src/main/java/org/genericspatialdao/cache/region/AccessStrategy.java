@@ -0,0 +1,83 @@
+package org.genericspatialdao.cache.region;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * Invalidating access to a region: a write locks and removes its entry, and
+ * only committed inserts are cached directly
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+abstract class AccessStrategy {
+
+	private static final Logger LOG = Logger.getLogger(AccessStrategy.class);
+
+	private final BaseRegion region;
+
+	AccessStrategy(BaseRegion region) {
+		this.region = region;
+	}
+
+	static void checkAccessType(String regionName, AccessType accessType) {
+		if (accessType == AccessType.TRANSACTIONAL) {
+			String message = "Transactional access not supported by the spatial region factory: "
+					+ regionName;
+			LOG.error(message);
+			throw new CacheException(message);
+		}
+	}
+
+	BaseRegion region() {
+		return region;
+	}
+
+	public Object get(Object key, long txTimestamp) {
+		return region.get(key);
+	}
+
+	public boolean putFromLoad(Object key, Object value, long txTimestamp,
+			Object version) {
+		return region.putFromLoad(key, value, txTimestamp, false);
+	}
+
+	public boolean putFromLoad(Object key, Object value, long txTimestamp,
+			Object version, boolean minimalPutOverride) {
+		return region.putFromLoad(key, value, txTimestamp, minimalPutOverride);
+	}
+
+	public SoftLock lockItem(Object key, Object version) {
+		return region.lock(key);
+	}
+
+	public SoftLock lockRegion() {
+		return region.lockRegion();
+	}
+
+	public void unlockItem(Object key, SoftLock lock) {
+		region.unlock(key);
+	}
+
+	public void unlockRegion(SoftLock lock) {
+		region.unlockRegion();
+	}
+
+	public void remove(Object key) {
+		region.remove(key);
+	}
+
+	public void removeAll() {
+		region.clear();
+	}
+
+	public void evict(Object key) {
+		region.remove(key);
+	}
+
+	public void evictAll() {
+		region.clear();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,304 @@
+package org.genericspatialdao.cache.region;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.genericspatialdao.type.LazyGeometry;
+import org.genericspatialdao.util.SpatialUtils;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.cache.spi.entry.CacheEntry;
+import org.hibernate.cache.spi.entry.CollectionCacheEntry;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Storage of a region: entries in access order, evicted from the least
+ * recently used while the estimated size exceeds the bound, and the locks
+ * that keep loads started before a write from caching stale state
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+abstract class BaseRegion implements TransactionalDataRegion {
+
+	private static final long ENTRY_OVERHEAD = 64;
+	private static final long VALUE_SIZE = 24;
+	private static final long ARRAY_OVERHEAD = 16;
+
+	private final SpatialRegionFactory factory;
+	private final String name;
+	private final long maxBytes;
+	private final CacheDataDescription description;
+	private final LinkedHashMap<Object, Item> items = new LinkedHashMap<Object, Item>(
+			16, 0.75f, true);
+	private final Map<Object, Lock> locks = new HashMap<Object, Lock>();
+	private long bytes;
+	private int regionLocks;
+	private long regionUnlockTimestamp;
+
+	BaseRegion(SpatialRegionFactory factory, String name, long maxBytes,
+			CacheDataDescription description) {
+		this.factory = factory;
+		this.name = name;
+		this.maxBytes = maxBytes;
+		this.description = description;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean isTransactionAware() {
+		return false;
+	}
+
+	@Override
+	public CacheDataDescription getCacheDataDescription() {
+		return description;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		items.clear();
+		locks.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized boolean contains(Object key) {
+		return items.containsKey(key);
+	}
+
+	/**
+	 * 
+	 * @return estimated size of the entries
+	 */
+	@Override
+	public synchronized long getSizeInMemory() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized long getElementCountInMemory() {
+		return items.size();
+	}
+
+	@Override
+	public long getElementCountOnDisk() {
+		return 0;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public synchronized Map toMap() {
+		Map<Object, Object> map = new HashMap<Object, Object>();
+		for (Map.Entry<Object, Item> entry : items.entrySet()) {
+			map.put(entry.getKey(), entry.getValue().value);
+		}
+		return map;
+	}
+
+	@Override
+	public long nextTimestamp() {
+		return factory.nextTimestamp();
+	}
+
+	@Override
+	public int getTimeout() {
+		return factory.getTimeout();
+	}
+
+	synchronized Object get(Object key) {
+		Item item = items.get(key);
+		return item == null ? null : item.value;
+	}
+
+	/**
+	 * Cache state read from the database, unless a write locked the entry or
+	 * the region since the transaction of the reader started
+	 * 
+	 * @param key
+	 * @param value
+	 * @param txTimestamp
+	 *            start of the transaction of the reader
+	 * @param minimalPut
+	 *            true to skip entries already cached
+	 * @return true if the value was cached
+	 */
+	synchronized boolean putFromLoad(Object key, Object value,
+			long txTimestamp, boolean minimalPut) {
+		if (regionLocks > 0 || txTimestamp < regionUnlockTimestamp) {
+			return false;
+		}
+		Lock lock = locks.get(key);
+		if (lock != null && (lock.count > 0 || txTimestamp < lock.unlockTimestamp)) {
+			return false;
+		}
+		if (minimalPut && items.containsKey(key)) {
+			return false;
+		}
+		return put(key, value);
+	}
+
+	/**
+	 * Cache state written by a committed transaction, unless another writer
+	 * holds the entry
+	 * 
+	 * @param key
+	 * @param value
+	 * @return true if the value was cached
+	 */
+	synchronized boolean putAfterWrite(Object key, Object value) {
+		if (regionLocks > 0) {
+			return false;
+		}
+		Lock lock = locks.get(key);
+		if (lock != null && lock.count > 0) {
+			return false;
+		}
+		return put(key, value);
+	}
+
+	synchronized SoftLock lock(Object key) {
+		remove(key);
+		Lock lock = locks.get(key);
+		if (lock == null) {
+			lock = new Lock();
+			locks.put(key, lock);
+		}
+		lock.count++;
+		return lock;
+	}
+
+	synchronized void unlock(Object key) {
+		Lock lock = locks.get(key);
+		if (lock != null) {
+			lock.count = Math.max(0, lock.count - 1);
+			lock.unlockTimestamp = factory.nextTimestamp();
+		}
+		remove(key);
+		purgeLocks();
+	}
+
+	synchronized SoftLock lockRegion() {
+		regionLocks++;
+		clear();
+		return new Lock();
+	}
+
+	synchronized void unlockRegion() {
+		regionLocks = Math.max(0, regionLocks - 1);
+		regionUnlockTimestamp = factory.nextTimestamp();
+		clear();
+	}
+
+	synchronized void remove(Object key) {
+		Item item = items.remove(key);
+		if (item != null) {
+			bytes -= item.weight;
+		}
+	}
+
+	synchronized void clear() {
+		items.clear();
+		bytes = 0;
+	}
+
+	private boolean put(Object key, Object value) {
+		long weight = ENTRY_OVERHEAD + estimateSize(value);
+		if (weight > maxBytes) {
+			return false;
+		}
+		Item previous = items.put(key, new Item(value, weight));
+		if (previous != null) {
+			bytes -= previous.weight;
+		}
+		bytes += weight;
+		Iterator<Item> iterator = items.values().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= iterator.next().weight;
+			iterator.remove();
+		}
+		return true;
+	}
+
+	/**
+	 * Forget released locks older than the timeout: no transaction that
+	 * started before them is still loading
+	 */
+	private void purgeLocks() {
+		long expired = factory.nextTimestamp() - getTimeout();
+		Iterator<Lock> iterator = locks.values().iterator();
+		while (iterator.hasNext()) {
+			Lock lock = iterator.next();
+			if (lock.count == 0 && lock.unlockTimestamp < expired) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param value
+	 *            cached entity or collection state
+	 * @return rough heap size of the state, geometries weighed by their
+	 *         coordinates
+	 */
+	static long estimateSize(Object value) {
+		if (value instanceof CacheEntry) {
+			return estimateSize(((CacheEntry) value).getDisassembledState());
+		}
+		if (value instanceof CollectionCacheEntry) {
+			return estimateSize(((CollectionCacheEntry) value).getState());
+		}
+		if (value instanceof Object[]) {
+			Object[] values = (Object[]) value;
+			long size = ARRAY_OVERHEAD;
+			for (Object element : values) {
+				size += estimateSize(element);
+			}
+			return size;
+		}
+		if (value instanceof Geometry) {
+			return SpatialUtils.estimateSize((Geometry) value);
+		}
+		if (value instanceof LazyGeometry) {
+			LazyGeometry lazyGeometry = (LazyGeometry) value;
+			long size = VALUE_SIZE + lazyGeometry.getByteSize();
+			if (lazyGeometry.isDecoded()) {
+				size += SpatialUtils.estimateSize(lazyGeometry.getGeometry());
+			}
+			return size;
+		}
+		if (value instanceof byte[]) {
+			return ARRAY_OVERHEAD + ((byte[]) value).length;
+		}
+		if (value instanceof String) {
+			return VALUE_SIZE + ARRAY_OVERHEAD + 2L * ((String) value).length();
+		}
+		return VALUE_SIZE;
+	}
+
+	private static final class Item {
+
+		private final Object value;
+		private final long weight;
+
+		private Item(Object value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private static final class Lock implements SoftLock {
+
+		private int count;
+		private long unlockTimestamp;
+	}
+}
\ No newline at end of file
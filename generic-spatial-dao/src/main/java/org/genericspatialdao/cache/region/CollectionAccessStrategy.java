@@ -0,0 +1,22 @@
+package org.genericspatialdao.cache.region;
+
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+/**
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class CollectionAccessStrategy extends AccessStrategy implements
+		CollectionRegionAccessStrategy {
+
+	CollectionAccessStrategy(CollectionCacheRegion region) {
+		super(region);
+	}
+
+	@Override
+	public CollectionRegion getRegion() {
+		return (CollectionRegion) region();
+	}
+}
\ No newline at end of file
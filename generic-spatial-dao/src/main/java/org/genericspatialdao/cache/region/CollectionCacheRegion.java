@@ -0,0 +1,27 @@
+package org.genericspatialdao.cache.region;
+
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+/**
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class CollectionCacheRegion extends BaseRegion implements
+		CollectionRegion {
+
+	CollectionCacheRegion(SpatialRegionFactory factory, String name,
+			long maxBytes, CacheDataDescription description) {
+		super(factory, name, maxBytes, description);
+	}
+
+	@Override
+	public CollectionRegionAccessStrategy buildAccessStrategy(
+			AccessType accessType) {
+		AccessStrategy.checkAccessType(getName(), accessType);
+		return new CollectionAccessStrategy(this);
+	}
+}
\ No newline at end of file
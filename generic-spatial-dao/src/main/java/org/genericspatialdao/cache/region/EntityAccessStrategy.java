@@ -0,0 +1,49 @@
+package org.genericspatialdao.cache.region;
+
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class EntityAccessStrategy extends AccessStrategy implements
+		EntityRegionAccessStrategy {
+
+	EntityAccessStrategy(EntityCacheRegion region) {
+		super(region);
+	}
+
+	@Override
+	public EntityRegion getRegion() {
+		return (EntityRegion) region();
+	}
+
+	@Override
+	public boolean insert(Object key, Object value, Object version) {
+		// cached after commit, in afterInsert
+		return false;
+	}
+
+	@Override
+	public boolean afterInsert(Object key, Object value, Object version) {
+		return region().putAfterWrite(key, value);
+	}
+
+	@Override
+	public boolean update(Object key, Object value, Object currentVersion,
+			Object previousVersion) {
+		// the entry stays locked until afterUpdate
+		return false;
+	}
+
+	@Override
+	public boolean afterUpdate(Object key, Object value,
+			Object currentVersion, Object previousVersion, SoftLock lock) {
+		// invalidated: the next load caches the committed state
+		region().unlock(key);
+		return false;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+package org.genericspatialdao.cache.region;
+
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+
+/**
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class EntityCacheRegion extends BaseRegion implements EntityRegion {
+
+	EntityCacheRegion(SpatialRegionFactory factory, String name,
+			long maxBytes, CacheDataDescription description) {
+		super(factory, name, maxBytes, description);
+	}
+
+	@Override
+	public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) {
+		AccessStrategy.checkAccessType(getName(), accessType);
+		return new EntityAccessStrategy(this);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+package org.genericspatialdao.cache.region;
+
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cfg.Settings;
+
+/**
+ * In-process second-level cache for Hibernate. Each region is an LRU map
+ * bounded by the estimated size of its entries, geometries being weighed by
+ * their coordinates. Writes invalidate the cached entries instead of updating
+ * them, so read-write, nonstrict read-write and read-only access all behave
+ * the same way. Query and natural id caches are not supported; the DAOs have
+ * their own query result cache.
+ * 
+ * Enabled by {@link org.genericspatialdao.configuration.DaoConfiguration}
+ * addEntityCache, or with the hibernate.cache.region.factory_class property.
+ * Region bounds are read from {@link #MAX_BYTES_PREFIX} followed by the
+ * region name, or else from {@link #MAX_BYTES}
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public class SpatialRegionFactory implements RegionFactory {
+
+	public static final String MAX_BYTES = "genericspatialdao.cache.max_bytes";
+	public static final String MAX_BYTES_PREFIX = MAX_BYTES + ".";
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	// same resolution as the Hibernate timestamper: 4096 stamps per ms
+	private static final int TIMESTAMP_SHIFT = 12;
+	private static final String UNSUPPORTED = "Not supported by the spatial region factory: ";
+	private static final Logger LOG = Logger
+			.getLogger(SpatialRegionFactory.class);
+
+	private Properties properties = new Properties();
+	private long lastTimestamp;
+
+	public SpatialRegionFactory() {
+
+	}
+
+	public SpatialRegionFactory(Properties properties) {
+		this.properties = properties;
+	}
+
+	@Override
+	public void start(Settings settings, Properties properties) {
+		this.properties = properties;
+		LOG.debug("Starting spatial region factory");
+	}
+
+	@Override
+	public void stop() {
+		LOG.debug("Stopping spatial region factory");
+	}
+
+	@Override
+	public boolean isMinimalPutsEnabledByDefault() {
+		return false;
+	}
+
+	@Override
+	public AccessType getDefaultAccessType() {
+		return AccessType.READ_WRITE;
+	}
+
+	@Override
+	public synchronized long nextTimestamp() {
+		lastTimestamp = Math.max(
+				System.currentTimeMillis() << TIMESTAMP_SHIFT,
+				lastTimestamp + 1);
+		return lastTimestamp;
+	}
+
+	@Override
+	public EntityRegion buildEntityRegion(String regionName,
+			Properties properties, CacheDataDescription metadata) {
+		return new EntityCacheRegion(this, regionName, getMaxBytes(regionName),
+				metadata);
+	}
+
+	@Override
+	public CollectionRegion buildCollectionRegion(String regionName,
+			Properties properties, CacheDataDescription metadata) {
+		return new CollectionCacheRegion(this, regionName,
+				getMaxBytes(regionName), metadata);
+	}
+
+	@Override
+	public NaturalIdRegion buildNaturalIdRegion(String regionName,
+			Properties properties, CacheDataDescription metadata) {
+		throw unsupported("natural id cache " + regionName);
+	}
+
+	@Override
+	public QueryResultsRegion buildQueryResultsRegion(String regionName,
+			Properties properties) {
+		throw unsupported("query cache " + regionName);
+	}
+
+	@Override
+	public TimestampsRegion buildTimestampsRegion(String regionName,
+			Properties properties) {
+		throw unsupported("timestamps cache " + regionName);
+	}
+
+	/**
+	 * 
+	 * @return time a lock on an entry is remembered, in timestamps
+	 */
+	int getTimeout() {
+		// 60 seconds
+		return 60000 << TIMESTAMP_SHIFT;
+	}
+
+	private long getMaxBytes(String regionName) {
+		String value = properties.getProperty(MAX_BYTES_PREFIX + regionName,
+				properties.getProperty(MAX_BYTES));
+		long maxBytes = value == null ? DEFAULT_MAX_BYTES : Long
+				.parseLong(value.trim());
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Building cache region " + regionName + " of "
+					+ maxBytes + " bytes");
+		}
+		return maxBytes;
+	}
+
+	private static CacheException unsupported(String what) {
+		String message = UNSUPPORTED + what;
+		LOG.error(message);
+		return new CacheException(message);
+	}
+}
\ No newline at end of file
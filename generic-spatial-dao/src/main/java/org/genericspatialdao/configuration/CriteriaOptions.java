@@ -18,6 +18,11 @@ public class CriteriaOptions implements Serializable {
 	private Order[] orders;
 	private Integer firstResult;
 	private Integer maxResults;
+	private String profile;
+	private boolean parallelHydration;
+	private Integer twkbPrecision;
+	private Double resolution;
+	private boolean cacheable;
 
 	public CriteriaOptions(ResultTransformer resultTransformer) {
 		this(null, null, resultTransformer, (Order[]) null);
@@ -41,6 +46,18 @@ public class CriteriaOptions implements Serializable {
 		}
 	}
 
+	/**
+	 * 
+	 * @param profile
+	 *            name of a fetch profile registered in the DAO configuration
+	 * @return options selecting only the properties of the profile
+	 */
+	public static CriteriaOptions withProfile(String profile) {
+		CriteriaOptions criteriaOptions = new CriteriaOptions((Order[]) null);
+		criteriaOptions.setProfile(profile);
+		return criteriaOptions;
+	}
+
 	public ResultTransformer getResultTransformer() {
 		return resultTransformer;
 	}
@@ -78,10 +95,96 @@ public class CriteriaOptions implements Serializable {
 		this.maxResults = maxResults;
 	}
 
+	/**
+	 * 
+	 * @return name of the fetch profile. Results of a profile are partially
+	 *         populated entities not attached to the entity manager, unless a
+	 *         result transformer builds other objects
+	 */
+	public String getProfile() {
+		return profile;
+	}
+
+	public void setProfile(String profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * 
+	 * @return true if rows are read by the caller thread and their lazy
+	 *         geometries decoded by the shared worker pool, in ordered chunks.
+	 *         Only applies when no projection is given. Result transformers
+	 *         are applied row by row, so list level transformers such as
+	 *         distinct root entity have no effect in this mode. Entities
+	 *         without lazy geometries have nothing to decode in parallel, so
+	 *         the DAO rejects the option for them
+	 */
+	public boolean isParallelHydration() {
+		return parallelHydration;
+	}
+
+	public void setParallelHydration(boolean parallelHydration) {
+		this.parallelHydration = parallelHydration;
+	}
+
+	/**
+	 * 
+	 * @return number of decimal places of the geometries fetched as TWKB
+	 *         (ST_AsTWKB), or null to fetch them as EWKB. Like fetch profiles,
+	 *         TWKB results are entities not attached to the entity manager,
+	 *         holding the profile properties or else all non association
+	 *         properties. Only applies when no projection is given
+	 */
+	public Integer getTwkbPrecision() {
+		return twkbPrecision;
+	}
+
+	/**
+	 * 
+	 * @param twkbPrecision
+	 *            from -7 to 7. Negative values round to tens, hundreds...
+	 */
+	public void setTwkbPrecision(Integer twkbPrecision) {
+		this.twkbPrecision = twkbPrecision;
+	}
+
+	/**
+	 * 
+	 * @return size of a pixel in the units of the geometries, or null for
+	 *         full detail. Geometries with levels of detail are read from the
+	 *         coarsest level whose tolerance does not exceed it. Like fetch
+	 *         profiles, results are entities not attached to the entity
+	 *         manager
+	 */
+	public Double getResolution() {
+		return resolution;
+	}
+
+	public void setResolution(Double resolution) {
+		this.resolution = resolution;
+	}
+
+	/**
+	 * 
+	 * @return true if the results may be served by the query result cache of
+	 *         the configuration. Conditions and projection are told apart by
+	 *         their text, so they must print their values, as the Hibernate
+	 *         restrictions do
+	 */
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
+	public void setCacheable(boolean cacheable) {
+		this.cacheable = cacheable;
+	}
+
 	@Override
 	public int hashCode() {
 		return new HashCodeBuilder().append(resultTransformer).append(orders)
-				.append(firstResult).append(maxResults).toHashCode();
+				.append(firstResult).append(maxResults).append(profile)
+				.append(parallelHydration).append(twkbPrecision)
+				.append(resolution).append(cacheable).toHashCode();
 	}
 
 	@Override
@@ -97,7 +200,12 @@ public class CriteriaOptions implements Serializable {
 				.append(resultTransformer, other.getResultTransformer())
 				.append(orders, other.getOrders())
 				.append(firstResult, other.getFirstResult())
-				.append(maxResults, other.getMaxResults()).isEquals();
+				.append(maxResults, other.getMaxResults())
+				.append(profile, other.getProfile())
+				.append(parallelHydration, other.isParallelHydration())
+				.append(twkbPrecision, other.getTwkbPrecision())
+				.append(resolution, other.getResolution())
+				.append(cacheable, other.isCacheable()).isEquals();
 	}
 
 	@Override
@@ -106,6 +214,10 @@ public class CriteriaOptions implements Serializable {
 				.append("resultTransformer", resultTransformer)
 				.append("orders", Arrays.toString(orders))
 				.append("firstResult", firstResult)
-				.append("maxResults", maxResults).toString();
+				.append("maxResults", maxResults).append("profile", profile)
+				.append("parallelHydration", parallelHydration)
+				.append("twkbPrecision", twkbPrecision)
+				.append("resolution", resolution)
+				.append("cacheable", cacheable).toString();
 	}
 }
\ No newline at end of file
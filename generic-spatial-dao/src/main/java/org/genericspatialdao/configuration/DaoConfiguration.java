@@ -1,6 +1,7 @@
 package org.genericspatialdao.configuration;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -8,14 +9,45 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.log4j.Logger;
+import org.genericspatialdao.cache.region.SpatialRegionFactory;
+import org.genericspatialdao.exception.DaoException;
 
+/**
+ * Settings shared by the DAOs of a persistence unit. Services keep their
+ * entity manager factories, entity managers and caches by configuration, so
+ * a configuration becomes read-only once a service uses it
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
 public class DaoConfiguration implements Serializable {
 
 	private static final long serialVersionUID = 689563783546032476L;
+	private static final Logger LOG = Logger.getLogger(DaoConfiguration.class);
+
+	public static final double DEFAULT_SPATIAL_CACHE_CELL_SIZE = 0.1;
+	public static final long DEFAULT_QUERY_CACHE_TTL_MILLIS = 60000;
+	public static final long DEFAULT_CACHE_NOTIFICATION_POLL_MILLIS = 500;
+
+	private static final String USE_SECOND_LEVEL_CACHE = "hibernate.cache.use_second_level_cache";
+	private static final String REGION_FACTORY = "hibernate.cache.region.factory_class";
+	private static final String CLASS_CACHE_PREFIX = "hibernate.ejb.classcache.";
+	private static final String READ_WRITE = "read-write";
+	private static final String CONFIGURATION_IN_USE = "Configuration already in use, create a new one to change it: ";
 
 	private String persistenceUnit;
 	private Map<String, String> properties;
 	private boolean autoTransaction;
+	private boolean packedCoordinates;
+	private Map<String, String[]> fetchProfiles = new HashMap<String, String[]>();
+	private long spatialCacheMaxBytes;
+	private double spatialCacheCellSize = DEFAULT_SPATIAL_CACHE_CELL_SIZE;
+	private int queryCacheMaxEntries;
+	private long queryCacheTtlMillis = DEFAULT_QUERY_CACHE_TTL_MILLIS;
+	private String cacheNotificationChannel;
+	private long cacheNotificationPollMillis = DEFAULT_CACHE_NOTIFICATION_POLL_MILLIS;
+	private transient volatile boolean locked;
 
 	public DaoConfiguration(String persistenceUnit) {
 		this(persistenceUnit, null);
@@ -34,6 +66,7 @@ public class DaoConfiguration implements Serializable {
 	}
 
 	public void addProperty(String key, String value) {
+		checkUnlocked();
 		if (properties == null) {
 			properties = new HashMap<String, String>();
 		}
@@ -52,14 +85,23 @@ public class DaoConfiguration implements Serializable {
 	}
 
 	public void setPersistenceUnit(String persistenceUnit) {
+		checkUnlocked();
 		this.persistenceUnit = persistenceUnit;
 	}
 
+	/**
+	 * 
+	 * @return the properties, read-only once the configuration is in use
+	 */
 	public Map<String, String> getProperties() {
+		if (locked && properties != null) {
+			return Collections.unmodifiableMap(properties);
+		}
 		return properties;
 	}
 
 	public void setProperties(Map<String, String> properties) {
+		checkUnlocked();
 		this.properties = properties;
 	}
 
@@ -68,13 +110,191 @@ public class DaoConfiguration implements Serializable {
 	}
 
 	public void setAutoTransaction(boolean autoTransaction) {
+		checkUnlocked();
 		this.autoTransaction = autoTransaction;
 	}
 
+	/**
+	 * 
+	 * @return true if geometries loaded by DAOs are converted to packed
+	 *         coordinate sequences
+	 */
+	public boolean isPackedCoordinates() {
+		return packedCoordinates;
+	}
+
+	public void setPackedCoordinates(boolean packedCoordinates) {
+		checkUnlocked();
+		this.packedCoordinates = packedCoordinates;
+	}
+
+	/**
+	 * Register a named set of properties to be selected by queries using
+	 * {@link CriteriaOptions#withProfile(String)}. Columns of properties out
+	 * of the profile, geometries included, are not transferred
+	 * 
+	 * @param name
+	 * @param properties
+	 *            simple property names of the entity
+	 */
+	public void addFetchProfile(String name, String... properties) {
+		checkUnlocked();
+		fetchProfiles.put(name, properties.clone());
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @return properties of a fetch profile or null if it is not registered
+	 */
+	public String[] getFetchProfile(String name) {
+		String[] properties = fetchProfiles.get(name);
+		if (properties == null) {
+			return null;
+		}
+		return properties.clone();
+	}
+
+	/**
+	 * Keep the entities of a class in the in-process second-level cache of
+	 * the entity manager factory, so find by id is served from memory across
+	 * threads. The cache is bounded by the estimated size of the entities,
+	 * geometries being weighed by their coordinates. Being stored in the
+	 * properties, it must be set before the configuration is in use
+	 * 
+	 * @param entityClass
+	 * @param maxBytes
+	 *            bound of the region of the class
+	 * @see SpatialRegionFactory
+	 */
+	public void addEntityCache(Class<?> entityClass, long maxBytes) {
+		checkUnlocked();
+		addProperty(USE_SECOND_LEVEL_CACHE, Boolean.TRUE.toString());
+		addProperty(REGION_FACTORY, SpatialRegionFactory.class.getName());
+		addProperty(CLASS_CACHE_PREFIX + entityClass.getName(), READ_WRITE);
+		addProperty(SpatialRegionFactory.MAX_BYTES_PREFIX
+				+ entityClass.getName(), String.valueOf(maxBytes));
+	}
+
+	/**
+	 * 
+	 * @return bound, in estimated bytes, of the results kept by the spatial
+	 *         result cache used by findByEnvelope. 0 disables the cache
+	 */
+	public long getSpatialCacheMaxBytes() {
+		return spatialCacheMaxBytes;
+	}
+
+	public void setSpatialCacheMaxBytes(long spatialCacheMaxBytes) {
+		checkUnlocked();
+		this.spatialCacheMaxBytes = spatialCacheMaxBytes;
+	}
+
+	/**
+	 * 
+	 * @return side of the grid cells of the spatial result cache, in the
+	 *         units of the geometries
+	 */
+	public double getSpatialCacheCellSize() {
+		return spatialCacheCellSize;
+	}
+
+	public void setSpatialCacheCellSize(double spatialCacheCellSize) {
+		checkUnlocked();
+		this.spatialCacheCellSize = spatialCacheCellSize;
+	}
+
+	/**
+	 * 
+	 * @return number of results kept by the query result cache used by
+	 *         executeHQL and by cacheable criteria queries. 0 disables the
+	 *         cache. Managed entities are kept by id and loaded again through
+	 *         the session on each hit; other values are shared between hits
+	 *         and must not be modified
+	 */
+	public int getQueryCacheMaxEntries() {
+		return queryCacheMaxEntries;
+	}
+
+	public void setQueryCacheMaxEntries(int queryCacheMaxEntries) {
+		checkUnlocked();
+		this.queryCacheMaxEntries = queryCacheMaxEntries;
+	}
+
+	/**
+	 * 
+	 * @return time a cached query result is served, bounding how stale it
+	 *         can be after writes made outside the DAO
+	 */
+	public long getQueryCacheTtlMillis() {
+		return queryCacheTtlMillis;
+	}
+
+	public void setQueryCacheTtlMillis(long queryCacheTtlMillis) {
+		checkUnlocked();
+		this.queryCacheTtlMillis = queryCacheTtlMillis;
+	}
+
+	/**
+	 * 
+	 * @return PostgreSQL channel where DAO writes are announced with NOTIFY,
+	 *         and listened to invalidate the caches of this process, or null
+	 *         to keep caches local
+	 */
+	public String getCacheNotificationChannel() {
+		return cacheNotificationChannel;
+	}
+
+	/**
+	 * 
+	 * @param cacheNotificationChannel
+	 *            a SQL identifier
+	 */
+	public void setCacheNotificationChannel(String cacheNotificationChannel) {
+		checkUnlocked();
+		this.cacheNotificationChannel = cacheNotificationChannel;
+	}
+
+	/**
+	 * 
+	 * @return interval between two reads of the notifications
+	 */
+	public long getCacheNotificationPollMillis() {
+		return cacheNotificationPollMillis;
+	}
+
+	public void setCacheNotificationPollMillis(long cacheNotificationPollMillis) {
+		checkUnlocked();
+		this.cacheNotificationPollMillis = cacheNotificationPollMillis;
+	}
+
+	/**
+	 * Make the configuration read-only. Called by the services keeping state
+	 * by configuration, since a change would alter its hash code
+	 */
+	public void lock() {
+		locked = true;
+	}
+
+	public boolean isLocked() {
+		return locked;
+	}
+
+	private void checkUnlocked() {
+		if (locked) {
+			String message = CONFIGURATION_IN_USE + this;
+			LOG.error(message);
+			throw new DaoException(message);
+		}
+	}
+
 	@Override
 	public int hashCode() {
 		return new HashCodeBuilder().append(persistenceUnit).append(properties)
-				.append(autoTransaction).toHashCode();
+				.append(autoTransaction).append(spatialCacheMaxBytes)
+				.append(spatialCacheCellSize).append(queryCacheMaxEntries)
+				.append(queryCacheTtlMillis).append(cacheNotificationChannel)
+				.append(cacheNotificationPollMillis).toHashCode();
 	}
 
 	@Override
@@ -88,7 +308,16 @@ public class DaoConfiguration implements Serializable {
 		DaoConfiguration other = (DaoConfiguration) obj;
 		return new EqualsBuilder()
 				.append(persistenceUnit, other.getPersistenceUnit())
-				.append(properties, other.getProperties()).isEquals();
+				.append(properties, other.properties)
+				.append(autoTransaction, other.isAutoTransaction())
+				.append(spatialCacheMaxBytes, other.getSpatialCacheMaxBytes())
+				.append(spatialCacheCellSize, other.getSpatialCacheCellSize())
+				.append(queryCacheMaxEntries, other.getQueryCacheMaxEntries())
+				.append(queryCacheTtlMillis, other.getQueryCacheTtlMillis())
+				.append(cacheNotificationChannel,
+						other.getCacheNotificationChannel())
+				.append(cacheNotificationPollMillis,
+						other.getCacheNotificationPollMillis()).isEquals();
 	}
 
 	@Override
@@ -96,6 +325,15 @@ public class DaoConfiguration implements Serializable {
 		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
 				.append("persistenceUnit", persistenceUnit)
 				.append("properties", properties)
-				.append("autoTransaction", autoTransaction).toString();
+				.append("autoTransaction", autoTransaction)
+				.append("packedCoordinates", packedCoordinates)
+				.append("fetchProfiles", fetchProfiles.keySet())
+				.append("spatialCacheMaxBytes", spatialCacheMaxBytes)
+				.append("spatialCacheCellSize", spatialCacheCellSize)
+				.append("queryCacheMaxEntries", queryCacheMaxEntries)
+				.append("queryCacheTtlMillis", queryCacheTtlMillis)
+				.append("cacheNotificationChannel", cacheNotificationChannel)
+				.append("cacheNotificationPollMillis",
+						cacheNotificationPollMillis).toString();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+package org.genericspatialdao.configuration;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Content of the vector tiles generated by a DAO: the geometry property, the
+ * properties written as feature attributes and the tile grid parameters
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public class TileSpec implements Serializable {
+
+	private static final long serialVersionUID = -4870393328573619021L;
+
+	public static final int DEFAULT_EXTENT = 4096;
+	public static final int DEFAULT_BUFFER = 64;
+	public static final int DEFAULT_SRID = 4326;
+
+	private String geometryProperty;
+	private String layerName;
+	private String[] properties;
+	private int srid = DEFAULT_SRID;
+	private int extent = DEFAULT_EXTENT;
+	private int buffer = DEFAULT_BUFFER;
+	private boolean clip = true;
+	private boolean serverSide = true;
+
+	/**
+	 * 
+	 * @param geometryProperty
+	 *            geometry property of the features
+	 * @param properties
+	 *            properties written as feature attributes
+	 */
+	public TileSpec(String geometryProperty, String... properties) {
+		this.geometryProperty = geometryProperty;
+		setProperties(properties);
+	}
+
+	public String getGeometryProperty() {
+		return geometryProperty;
+	}
+
+	public void setGeometryProperty(String geometryProperty) {
+		this.geometryProperty = geometryProperty;
+	}
+
+	/**
+	 * 
+	 * @return name of the tile layer. Defaults to the simple name of the
+	 *         entity
+	 */
+	public String getLayerName() {
+		return layerName;
+	}
+
+	public void setLayerName(String layerName) {
+		this.layerName = layerName;
+	}
+
+	public String[] getProperties() {
+		return properties.clone();
+	}
+
+	public void setProperties(String[] properties) {
+		this.properties = properties == null ? new String[0] : properties
+				.clone();
+	}
+
+	/**
+	 * 
+	 * @return SRID of the stored geometries. Tiles are always in web mercator
+	 *         (EPSG:3857)
+	 */
+	public int getSrid() {
+		return srid;
+	}
+
+	public void setSrid(int srid) {
+		this.srid = srid;
+	}
+
+	/**
+	 * 
+	 * @return tile size in integer tile coordinates
+	 */
+	public int getExtent() {
+		return extent;
+	}
+
+	public void setExtent(int extent) {
+		this.extent = extent;
+	}
+
+	/**
+	 * 
+	 * @return margin kept around the tile when clipping, in tile coordinates
+	 */
+	public int getBuffer() {
+		return buffer;
+	}
+
+	public void setBuffer(int buffer) {
+		this.buffer = buffer;
+	}
+
+	public boolean isClip() {
+		return clip;
+	}
+
+	public void setClip(boolean clip) {
+		this.clip = clip;
+	}
+
+	/**
+	 * 
+	 * @return true to build the tile in the database with ST_AsMVT (PostGIS
+	 *         2.4+), false to encode it in Java from the query results
+	 */
+	public boolean isServerSide() {
+		return serverSide;
+	}
+
+	public void setServerSide(boolean serverSide) {
+		this.serverSide = serverSide;
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder().append(geometryProperty)
+				.append(layerName).append(properties).append(srid)
+				.append(extent).append(buffer).append(clip).append(serverSide)
+				.toHashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TileSpec)) {
+			return false;
+		}
+		TileSpec other = (TileSpec) obj;
+		return new EqualsBuilder()
+				.append(geometryProperty, other.getGeometryProperty())
+				.append(layerName, other.getLayerName())
+				.append(properties, other.getProperties())
+				.append(srid, other.getSrid())
+				.append(extent, other.getExtent())
+				.append(buffer, other.getBuffer())
+				.append(clip, other.isClip())
+				.append(serverSide, other.isServerSide()).isEquals();
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+				.append("geometryProperty", geometryProperty)
+				.append("layerName", layerName)
+				.append("properties", Arrays.toString(properties))
+				.append("srid", srid).append("extent", extent)
+				.append("buffer", buffer).append("clip", clip)
+				.append("serverSide", serverSide).toString();
+	}
+}
\ No newline at end of file
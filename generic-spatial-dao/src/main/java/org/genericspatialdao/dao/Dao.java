@@ -1,15 +1,23 @@
 package org.genericspatialdao.dao;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
 
 import org.genericspatialdao.configuration.CriteriaOptions;
+import org.genericspatialdao.configuration.TileSpec;
+import org.genericspatialdao.result.ColumnarResult;
+import org.genericspatialdao.result.PointColumns;
+import org.genericspatialdao.util.SpatialRelation;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Projection;
 
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
 /**
  * 
  * @author Joao Savio C. Longo - joaosavio@gmail.com
@@ -134,8 +142,88 @@ public interface Dao<T> {
 	List<?> findByCriteria(List<Criterion> list, Projection projection,
 			CriteriaOptions criteriaOptions);
 
+	/**
+	 * Stream the results of a criteria query without keeping them in memory.
+	 * Entities are detached once the handler returns each chunk. When no
+	 * transaction is active the scroll runs in a read-only transaction of its
+	 * own, so the driver honours the fetch size instead of buffering every
+	 * row, and the handler must not commit through this DAO
+	 * 
+	 * @param list
+	 * @param criteriaOptions
+	 *            options of the query. With parallel hydration lazy geometries
+	 *            are decoded by worker threads before reaching the handler.
+	 *            Entities without lazy geometries reject parallel hydration
+	 * @param handler
+	 * @return number of results
+	 */
+	long streamByCriteria(List<Criterion> list,
+			CriteriaOptions criteriaOptions, ResultHandler<T> handler);
+
+	/**
+	 * Find the entities whose geometry envelope intersects an envelope. When
+	 * the configuration enables the spatial result cache, results are kept by
+	 * grid cell and reused by later queries covering the same cells; the
+	 * returned entities are then detached and shared, and must be treated as
+	 * read only
+	 * 
+	 * @param geometryProperty
+	 * @param envelope
+	 * @param srid
+	 *            SRID of the envelope
+	 * @param list
+	 *            other conditions, may be null. Their text identifies the
+	 *            cached results
+	 * @return entities intersecting the envelope
+	 */
+	List<T> findByEnvelope(String geometryProperty, Envelope envelope,
+			int srid, List<Criterion> list);
+
+	/**
+	 * Find the entities whose geometry satisfies a relation with a shape. Only
+	 * the bounding box filter (&&) runs in the database; the candidates are
+	 * refined in Java by the shared worker pool, against prepared copies of
+	 * the shape kept for the next queries. Use it with large shapes, to move
+	 * the exact test off the database
+	 * 
+	 * @param geometryProperty
+	 * @param shape
+	 *            query shape, with the SRID of the property
+	 * @param relation
+	 * @param list
+	 *            other conditions, may be null
+	 * @return entities satisfying the relation, in query order
+	 */
+	List<T> findByGeometry(String geometryProperty, Geometry shape,
+			SpatialRelation relation, List<Criterion> list);
+
 	T findUniqueByCriteria(List<Criterion> list);
 
+	/**
+	 * Select only the coordinates of a point property, and the id when it is
+	 * numeric, filling primitive arrays. No entity, geometry or coordinate
+	 * object is created
+	 * 
+	 * @param pointProperty
+	 * @param list
+	 *            conditions, may be null
+	 * @return coordinates of the rows with a non null point
+	 */
+	PointColumns projectCoordinates(String pointProperty, List<Criterion> list);
+
+	/**
+	 * Build a Mapbox Vector Tile with the entities intersecting a web mercator
+	 * tile
+	 * 
+	 * @param z
+	 * @param x
+	 * @param y
+	 *            row, counted from the north
+	 * @param tileSpec
+	 * @return the tile protobuf, empty if no feature intersects it
+	 */
+	byte[] tile(int z, int x, int y, TileSpec tileSpec);
+
 	@SuppressWarnings("rawtypes")
 	List executeHQL(String hql);
 
@@ -147,6 +235,28 @@ public interface Dao<T> {
 	@SuppressWarnings("rawtypes")
 	List executeSQL(String sql);
 
+	/**
+	 * Execute a native query writing the rows, column by column, into direct
+	 * buffers. When no transaction is active the query runs in a read-only
+	 * transaction of its own, so rows are fetched in batches
+	 * 
+	 * @param sql
+	 * @return columnar result, to be closed after use
+	 */
+	ColumnarResult executeSQLColumnar(String sql);
+
+	/**
+	 * Execute a native query writing the rows, column by column, into files
+	 * mapped in memory
+	 * 
+	 * @param sql
+	 * @param directory
+	 *            existing directory receiving one scratch file per column,
+	 *            deleted if the query fails
+	 * @return columnar result, to be closed after use
+	 */
+	ColumnarResult executeSQLColumnar(String sql, File directory);
+
 	int executeSQLUpdate(String sql);
 
 	void removeAll();
@@ -0,0 +1,21 @@
+package org.genericspatialdao.dao;
+
+import java.util.List;
+
+/**
+ * Receives the results of a streamed query, chunk by chunk and in query
+ * order
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public interface ResultHandler<T> {
+
+	/**
+	 * 
+	 * @param chunk
+	 *            next results. Entities are detached from the entity manager
+	 *            after this method returns
+	 */
+	void handle(List<T> chunk);
+}
\ No newline at end of file
@@ -1,27 +1,83 @@
 package org.genericspatialdao.dao.impl;
 
+import java.io.File;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.transaction.Synchronization;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.log4j.Logger;
+import org.genericspatialdao.cache.CacheEvent;
+import org.genericspatialdao.cache.CellKey;
+import org.genericspatialdao.cache.EntityRef;
+import org.genericspatialdao.cache.QueryKey;
+import org.genericspatialdao.cache.QueryResultCache;
+import org.genericspatialdao.cache.SpatialResultCache;
 import org.genericspatialdao.configuration.CriteriaOptions;
 import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.configuration.TileSpec;
 import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.dao.ResultHandler;
 import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.result.ColumnarResult;
+import org.genericspatialdao.result.PointColumns;
+import org.genericspatialdao.service.CacheNotificationService;
 import org.genericspatialdao.service.EntityManagerService;
+import org.genericspatialdao.service.SpatialCacheService;
+import org.genericspatialdao.type.LazyGeometry;
+import org.genericspatialdao.util.MVTEncoder;
+import org.genericspatialdao.util.ParallelUtils;
+import org.genericspatialdao.util.ParallelUtils.ChunkTask;
+import org.genericspatialdao.util.SpatialRelation;
+import org.genericspatialdao.util.SpatialUtils;
+import org.genericspatialdao.util.TileUtils;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projection;
+import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.RowSelection;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.jdbc.Work;
+import org.hibernate.loader.criteria.CriteriaQueryTranslator;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.spatial.criterion.SpatialRestrictions;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.transform.Transformers;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 
 /**
  * 
@@ -49,10 +105,24 @@ public class GenericSpatialDao<T> implements Dao<T> {
 	private static final String ERROR = "Error: ";
 	private static final String RESULT = "Result: ";
 	private static final String EMPTY_LIST = "Empty list";
+	private static final String UNKNOWN_FETCH_PROFILE = "Unknown fetch profile: ";
+	private static final String NOT_A_GEOMETRY_PROPERTY = "Not a geometry property: ";
+	private static final String PARALLEL_HYDRATION_WITHOUT_LAZY_GEOMETRIES = "Parallel hydration needs lazy geometries, none mapped in ";
+	private static final String INVALID_TWKB_PRECISION = "TWKB precision must be between -7 and 7: ";
+	private static final int SCROLL_FETCH_SIZE = 10000;
+	private static final int HYDRATION_CHUNK_SIZE = 1000;
+	private static final int CACHED_LOAD_BATCH_SIZE = 1000;
+	private static final int MIN_TWKB_PRECISION = -7;
+	private static final int MAX_TWKB_PRECISION = 7;
+	// larger envelopes are queried directly instead of cell by cell
+	private static final int MAX_CACHED_CELLS = 64;
+	private static final int REFINEMENT_CHUNK_SIZE = 256;
 	private static final Logger LOG = Logger.getLogger(GenericSpatialDao.class);
 
 	private final Class<T> entityClass;
 	private final DaoConfiguration configuration;
+	private volatile SpatialMetadata spatialMetadata;
+	private volatile SubdivisionTables subdivisionTables;
 
 	public GenericSpatialDao(Class<T> entityClass,
 			DaoConfiguration configuration) {
@@ -65,7 +135,7 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		if (LOG.isInfoEnabled()) {
 			LOG.info(FINDING + entityClass.getName() + OBJECT_BY_ID + id);
 		}
-		T t = getEntityManager().find(entityClass, id);
+		T t = postLoad(getEntityManager().find(entityClass, id));
 		if (LOG.isDebugEnabled()) {
 			LOG.debug(RESULT + t);
 		}
@@ -80,7 +150,7 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		}
 		List<T> resultList = new ArrayList<T>();
 		for (Object idEntity : id) {
-			T result = getEntityManager().find(entityClass, idEntity);
+			T result = postLoad(getEntityManager().find(entityClass, idEntity));
 			if (result != null) {
 				resultList.add(result);
 			}
@@ -97,7 +167,7 @@ public class GenericSpatialDao<T> implements Dao<T> {
 			LOG.info(FINDING + entityClass.getSimpleName() + OBJECT_BY_ID + id
 					+ " and properties: " + properties);
 		}
-		T t = getEntityManager().find(entityClass, id, properties);
+		T t = postLoad(getEntityManager().find(entityClass, id, properties));
 		if (LOG.isDebugEnabled()) {
 			LOG.debug(RESULT + t);
 		}
@@ -129,16 +199,24 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		if (isEmpty(list)) {
 			return;
 		}
+		CacheEvent event;
 		try {
+			computeLevelsOfDetail(list);
 			autoBeginTransaction();
 			for (T entity : list) {
 				persist(entity);
 			}
+			SubdivisionTables tables = getSubdivisionTables();
+			if (tables != null) {
+				tables.write(getSession(), list);
+			}
+			event = publishWrites(list);
 			autoCommit();
 		} catch (Exception e) {
 			autoRollback();
 			throw new DaoException(e);
 		}
+		invalidateOnCompletion(event);
 	}
 
 	protected void persist(T t) {
@@ -165,16 +243,23 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		if (isEmpty(list)) {
 			return;
 		}
+		CacheEvent event;
 		try {
 			autoBeginTransaction();
 			for (T entity : list) {
 				remove(entity);
 			}
+			SubdivisionTables tables = getSubdivisionTables();
+			if (tables != null) {
+				tables.remove(getSession(), list);
+			}
+			event = publishWrites(list);
 			autoCommit();
 		} catch (Exception e) {
 			autoRollback();
 			throw new DaoException(e);
 		}
+		invalidateOnCompletion(event);
 	}
 
 	protected void remove(T t) {
@@ -201,24 +286,38 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		if (isEmpty(list)) {
 			return;
 		}
+		CacheEvent event;
 		try {
+			computeLevelsOfDetail(list);
 			autoBeginTransaction();
+			List<T> merged = new ArrayList<T>(list.size());
 			for (T entity : list) {
-				merge(entity);
+				merged.add(merge(entity));
 			}
+			SubdivisionTables tables = getSubdivisionTables();
+			if (tables != null) {
+				tables.write(getSession(), merged);
+			}
+			event = publishWrites(merged);
 			autoCommit();
 		} catch (Exception e) {
 			autoRollback();
 			throw new DaoException(e);
 		}
+		invalidateOnCompletion(event);
 	}
 
-	protected void merge(T t) {
+	/**
+	 * 
+	 * @param t
+	 * @return the managed instance
+	 */
+	protected T merge(T t) {
 		if (LOG.isInfoEnabled()) {
 			LOG.info(MERGING_OBJECT + t);
 		}
 		try {
-			getEntityManager().merge(t);
+			return getEntityManager().merge(t);
 		} catch (Exception e) {
 			String message = FAILED_TO_MERGE + e.getMessage() + CAUSE
 					+ e.getCause();
@@ -302,12 +401,48 @@ public class GenericSpatialDao<T> implements Dao<T> {
 					+ ". Projection: " + projection + ". Options: "
 					+ criteriaOptions);
 		}
+		if (projection == null) {
+			checkParallelHydration(criteriaOptions);
+		}
 		try {
 			Criteria criteria = getSession().createCriteria(entityClass);
-			fillCriteria(criteria, list, projection, criteriaOptions);
+			fillCriteria(criteria, rewriteSubdivided(list), projection,
+					criteriaOptions);
 
-			List<?> result = criteria.list();
+			QueryResultCache cache = null;
+			CriteriaQueryTranslator translator = null;
+			QueryKey key = null;
+			long stamp = 0;
+			if (criteriaOptions != null && criteriaOptions.isCacheable()) {
+				cache = SpatialCacheService.getQueryCache(configuration);
+			}
+			if (cache != null) {
+				translator = translate(criteria);
+				// the transformer is compared with equals, TWKB is decoded
+				// after the query
+				key = criteriaKey(criteria, translator,
+						criteriaOptions.getResultTransformer(),
+						criteriaOptions.getTwkbPrecision());
+				List<?> cached = getCachedResult(cache, key);
+				if (cached != null) {
+					return postLoad(cached);
+				}
+				stamp = cache.nextStamp();
+			}
+
+			List<?> result;
+			if (projection == null && criteriaOptions != null
+					&& criteriaOptions.isParallelHydration()) {
+				result = postLoad(hydrateAll(criteria));
+			} else {
+				result = postLoad(criteria.list());
+			}
 
+			if (cache != null) {
+				// joined entities are written to tables of their own
+				putCachedResult(cache, key, result,
+						getQuerySpaces(translator), stamp);
+			}
 			if (LOG.isDebugEnabled()) {
 				LOG.debug(RESULT + result);
 			}
@@ -319,6 +454,669 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		}
 	}
 
+	/**
+	 * Scroll a criteria query, decoding lazy geometries in parallel
+	 * 
+	 * @param criteria
+	 * @return all results, in query order
+	 */
+	private List<T> hydrateAll(Criteria criteria) {
+		final List<T> result = new ArrayList<T>();
+		ScrollableResults results = null;
+		boolean transaction = beginScroll();
+		try {
+			criteria.setFetchSize(SCROLL_FETCH_SIZE);
+			results = criteria.scroll(ScrollMode.FORWARD_ONLY);
+			new ParallelHydrator<T>(getSpatialMetadata(), HYDRATION_CHUNK_SIZE,
+					true).hydrate(results, new ResultHandler<T>() {
+				@Override
+				public void handle(List<T> chunk) {
+					result.addAll(chunk);
+				}
+			});
+			return result;
+		} finally {
+			if (results != null) {
+				results.close();
+			}
+			endScroll(transaction);
+		}
+	}
+
+	@Override
+	public long streamByCriteria(List<Criterion> list,
+			CriteriaOptions criteriaOptions, final ResultHandler<T> handler) {
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Streaming by criteria. Conditions: " + list
+					+ ". Options: " + criteriaOptions);
+		}
+		checkParallelHydration(criteriaOptions);
+		ScrollableResults results = null;
+		boolean transaction = beginScroll();
+		try {
+			final Session session = getSession();
+			Criteria criteria = session.createCriteria(entityClass);
+			fillCriteria(criteria, rewriteSubdivided(list), null,
+					criteriaOptions);
+			// streamed entities are evicted, there is nothing to flush
+			criteria.setReadOnly(true);
+			criteria.setFetchSize(SCROLL_FETCH_SIZE);
+			results = criteria.scroll(ScrollMode.FORWARD_ONLY);
+
+			boolean parallel = criteriaOptions != null
+					&& criteriaOptions.isParallelHydration();
+			long count = new ParallelHydrator<T>(getSpatialMetadata(),
+					HYDRATION_CHUNK_SIZE, parallel).hydrate(results,
+					new ResultHandler<T>() {
+						@Override
+						public void handle(List<T> chunk) {
+							postLoad(chunk);
+							handler.handle(chunk);
+							for (T t : chunk) {
+								if (t != null && session.contains(t)) {
+									session.evict(t);
+								}
+							}
+						}
+					});
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Streamed " + count + " results");
+			}
+			return count;
+		} catch (Exception e) {
+			String message = ERROR + e.getMessage() + CAUSE + e.getCause();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		} finally {
+			if (results != null) {
+				results.close();
+			}
+			endScroll(transaction);
+		}
+	}
+
+	/**
+	 * Begin a transaction for a scrolled query if auto transaction is on and
+	 * none is active. The PostgreSQL driver ignores the fetch size in
+	 * auto-commit mode and reads the whole result at once
+	 * 
+	 * @return true if the transaction was begun here, to be ended by
+	 *         {@link #endScroll(boolean)}
+	 */
+	private boolean beginScroll() {
+		EntityTransaction transaction = getEntityManager().getTransaction();
+		if (!configuration.isAutoTransaction() || transaction.isActive()) {
+			return false;
+		}
+		transaction.begin();
+		return true;
+	}
+
+	private void endScroll(boolean begun) {
+		if (!begun) {
+			return;
+		}
+		EntityTransaction transaction = getEntityManager().getTransaction();
+		if (transaction.isActive()) {
+			// a rollback would clear the persistence context and detach
+			// everything the caller has loaded
+			transaction.commit();
+		}
+	}
+
+	private void checkParallelHydration(CriteriaOptions criteriaOptions) {
+		if (criteriaOptions != null && criteriaOptions.isParallelHydration()
+				&& !getSpatialMetadata().hasLazyGeometries()) {
+			String message = PARALLEL_HYDRATION_WITHOUT_LAZY_GEOMETRIES
+					+ entityClass.getName();
+			LOG.error(message);
+			throw new DaoException(message);
+		}
+	}
+
+	@Override
+	public List<T> findByEnvelope(String geometryProperty, Envelope envelope,
+			int srid, List<Criterion> list) {
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Finding by envelope " + envelope + " of "
+					+ geometryProperty + ". Conditions: " + list);
+		}
+		try {
+			SpatialResultCache cache = SpatialCacheService
+					.getCache(configuration);
+			if (cache == null) {
+				Criteria criteria = getSession().createCriteria(entityClass);
+				fillCriteria(criteria, list, null, null);
+				criteria.add(SpatialRestrictions.filter(geometryProperty,
+						envelope, srid));
+				@SuppressWarnings(UNCHECKED)
+				List<T> result = (List<T>) postLoad(criteria.list());
+				return result;
+			}
+			return findCachedByEnvelope(cache, geometryProperty, envelope,
+					srid, list);
+		} catch (Exception e) {
+			String message = ERROR + e.getMessage() + CAUSE + e.getCause();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		}
+	}
+
+	@Override
+	public List<T> findByGeometry(final String geometryProperty,
+			final Geometry shape, final SpatialRelation relation,
+			List<Criterion> list) {
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Finding by " + relation + " " + geometryProperty
+					+ ". Conditions: " + list);
+		}
+		final SpatialMetadata metadata = getSpatialMetadata();
+		if (!metadata.isGeometryProperty(geometryProperty)) {
+			String message = NOT_A_GEOMETRY_PROPERTY + geometryProperty;
+			LOG.error(message);
+			throw new DaoException(message);
+		}
+		try {
+			Criteria criteria = getSession().createCriteria(entityClass);
+			fillCriteria(criteria, list, null, null);
+			criteria.add(SpatialRestrictions.filter(geometryProperty,
+					shape.getEnvelopeInternal(), shape.getSRID()));
+			@SuppressWarnings(UNCHECKED)
+			final List<T> candidates = (List<T>) postLoad(criteria.list());
+
+			final boolean[] matches = new boolean[candidates.size()];
+			ParallelUtils.forEachChunk(candidates.size(),
+					REFINEMENT_CHUNK_SIZE, new ChunkTask() {
+						@Override
+						public void run(int from, int to) {
+							PreparedGeometry prepared = SpatialUtils
+									.prepare(shape);
+							for (int i = from; i < to; i++) {
+								Geometry geometry = metadata.getGeometry(
+										candidates.get(i), geometryProperty);
+								matches[i] = geometry != null
+										&& relation.evaluate(prepared, geometry);
+							}
+						}
+					});
+			List<T> result = new ArrayList<T>();
+			for (int i = 0; i < matches.length; i++) {
+				if (matches[i]) {
+					result.add(candidates.get(i));
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Refined " + candidates.size() + " candidates to "
+						+ result.size());
+			}
+			return result;
+		} catch (Exception e) {
+			String message = ERROR + e.getMessage() + CAUSE + e.getCause();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		}
+	}
+
+	/**
+	 * Answer an envelope query from the cells of the cache, loading the
+	 * missing cells with a single query over their union
+	 */
+	private List<T> findCachedByEnvelope(SpatialResultCache cache,
+			String geometryProperty, Envelope envelope, int srid,
+			List<Criterion> list) {
+		SpatialMetadata metadata = getSpatialMetadata();
+		String entityName = metadata.getClassMetadata().getEntityName();
+		Criteria conditions = getSession().createCriteria(entityClass);
+		fillCriteria(conditions, list, null, null);
+		QueryKey signature = criteriaKey(conditions, translate(conditions), srid);
+		double cellSize = cache.getCellSize();
+		long minX = (long) Math.floor(envelope.getMinX() / cellSize);
+		long maxX = (long) Math.floor(envelope.getMaxX() / cellSize);
+		long minY = (long) Math.floor(envelope.getMinY() / cellSize);
+		long maxY = (long) Math.floor(envelope.getMaxY() / cellSize);
+		if ((maxX - minX + 1) * (maxY - minY + 1) > MAX_CACHED_CELLS) {
+			LOG.debug("Envelope covers too many cells, bypassing cache");
+			return loadByEnvelope(geometryProperty, envelope, srid, list);
+		}
+
+		Map<CellKey, List<?>> cells = new LinkedHashMap<CellKey, List<?>>();
+		List<CellKey> missing = new ArrayList<CellKey>();
+		Envelope missingEnvelope = new Envelope();
+		for (long x = minX; x <= maxX; x++) {
+			for (long y = minY; y <= maxY; y++) {
+				CellKey key = new CellKey(entityName, signature,
+						geometryProperty, x, y);
+				List<?> entries = cache.get(key);
+				cells.put(key, entries);
+				if (entries == null) {
+					missing.add(key);
+					missingEnvelope.expandToInclude(key.getEnvelope(cellSize));
+				}
+			}
+		}
+		if (!missing.isEmpty()) {
+			long stamp = cache.nextStamp();
+			List<T> loaded = loadByEnvelope(geometryProperty,
+					missingEnvelope, srid, list);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Loaded " + loaded.size() + " entities for "
+						+ missing.size() + " cells");
+			}
+			for (CellKey key : missing) {
+				Envelope cellEnvelope = key.getEnvelope(cellSize);
+				List<T> entries = new ArrayList<T>();
+				Set<Object> ids = new HashSet<Object>();
+				long weight = 0;
+				for (T t : loaded) {
+					Geometry geometry = metadata.getGeometry(t,
+							geometryProperty);
+					if (geometry != null
+							&& cellEnvelope.intersects(geometry
+									.getEnvelopeInternal())) {
+						entries.add(t);
+						ids.add(metadata.getIdentifier(t));
+						weight += metadata.estimateSize(t);
+					}
+				}
+				cache.put(key, entries, ids, weight, stamp);
+				cells.put(key, entries);
+			}
+		}
+
+		// an entity spanning several cells is returned once
+		Map<Object, T> result = new LinkedHashMap<Object, T>();
+		for (List<?> entries : cells.values()) {
+			for (Object entry : entries) {
+				T t = entityClass.cast(entry);
+				Geometry geometry = metadata.getGeometry(t, geometryProperty);
+				if (envelope.intersects(geometry.getEnvelopeInternal())) {
+					Object id = metadata.getIdentifier(t);
+					if (!result.containsKey(id)) {
+						result.put(id, t);
+					}
+				}
+			}
+		}
+		return new ArrayList<T>(result.values());
+	}
+
+	/**
+	 * Key a criteria query by the SQL Hibernate renders for it and by its
+	 * typed parameters, instead of the text of its criteria
+	 * 
+	 * @param criteria
+	 * @param translator
+	 *            translator of the criteria
+	 * @param params
+	 *            values the criteria does not render, added to the key
+	 * @return key of the query
+	 */
+	private QueryKey criteriaKey(Criteria criteria,
+			CriteriaQueryTranslator translator, Object... params) {
+		CriteriaImpl impl = (CriteriaImpl) criteria;
+		StringBuilder sql = new StringBuilder(impl.getEntityOrClassName());
+		if (impl.getProjection() != null) {
+			sql.append(" select ").append(translator.getSelect());
+			if (impl.getProjection().isGrouped()) {
+				sql.append(" group by ").append(translator.getGroupBy());
+			}
+		}
+		sql.append(" where ").append(translator.getWhereCondition())
+				.append(" order by ").append(translator.getOrderBy());
+
+		QueryParameters parameters = translator.getQueryParameters();
+		Type[] types = parameters.getPositionalParameterTypes();
+		Object[] values = parameters.getPositionalParameterValues();
+		RowSelection selection = parameters.getRowSelection();
+		List<Object> key = new ArrayList<Object>();
+		for (int i = 0; i < types.length; i++) {
+			key.add(types[i].getName());
+			key.add(values[i]);
+		}
+		key.add(selection.getFirstRow());
+		key.add(selection.getMaxRows());
+		key.addAll(Arrays.asList(params));
+		return QueryKey.of(sql.toString(), key.toArray());
+	}
+
+	private CriteriaQueryTranslator translate(Criteria criteria) {
+		CriteriaImpl impl = (CriteriaImpl) criteria;
+		return new CriteriaQueryTranslator(
+				(SessionFactoryImplementor) getSession().getSessionFactory(),
+				impl, impl.getEntityOrClassName(),
+				CriteriaQueryTranslator.ROOT_SQL_ALIAS);
+	}
+
+	/**
+	 * Run an envelope query in a stateless session sharing the connection of
+	 * the current one, so the entities are detached and can be cached
+	 * without growing the persistence context
+	 */
+	private List<T> loadByEnvelope(final String geometryProperty,
+			final Envelope envelope, final int srid,
+			final List<Criterion> list) {
+		final Session session = getSession();
+		final List<T> result = new ArrayList<T>();
+		session.doWork(new Work() {
+			@SuppressWarnings(UNCHECKED)
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				StatelessSession statelessSession = session
+						.getSessionFactory().openStatelessSession(connection);
+				try {
+					Criteria criteria = statelessSession
+							.createCriteria(entityClass);
+					fillCriteria(criteria, list, null, null);
+					criteria.add(SpatialRestrictions.filter(geometryProperty,
+							envelope, srid));
+					result.addAll(criteria.list());
+				} finally {
+					statelessSession.close();
+				}
+			}
+		});
+		postLoad(result);
+		return result;
+	}
+
+	/**
+	 * Describe written entities and announce them to the other processes
+	 * sharing the configuration, in the current transaction
+	 * 
+	 * @param list
+	 * @return the envelopes and identifiers of the entities
+	 */
+	protected CacheEvent publishWrites(List<T> list) {
+		SpatialMetadata metadata = getSpatialMetadata();
+		List<Envelope> envelopes = new ArrayList<Envelope>();
+		List<Object> ids = new ArrayList<Object>(list.size());
+		for (T t : list) {
+			envelopes.addAll(metadata.getEnvelopes(t));
+			Object id = metadata.getIdentifier(t);
+			if (id != null) {
+				ids.add(id);
+			}
+		}
+		CacheEvent event = new CacheEvent(metadata.getClassMetadata()
+				.getEntityName(), envelopes, ids);
+		CacheNotificationService.publish(getSession(), configuration, event);
+		return event;
+	}
+
+	/**
+	 * Drop the cached results touched by written entities: the cells where
+	 * they are now and the cells that held them before, and the query results
+	 * reading their tables
+	 * 
+	 * @param event
+	 */
+	protected void invalidateCaches(CacheEvent event) {
+		SpatialCacheService.invalidate(configuration, event,
+				getEntitySpaces());
+	}
+
+	/**
+	 * Invalidate the caches now and, when the writes are left to a
+	 * transaction of the caller, once more when it completes. Results read
+	 * from the uncommitted state, or read by other threads before the commit,
+	 * are dropped then
+	 * 
+	 * @param event
+	 */
+	protected void invalidateOnCompletion(CacheEvent event) {
+		invalidateOnCompletion(event, getEntitySpaces());
+	}
+
+	private void invalidateOnCompletion(final CacheEvent event,
+			final Set<String> spaces) {
+		SpatialCacheService.invalidate(configuration, event, spaces);
+		if (!getEntityManager().getTransaction().isActive()) {
+			return;
+		}
+		getSession().getTransaction().registerSynchronization(
+				new Synchronization() {
+					@Override
+					public void beforeCompletion() {
+
+					}
+
+					@Override
+					public void afterCompletion(int status) {
+						SpatialCacheService.invalidate(configuration, event,
+								spaces);
+					}
+				});
+	}
+
+	/**
+	 * Drop all cached results, here and in the other processes, after a bulk
+	 * update whose rows are unknown
+	 */
+	protected void clearCaches() {
+		CacheEvent event = CacheEvent.all();
+		CacheNotificationService.publish(getSession(), configuration, event);
+		invalidateOnCompletion(event, null);
+	}
+
+	/**
+	 * Drop the cached results of the entities stored in some tables, here and
+	 * in the other processes, after a bulk update of these tables
+	 * 
+	 * @param spaces
+	 *            tables written by the update
+	 */
+	protected void clearCaches(Set<String> spaces) {
+		SessionFactoryImplementor factory = (SessionFactoryImplementor) getSession()
+				.getSessionFactory();
+		for (Map.Entry<String, ClassMetadata> entry : factory
+				.getAllClassMetadata().entrySet()) {
+			Serializable[] entitySpaces = ((AbstractEntityPersister) entry
+					.getValue()).getQuerySpaces();
+			for (Serializable space : entitySpaces) {
+				if (spaces.contains(space.toString())) {
+					// rows unknown: the whole entity
+					CacheEvent event = new CacheEvent(entry.getKey(), null,
+							null);
+					CacheNotificationService.publish(getSession(),
+							configuration, event);
+					invalidateOnCompletion(event, spaces);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read a result of the query cache, loading its entities through the
+	 * current session
+	 * 
+	 * @param cache
+	 * @param key
+	 * @return the result, or null if it is not cached or one of its entities
+	 *         no longer exists
+	 */
+	@SuppressWarnings({ UNCHECKED, "rawtypes" })
+	private List getCachedResult(QueryResultCache cache, QueryKey key) {
+		List<?> cached = cache.get(key);
+		if (cached == null) {
+			return null;
+		}
+		Session session = getSession();
+		Map<String, Map<Serializable, Object>> entities = loadAll(session,
+				cached);
+		List result = new ArrayList(cached.size());
+		for (Object element : cached) {
+			if (element instanceof Object[]) {
+				Object[] row = ((Object[]) element).clone();
+				for (int i = 0; i < row.length; i++) {
+					if (row[i] instanceof EntityRef) {
+						row[i] = resolve(entities, (EntityRef) row[i]);
+						if (row[i] == null) {
+							return null;
+						}
+					}
+				}
+				result.add(row);
+			} else if (element instanceof EntityRef) {
+				Object entity = resolve(entities, (EntityRef) element);
+				if (entity == null) {
+					return null;
+				}
+				result.add(entity);
+			} else {
+				result.add(element);
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Query result cache hit: " + key);
+		}
+		return result;
+	}
+
+	/**
+	 * Load the entities referenced by a cached result with one query per
+	 * entity and batch of identifiers
+	 * 
+	 * @param session
+	 * @param cached
+	 * @return entities by entity name and identifier
+	 */
+	private static Map<String, Map<Serializable, Object>> loadAll(
+			Session session, List<?> cached) {
+		Map<String, Set<Serializable>> ids = new LinkedHashMap<String, Set<Serializable>>();
+		for (Object element : cached) {
+			if (element instanceof Object[]) {
+				for (Object value : (Object[]) element) {
+					addRef(ids, value);
+				}
+			} else {
+				addRef(ids, element);
+			}
+		}
+		Map<String, Map<Serializable, Object>> entities = new HashMap<String, Map<Serializable, Object>>();
+		for (Map.Entry<String, Set<Serializable>> entry : ids.entrySet()) {
+			String entityName = entry.getKey();
+			Map<Serializable, Object> loaded = new HashMap<Serializable, Object>();
+			String idProperty = session.getSessionFactory()
+					.getClassMetadata(entityName).getIdentifierPropertyName();
+			if (idProperty == null) {
+				// embedded identifiers cannot be listed in a restriction
+				for (Serializable id : entry.getValue()) {
+					Object entity = session.get(entityName, id);
+					if (entity != null) {
+						loaded.put(id, entity);
+					}
+				}
+			} else {
+				List<Serializable> list = new ArrayList<Serializable>(
+						entry.getValue());
+				int from = 0;
+				while (from < list.size()) {
+					int to = Math.min(from + CACHED_LOAD_BATCH_SIZE,
+							list.size());
+					for (Object entity : session.createCriteria(entityName)
+							.add(Restrictions.in(idProperty,
+									list.subList(from, to))).list()) {
+						loaded.put(session.getIdentifier(entity), entity);
+					}
+					from = to;
+				}
+			}
+			entities.put(entityName, loaded);
+		}
+		return entities;
+	}
+
+	private static void addRef(Map<String, Set<Serializable>> ids,
+			Object value) {
+		if (value instanceof EntityRef) {
+			EntityRef ref = (EntityRef) value;
+			Set<Serializable> set = ids.get(ref.getEntityName());
+			if (set == null) {
+				set = new LinkedHashSet<Serializable>();
+				ids.put(ref.getEntityName(), set);
+			}
+			set.add(ref.getId());
+		}
+	}
+
+	private static Object resolve(
+			Map<String, Map<Serializable, Object>> entities, EntityRef ref) {
+		return entities.get(ref.getEntityName()).get(ref.getId());
+	}
+
+	/**
+	 * Store a query result, replacing managed entities by references
+	 */
+	private void putCachedResult(QueryResultCache cache, QueryKey key,
+			List<?> result, Set<String> spaces, long stamp) {
+		Session session = getSession();
+		List<Object> cached = new ArrayList<Object>(result.size());
+		for (Object element : result) {
+			if (element instanceof Object[]) {
+				Object[] row = ((Object[]) element).clone();
+				for (int i = 0; i < row.length; i++) {
+					row[i] = toCached(session, row[i]);
+				}
+				cached.add(row);
+			} else {
+				cached.add(toCached(session, element));
+			}
+		}
+		cache.put(key, cached, spaces, stamp);
+	}
+
+	private static Object toCached(Session session, Object element) {
+		if (element != null && session.contains(element)) {
+			return new EntityRef(session.getEntityName(element),
+					session.getIdentifier(element));
+		}
+		return element;
+	}
+
+	/**
+	 * 
+	 * @param hql
+	 * @return tables read or written by a HQL query
+	 */
+	private Set<String> getQuerySpaces(String hql) {
+		SessionFactoryImplementor factory = (SessionFactoryImplementor) getSession()
+				.getSessionFactory();
+		Set<String> spaces = new HashSet<String>();
+		for (Serializable space : factory.getQueryPlanCache()
+				.getHQLQueryPlan(hql, false, Collections.emptyMap())
+				.getQuerySpaces()) {
+			spaces.add(space.toString());
+		}
+		return spaces;
+	}
+
+	/**
+	 * 
+	 * @param translator
+	 * @return tables read by a criteria query, including joined entities
+	 */
+	private Set<String> getQuerySpaces(CriteriaQueryTranslator translator) {
+		Set<String> spaces = new HashSet<String>();
+		for (Serializable space : translator.getQuerySpaces()) {
+			spaces.add(space.toString());
+		}
+		return spaces;
+	}
+
+	/**
+	 * 
+	 * @return tables of the entity
+	 */
+	private Set<String> getEntitySpaces() {
+		Set<String> spaces = new HashSet<String>();
+		for (Serializable space : ((AbstractEntityPersister) getSpatialMetadata()
+				.getClassMetadata()).getQuerySpaces()) {
+			spaces.add(space.toString());
+		}
+		return spaces;
+	}
+
 	private void fillCriteria(Criteria criteria, List<Criterion> list,
 			Projection projection, CriteriaOptions criteriaOptions) {
 		if (list != null) {
@@ -326,14 +1124,30 @@ public class GenericSpatialDao<T> implements Dao<T> {
 				criteria.add(criterion);
 			}
 		}
+		ResultTransformer transformer = null;
+		Integer twkbPrecision = null;
 		if (projection != null) {
 			criteria.setProjection(projection);
+		} else if (isProjected(criteriaOptions)) {
+			twkbPrecision = criteriaOptions.getTwkbPrecision();
+			criteria.setProjection(getProfileProjection(
+					criteriaOptions.getProfile(), twkbPrecision,
+					criteriaOptions.getResolution()));
+			transformer = Transformers.aliasToBean(entityClass);
+		}
+		if (criteriaOptions != null
+				&& criteriaOptions.getResultTransformer() != null) {
+			transformer = criteriaOptions.getResultTransformer();
+		}
+		if (twkbPrecision != null) {
+			transformer = new TWKBResultTransformer(transformer,
+					getSpatialMetadata().getGeometryProperties(),
+					configuration.isPackedCoordinates());
+		}
+		if (transformer != null) {
+			criteria.setResultTransformer(transformer);
 		}
 		if (criteriaOptions != null) {
-			if (criteriaOptions.getResultTransformer() != null) {
-				criteria.setResultTransformer(criteriaOptions
-						.getResultTransformer());
-			}
 			if (criteriaOptions.getOrders() != null) {
 				for (Order order : criteriaOptions.getOrders()) {
 					criteria.addOrder(order);
@@ -348,6 +1162,101 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		}
 	}
 
+	/**
+	 * 
+	 * @param criteriaOptions
+	 * @return true if the options ask for a projection of the entity
+	 *         properties instead of managed entities
+	 */
+	private boolean isProjected(CriteriaOptions criteriaOptions) {
+		if (criteriaOptions == null) {
+			return false;
+		}
+		return criteriaOptions.getProfile() != null
+				|| criteriaOptions.getTwkbPrecision() != null
+				|| (criteriaOptions.getResolution() != null && getSpatialMetadata()
+						.hasLevelsOfDetail());
+	}
+
+	/**
+	 * 
+	 * @param profile
+	 *            fetch profile, or null for all non association properties
+	 * @param twkbPrecision
+	 *            decimal places of the geometries fetched as TWKB, or null to
+	 *            fetch them as they are mapped
+	 * @param resolution
+	 *            resolution used to pick levels of detail, or null for full
+	 *            detail
+	 * @return projection of the identifier and of the properties of a fetch
+	 *         profile, aliased by property name
+	 */
+	private Projection getProfileProjection(String profile,
+			Integer twkbPrecision, Double resolution) {
+		SpatialMetadata metadata = getSpatialMetadata();
+		String[] properties;
+		if (profile == null) {
+			properties = metadata.getBasicProperties();
+			if (resolution != null) {
+				// levels are read in place of their geometry only
+				List<String> unleveled = new ArrayList<String>();
+				for (String property : properties) {
+					if (!metadata.isLevelProperty(property)) {
+						unleveled.add(property);
+					}
+				}
+				properties = unleveled.toArray(new String[unleveled.size()]);
+			}
+		} else {
+			properties = configuration.getFetchProfile(profile);
+			if (properties == null) {
+				throw new DaoException(UNKNOWN_FETCH_PROFILE + profile);
+			}
+		}
+		if (twkbPrecision != null
+				&& (twkbPrecision < MIN_TWKB_PRECISION
+						|| twkbPrecision > MAX_TWKB_PRECISION)) {
+			throw new DaoException(INVALID_TWKB_PRECISION + twkbPrecision);
+		}
+		ProjectionList projectionList = Projections.projectionList();
+		String idProperty = metadata.getClassMetadata()
+				.getIdentifierPropertyName();
+		if (idProperty != null
+				&& !Arrays.asList(properties).contains(idProperty)) {
+			projectionList.add(Projections.id(), idProperty);
+		}
+		for (String property : properties) {
+			String source = resolution == null ? property : metadata
+					.getLevelProperty(property, resolution);
+			if (twkbPrecision != null && metadata.isGeometryProperty(property)) {
+				projectionList.add(getTWKBProjection(property, source,
+						twkbPrecision));
+			} else {
+				projectionList.add(Projections.property(source), property);
+			}
+		}
+		return projectionList;
+	}
+
+	/**
+	 * 
+	 * @param alias
+	 * @param property
+	 * @param precision
+	 * @return projection of a geometry as its SRID (int4, big endian)
+	 *         followed by its TWKB
+	 */
+	private Projection getTWKBProjection(String alias, String property,
+			int precision) {
+		String column = "{alias}."
+				+ ((AbstractEntityPersister) getSpatialMetadata()
+						.getClassMetadata()).getPropertyColumnNames(property)[0];
+		return Projections.sqlProjection("int4send(ST_SRID(" + column
+				+ ")) || ST_AsTWKB(" + column + ", " + precision + ") as "
+				+ alias, new String[] { alias },
+				new Type[] { StandardBasicTypes.BINARY });
+	}
+
 	@SuppressWarnings(UNCHECKED)
 	@Override
 	public T findUniqueByCriteria(List<Criterion> list) {
@@ -359,7 +1268,7 @@ public class GenericSpatialDao<T> implements Dao<T> {
 			for (int i = 0; i < list.size(); i++) {
 				criteria.add(list.get(i));
 			}
-			T result = (T) criteria.uniqueResult();
+			T result = postLoad((T) criteria.uniqueResult());
 			if (LOG.isDebugEnabled()) {
 				LOG.debug(RESULT + result);
 			}
@@ -371,6 +1280,66 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		}
 	}
 
+	@Override
+	public PointColumns projectCoordinates(String pointProperty,
+			List<Criterion> list) {
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Projecting coordinates of " + pointProperty
+					+ ". Conditions: " + list);
+		}
+		ScrollableResults results = null;
+		boolean transaction = false;
+		try {
+			ClassMetadata metadata = getSpatialMetadata().getClassMetadata();
+			String column = ((AbstractEntityPersister) metadata)
+					.getPropertyColumnNames(pointProperty)[0];
+			boolean withIds = Number.class.isAssignableFrom(metadata
+					.getIdentifierType().getReturnedClass());
+
+			ProjectionList projection = Projections.projectionList();
+			projection.add(Projections.sqlProjection("ST_X({alias}." + column
+					+ ") as x_, ST_Y({alias}." + column + ") as y_",
+					new String[] { "x_", "y_" }, new Type[] {
+							StandardBasicTypes.DOUBLE,
+							StandardBasicTypes.DOUBLE }));
+			if (withIds) {
+				projection.add(Projections.id());
+			}
+
+			Criteria criteria = getSession().createCriteria(entityClass);
+			fillCriteria(criteria, list, projection, null);
+			criteria.add(Restrictions.isNotNull(pointProperty));
+			criteria.setFetchSize(SCROLL_FETCH_SIZE);
+
+			PointColumns columns = new PointColumns(withIds);
+			transaction = beginScroll();
+			results = criteria.scroll(ScrollMode.FORWARD_ONLY);
+			while (results.next()) {
+				Object[] row = results.get();
+				double x = (Double) row[0];
+				double y = (Double) row[1];
+				if (withIds) {
+					columns.add(x, y, ((Number) row[2]).longValue());
+				} else {
+					columns.add(x, y);
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(RESULT + columns);
+			}
+			return columns;
+		} catch (Exception e) {
+			String message = ERROR + e.getMessage() + CAUSE + e.getCause();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		} finally {
+			if (results != null) {
+				results.close();
+			}
+			endScroll(transaction);
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public List executeSQL(String sql) {
@@ -393,40 +1362,65 @@ public class GenericSpatialDao<T> implements Dao<T> {
 	}
 
 	@Override
-	public int executeSQLUpdate(String sql) {
+	public ColumnarResult executeSQLColumnar(String sql) {
+		return executeSQLColumnar(sql, null);
+	}
+
+	@Override
+	public ColumnarResult executeSQLColumnar(final String sql,
+			final File directory) {
 		if (LOG.isInfoEnabled()) {
-			LOG.info(EXECUTING_QUERY + sql);
+			LOG.info(EXECUTING_QUERY + sql + ". Columnar directory: "
+					+ directory);
 		}
+		boolean transaction = beginScroll();
 		try {
-			Query q = getSession().createSQLQuery(sql);
-			int result = q.executeUpdate();
+			final ColumnarResult[] result = new ColumnarResult[1];
+			getSession().doWork(new Work() {
+				@Override
+				public void execute(Connection connection) throws SQLException {
+					Statement statement = connection.createStatement(
+							ResultSet.TYPE_FORWARD_ONLY,
+							ResultSet.CONCUR_READ_ONLY);
+					try {
+						statement.setFetchSize(SCROLL_FETCH_SIZE);
+						ResultSet rs = statement.executeQuery(sql);
+						result[0] = ColumnarResult.read(rs, directory);
+					} finally {
+						statement.close();
+					}
+				}
+			});
 			if (LOG.isDebugEnabled()) {
-				LOG.debug(RESULT + result);
+				LOG.debug(RESULT + result[0]);
 			}
-			return result;
+			return result[0];
 		} catch (Exception e) {
-			autoRollback();
 			String message = FAILED_TO_EXECUTE_QUERY + e.getMessage() + CAUSE
 					+ e.getCause();
 			LOG.error(message);
 			throw new DaoException(message, e);
+		} finally {
+			endScroll(transaction);
 		}
 	}
 
-	@SuppressWarnings("rawtypes")
 	@Override
-	public List executeHQL(String hql) {
+	public int executeSQLUpdate(String sql) {
 		if (LOG.isInfoEnabled()) {
-			LOG.info(EXECUTING_QUERY + hql);
+			LOG.info(EXECUTING_QUERY + sql);
 		}
 		try {
-			Query q = getSession().createQuery(hql);
-			List result = q.list();
+			Query q = getSession().createSQLQuery(sql);
+			int result = q.executeUpdate();
+			clearCaches();
+			rebuildSubdivided(null);
 			if (LOG.isDebugEnabled()) {
 				LOG.debug(RESULT + result);
 			}
 			return result;
 		} catch (Exception e) {
+			autoRollback();
 			String message = FAILED_TO_EXECUTE_QUERY + e.getMessage() + CAUSE
 					+ e.getCause();
 			LOG.error(message);
@@ -434,6 +1428,12 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		}
 	}
 
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List executeHQL(String hql) {
+		return executeHQL(hql, new Object[0]);
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public List executeHQL(String hqlTemplate, Object... params) {
@@ -446,7 +1446,23 @@ public class GenericSpatialDao<T> implements Dao<T> {
 			if (LOG.isInfoEnabled()) {
 				LOG.info(EXECUTING_QUERY + q.getQueryString());
 			}
+			QueryResultCache cache = SpatialCacheService
+					.getQueryCache(configuration);
+			QueryKey key = null;
+			long stamp = 0;
+			if (cache != null) {
+				key = QueryKey.of(hqlTemplate, params);
+				List cached = getCachedResult(cache, key);
+				if (cached != null) {
+					return cached;
+				}
+				stamp = cache.nextStamp();
+			}
 			List result = q.list();
+			if (cache != null) {
+				putCachedResult(cache, key, result,
+						getQuerySpaces(hqlTemplate), stamp);
+			}
 			if (LOG.isDebugEnabled()) {
 				LOG.debug(RESULT + result);
 			}
@@ -467,6 +1483,9 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		try {
 			Query q = getSession().createQuery(hql);
 			int result = q.executeUpdate();
+			Set<String> spaces = getQuerySpaces(hql);
+			clearCaches(spaces);
+			rebuildSubdivided(spaces);
 			if (LOG.isDebugEnabled()) {
 				LOG.debug(RESULT + result);
 			}
@@ -487,6 +1506,7 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		}
 		try {
 			String hql = "DELETE FROM " + entityClass.getSimpleName();
+			// the pieces are emptied with the parent table
 			executeHQLUpdate(hql);
 		} catch (Exception e) {
 			autoRollback();
@@ -580,6 +1600,265 @@ public class GenericSpatialDao<T> implements Dao<T> {
 		return configuration;
 	}
 
+	@Override
+	public byte[] tile(int z, int x, int y, TileSpec tileSpec) {
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Building tile " + z + "/" + x + "/" + y + ". Spec: "
+					+ tileSpec);
+		}
+		try {
+			Envelope envelope = TileUtils.getTileEnvelope(z, x, y);
+			String layerName = tileSpec.getLayerName() == null ? entityClass
+					.getSimpleName() : tileSpec.getLayerName();
+			byte[] tile = tileSpec.isServerSide() ? buildTile(envelope,
+					layerName, tileSpec) : encodeTile(envelope, layerName,
+					tileSpec);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Tile size: " + tile.length + " bytes");
+			}
+			return tile;
+		} catch (Exception e) {
+			String message = ERROR + e.getMessage() + CAUSE + e.getCause();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		}
+	}
+
+	/**
+	 * Clip, simplify, quantize and encode the tile in the database
+	 */
+	private byte[] buildTile(Envelope envelope, String layerName,
+			TileSpec tileSpec) {
+		AbstractEntityPersister persister = (AbstractEntityPersister) getSpatialMetadata()
+				.getClassMetadata();
+		String column = "t."
+				+ persister.getPropertyColumnNames(tileSpec
+						.getGeometryProperty())[0];
+		String geometry = tileSpec.getSrid() == TileUtils.WEB_MERCATOR_SRID ? column
+				: "ST_Transform(" + column + ", "
+						+ TileUtils.WEB_MERCATOR_SRID + ")";
+
+		StringBuilder sql = new StringBuilder("SELECT ST_AsMVT(q, '")
+				.append(layerName.replace("'", "''")).append("', ")
+				.append(tileSpec.getExtent())
+				.append(", 'geom_') AS mvt FROM (SELECT ST_AsMVTGeom(")
+				.append(geometry).append(", ")
+				.append(makeEnvelope(envelope, TileUtils.WEB_MERCATOR_SRID))
+				.append(", ").append(tileSpec.getExtent()).append(", ")
+				.append(tileSpec.getBuffer()).append(", ")
+				.append(tileSpec.isClip()).append(") AS geom_");
+		for (String property : tileSpec.getProperties()) {
+			sql.append(", t.")
+					.append(persister.getPropertyColumnNames(property)[0])
+					.append(" AS \"").append(property).append('"');
+		}
+		sql.append(" FROM ").append(persister.getTableName())
+				.append(" t WHERE ").append(column).append(" && ")
+				.append(getTileFilter(envelope, tileSpec))
+				.append(") q WHERE q.geom_ IS NOT NULL");
+
+		byte[] tile = (byte[]) getSession().createSQLQuery(sql.toString())
+				.addScalar("mvt", StandardBasicTypes.BINARY).uniqueResult();
+		return tile == null ? new byte[0] : tile;
+	}
+
+	/**
+	 * Select the features of the tile and encode them in Java
+	 */
+	private byte[] encodeTile(Envelope envelope, String layerName,
+			TileSpec tileSpec) {
+		SpatialMetadata metadata = getSpatialMetadata();
+		String column = ((AbstractEntityPersister) metadata.getClassMetadata())
+				.getPropertyColumnNames(tileSpec.getGeometryProperty())[0];
+		boolean withIds = Number.class.isAssignableFrom(metadata
+				.getClassMetadata().getIdentifierType().getReturnedClass());
+		String[] properties = tileSpec.getProperties();
+
+		ProjectionList projection = Projections.projectionList();
+		projection.add(Projections.property(tileSpec.getGeometryProperty()));
+		projection.add(Projections.id());
+		for (String property : properties) {
+			projection.add(Projections.property(property));
+		}
+		Criteria criteria = getSession().createCriteria(entityClass);
+		criteria.setProjection(projection);
+		criteria.add(Restrictions.sqlRestriction("{alias}." + column + " && "
+				+ getTileFilter(envelope, tileSpec)));
+		criteria.setFetchSize(SCROLL_FETCH_SIZE);
+
+		Envelope clipEnvelope = TileUtils.buffer(envelope,
+				tileSpec.getExtent(), tileSpec.getBuffer());
+		Geometry clipGeometry = new GeometryFactory().toGeometry(clipEnvelope);
+		MVTEncoder encoder = new MVTEncoder(layerName, envelope,
+				tileSpec.getExtent());
+		ScrollableResults results = null;
+		boolean transaction = beginScroll();
+		try {
+			results = criteria.scroll(ScrollMode.FORWARD_ONLY);
+			Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+			while (results.next()) {
+				Object[] row = results.get();
+				Geometry geometry = row[0] instanceof LazyGeometry ? ((LazyGeometry) row[0])
+						.getGeometry() : (Geometry) row[0];
+				if (geometry == null) {
+					continue;
+				}
+				geometry = TileUtils.toWebMercator(geometry, tileSpec.getSrid());
+				if (tileSpec.isClip()
+						&& !clipEnvelope.contains(geometry.getEnvelopeInternal())) {
+					geometry = geometry.intersection(clipGeometry);
+				}
+				attributes.clear();
+				for (int i = 0; i < properties.length; i++) {
+					attributes.put(properties[i], row[i + 2]);
+				}
+				Long id = withIds ? ((Number) row[1]).longValue() : null;
+				encoder.addFeature(id, geometry, attributes);
+			}
+		} finally {
+			if (results != null) {
+				results.close();
+			}
+			endScroll(transaction);
+		}
+		return encoder.encode();
+	}
+
+	/**
+	 * 
+	 * @return SQL of the tile envelope, buffered and in the SRID of the data
+	 */
+	private String getTileFilter(Envelope envelope, TileSpec tileSpec) {
+		String filter = makeEnvelope(TileUtils.buffer(envelope,
+				tileSpec.getExtent(), tileSpec.getBuffer()),
+				TileUtils.WEB_MERCATOR_SRID);
+		if (tileSpec.getSrid() == TileUtils.WEB_MERCATOR_SRID) {
+			return filter;
+		}
+		return "ST_Transform(" + filter + ", " + tileSpec.getSrid() + ")";
+	}
+
+	private static String makeEnvelope(Envelope envelope, int srid) {
+		return "ST_MakeEnvelope(" + envelope.getMinX() + ", "
+				+ envelope.getMinY() + ", " + envelope.getMaxX() + ", "
+				+ envelope.getMaxY() + ", " + srid + ")";
+	}
+
+	/**
+	 * 
+	 * @return geometry properties of the entity, read once from Hibernate
+	 *         metadata
+	 */
+	protected SpatialMetadata getSpatialMetadata() {
+		if (spatialMetadata == null) {
+			spatialMetadata = SpatialMetadata.of(getSession(), entityClass);
+		}
+		return spatialMetadata;
+	}
+
+	/**
+	 * 
+	 * @return shadow tables of the subdivided properties, or null if the
+	 *         entity has none
+	 */
+	private SubdivisionTables getSubdivisionTables() {
+		if (getSpatialMetadata().getSubdivisions().isEmpty()) {
+			return null;
+		}
+		if (subdivisionTables == null) {
+			subdivisionTables = new SubdivisionTables(getSpatialMetadata());
+		}
+		return subdivisionTables;
+	}
+
+	/**
+	 * 
+	 * @param list
+	 *            conditions, may be null
+	 * @return the conditions, with the restrictions on subdivided properties
+	 *         answered from their pieces
+	 */
+	private List<Criterion> rewriteSubdivided(List<Criterion> list) {
+		SubdivisionTables tables = getSubdivisionTables();
+		if (tables == null) {
+			return list;
+		}
+		return tables.rewrite(getSession(), list);
+	}
+
+	/**
+	 * Refill the pieces of the subdivided properties after a bulk update
+	 * 
+	 * @param spaces
+	 *            tables written by the update, null if they are unknown
+	 */
+	private void rebuildSubdivided(Set<String> spaces) {
+		SubdivisionTables tables = getSubdivisionTables();
+		if (tables != null) {
+			tables.rebuild(getSession(), spaces);
+		}
+	}
+
+	/**
+	 * Apply the configured geometry representation to a loaded entity
+	 * 
+	 * @param t
+	 * @return the same entity
+	 */
+	protected T postLoad(T t) {
+		if (t != null && configuration.isPackedCoordinates()) {
+			getSpatialMetadata().packGeometries(getSession(), t);
+		}
+		return t;
+	}
+
+	/**
+	 * Apply the configured geometry representation to the entities of a
+	 * result list. Other elements (projections, other classes) are untouched
+	 * 
+	 * @param result
+	 * @return the same list
+	 */
+	protected List<?> postLoad(List<?> result) {
+		if (result == null || !configuration.isPackedCoordinates()
+				|| !getSpatialMetadata().hasGeometries()) {
+			return result;
+		}
+		Session session = getSession();
+		for (Object element : result) {
+			if (entityClass.isInstance(element)) {
+				getSpatialMetadata().packGeometries(session, element);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Fill the level of detail properties of the entities, simplifying their
+	 * geometries in the shared worker pool
+	 * 
+	 * @param list
+	 */
+	protected void computeLevelsOfDetail(final List<T> list) {
+		final SpatialMetadata metadata = getSpatialMetadata();
+		if (!metadata.hasLevelsOfDetail()) {
+			return;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Computing levels of detail of " + list.size()
+					+ " entities");
+		}
+		ParallelUtils.forEachChunk(list.size(), 1,
+				new ParallelUtils.ChunkTask() {
+					@Override
+					public void run(int from, int to) {
+						for (int i = from; i < to; i++) {
+							metadata.computeLevelsOfDetail(list.get(i));
+						}
+					}
+				});
+	}
+
 	protected boolean isEmpty(List<T> list) {
 		if (list == null || list.size() == 0) {
 			LOG.warn(EMPTY_LIST);
@@ -0,0 +1,108 @@
+package org.genericspatialdao.dao.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.dao.ResultHandler;
+import org.genericspatialdao.util.ParallelUtils;
+import org.hibernate.ScrollableResults;
+
+/**
+ * Reads scrolled rows in chunks on the caller thread and decodes their lazy
+ * geometries in the shared worker pool. Chunks are handed to the handler on
+ * the caller thread, in query order. At most one chunk per worker is in
+ * flight, so memory stays bounded while streaming
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class ParallelHydrator<T> {
+
+	private static final Logger LOG = Logger.getLogger(ParallelHydrator.class);
+
+	private final SpatialMetadata metadata;
+	private final int chunkSize;
+	private final boolean parallel;
+
+	/**
+	 * 
+	 * @param metadata
+	 * @param chunkSize
+	 *            rows per chunk
+	 * @param parallel
+	 *            false to hand chunks straight to the handler, leaving lazy
+	 *            geometries encoded. The DAO only passes true for entities
+	 *            mapping lazy geometries
+	 */
+	ParallelHydrator(SpatialMetadata metadata, int chunkSize, boolean parallel) {
+		this.metadata = metadata;
+		this.chunkSize = chunkSize;
+		this.parallel = parallel;
+	}
+
+	/**
+	 * 
+	 * @param results
+	 *            rows whose first column is the result object
+	 * @param handler
+	 * @return number of rows read
+	 */
+	@SuppressWarnings("unchecked")
+	long hydrate(ScrollableResults results, ResultHandler<T> handler) {
+		LinkedList<Future<List<T>>> inFlight = new LinkedList<Future<List<T>>>();
+		long count = 0;
+		try {
+			List<T> chunk = new ArrayList<T>(chunkSize);
+			while (results.next()) {
+				chunk.add((T) results.get(0));
+				count++;
+				if (chunk.size() == chunkSize) {
+					submit(chunk, inFlight, handler);
+					chunk = new ArrayList<T>(chunkSize);
+				}
+			}
+			if (!chunk.isEmpty()) {
+				submit(chunk, inFlight, handler);
+			}
+			while (!inFlight.isEmpty()) {
+				handler.handle(ParallelUtils.await(inFlight.removeFirst()));
+			}
+		} finally {
+			for (Future<List<T>> future : inFlight) {
+				future.cancel(false);
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Hydrated " + count + " rows in chunks of " + chunkSize
+					+ (parallel ? " in parallel" : ""));
+		}
+		return count;
+	}
+
+	private void submit(final List<T> chunk,
+			LinkedList<Future<List<T>>> inFlight, ResultHandler<T> handler) {
+		if (!parallel) {
+			handler.handle(chunk);
+			return;
+		}
+		inFlight.add(ParallelUtils.getExecutor().submit(
+				new Callable<List<T>>() {
+					@Override
+					public List<T> call() {
+						for (T t : chunk) {
+							if (t != null) {
+								metadata.decodeLazyGeometries(t);
+							}
+						}
+						return chunk;
+					}
+				}));
+		while (inFlight.size() > ParallelUtils.getParallelism()) {
+			handler.handle(ParallelUtils.await(inFlight.removeFirst()));
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,396 @@
+package org.genericspatialdao.dao.impl;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.genericspatialdao.annotation.SpatialLod;
+import org.genericspatialdao.annotation.Subdivided;
+import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.type.LazyGeometry;
+import org.genericspatialdao.util.SpatialUtils;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Geometry properties of a mapped entity, read from Hibernate metadata
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class SpatialMetadata {
+
+	private static final String INVALID_LOD = "Invalid @SpatialLod on ";
+	private static final String INVALID_SUBDIVIDED = "Invalid @Subdivided on ";
+	private static final int MIN_SUBDIVISION_VERTICES = 8;
+	private static final long ENTITY_OVERHEAD = 32;
+	private static final long VALUE_SIZE = 24;
+
+	private final ClassMetadata classMetadata;
+	private final String[] geometryProperties;
+	private final int[] geometryIndexes;
+	private final String[] lazyGeometryProperties;
+	private final String[] basicProperties;
+	private final List<Lod> lods;
+	private final Map<String, Integer> subdivisions;
+
+	private SpatialMetadata(ClassMetadata classMetadata, Class<?> entityClass) {
+		this.classMetadata = classMetadata;
+		String[] names = classMetadata.getPropertyNames();
+		Type[] types = classMetadata.getPropertyTypes();
+		List<Integer> indexes = new ArrayList<Integer>();
+		List<String> lazyProperties = new ArrayList<String>();
+		List<String> basic = new ArrayList<String>();
+		for (int i = 0; i < types.length; i++) {
+			Class<?> returnedClass = types[i].getReturnedClass();
+			if (!types[i].isAssociationType() && !types[i].isCollectionType()) {
+				basic.add(names[i]);
+			}
+			if (Geometry.class.isAssignableFrom(returnedClass)) {
+				indexes.add(i);
+			} else if (LazyGeometry.class.isAssignableFrom(returnedClass)) {
+				lazyProperties.add(names[i]);
+			}
+		}
+		lazyGeometryProperties = lazyProperties
+				.toArray(new String[lazyProperties.size()]);
+		basicProperties = basic.toArray(new String[basic.size()]);
+		geometryProperties = new String[indexes.size()];
+		geometryIndexes = new int[indexes.size()];
+		for (int i = 0; i < geometryIndexes.length; i++) {
+			geometryIndexes[i] = indexes.get(i);
+			geometryProperties[i] = names[geometryIndexes[i]];
+		}
+		lods = readLods(entityClass);
+		subdivisions = readSubdivisions(entityClass);
+	}
+
+	private List<Lod> readLods(Class<?> entityClass) {
+		List<Lod> result = new ArrayList<Lod>();
+		for (Class<?> c = entityClass; c != null && c != Object.class; c = c
+				.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				SpatialLod annotation = field.getAnnotation(SpatialLod.class);
+				if (annotation != null) {
+					result.add(new Lod(field.getName(), annotation.levels(),
+							annotation.tolerances()));
+				}
+			}
+		}
+		return result;
+	}
+
+	private Map<String, Integer> readSubdivisions(Class<?> entityClass) {
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for (Class<?> c = entityClass; c != null && c != Object.class; c = c
+				.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				Subdivided annotation = field.getAnnotation(Subdivided.class);
+				if (annotation == null) {
+					continue;
+				}
+				if (!isGeometryProperty(field.getName())) {
+					throw new DaoException(INVALID_SUBDIVIDED + field.getName()
+							+ ": not a geometry property");
+				}
+				if (annotation.maxVertices() < MIN_SUBDIVISION_VERTICES) {
+					throw new DaoException(INVALID_SUBDIVIDED + field.getName()
+							+ ": pieces need at least "
+							+ MIN_SUBDIVISION_VERTICES + " vertices");
+				}
+				result.put(field.getName(), annotation.maxVertices());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param session
+	 * @param entityClass
+	 * @return spatial metadata of a mapped entity
+	 */
+	public static SpatialMetadata of(Session session, Class<?> entityClass) {
+		ClassMetadata metadata = session.getSessionFactory().getClassMetadata(
+				entityClass);
+		if (metadata == null) {
+			throw new DaoException("Class is not mapped: "
+					+ entityClass.getName());
+		}
+		return new SpatialMetadata(metadata, entityClass);
+	}
+
+	public ClassMetadata getClassMetadata() {
+		return classMetadata;
+	}
+
+	/**
+	 * 
+	 * @return names of the properties mapped to geometries
+	 */
+	public String[] getGeometryProperties() {
+		return geometryProperties.clone();
+	}
+
+	/**
+	 * 
+	 * @return names of the properties that are neither associations nor
+	 *         collections
+	 */
+	public String[] getBasicProperties() {
+		return basicProperties.clone();
+	}
+
+	public boolean isGeometryProperty(String property) {
+		for (String geometryProperty : geometryProperties) {
+			if (geometryProperty.equals(property)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean hasGeometries() {
+		return geometryIndexes.length > 0;
+	}
+
+	public boolean hasLevelsOfDetail() {
+		return !lods.isEmpty();
+	}
+
+	/**
+	 * 
+	 * @param property
+	 * @return true if the property holds a level of detail of another one
+	 */
+	public boolean isLevelProperty(String property) {
+		for (Lod lod : lods) {
+			if (Arrays.asList(lod.levels).contains(property)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 
+	 * @param property
+	 * @param resolution
+	 *            size of a pixel, in the units of the geometry
+	 * @return the level property to read instead of the given one, or the
+	 *         property itself if it has no level coarse enough
+	 */
+	public String getLevelProperty(String property, double resolution) {
+		for (Lod lod : lods) {
+			if (lod.property.equals(property)) {
+				return lod.select(resolution);
+			}
+		}
+		return property;
+	}
+
+	/**
+	 * Store the simplified copies of the geometries of an entity in its level
+	 * properties. Only the entity itself is touched, so entities can be
+	 * processed by worker threads
+	 * 
+	 * @param entity
+	 */
+	public void computeLevelsOfDetail(Object entity) {
+		for (Lod lod : lods) {
+			Geometry geometry = getGeometry(entity, lod.property);
+			for (int i = 0; i < lod.levels.length; i++) {
+				Geometry level = null;
+				if (geometry != null) {
+					level = TopologyPreservingSimplifier.simplify(geometry,
+							lod.tolerances[i]);
+					level.setSRID(geometry.getSRID());
+				}
+				classMetadata.setPropertyValue(entity, lod.levels[i], level);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return maximum number of vertices of the pieces of each property
+	 *         annotated with {@link Subdivided}
+	 */
+	public Map<String, Integer> getSubdivisions() {
+		return Collections.unmodifiableMap(subdivisions);
+	}
+
+	public boolean hasLazyGeometries() {
+		return lazyGeometryProperties.length > 0;
+	}
+
+	/**
+	 * 
+	 * @param entity
+	 * @return identifier of an entity, read from its property
+	 */
+	public Object getIdentifier(Object entity) {
+		return classMetadata.getIdentifier(entity, null);
+	}
+
+	/**
+	 * 
+	 * @param entity
+	 * @return envelopes of the non null geometries of an entity
+	 */
+	public List<Envelope> getEnvelopes(Object entity) {
+		List<Envelope> envelopes = new ArrayList<Envelope>(
+				geometryProperties.length);
+		for (String property : geometryProperties) {
+			Geometry geometry = getGeometry(entity, property);
+			if (geometry != null && !geometry.isEmpty()) {
+				envelopes.add(geometry.getEnvelopeInternal());
+			}
+		}
+		return envelopes;
+	}
+
+	/**
+	 * 
+	 * @param entity
+	 * @return rough heap size of an entity in bytes, dominated by its
+	 *         geometries
+	 */
+	public long estimateSize(Object entity) {
+		long size = ENTITY_OVERHEAD + VALUE_SIZE
+				* classMetadata.getPropertyNames().length;
+		for (String property : geometryProperties) {
+			size += SpatialUtils.estimateSize(getGeometry(entity, property));
+		}
+		for (String property : lazyGeometryProperties) {
+			LazyGeometry value = (LazyGeometry) classMetadata.getPropertyValue(
+					entity, property);
+			if (value != null) {
+				size += value.getByteSize();
+				if (value.isDecoded()) {
+					size += SpatialUtils.estimateSize(value.getGeometry());
+				}
+			}
+		}
+		return size;
+	}
+
+	public Geometry getGeometry(Object entity, String property) {
+		return (Geometry) classMetadata.getPropertyValue(entity, property);
+	}
+
+	/**
+	 * Decode every {@link LazyGeometry} of an entity. Only the entity itself is
+	 * touched, so it is safe to call from worker threads while the session
+	 * keeps loading other rows
+	 * 
+	 * @param entity
+	 */
+	public void decodeLazyGeometries(Object entity) {
+		for (String property : lazyGeometryProperties) {
+			LazyGeometry value = (LazyGeometry) classMetadata.getPropertyValue(
+					entity, property);
+			if (value != null) {
+				value.getGeometry();
+			}
+		}
+	}
+
+	/**
+	 * Replace every geometry of an entity by the packed copy created by
+	 * {@link SpatialUtils#toPackedGeometry(Geometry)}. The
+	 * persistence context snapshot is updated too, so the original
+	 * coordinates can be collected and the entity is not seen as dirty
+	 * 
+	 * @param session
+	 * @param entity
+	 */
+	public void packGeometries(Session session, Object entity) {
+		if (geometryIndexes.length == 0) {
+			return;
+		}
+		Object[] values = classMetadata.getPropertyValues(entity);
+		EntityEntry entry = ((SessionImplementor) session)
+				.getPersistenceContext().getEntry(entity);
+		Object[] loadedState = entry == null ? null : entry.getLoadedState();
+		for (int i = 0; i < geometryIndexes.length; i++) {
+			int index = geometryIndexes[i];
+			Geometry geometry = (Geometry) values[index];
+			if (geometry == null || SpatialUtils.isPacked(geometry)) {
+				continue;
+			}
+			Geometry packed = SpatialUtils.toPackedGeometry(geometry);
+			classMetadata.setPropertyValue(entity, geometryProperties[i],
+					packed);
+			if (loadedState != null && loadedState[index] == geometry) {
+				loadedState[index] = packed;
+			}
+		}
+	}
+
+	/**
+	 * Levels of a property annotated with {@link SpatialLod}, sorted from the
+	 * coarsest to the finest
+	 */
+	private final class Lod {
+
+		private final String property;
+		private final String[] levels;
+		private final double[] tolerances;
+
+		private Lod(String property, String[] levels, double[] tolerances) {
+			if (levels.length != tolerances.length) {
+				throw new DaoException(INVALID_LOD + property
+						+ ": levels and tolerances differ in length");
+			}
+			for (String level : levels) {
+				if (!isGeometryProperty(level)) {
+					throw new DaoException(INVALID_LOD + property + ": "
+							+ level + " is not a geometry property");
+				}
+			}
+			this.property = property;
+			this.levels = levels.clone();
+			this.tolerances = tolerances.clone();
+			// selection sort keeps the two arrays aligned
+			for (int i = 0; i < this.tolerances.length; i++) {
+				int max = i;
+				for (int j = i + 1; j < this.tolerances.length; j++) {
+					if (this.tolerances[j] > this.tolerances[max]) {
+						max = j;
+					}
+				}
+				swap(i, max);
+			}
+		}
+
+		private void swap(int i, int j) {
+			double tolerance = tolerances[i];
+			tolerances[i] = tolerances[j];
+			tolerances[j] = tolerance;
+			String level = levels[i];
+			levels[i] = levels[j];
+			levels[j] = level;
+		}
+
+		private String select(double resolution) {
+			for (int i = 0; i < tolerances.length; i++) {
+				if (tolerances[i] <= resolution) {
+					return levels[i];
+				}
+			}
+			return property;
+		}
+	}
+}
\ No newline at end of file
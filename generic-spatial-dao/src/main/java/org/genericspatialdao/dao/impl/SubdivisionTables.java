@@ -0,0 +1,409 @@
+package org.genericspatialdao.dao.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.annotation.Subdivided;
+import org.genericspatialdao.util.WKBUtils;
+import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.spatial.SpatialRelation;
+import org.hibernate.spatial.criterion.SpatialRelateExpression;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Shadow tables of the properties annotated with {@link Subdivided}. Each
+ * row holds a piece of the geometry of an entity and its id. Tables are
+ * written on the connection of the session, so they follow its transaction.
+ * A missing table is created and committed on a connection of its own, under
+ * an advisory lock, so concurrent first writers create it once
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class SubdivisionTables {
+
+	private static final Logger LOG = Logger.getLogger(SubdivisionTables.class);
+	private static final String SUFFIX = "_subdivided";
+
+	private static final Field PROPERTY_FIELD;
+	private static final Field VALUE_FIELD;
+	private static final Field RELATION_FIELD;
+
+	static {
+		// SpatialRelateExpression has no getters
+		Field property = findField("propertyName", String.class);
+		Field value = findField("value", Geometry.class);
+		Field relation = findField("spatialRelation", int.class);
+		if (property == null || value == null || relation == null) {
+			LOG.warn("Spatial restrictions can not be read, subdivided properties will be queried directly");
+			property = null;
+		}
+		PROPERTY_FIELD = property;
+		VALUE_FIELD = value;
+		RELATION_FIELD = relation;
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @param type
+	 * @return accessible instance field of SpatialRelateExpression, or null
+	 *         if there is none with this name and type
+	 */
+	private static Field findField(String name, Class<?> type) {
+		try {
+			Field field = SpatialRelateExpression.class.getDeclaredField(name);
+			if (Modifier.isStatic(field.getModifiers())
+					|| !type.isAssignableFrom(field.getType())) {
+				return null;
+			}
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	private final SpatialMetadata metadata;
+	private final String idColumn;
+	private final Map<String, Table> tables = new HashMap<String, Table>();
+
+	SubdivisionTables(SpatialMetadata metadata) {
+		this.metadata = metadata;
+		AbstractEntityPersister persister = (AbstractEntityPersister) metadata
+				.getClassMetadata();
+		idColumn = persister.getIdentifierColumnNames()[0];
+		String parentTable = persister.getTableName().toLowerCase();
+		for (Map.Entry<String, Integer> entry : metadata.getSubdivisions()
+				.entrySet()) {
+			String column = persister.getPropertyColumnNames(entry.getKey())[0]
+					.toLowerCase();
+			tables.put(entry.getKey(), new Table(parentTable, column,
+					entry.getValue()));
+		}
+	}
+
+	/**
+	 * Replace the pieces of written entities. Tables missing are created and
+	 * filled from the parent table first
+	 * 
+	 * @param session
+	 * @param entities
+	 *            persisted or merged entities
+	 */
+	void write(final Session session, final List<?> entities) {
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				List<Object> ids = getIds(entities);
+				for (Map.Entry<String, Table> entry : tables.entrySet()) {
+					Table table = entry.getValue();
+					if (!exists(connection, table)) {
+						create(session, table);
+					}
+					delete(connection, table, ids);
+					insert(connection, table, entry.getKey(), entities);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 
+	 * @param session
+	 * @param entities
+	 *            removed entities
+	 */
+	void remove(Session session, final List<?> entities) {
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				List<Object> ids = getIds(entities);
+				for (Table table : tables.values()) {
+					if (exists(connection, table)) {
+						delete(connection, table, ids);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Refill the tables from their parent table, after a bulk update the
+	 * pieces can not follow row by row
+	 * 
+	 * @param session
+	 * @param spaces
+	 *            tables written by the update, null if they are unknown
+	 */
+	void rebuild(Session session, final Set<String> spaces) {
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				for (Table table : tables.values()) {
+					if (spaces != null && !containsIgnoreCase(spaces,
+							table.parentTable)) {
+						continue;
+					}
+					if (exists(connection, table)) {
+						if (LOG.isInfoEnabled()) {
+							LOG.info("Rebuilding subdivision table "
+									+ table.name);
+						}
+						execute(connection, "DELETE FROM " + table.name);
+						execute(connection, "INSERT INTO " + table.name
+								+ " (parent_id, geom) " + select(table));
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Rewrite the intersection restrictions, which the pieces answer exactly.
+	 * Other relations, such as containment, are left to the parent table
+	 * 
+	 * @param session
+	 * @param list
+	 *            conditions, may be null
+	 * @return the conditions, rewritten when their tables exist
+	 */
+	List<Criterion> rewrite(Session session, List<Criterion> list) {
+		if (list == null || PROPERTY_FIELD == null) {
+			return list;
+		}
+		final Map<Integer, Table> targets = new HashMap<Integer, Table>();
+		final Map<Integer, Geometry> values = new HashMap<Integer, Geometry>();
+		for (int i = 0; i < list.size(); i++) {
+			Criterion criterion = list.get(i);
+			if (!(criterion instanceof SpatialRelateExpression)) {
+				continue;
+			}
+			try {
+				Table table = tables.get(PROPERTY_FIELD.get(criterion));
+				Geometry value = (Geometry) VALUE_FIELD.get(criterion);
+				int relation = RELATION_FIELD.getInt(criterion);
+				if (table != null && value != null
+						&& relation == SpatialRelation.INTERSECTS) {
+					targets.put(i, table);
+					values.put(i, value);
+				}
+			} catch (IllegalAccessException e) {
+				LOG.warn("Failed to read spatial restriction: "
+						+ e.getMessage());
+			}
+		}
+		if (targets.isEmpty()) {
+			return list;
+		}
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				for (Table table : new ArrayList<Table>(targets.values())) {
+					if (!exists(connection, table)) {
+						targets.values().remove(table);
+					}
+				}
+			}
+		});
+		List<Criterion> result = new ArrayList<Criterion>(list);
+		for (Map.Entry<Integer, Table> entry : targets.entrySet()) {
+			String hex = WKBUtils.toHex(WKBUtils.write(values.get(entry
+					.getKey())));
+			result.set(entry.getKey(), Restrictions.sqlRestriction("{alias}."
+					+ idColumn + " IN (SELECT parent_id FROM "
+					+ entry.getValue().name + " WHERE ST_Intersects(geom, '"
+					+ hex + "'::geometry))"));
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Restrictions answered from pieces: " + targets.size());
+		}
+		return result;
+	}
+
+	private List<Object> getIds(List<?> entities) {
+		List<Object> ids = new ArrayList<Object>(entities.size());
+		for (Object entity : entities) {
+			Object id = metadata.getIdentifier(entity);
+			if (id != null) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Create a table filled from the committed rows of the parent table, in a
+	 * transaction of its own. The rows written by the current transaction
+	 * are then replaced by the caller
+	 */
+	private void create(Session session, Table table) throws SQLException {
+		ConnectionProvider provider = ((SessionFactoryImplementor) session
+				.getSessionFactory()).getServiceRegistry().getService(
+				ConnectionProvider.class);
+		Connection connection = provider.getConnection();
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+			// held until commit: a concurrent first writer waits, then finds
+			// the table
+			PreparedStatement lock = connection
+					.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))");
+			try {
+				lock.setString(1, table.name);
+				lock.executeQuery().close();
+			} finally {
+				lock.close();
+			}
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Creating subdivision table " + table.name);
+			}
+			execute(connection, "CREATE TABLE IF NOT EXISTS " + table.name
+					+ " AS " + select(table));
+			String index = table.name
+					.substring(table.name.lastIndexOf('.') + 1);
+			execute(connection, "CREATE INDEX IF NOT EXISTS " + index
+					+ "_geom ON " + table.name + " USING GIST (geom)");
+			execute(connection, "CREATE INDEX IF NOT EXISTS " + index
+					+ "_parent ON " + table.name + " (parent_id)");
+			connection.commit();
+			table.exists = true;
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+			provider.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * 
+	 * @return query of the pieces of every row of the parent table
+	 */
+	private String select(Table table) {
+		return "SELECT " + idColumn + " AS parent_id, ST_Subdivide("
+				+ table.column + ", " + table.maxVertices
+				+ ") AS geom FROM " + table.parentTable;
+	}
+
+	private void delete(Connection connection, Table table, List<Object> ids)
+			throws SQLException {
+		PreparedStatement statement = connection
+				.prepareStatement("DELETE FROM " + table.name
+						+ " WHERE parent_id = ?");
+		try {
+			for (Object id : ids) {
+				statement.setObject(1, id);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private void insert(Connection connection, Table table, String property,
+			List<?> entities) throws SQLException {
+		PreparedStatement statement = connection
+				.prepareStatement("INSERT INTO " + table.name
+						+ " (parent_id, geom) SELECT ?, ST_Subdivide(ST_GeomFromEWKB(?), "
+						+ table.maxVertices + ")");
+		try {
+			for (Object entity : entities) {
+				Object id = metadata.getIdentifier(entity);
+				Geometry geometry = metadata.getGeometry(entity, property);
+				if (id == null || geometry == null || geometry.isEmpty()) {
+					continue;
+				}
+				statement.setObject(1, id);
+				statement.setBytes(2, WKBUtils.write(geometry));
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if the table exists. Tables are only created committed, so
+	 *         a table found is remembered and not looked up again
+	 */
+	private static boolean exists(Connection connection, Table table)
+			throws SQLException {
+		if (table.exists) {
+			return true;
+		}
+		String name = table.name;
+		int dot = name.lastIndexOf('.');
+		String schema = dot < 0 ? null : name.substring(0, dot);
+		DatabaseMetaData databaseMetaData = connection.getMetaData();
+		String escape = databaseMetaData.getSearchStringEscape();
+		ResultSet tables = databaseMetaData.getTables(null, schema, name
+				.substring(dot + 1).replace("_", escape + "_"), null);
+		try {
+			table.exists = tables.next();
+			return table.exists;
+		} finally {
+			tables.close();
+		}
+	}
+
+	private static boolean containsIgnoreCase(Set<String> spaces, String table) {
+		for (String space : spaces) {
+			if (space.equalsIgnoreCase(table)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void execute(Connection connection, String sql)
+			throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static final class Table {
+
+		private final String parentTable;
+		private final String column;
+		private final String name;
+		private final int maxVertices;
+		private volatile boolean exists;
+
+		private Table(String parentTable, String column, int maxVertices) {
+			this.parentTable = parentTable;
+			this.column = column;
+			this.name = parentTable + "_" + column + SUFFIX;
+			this.maxVertices = maxVertices;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+package org.genericspatialdao.dao.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.genericspatialdao.util.SpatialUtils;
+import org.genericspatialdao.util.TWKBReader;
+import org.hibernate.transform.ResultTransformer;
+
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Decodes the TWKB columns of a tuple into geometries before handing it to
+ * another transformer. Each column holds the SRID as a 4 bytes big endian
+ * prefix followed by the TWKB
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class TWKBResultTransformer implements ResultTransformer {
+
+	static final int SRID_SIZE = 4;
+
+	private static final long serialVersionUID = -3381746027470954012L;
+
+	private final ResultTransformer delegate;
+	private final List<String> geometryAliases;
+	private final boolean packed;
+
+	/**
+	 * 
+	 * @param delegate
+	 * @param geometryAliases
+	 *            aliases of the TWKB columns
+	 * @param packed
+	 *            true to decode into packed coordinate sequences
+	 */
+	TWKBResultTransformer(ResultTransformer delegate,
+			String[] geometryAliases, boolean packed) {
+		this.delegate = delegate;
+		this.geometryAliases = Arrays.asList(geometryAliases.clone());
+		this.packed = packed;
+	}
+
+	@Override
+	public Object transformTuple(Object[] tuple, String[] aliases) {
+		for (int i = 0; i < tuple.length; i++) {
+			if (tuple[i] instanceof byte[]
+					&& geometryAliases.contains(aliases[i])) {
+				tuple[i] = decode((byte[]) tuple[i]);
+			}
+		}
+		return delegate.transformTuple(tuple, aliases);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List transformList(List collection) {
+		return delegate.transformList(collection);
+	}
+
+	private Object decode(byte[] bytes) {
+		int srid = ByteBuffer.wrap(bytes).getInt();
+		GeometryFactory factory = packed ? SpatialUtils
+				.getPackedGeometryFactory(srid) : new GeometryFactory(
+				SpatialUtils.getPrecisionModel(), srid);
+		return new TWKBReader(factory).read(bytes, SRID_SIZE);
+	}
+}
\ No newline at end of file
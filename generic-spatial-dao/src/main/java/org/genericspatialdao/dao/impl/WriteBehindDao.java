@@ -0,0 +1,582 @@
+package org.genericspatialdao.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.exception.DaoException;
+
+/**
+ * Persists entities in the background. {@link #persist(List)} puts the
+ * entities in a bounded queue and returns; writer threads drain the queue
+ * into batches, each one persisted in its own transaction by a
+ * {@link GenericSpatialDao} of the writer, so subdivision tables, cache
+ * notifications and cache invalidation work as for direct writes.
+ * 
+ * A batch is written when it reaches the batch size or when its first entity
+ * has waited for the batch time. Set hibernate.jdbc.batch_size (and
+ * hibernate.order_inserts) in the configuration so that Hibernate sends the
+ * inserts of a batch in JDBC batches; generated ids must not use IDENTITY
+ * columns, which disable them.
+ * 
+ * When the queue is full, {@link #persist(List)} waits for room. A failed
+ * batch is rolled back and given to the {@link FailureHandler}, if any; it is
+ * not retried. {@link #close()} writes everything accepted before returning
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class WriteBehindDao<T> {
+
+	public static final int DEFAULT_CAPACITY = 65536;
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final long DEFAULT_BATCH_MILLIS = 200;
+	public static final int DEFAULT_WRITERS = 1;
+
+	private static final String THREAD_NAME_PREFIX = "genericspatialdao-writer-";
+	private static final String CLOSED = "Write behind DAO is closed";
+	private static final String NOT_STARTED = "Write behind DAO is not started";
+	private static final String ALREADY_STARTED = "Write behind DAO is already started";
+	private static final String INTERRUPTED = "Interrupted while waiting for the queue";
+	private static final Logger LOG = Logger.getLogger(WriteBehindDao.class);
+
+	/**
+	 * Receives the batches that could not be written
+	 */
+	public interface FailureHandler<T> {
+
+		/**
+		 * Called from the writer thread, after the rollback
+		 * 
+		 * @param batch
+		 *            entities of the failed transaction
+		 * @param e
+		 */
+		void failed(List<T> batch, DaoException e);
+	}
+
+	private final Class<T> entityClass;
+	private final DaoConfiguration configuration;
+	private int capacity = DEFAULT_CAPACITY;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long batchMillis = DEFAULT_BATCH_MILLIS;
+	private int writers = DEFAULT_WRITERS;
+	private volatile FailureHandler<T> failureHandler;
+
+	private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+	private Semaphore room;
+	private Thread[] threads;
+	private volatile boolean started;
+	private volatile boolean closed;
+	// callers between the open check and the end of their enqueue
+	private final AtomicInteger producers = new AtomicInteger();
+	// writers parked or about to park
+	private final AtomicInteger idleWriters = new AtomicInteger();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private volatile long lagMillis;
+	private volatile long startTime;
+
+	/**
+	 * 
+	 * @param entityClass
+	 * @param configuration
+	 */
+	public WriteBehindDao(Class<T> entityClass, DaoConfiguration configuration) {
+		this.entityClass = entityClass;
+		this.configuration = configuration;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * 
+	 * @param capacity
+	 *            number of entities the queue holds before
+	 *            {@link #persist(List)} waits. Set it before {@link #start()}
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * 
+	 * @param batchSize
+	 *            largest number of entities of a transaction
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getBatchMillis() {
+		return batchMillis;
+	}
+
+	/**
+	 * 
+	 * @param batchMillis
+	 *            longest time the first entity of a batch waits for the
+	 *            batch to fill
+	 */
+	public void setBatchMillis(long batchMillis) {
+		this.batchMillis = batchMillis;
+	}
+
+	public int getWriters() {
+		return writers;
+	}
+
+	/**
+	 * 
+	 * @param writers
+	 *            number of writer threads, each one with its own connection.
+	 *            Set it before {@link #start()}
+	 */
+	public void setWriters(int writers) {
+		this.writers = writers;
+	}
+
+	public FailureHandler<T> getFailureHandler() {
+		return failureHandler;
+	}
+
+	public void setFailureHandler(FailureHandler<T> failureHandler) {
+		this.failureHandler = failureHandler;
+	}
+
+	/**
+	 * Start the writer threads
+	 */
+	public synchronized void start() {
+		if (closed) {
+			LOG.error(CLOSED);
+			throw new DaoException(CLOSED);
+		}
+		if (started) {
+			LOG.error(ALREADY_STARTED);
+			throw new DaoException(ALREADY_STARTED);
+		}
+		room = new Semaphore(capacity);
+		threads = new Thread[writers];
+		for (int i = 0; i < writers; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runWriter();
+				}
+			}, THREAD_NAME_PREFIX + entityClass.getSimpleName() + "-" + i);
+			threads[i].setDaemon(true);
+		}
+		startTime = System.currentTimeMillis();
+		started = true;
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Started " + writers + " writers for "
+					+ entityClass.getName());
+		}
+	}
+
+	/**
+	 * Queue entities to be persisted, waiting while the queue is full
+	 * 
+	 * @param t
+	 */
+	public void persist(T... t) {
+		persist(Arrays.asList(t));
+	}
+
+	/**
+	 * Queue a list of entities to be persisted, waiting while the queue is
+	 * full
+	 * 
+	 * @param list
+	 */
+	public void persist(List<T> list) {
+		enter();
+		try {
+			for (T t : list) {
+				try {
+					room.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					LOG.error(INTERRUPTED);
+					throw new DaoException(INTERRUPTED, e);
+				}
+				enqueue(t);
+			}
+		} finally {
+			exit();
+		}
+	}
+
+	/**
+	 * Queue an entity to be persisted, waiting at most the given time for
+	 * room in the queue
+	 * 
+	 * @param t
+	 * @param timeout
+	 * @param unit
+	 * @return false if the queue stayed full
+	 */
+	public boolean offer(T t, long timeout, TimeUnit unit) {
+		enter();
+		try {
+			if (!room.tryAcquire(timeout, unit)) {
+				return false;
+			}
+			enqueue(t);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.error(INTERRUPTED);
+			throw new DaoException(INTERRUPTED, e);
+		} finally {
+			exit();
+		}
+	}
+
+	/**
+	 * Wait until the entities queued before the call are written or given to
+	 * the failure handler
+	 */
+	public synchronized void flush() {
+		if (!started || closed) {
+			return;
+		}
+		// each writer takes one marker, writes what it holds and waits for
+		// the others, so everything queued before the markers is done
+		CountDownLatch barrier = new CountDownLatch(threads.length);
+		for (int i = 0; i < threads.length; i++) {
+			queue.add(new Entry(null, 0, barrier));
+		}
+		wakeWriters();
+		awaitQuietly(barrier);
+	}
+
+	/**
+	 * Refuse new entities, write the accepted ones and stop the writer
+	 * threads. Callers already waiting for room in the queue are accepted
+	 */
+	public void close() {
+		Thread[] current;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			current = threads;
+		}
+		if (current == null) {
+			return;
+		}
+		wakeWriters();
+		for (Thread thread : current) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOG.warn("Interrupted while waiting for writer " + thread);
+				return;
+			}
+		}
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Closed writers for " + entityClass.getName()
+					+ ". Written: " + written + ". Failed: " + failed);
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of entities accepted by persist
+	 */
+	public long getAcceptedCount() {
+		return accepted.get();
+	}
+
+	/**
+	 * 
+	 * @return number of entities committed
+	 */
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * 
+	 * @return number of entities of failed batches
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * 
+	 * @return number of committed batches
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * 
+	 * @return number of entities accepted but not written or failed yet
+	 */
+	public long getPendingCount() {
+		return accepted.get() - written.get() - failed.get();
+	}
+
+	/**
+	 * 
+	 * @return time between the queuing of the oldest entity of the last
+	 *         committed batch and its commit
+	 */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+
+	/**
+	 * 
+	 * @return entities committed per second since the start
+	 */
+	public double getThroughput() {
+		if (!started) {
+			return 0;
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+		return written.get() * 1000d / elapsed;
+	}
+
+	private void enqueue(T t) {
+		accepted.incrementAndGet();
+		queue.add(new Entry(t, System.nanoTime(), null));
+		if (idleWriters.get() > 0) {
+			wakeWriters();
+		}
+	}
+
+	/**
+	 * Register a caller, once the DAO is checked to be open. Writers do not
+	 * stop while a registered caller may still enqueue
+	 */
+	private void enter() {
+		if (!started) {
+			LOG.error(NOT_STARTED);
+			throw new DaoException(NOT_STARTED);
+		}
+		producers.incrementAndGet();
+		if (closed) {
+			exit();
+			LOG.error(CLOSED);
+			throw new DaoException(CLOSED);
+		}
+	}
+
+	private void exit() {
+		if (producers.decrementAndGet() == 0 && closed) {
+			wakeWriters();
+		}
+	}
+
+	private void wakeWriters() {
+		for (Thread thread : threads) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void runWriter() {
+		Dao<T> dao = DaoFactory.getDAO(entityClass, configuration);
+		List<T> batch = new ArrayList<T>(batchSize);
+		long first = 0;
+		try {
+			while (true) {
+				Entry entry = queue.poll();
+				if (entry != null) {
+					if (entry.barrier != null) {
+						try {
+							write(dao, batch, first);
+						} finally {
+							entry.barrier.countDown();
+						}
+						awaitQuietly(entry.barrier);
+						continue;
+					}
+					room.release();
+					if (batch.isEmpty()) {
+						first = entry.time;
+					}
+					batch.add((T) entry.entity);
+					if (batch.size() >= batchSize) {
+						write(dao, batch, first);
+					}
+					continue;
+				}
+				if (batch.isEmpty()) {
+					if (closed && producers.get() == 0 && queue.isEmpty()) {
+						return;
+					}
+					park(0);
+					continue;
+				}
+				long wait = first + TimeUnit.MILLISECONDS.toNanos(batchMillis)
+						- System.nanoTime();
+				if (wait <= 0 || closed) {
+					write(dao, batch, first);
+				} else {
+					park(wait);
+				}
+			}
+		} finally {
+			dao.close();
+		}
+	}
+
+	/**
+	 * Park until an entity is queued, the DAO is closed or the time, if any,
+	 * elapses
+	 */
+	private void park(long nanos) {
+		idleWriters.incrementAndGet();
+		try {
+			// entities queued before the increment are seen here, the later
+			// ones wake the writer
+			if (!queue.isEmpty() || (closed && producers.get() == 0)) {
+				return;
+			}
+			if (nanos > 0) {
+				LockSupport.parkNanos(this, nanos);
+			} else {
+				LockSupport.park(this);
+			}
+		} finally {
+			idleWriters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Persist a batch. No exception leaves this method, so that a writer
+	 * keeps running and answering flush markers
+	 */
+	private void write(Dao<T> dao, List<T> batch, long first) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<T> entities = new ArrayList<T>(batch);
+		batch.clear();
+		// with automatic transactions, persist commits by itself
+		boolean explicit = !configuration.isAutoTransaction();
+		try {
+			if (explicit) {
+				dao.beginTransaction();
+			}
+			dao.persist(entities);
+			if (explicit) {
+				dao.commit();
+			}
+			written.addAndGet(entities.size());
+			batches.incrementAndGet();
+			lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- first);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Wrote " + entities.size() + " entities of "
+						+ entityClass.getName());
+			}
+		} catch (Throwable e) {
+			if (explicit) {
+				rollbackQuietly(dao);
+			}
+			failed(entities, e);
+		} finally {
+			// written entities are not needed by the writer any more
+			try {
+				dao.getEntityManager().clear();
+			} catch (RuntimeException e) {
+				LOG.warn("Failed to clear the writer entity manager: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	private void failed(List<T> entities, Throwable e) {
+		failed.addAndGet(entities.size());
+		FailureHandler<T> handler = failureHandler;
+		if (handler == null) {
+			LOG.error("Failed to write " + entities.size() + " entities of "
+					+ entityClass.getName() + ": " + e.getMessage());
+			return;
+		}
+		DaoException exception;
+		if (e instanceof DaoException) {
+			exception = (DaoException) e;
+		} else if (e instanceof Exception) {
+			exception = new DaoException((Exception) e);
+		} else {
+			exception = new DaoException(e.toString());
+		}
+		try {
+			handler.failed(entities, exception);
+		} catch (RuntimeException handlerException) {
+			LOG.error("Failure handler failed: "
+					+ handlerException.getMessage());
+		}
+	}
+
+	private static void rollbackQuietly(Dao<?> dao) {
+		try {
+			dao.rollback();
+		} catch (RuntimeException e) {
+			LOG.warn("Failed to roll back a batch: " + e.getMessage());
+		}
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queued entity, or flush marker when the barrier is set
+	 */
+	private static final class Entry {
+
+		private final Object entity;
+		private final long time;
+		private final CountDownLatch barrier;
+
+		private Entry(Object entity, long time, CountDownLatch barrier) {
+			this.entity = entity;
+			this.time = time;
+			this.barrier = barrier;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,417 @@
+package org.genericspatialdao.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.dao.ResultHandler;
+import org.genericspatialdao.dao.impl.DaoFactory;
+import org.genericspatialdao.dao.impl.SpatialMetadata;
+import org.genericspatialdao.exception.SpatialException;
+import org.genericspatialdao.geofence.GeofenceEvent.Type;
+import org.genericspatialdao.type.LazyGeometry;
+import org.genericspatialdao.util.PackedRTree;
+import org.genericspatialdao.util.ParallelUtils;
+import org.genericspatialdao.util.ParallelUtils.ChunkTask;
+
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.Polygonal;
+
+/**
+ * Finds the fences entered and left by moving objects. Fences are the
+ * entities of a table with a polygonal geometry, loaded once in a packed
+ * R-tree with an indexed point locator per fence; positions never reach the
+ * database.
+ * 
+ * The fences of each object are kept in primitive maps split in stripes by
+ * object id. A batch of positions is split the same way and the stripes are
+ * processed by the shared worker pool, so the positions of an object are
+ * always handled in order, by one thread. Positions older than the last one
+ * of their object are ignored. A point on the boundary of a fence is inside
+ * it
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class GeofenceEngine<F> {
+
+	private static final int STRIPES_PER_WORKER = 4;
+	private static final int MIN_PARALLEL_POSITIONS = 4096;
+	private static final int[] NO_FENCES = new int[0];
+	private static final long[] NO_TIMES = new long[0];
+	private static final boolean[] NO_FLAGS = new boolean[0];
+	private static final String INVALID_BATCH = "Position arrays differ in length";
+	private static final Logger LOG = Logger.getLogger(GeofenceEngine.class);
+
+	private final Class<F> fenceClass;
+	private final String geometryProperty;
+	private final Dao<F> dao;
+	private final LongObjectMap<Membership>[] stripes;
+	private long dwellMillis;
+	private volatile Fences fences = new Fences(new ArrayList<Object>(),
+			new ArrayList<IndexedPointInAreaLocator>(), new double[0]);
+
+	/**
+	 * 
+	 * @param fenceClass
+	 * @param configuration
+	 * @param geometryProperty
+	 *            polygonal geometry or lazy geometry property of the fences
+	 */
+	@SuppressWarnings("unchecked")
+	public GeofenceEngine(Class<F> fenceClass, DaoConfiguration configuration,
+			String geometryProperty) {
+		this.fenceClass = fenceClass;
+		this.geometryProperty = geometryProperty;
+		this.dao = DaoFactory.getDAO(fenceClass, configuration);
+		this.stripes = new LongObjectMap[ParallelUtils.getParallelism()
+				* STRIPES_PER_WORKER];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new LongObjectMap<Membership>();
+		}
+	}
+
+	public long getDwellMillis() {
+		return dwellMillis;
+	}
+
+	/**
+	 * 
+	 * @param dwellMillis
+	 *            time after which an object staying in a fence raises a
+	 *            {@link Type#DWELL} event, 0 to disable them
+	 */
+	public synchronized void setDwellMillis(long dwellMillis) {
+		this.dwellMillis = dwellMillis;
+	}
+
+	/**
+	 * Load the fences, replacing the previous ones. Objects keep their state
+	 * for the fences still present; fences gone are forgotten without events
+	 */
+	public synchronized void load() {
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Loading fences of " + fenceClass.getName());
+		}
+		final SpatialMetadata metadata = SpatialMetadata.of(dao.getSession(),
+				fenceClass);
+		final List<Object> ids = new ArrayList<Object>();
+		final List<IndexedPointInAreaLocator> locators = new ArrayList<IndexedPointInAreaLocator>();
+		final List<Envelope> envelopes = new ArrayList<Envelope>();
+		// streamed entities are detached from the entity manager of the thread
+		dao.streamByCriteria(null, null, new ResultHandler<F>() {
+			@Override
+			public void handle(List<F> chunk) {
+				for (F fence : chunk) {
+					Object value = metadata.getClassMetadata()
+							.getPropertyValue(fence, geometryProperty);
+					Geometry geometry = value instanceof LazyGeometry ? ((LazyGeometry) value)
+							.getGeometry() : (Geometry) value;
+					if (geometry == null || geometry.isEmpty()) {
+						continue;
+					}
+					if (!(geometry instanceof Polygonal)) {
+						LOG.warn("Skipping fence " + metadata.getIdentifier(fence)
+								+ ": not a polygonal geometry");
+						continue;
+					}
+					IndexedPointInAreaLocator locator = new IndexedPointInAreaLocator(
+							geometry);
+					// the index of the locator is built by its first query,
+					// which must not race between workers
+					locator.locate(geometry.getCoordinate());
+					ids.add(metadata.getIdentifier(fence));
+					locators.add(locator);
+					envelopes.add(geometry.getEnvelopeInternal());
+				}
+			}
+		});
+		double[] boxes = new double[envelopes.size() * 4];
+		for (int i = 0; i < envelopes.size(); i++) {
+			Envelope envelope = envelopes.get(i);
+			boxes[i * 4] = envelope.getMinX();
+			boxes[i * 4 + 1] = envelope.getMinY();
+			boxes[i * 4 + 2] = envelope.getMaxX();
+			boxes[i * 4 + 3] = envelope.getMaxY();
+		}
+		Fences loaded = new Fences(ids, locators, boxes);
+		remap(fences, loaded);
+		fences = loaded;
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Loaded " + ids.size() + " fences of "
+					+ fenceClass.getName());
+		}
+	}
+
+	/**
+	 * Process a batch of positions
+	 * 
+	 * @param objectIds
+	 * @param xs
+	 * @param ys
+	 * @param timestamps
+	 * @return events raised by the batch. The events of an object are in the
+	 *         order of its positions
+	 */
+	public synchronized List<GeofenceEvent> process(final long[] objectIds,
+			final double[] xs, final double[] ys, final long[] timestamps) {
+		int n = objectIds.length;
+		if (xs.length != n || ys.length != n || timestamps.length != n) {
+			LOG.error(INVALID_BATCH);
+			throw new SpatialException(INVALID_BATCH);
+		}
+		// positions sorted by stripe, keeping their order within a stripe
+		final int[] starts = new int[stripes.length + 1];
+		int[] stripeOf = new int[n];
+		for (int i = 0; i < n; i++) {
+			stripeOf[i] = stripe(objectIds[i]);
+			starts[stripeOf[i] + 1]++;
+		}
+		for (int s = 0; s < stripes.length; s++) {
+			starts[s + 1] += starts[s];
+		}
+		final int[] order = new int[n];
+		int[] next = starts.clone();
+		for (int i = 0; i < n; i++) {
+			order[next[stripeOf[i]]++] = i;
+		}
+
+		final Fences current = fences;
+		final long dwell = dwellMillis;
+		@SuppressWarnings("unchecked")
+		final List<GeofenceEvent>[] events = new List[stripes.length];
+		ChunkTask task = new ChunkTask() {
+			@Override
+			public void run(int from, int to) {
+				for (int s = from; s < to; s++) {
+					List<GeofenceEvent> stripeEvents = new ArrayList<GeofenceEvent>();
+					for (int k = starts[s]; k < starts[s + 1]; k++) {
+						int i = order[k];
+						update(stripes[s], current, dwell, objectIds[i], xs[i],
+								ys[i], timestamps[i], stripeEvents);
+					}
+					events[s] = stripeEvents;
+				}
+			}
+		};
+		if (n < MIN_PARALLEL_POSITIONS) {
+			task.run(0, stripes.length);
+		} else {
+			ParallelUtils.forEachChunk(stripes.length, 1, task);
+		}
+
+		List<GeofenceEvent> result = new ArrayList<GeofenceEvent>();
+		for (List<GeofenceEvent> stripeEvents : events) {
+			result.addAll(stripeEvents);
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Processed " + n + " positions, " + result.size()
+					+ " events");
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param objectId
+	 * @return ids of the fences the object is in
+	 */
+	public synchronized List<Object> getFences(long objectId) {
+		List<Object> result = new ArrayList<Object>();
+		Membership membership = stripes[stripe(objectId)].get(objectId);
+		if (membership != null) {
+			for (int fence : membership.fences) {
+				result.add(fences.ids[fence]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return number of loaded fences
+	 */
+	public int getFenceCount() {
+		return fences.ids.length;
+	}
+
+	/**
+	 * 
+	 * @return number of objects seen
+	 */
+	public synchronized int getObjectCount() {
+		int count = 0;
+		for (LongObjectMap<Membership> stripe : stripes) {
+			count += stripe.size();
+		}
+		return count;
+	}
+
+	private static void update(LongObjectMap<Membership> memberships,
+			Fences current, long dwell, long objectId, double x, double y,
+			long timestamp, List<GeofenceEvent> events) {
+		Membership membership = memberships.get(objectId);
+		if (membership == null) {
+			membership = new Membership();
+			memberships.put(objectId, membership);
+		} else if (timestamp < membership.timestamp) {
+			return;
+		}
+		membership.timestamp = timestamp;
+		int[] inside = current.locate(x, y);
+		int[] old = membership.fences;
+		if (!Arrays.equals(old, inside)) {
+			long[] since = new long[inside.length];
+			boolean[] dwelled = new boolean[inside.length];
+			int i = 0;
+			int j = 0;
+			while (i < old.length || j < inside.length) {
+				if (j == inside.length || (i < old.length && old[i] < inside[j])) {
+					events.add(new GeofenceEvent(Type.EXIT, objectId,
+							current.ids[old[i]], timestamp, x, y));
+					i++;
+				} else if (i == old.length || inside[j] < old[i]) {
+					events.add(new GeofenceEvent(Type.ENTER, objectId,
+							current.ids[inside[j]], timestamp, x, y));
+					since[j] = timestamp;
+					j++;
+				} else {
+					since[j] = membership.since[i];
+					dwelled[j] = membership.dwelled[i];
+					i++;
+					j++;
+				}
+			}
+			membership.fences = inside;
+			membership.since = since;
+			membership.dwelled = dwelled;
+		}
+		if (dwell > 0) {
+			for (int k = 0; k < membership.fences.length; k++) {
+				if (!membership.dwelled[k]
+						&& timestamp - membership.since[k] >= dwell) {
+					membership.dwelled[k] = true;
+					events.add(new GeofenceEvent(Type.DWELL, objectId,
+							current.ids[membership.fences[k]], timestamp, x, y));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Translate the fences of every object to the positions of the loaded
+	 * fences
+	 */
+	private void remap(Fences previous, Fences loaded) {
+		Map<Object, Integer> positions = new HashMap<Object, Integer>();
+		for (int i = 0; i < loaded.ids.length; i++) {
+			positions.put(loaded.ids[i], i);
+		}
+		int[] moved = new int[previous.ids.length];
+		for (int i = 0; i < moved.length; i++) {
+			Integer position = positions.get(previous.ids[i]);
+			moved[i] = position == null ? -1 : position;
+		}
+		for (LongObjectMap<Membership> stripe : stripes) {
+			for (int slot = 0; slot < stripe.capacity(); slot++) {
+				Membership membership = stripe.valueAt(slot);
+				if (membership != null) {
+					membership.remap(moved);
+				}
+			}
+		}
+	}
+
+	private int stripe(long objectId) {
+		long hash = objectId * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 33) % stripes.length);
+	}
+
+	/**
+	 * Fences of an object, sorted, with the time it entered each one
+	 */
+	private static final class Membership {
+
+		private long timestamp = Long.MIN_VALUE;
+		private int[] fences = NO_FENCES;
+		private long[] since = NO_TIMES;
+		private boolean[] dwelled = NO_FLAGS;
+
+		private void remap(int[] moved) {
+			int count = 0;
+			long[] keys = new long[fences.length];
+			for (int i = 0; i < fences.length; i++) {
+				int fence = moved[fences[i]];
+				if (fence >= 0) {
+					// sort by new position, carrying the old index along
+					keys[count++] = ((long) fence << 32) | i;
+				}
+			}
+			Arrays.sort(keys, 0, count);
+			int[] newFences = new int[count];
+			long[] newSince = new long[count];
+			boolean[] newDwelled = new boolean[count];
+			for (int k = 0; k < count; k++) {
+				int i = (int) keys[k];
+				newFences[k] = (int) (keys[k] >>> 32);
+				newSince[k] = since[i];
+				newDwelled[k] = dwelled[i];
+			}
+			fences = newFences;
+			since = newSince;
+			dwelled = newDwelled;
+		}
+	}
+
+	/**
+	 * Immutable set of fences: ids, locators and tree share the positions
+	 */
+	private static final class Fences {
+
+		private final Object[] ids;
+		private final IndexedPointInAreaLocator[] locators;
+		private final PackedRTree tree;
+
+		private Fences(List<Object> ids,
+				List<IndexedPointInAreaLocator> locators, double[] boxes) {
+			this.ids = ids.toArray();
+			this.locators = locators
+					.toArray(new IndexedPointInAreaLocator[locators.size()]);
+			this.tree = PackedRTree.build(boxes,
+					PackedRTree.DEFAULT_NODE_SIZE);
+		}
+
+		/**
+		 * 
+		 * @return sorted positions of the fences covering the point
+		 */
+		private int[] locate(double x, double y) {
+			int[] candidates = tree.search(x, y, x, y);
+			if (candidates.length == 0) {
+				return NO_FENCES;
+			}
+			Coordinate coordinate = new Coordinate(x, y);
+			int count = 0;
+			for (int candidate : candidates) {
+				if (locators[candidate].locate(coordinate) != Location.EXTERIOR) {
+					candidates[count++] = candidate;
+				}
+			}
+			if (count == 0) {
+				return NO_FENCES;
+			}
+			int[] result = Arrays.copyOf(candidates, count);
+			Arrays.sort(result);
+			return result;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+package org.genericspatialdao.geofence;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Change of the relation between a moving object and a fence
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class GeofenceEvent {
+
+	/**
+	 * Kind of change
+	 */
+	public enum Type {
+
+		/**
+		 * The object is inside the fence and was not at its previous position
+		 */
+		ENTER,
+
+		/**
+		 * The object is outside the fence and was inside at its previous
+		 * position
+		 */
+		EXIT,
+
+		/**
+		 * The object has stayed inside the fence for the dwell time. Sent once
+		 * per stay
+		 */
+		DWELL
+	}
+
+	private final Type type;
+	private final long objectId;
+	private final Object fenceId;
+	private final long timestamp;
+	private final double x;
+	private final double y;
+
+	public GeofenceEvent(Type type, long objectId, Object fenceId,
+			long timestamp, double x, double y) {
+		this.type = type;
+		this.objectId = objectId;
+		this.fenceId = fenceId;
+		this.timestamp = timestamp;
+		this.x = x;
+		this.y = y;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public long getObjectId() {
+		return objectId;
+	}
+
+	/**
+	 * 
+	 * @return id of the fence entity
+	 */
+	public Object getFenceId() {
+		return fenceId;
+	}
+
+	/**
+	 * 
+	 * @return timestamp of the position raising the event
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+				.append("type", type).append("objectId", objectId)
+				.append("fenceId", fenceId).append("timestamp", timestamp)
+				.append("x", x).append("y", y).toString();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,111 @@
+package org.genericspatialdao.geofence;
+
+/**
+ * Open addressing hash map from primitive long keys to non null values, with
+ * linear probing. Not thread safe
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class LongObjectMap<V> {
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	LongObjectMap() {
+		keys = new long[INITIAL_CAPACITY];
+		values = new Object[INITIAL_CAPACITY];
+		mask = INITIAL_CAPACITY - 1;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @return the value of the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			Object value = values[slot];
+			if (value == null) {
+				return null;
+			}
+			if (keys[slot] == key) {
+				return (V) value;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @param value
+	 *            not null
+	 */
+	void put(long key, V value) {
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			if (values[slot] == null) {
+				keys[slot] = key;
+				values[slot] = value;
+				// keep the load factor under 1/2
+				if (++size > values.length / 2) {
+					grow();
+				}
+				return;
+			}
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * 
+	 * @return number of slots, to iterate with {@link #valueAt(int)}
+	 */
+	int capacity() {
+		return values.length;
+	}
+
+	/**
+	 * 
+	 * @param slot
+	 * @return the value of a slot, or null if it is free
+	 */
+	@SuppressWarnings("unchecked")
+	V valueAt(int slot) {
+		return (V) values[slot];
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldValues.length * 2];
+		mask = values.length - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slot(oldKeys[i]);
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private int slot(long key) {
+		return (int) ((key * GOLDEN_RATIO) >>> 32) & mask;
+	}
+}
\ No newline at end of file
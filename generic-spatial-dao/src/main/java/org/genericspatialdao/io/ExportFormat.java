@@ -0,0 +1,35 @@
+package org.genericspatialdao.io;
+
+/**
+ * Formats written by {@link SpatialExporter}. Geometries are written in two
+ * dimensions
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public enum ExportFormat {
+
+	/**
+	 * One GeoJSON feature per line, readable by {@link ImportPipeline}
+	 */
+	GEOJSON_SEQ,
+
+	/**
+	 * CSV with a header line and the geometry as WKT in a "wkt" column,
+	 * readable by {@link ImportPipeline}
+	 */
+	CSV_WKT,
+
+	/**
+	 * CSV with a header line and the geometry as hexadecimal EWKB in a "wkb"
+	 * column
+	 */
+	CSV_WKB_HEX,
+
+	/**
+	 * FlatGeobuf without spatial index, as a spatial index needs every
+	 * feature before the first one is written. The feature count is left
+	 * unknown
+	 */
+	FLATGEOBUF
+}
\ No newline at end of file
@@ -0,0 +1,182 @@
+package org.genericspatialdao.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Byte output of an export through one reusable buffer, optionally gzip
+ * compressed. Text is written as UTF-8. The channel is not closed
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class ExportOutput {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final WritableByteChannel channel;
+	private final GZIPOutputStream gzip;
+	private final byte[] bytes;
+	private final ByteBuffer wrapped;
+	private int position;
+	private final StringBuilder number = new StringBuilder();
+	private long written;
+
+	ExportOutput(WritableByteChannel channel, int bufferSize, boolean compress)
+			throws IOException {
+		this.channel = channel;
+		this.bytes = new byte[bufferSize];
+		this.wrapped = ByteBuffer.wrap(bytes);
+		if (compress) {
+			OutputStream out = Channels.newOutputStream(channel);
+			gzip = new GZIPOutputStream(out, bufferSize);
+		} else {
+			gzip = null;
+		}
+	}
+
+	void write(int b) throws IOException {
+		if (position == bytes.length) {
+			flush();
+		}
+		bytes[position++] = (byte) b;
+	}
+
+	void write(byte[] source, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (position == bytes.length) {
+				flush();
+			}
+			int count = Math.min(length, bytes.length - position);
+			System.arraycopy(source, offset, bytes, position, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	void writeIntLE(int value) throws IOException {
+		write(value);
+		write(value >>> 8);
+		write(value >>> 16);
+		write(value >>> 24);
+	}
+
+	/**
+	 * Write characters as UTF-8
+	 */
+	void write(CharSequence text) throws IOException {
+		write(text, 0, text.length());
+	}
+
+	/**
+	 * Write the characters from start, inclusive, to end, exclusive, as UTF-8
+	 */
+	void write(CharSequence text, int start, int end) throws IOException {
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				write(c);
+			} else if (c < 0x800) {
+				write(0xC0 | (c >> 6));
+				write(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				write(0xF0 | (codePoint >> 18));
+				write(0x80 | ((codePoint >> 12) & 0x3F));
+				write(0x80 | ((codePoint >> 6) & 0x3F));
+				write(0x80 | (codePoint & 0x3F));
+			} else {
+				write(0xE0 | (c >> 12));
+				write(0x80 | ((c >> 6) & 0x3F));
+				write(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	void write(double value) throws IOException {
+		number.setLength(0);
+		number.append(value);
+		write(number);
+	}
+
+	void write(long value) throws IOException {
+		number.setLength(0);
+		number.append(value);
+		write(number);
+	}
+
+	void writeHex(byte[] source) throws IOException {
+		for (byte b : source) {
+			write(HEX[(b >> 4) & 0xF]);
+			write(HEX[b & 0xF]);
+		}
+	}
+
+	/**
+	 * 
+	 * @return a writer of UTF-8 text into this output, for the JTS writers
+	 */
+	Writer asWriter() {
+		return new Writer() {
+			@Override
+			public void write(char[] buffer, int offset, int length)
+					throws IOException {
+				ExportOutput.this.write(CharBuffer.wrap(buffer,
+						offset, length));
+			}
+
+			@Override
+			public void flush() {
+				// flushed by the export
+			}
+
+			@Override
+			public void close() {
+				// closed by the export
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return bytes written before compression
+	 */
+	long getWritten() {
+		return written + position;
+	}
+
+	void flush() throws IOException {
+		if (position == 0) {
+			return;
+		}
+		if (gzip != null) {
+			gzip.write(bytes, 0, position);
+		} else {
+			wrapped.clear().limit(position);
+			while (wrapped.hasRemaining()) {
+				channel.write(wrapped);
+			}
+		}
+		written += position;
+		position = 0;
+	}
+
+	/**
+	 * Flush the buffer and end the compressed stream, if any
+	 */
+	void finish() throws IOException {
+		flush();
+		if (gzip != null) {
+			gzip.finish();
+			gzip.flush();
+		}
+	}
+}
\ No newline at end of file
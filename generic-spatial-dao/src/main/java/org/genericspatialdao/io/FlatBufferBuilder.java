@@ -0,0 +1,225 @@
+package org.genericspatialdao.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Minimal FlatBuffers builder, enough to write FlatGeobuf headers and
+ * features. As in the reference builder, the buffer is filled from its end:
+ * strings, vectors and child tables are written before the table pointing to
+ * them, and vector elements are added last to first. A builder is reused
+ * through {@link #clear()}, keeping its buffer
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class FlatBufferBuilder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ByteBuffer buffer;
+	// start of the written bytes, which go down to 0
+	private int space;
+	private int minAlign = 1;
+	private int[] vtable = new int[16];
+	private int vtableInUse;
+	private int objectStart;
+
+	FlatBufferBuilder(int initialSize) {
+		buffer = ByteBuffer.allocate(initialSize).order(ByteOrder.LITTLE_ENDIAN);
+		space = initialSize;
+	}
+
+	void clear() {
+		space = buffer.capacity();
+		minAlign = 1;
+		vtableInUse = 0;
+	}
+
+	/**
+	 * 
+	 * @return offset of the next write, counted from the end of the buffer
+	 */
+	int offset() {
+		return buffer.capacity() - space;
+	}
+
+	int createString(String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		startVector(1, bytes.length + 1, 1);
+		buffer.put(--space, (byte) 0);
+		space -= bytes.length;
+		System.arraycopy(bytes, 0, buffer.array(), space, bytes.length);
+		return endVector(bytes.length);
+	}
+
+	int createByteVector(byte[] bytes, int length) {
+		startVector(1, length, 1);
+		space -= length;
+		System.arraycopy(bytes, 0, buffer.array(), space, length);
+		return endVector(length);
+	}
+
+	int createOffsetVector(int[] offsets, int length) {
+		startVector(4, length, 4);
+		for (int i = length - 1; i >= 0; i--) {
+			addOffset(offsets[i]);
+		}
+		return endVector(length);
+	}
+
+	/**
+	 * Prepare a vector, whose elements are then added last to first
+	 */
+	void startVector(int elementSize, int count, int alignment) {
+		prep(4, elementSize * count);
+		prep(alignment, elementSize * count);
+	}
+
+	int endVector(int count) {
+		putInt(count);
+		return offset();
+	}
+
+	void startTable(int fields) {
+		if (vtable.length < fields) {
+			vtable = new int[fields];
+		}
+		for (int i = 0; i < fields; i++) {
+			vtable[i] = 0;
+		}
+		vtableInUse = fields;
+		objectStart = offset();
+	}
+
+	void addByte(int field, int value, int defaultValue) {
+		if (value != defaultValue) {
+			prep(1, 0);
+			buffer.put(--space, (byte) value);
+			vtable[field] = offset();
+		}
+	}
+
+	void addShort(int field, int value, int defaultValue) {
+		if (value != defaultValue) {
+			prep(2, 0);
+			space -= 2;
+			buffer.putShort(space, (short) value);
+			vtable[field] = offset();
+		}
+	}
+
+	void addInt(int field, int value, int defaultValue) {
+		if (value != defaultValue) {
+			prep(4, 0);
+			putInt(value);
+			vtable[field] = offset();
+		}
+	}
+
+	void addOffset(int field, int value) {
+		if (value != 0) {
+			addOffset(value);
+			vtable[field] = offset();
+		}
+	}
+
+	int endTable() {
+		prep(4, 0);
+		putInt(0);
+		int objectOffset = offset();
+		int used = vtableInUse;
+		while (used > 0 && vtable[used - 1] == 0) {
+			used--;
+		}
+		for (int i = used - 1; i >= 0; i--) {
+			addShort(vtable[i] != 0 ? objectOffset - vtable[i] : 0);
+		}
+		addShort(objectOffset - objectStart);
+		addShort((used + 2) * 2);
+		int vtableOffset = offset();
+		buffer.putInt(buffer.capacity() - objectOffset, vtableOffset
+				- objectOffset);
+		vtableInUse = 0;
+		return objectOffset;
+	}
+
+	/**
+	 * Finish the buffer with the root table, prefixed by its size
+	 */
+	void finishSizePrefixed(int root) {
+		prep(minAlign, 8);
+		addOffset(root);
+		prep(4, 0);
+		putInt(offset());
+	}
+
+	/**
+	 * 
+	 * @return the finished bytes, from {@link #position()} to the end of
+	 *         {@link #array()}
+	 */
+	byte[] array() {
+		return buffer.array();
+	}
+
+	int position() {
+		return space;
+	}
+
+	void addDouble(double value) {
+		prep(8, 0);
+		space -= 8;
+		buffer.putDouble(space, value);
+	}
+
+	void addUnsignedInt(long value) {
+		prep(4, 0);
+		putInt((int) value);
+	}
+
+	private void addOffset(int value) {
+		prep(4, 0);
+		putInt(offset() - value + 4);
+	}
+
+	private void addShort(int value) {
+		prep(2, 0);
+		space -= 2;
+		buffer.putShort(space, (short) value);
+	}
+
+	private void putInt(int value) {
+		space -= 4;
+		buffer.putInt(space, value);
+	}
+
+	/**
+	 * Pad so that after writing additional bytes, a value of the given size
+	 * is aligned, growing the buffer if needed
+	 */
+	private void prep(int size, int additional) {
+		if (size > minAlign) {
+			minAlign = size;
+		}
+		int alignSize = (~(buffer.capacity() - space + additional) + 1)
+				& (size - 1);
+		while (space < alignSize + size + additional) {
+			grow();
+		}
+		for (int i = 0; i < alignSize; i++) {
+			buffer.put(--space, (byte) 0);
+		}
+	}
+
+	private void grow() {
+		int oldCapacity = buffer.capacity();
+		ByteBuffer grown = ByteBuffer.allocate(oldCapacity * 2).order(
+				ByteOrder.LITTLE_ENDIAN);
+		System.arraycopy(buffer.array(), 0, grown.array(), oldCapacity,
+				oldCapacity);
+		buffer = grown;
+		space += oldCapacity;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,305 @@
+package org.genericspatialdao.io;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.genericspatialdao.exception.SpatialException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Conversion between GeoJSON and JTS geometries
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class GeoJson {
+
+	private static final String TYPE = "type";
+	private static final String COORDINATES = "coordinates";
+	private static final String GEOMETRIES = "geometries";
+	private static final String INVALID_GEOMETRY = "Invalid GeoJSON geometry: ";
+	private static final String INVALID_COORDINATES = "Invalid GeoJSON coordinates: ";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private GeoJson() {
+
+	}
+
+	/**
+	 * 
+	 * @param json
+	 *            geometry object parsed by {@link JsonParser}
+	 * @param factory
+	 * @return the geometry, or null for a null geometry
+	 */
+	static Geometry toGeometry(Object json, GeometryFactory factory) {
+		if (json == null) {
+			return null;
+		}
+		if (!(json instanceof Map)) {
+			throw new SpatialException(INVALID_GEOMETRY + json);
+		}
+		Map<?, ?> map = (Map<?, ?>) json;
+		Object type = map.get(TYPE);
+		if ("GeometryCollection".equals(type)) {
+			List<?> members = list(map.get(GEOMETRIES));
+			Geometry[] geometries = new Geometry[members.size()];
+			for (int i = 0; i < geometries.length; i++) {
+				geometries[i] = toGeometry(members.get(i), factory);
+			}
+			return factory.createGeometryCollection(geometries);
+		}
+		Object coordinates = map.get(COORDINATES);
+		if ("Point".equals(type)) {
+			return factory.createPoint(coordinate(coordinates));
+		}
+		if ("LineString".equals(type)) {
+			return factory.createLineString(coordinates(coordinates));
+		}
+		if ("Polygon".equals(type)) {
+			return polygon(coordinates, factory);
+		}
+		if ("MultiPoint".equals(type)) {
+			return factory.createMultiPoint(coordinates(coordinates));
+		}
+		if ("MultiLineString".equals(type)) {
+			List<?> lines = list(coordinates);
+			LineString[] lineStrings = new LineString[lines.size()];
+			for (int i = 0; i < lineStrings.length; i++) {
+				lineStrings[i] = factory.createLineString(coordinates(lines
+						.get(i)));
+			}
+			return factory.createMultiLineString(lineStrings);
+		}
+		if ("MultiPolygon".equals(type)) {
+			List<?> members = list(coordinates);
+			Polygon[] polygons = new Polygon[members.size()];
+			for (int i = 0; i < polygons.length; i++) {
+				polygons[i] = polygon(members.get(i), factory);
+			}
+			return factory.createMultiPolygon(polygons);
+		}
+		throw new SpatialException(INVALID_GEOMETRY + type);
+	}
+
+	private static Polygon polygon(Object json, GeometryFactory factory) {
+		List<?> rings = list(json);
+		if (rings.isEmpty()) {
+			return factory.createPolygon(null, null);
+		}
+		LinearRing shell = factory.createLinearRing(coordinates(rings.get(0)));
+		LinearRing[] holes = new LinearRing[rings.size() - 1];
+		for (int i = 0; i < holes.length; i++) {
+			holes[i] = factory.createLinearRing(coordinates(rings.get(i + 1)));
+		}
+		return factory.createPolygon(shell, holes);
+	}
+
+	private static Coordinate[] coordinates(Object json) {
+		List<?> positions = list(json);
+		Coordinate[] coordinates = new Coordinate[positions.size()];
+		for (int i = 0; i < coordinates.length; i++) {
+			coordinates[i] = coordinate(positions.get(i));
+		}
+		return coordinates;
+	}
+
+	private static Coordinate coordinate(Object json) {
+		List<?> position = list(json);
+		if (position.size() < 2 || !(position.get(0) instanceof Number)
+				|| !(position.get(1) instanceof Number)) {
+			throw new SpatialException(INVALID_COORDINATES + json);
+		}
+		Coordinate coordinate = new Coordinate(
+				((Number) position.get(0)).doubleValue(),
+				((Number) position.get(1)).doubleValue());
+		if (position.size() > 2 && position.get(2) instanceof Number) {
+			coordinate.z = ((Number) position.get(2)).doubleValue();
+		}
+		return coordinate;
+	}
+
+	/**
+	 * Write a geometry as a GeoJSON geometry object, in two dimensions
+	 * 
+	 * @param geometry
+	 * @param out
+	 * @throws IOException
+	 */
+	static void write(Geometry geometry, ExportOutput out) throws IOException {
+		if (geometry instanceof Point) {
+			writeStart("Point", out);
+			out.write('[');
+			if (!geometry.isEmpty()) {
+				writeCoordinate(((Point) geometry).getCoordinateSequence(), 0,
+						out);
+			}
+			out.write("]}");
+		} else if (geometry instanceof LineString) {
+			writeStart("LineString", out);
+			writeSequence(((LineString) geometry).getCoordinateSequence(), out);
+			out.write("}");
+		} else if (geometry instanceof Polygon) {
+			writeStart("Polygon", out);
+			writeRings((Polygon) geometry, out);
+			out.write("}");
+		} else if (geometry instanceof MultiPoint) {
+			writeStart("MultiPoint", out);
+			out.write('[');
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				Point point = (Point) geometry.getGeometryN(i);
+				out.write('[');
+				writeCoordinate(point.getCoordinateSequence(), 0, out);
+				out.write(']');
+			}
+			out.write("]}");
+		} else if (geometry instanceof MultiLineString) {
+			writeStart("MultiLineString", out);
+			out.write('[');
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				writeSequence(((LineString) geometry.getGeometryN(i))
+						.getCoordinateSequence(), out);
+			}
+			out.write("]}");
+		} else if (geometry instanceof MultiPolygon) {
+			writeStart("MultiPolygon", out);
+			out.write('[');
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				writeRings((Polygon) geometry.getGeometryN(i), out);
+			}
+			out.write("]}");
+		} else {
+			out.write("{\"type\":\"GeometryCollection\",\"geometries\":[");
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				write(geometry.getGeometryN(i), out);
+			}
+			out.write("]}");
+		}
+	}
+
+	/**
+	 * Write a JSON number, or null if it is not finite
+	 */
+	static void writeNumber(double value, ExportOutput out) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.write("null");
+		} else {
+			out.write(value);
+		}
+	}
+
+	/**
+	 * Write a JSON string
+	 */
+	static void writeString(CharSequence value, ExportOutput out)
+			throws IOException {
+		out.write('"');
+		// characters that need no escape are written by runs
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				continue;
+			}
+			out.write(value, start, i);
+			start = i + 1;
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				out.write("\\u00");
+				out.write(HEX[c >> 4]);
+				out.write(HEX[c & 0xF]);
+			}
+		}
+		out.write(value, start, value.length());
+		out.write('"');
+	}
+
+	private static void writeStart(String type, ExportOutput out)
+			throws IOException {
+		out.write("{\"type\":\"");
+		out.write(type);
+		out.write("\",\"coordinates\":");
+	}
+
+	private static void writeRings(Polygon polygon, ExportOutput out)
+			throws IOException {
+		out.write('[');
+		if (!polygon.isEmpty()) {
+			writeSequence(polygon.getExteriorRing().getCoordinateSequence(),
+					out);
+			for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+				out.write(',');
+				writeSequence(polygon.getInteriorRingN(i)
+						.getCoordinateSequence(), out);
+			}
+		}
+		out.write(']');
+	}
+
+	private static void writeSequence(CoordinateSequence sequence,
+			ExportOutput out) throws IOException {
+		out.write('[');
+		for (int i = 0; i < sequence.size(); i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write('[');
+			writeCoordinate(sequence, i, out);
+			out.write(']');
+		}
+		out.write(']');
+	}
+
+	private static void writeCoordinate(CoordinateSequence sequence,
+			int index, ExportOutput out) throws IOException {
+		writeNumber(sequence.getOrdinate(index, CoordinateSequence.X), out);
+		out.write(',');
+		writeNumber(sequence.getOrdinate(index, CoordinateSequence.Y), out);
+	}
+
+	private static List<?> list(Object json) {
+		if (!(json instanceof List)) {
+			throw new SpatialException(INVALID_COORDINATES + json);
+		}
+		return (List<?>) json;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,24 @@
+package org.genericspatialdao.io;
+
+/**
+ * Formats read by {@link ImportPipeline}. Records are lines, so a record can
+ * not hold a line break
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public enum ImportFormat {
+
+	/**
+	 * One GeoJSON feature per line (GeoJSON text sequences, newline delimited
+	 * GeoJSON). The id of a feature is given as the "id" property unless the
+	 * feature has one
+	 */
+	GEOJSON_SEQ,
+
+	/**
+	 * CSV with a header line and a WKT column. Fields holding the separator
+	 * are quoted with double quotes
+	 */
+	WKT_CSV
+}
\ No newline at end of file
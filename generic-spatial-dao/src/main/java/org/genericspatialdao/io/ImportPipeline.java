@@ -0,0 +1,732 @@
+package org.genericspatialdao.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.dao.impl.DaoFactory;
+import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.exception.SpatialException;
+import org.genericspatialdao.util.ParallelUtils;
+import org.genericspatialdao.util.SpatialUtils;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Imports a spatial file into the table of an entity with three stages
+ * linked by bounded queues:
+ * <ul>
+ * <li>a reader maps the file in chunks of whole records;</li>
+ * <li>parse workers turn the records of a chunk into geometries, reject the
+ * unreadable or invalid ones and build the entities with a
+ * {@link RecordMapper};</li>
+ * <li>a writer thread persists the entities of each chunk in one
+ * transaction, in file order. It has its own entity manager, so the one of
+ * the calling thread is left untouched.</li>
+ * </ul>
+ * The inserts of a transaction are sent in JDBC batches when
+ * hibernate.jdbc.batch_size is set in the configuration.
+ * 
+ * With a checkpoint file, the end of the last committed chunk is saved after
+ * each commit and a run after a failure starts from there. When a record
+ * cannot be processed, the chunks before its own are still committed. The
+ * checkpoint is removed when the import completes
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class ImportPipeline<T> {
+
+	public static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+	public static final char DEFAULT_SEPARATOR = ',';
+	public static final String DEFAULT_GEOMETRY_COLUMN = "wkt";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long POLL_MILLIS = 100;
+	private static final String THREAD_NAME_PREFIX = "genericspatialdao-import-";
+	private static final String GEOMETRY = "geometry";
+	private static final String PROPERTIES = "properties";
+	private static final String ID = "id";
+	private static final String FILE = "file";
+	private static final String LENGTH = "length";
+	private static final String OFFSET = "offset";
+	private static final String FAILED_TO_IMPORT = "Failed to import ";
+	private static final String RECORD_TOO_LONG = "Record too long at offset ";
+	private static final String UNKNOWN_GEOMETRY_COLUMN = "Unknown geometry column: ";
+	private static final String CHECKPOINT_MISMATCH = "Checkpoint belongs to another file: ";
+	private static final Logger LOG = Logger.getLogger(ImportPipeline.class);
+
+	// end of the chunks of the reader, or of the entities of a parse worker
+	private static final Chunk<?> END = new Chunk<Object>(-1, 0, null, 0);
+
+	private final Class<T> entityClass;
+	private final DaoConfiguration configuration;
+	private final ImportFormat format;
+	private final RecordMapper<T> mapper;
+	private final int srid;
+	private int parsers = ParallelUtils.getParallelism();
+	private int chunkBytes = DEFAULT_CHUNK_BYTES;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private char separator = DEFAULT_SEPARATOR;
+	private String geometryColumn = DEFAULT_GEOMETRY_COLUMN;
+	private File checkpoint;
+	private volatile ImportStatistics statistics;
+
+	/**
+	 * 
+	 * @param entityClass
+	 * @param configuration
+	 * @param format
+	 * @param mapper
+	 * @param srid
+	 *            SRID of the geometries of the file
+	 */
+	public ImportPipeline(Class<T> entityClass, DaoConfiguration configuration,
+			ImportFormat format, RecordMapper<T> mapper, int srid) {
+		this.entityClass = entityClass;
+		this.configuration = configuration;
+		this.format = format;
+		this.mapper = mapper;
+		this.srid = srid;
+	}
+
+	public int getParsers() {
+		return parsers;
+	}
+
+	/**
+	 * 
+	 * @param parsers
+	 *            number of parse workers
+	 */
+	public void setParsers(int parsers) {
+		this.parsers = parsers;
+	}
+
+	public int getChunkBytes() {
+		return chunkBytes;
+	}
+
+	/**
+	 * 
+	 * @param chunkBytes
+	 *            size of the chunks read from the file, and so of the
+	 *            transactions. A chunk grows to hold a longer record
+	 */
+	public void setChunkBytes(int chunkBytes) {
+		this.chunkBytes = chunkBytes;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * 
+	 * @param queueCapacity
+	 *            number of chunks waiting between two stages
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public char getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * 
+	 * @param separator
+	 *            field separator of {@link ImportFormat#WKT_CSV}
+	 */
+	public void setSeparator(char separator) {
+		this.separator = separator;
+	}
+
+	public String getGeometryColumn() {
+		return geometryColumn;
+	}
+
+	/**
+	 * 
+	 * @param geometryColumn
+	 *            header of the WKT column of {@link ImportFormat#WKT_CSV}
+	 */
+	public void setGeometryColumn(String geometryColumn) {
+		this.geometryColumn = geometryColumn;
+	}
+
+	public File getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * 
+	 * @param checkpoint
+	 *            file keeping the progress of the import, or null
+	 */
+	public void setCheckpoint(File checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * 
+	 * @return counters of the current or last run
+	 */
+	public ImportStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Import a file, resuming from the checkpoint if there is one
+	 * 
+	 * @param file
+	 * @return counters of the run
+	 */
+	public ImportStatistics run(File file) {
+		ImportStatistics stats = new ImportStatistics();
+		statistics = stats;
+		RandomAccessFile input = null;
+		try {
+			input = new RandomAccessFile(file, "r");
+			new Run(file, input.getChannel(), stats).execute();
+		} catch (IOException e) {
+			String message = FAILED_TO_IMPORT + file + ": " + e.getMessage();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					LOG.warn("Failed to close " + file + ": " + e.getMessage());
+				}
+			}
+		}
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Imported " + file + ": " + stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Run of the pipeline over a file
+	 */
+	private final class Run {
+
+		private final File file;
+		private final FileChannel channel;
+		private final ImportStatistics stats;
+		private final BlockingQueue<Chunk<T>> chunks = new ArrayBlockingQueue<Chunk<T>>(
+				queueCapacity);
+		private final BlockingQueue<Chunk<T>> parsed = new LinkedBlockingQueue<Chunk<T>>();
+		// chunks between the reader and the commit, so that the chunks
+		// waiting for an earlier one to be written are bounded too
+		private final Semaphore window = new Semaphore(queueCapacity * 2
+				+ parsers);
+		private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		// chunks before the first failed one are still committed
+		private volatile long failedChunk = Long.MAX_VALUE;
+		private final List<Thread> threads = new ArrayList<Thread>();
+		private volatile boolean written;
+		private long size;
+		private String[] header;
+		private int geometryIndex;
+
+		private Run(File file, FileChannel channel, ImportStatistics stats) {
+			this.file = file;
+			this.channel = channel;
+			this.stats = stats;
+		}
+
+		private void execute() throws IOException {
+			size = channel.size();
+			long offset = 0;
+			if (format == ImportFormat.WKT_CSV) {
+				offset = readHeader();
+			}
+			long resume = readCheckpoint();
+			if (resume > offset) {
+				if (LOG.isInfoEnabled()) {
+					LOG.info("Resuming import of " + file + " at offset "
+							+ resume);
+				}
+				offset = resume;
+			}
+			final long start = offset;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					read(start);
+				}
+			}, THREAD_NAME_PREFIX + "reader"));
+			for (int i = 0; i < parsers; i++) {
+				threads.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						parse();
+					}
+				}, THREAD_NAME_PREFIX + "parser-" + i));
+			}
+			Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Dao<T> dao = DaoFactory.getDAO(entityClass, configuration);
+					try {
+						write(dao);
+					} catch (InterruptedException e) {
+						// aborted
+					} catch (Exception e) {
+						fail(e, -1);
+					} finally {
+						dao.close();
+					}
+				}
+			}, THREAD_NAME_PREFIX + "writer");
+			threads.add(writer);
+			for (Thread thread : threads) {
+				thread.setDaemon(true);
+				thread.start();
+			}
+			boolean interrupted = false;
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+				fail(e, -1);
+			} finally {
+				for (Thread thread : threads) {
+					thread.interrupt();
+				}
+				for (Thread thread : threads) {
+					joinQuietly(thread);
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			checkFailure();
+			if (!written) {
+				String message = FAILED_TO_IMPORT + file + ": writer stopped";
+				LOG.error(message);
+				throw new DaoException(message);
+			}
+			if (checkpoint != null && checkpoint.exists() && !checkpoint.delete()) {
+				LOG.warn("Failed to remove checkpoint " + checkpoint);
+			}
+		}
+
+		private void read(long start) {
+			long index = 0;
+			try {
+				long offset = start;
+				while (offset < size) {
+					window.acquire();
+					long time = System.nanoTime();
+					byte[] data = readChunk(offset);
+					stats.addRead(data.length, System.nanoTime() - time);
+					offset += data.length;
+					chunks.put(new Chunk<T>(index++, offset, data, data.length));
+				}
+				for (int i = 0; i < parsers; i++) {
+					chunks.put(end());
+				}
+			} catch (InterruptedException e) {
+				// aborted
+			} catch (Exception e) {
+				fail(e, index);
+			}
+		}
+
+		private void parse() {
+			GeometryFactory factory = new GeometryFactory(
+					SpatialUtils.getPrecisionModel(), srid);
+			WKTReader wktReader = new WKTReader(factory);
+			JsonParser jsonParser = new JsonParser();
+			long index = -1;
+			try {
+				while (true) {
+					Chunk<T> chunk = chunks.take();
+					if (chunk == END) {
+						parsed.put(chunk);
+						return;
+					}
+					index = chunk.index;
+					long time = System.nanoTime();
+					byte[] data = chunk.data;
+					long records = 0;
+					long rejected = 0;
+					int start = 0;
+					for (int i = 0; i <= chunk.length; i++) {
+						if (i < chunk.length && data[i] != '\n') {
+							continue;
+						}
+						int end = i;
+						if (end > start && data[end - 1] == '\r') {
+							end--;
+						}
+						if (end > start) {
+							records++;
+							String line = new String(data, start, end - start,
+									UTF8);
+							Map<String, Object> properties = new HashMap<String, Object>();
+							Geometry geometry = readRecord(line, properties,
+									wktReader, jsonParser, factory);
+							if (geometry == null) {
+								rejected++;
+							} else {
+								T entity = mapper.map(geometry, properties);
+								if (entity != null) {
+									chunk.entities.add(entity);
+								}
+							}
+						}
+						start = i + 1;
+					}
+					chunk.data = null;
+					stats.addParsed(records, rejected, System.nanoTime()
+							- time);
+					parsed.put(chunk);
+				}
+			} catch (InterruptedException e) {
+				// aborted
+			} catch (Exception e) {
+				fail(e, index);
+			}
+		}
+
+		private void write(Dao<T> dao) throws IOException,
+				InterruptedException {
+			Map<Long, Chunk<T>> waiting = new HashMap<Long, Chunk<T>>();
+			long next = 0;
+			int ended = 0;
+			while (ended < parsers) {
+				Chunk<T> chunk = parsed.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (failure.get() != null && next >= failedChunk) {
+					return;
+				}
+				if (chunk == null) {
+					continue;
+				}
+				if (chunk == END) {
+					ended++;
+					continue;
+				}
+				waiting.put(chunk.index, chunk);
+				Chunk<T> ready;
+				while ((ready = waiting.remove(next)) != null) {
+					commit(dao, ready);
+					next++;
+					window.release();
+				}
+			}
+			written = true;
+		}
+
+		private void commit(Dao<T> dao, Chunk<T> chunk) throws IOException {
+			long time = System.nanoTime();
+			if (!chunk.entities.isEmpty()) {
+				// with automatic transactions, persist commits by itself
+				boolean explicit = !configuration.isAutoTransaction();
+				try {
+					if (explicit) {
+						dao.beginTransaction();
+					}
+					dao.persist(chunk.entities);
+					if (explicit) {
+						dao.commit();
+					}
+				} catch (DaoException e) {
+					if (explicit) {
+						dao.rollback();
+					}
+					throw new DaoException(
+							"failed to write the chunk ending at offset "
+									+ chunk.end + ": " + e.getMessage(), e);
+				} finally {
+					// committed entities are not needed any more
+					dao.getEntityManager().clear();
+				}
+			}
+			saveCheckpoint(chunk.end);
+			stats.addWritten(chunk.entities.size(), System.nanoTime() - time);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Imported " + file + " up to offset " + chunk.end);
+			}
+		}
+
+		private Geometry readRecord(String line,
+				Map<String, Object> properties, WKTReader wktReader,
+				JsonParser jsonParser, GeometryFactory factory) {
+			Geometry geometry;
+			try {
+				if (format == ImportFormat.GEOJSON_SEQ) {
+					geometry = readFeature(line, properties, jsonParser,
+							factory);
+				} else {
+					geometry = readCsv(line, properties, wktReader);
+				}
+			} catch (Exception e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Rejected record " + line + ": " + e.getMessage());
+				}
+				return null;
+			}
+			if (SpatialUtils.isNotValid(geometry)) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Rejected invalid geometry of record " + line);
+				}
+				return null;
+			}
+			return geometry;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Geometry readFeature(String line,
+				Map<String, Object> properties, JsonParser jsonParser,
+				GeometryFactory factory) {
+			Object value = jsonParser.parse(line);
+			if (!(value instanceof Map)) {
+				throw new SpatialException("Not a GeoJSON feature");
+			}
+			Map<String, Object> feature = (Map<String, Object>) value;
+			Object featureProperties = feature.get(PROPERTIES);
+			if (featureProperties instanceof Map) {
+				properties.putAll((Map<String, Object>) featureProperties);
+			}
+			Object id = feature.get(ID);
+			if (id != null && !properties.containsKey(ID)) {
+				properties.put(ID, id);
+			}
+			return GeoJson.toGeometry(feature.get(GEOMETRY), factory);
+		}
+
+		private Geometry readCsv(String line, Map<String, Object> properties,
+				WKTReader wktReader) throws Exception {
+			List<String> fields = splitCsv(line, separator);
+			if (fields.size() != header.length) {
+				throw new SpatialException("Expected " + header.length
+						+ " fields, found " + fields.size());
+			}
+			for (int i = 0; i < header.length; i++) {
+				if (i != geometryIndex) {
+					properties.put(header[i], fields.get(i));
+				}
+			}
+			return wktReader.read(fields.get(geometryIndex));
+		}
+
+		private long readHeader() throws IOException {
+			if (size == 0) {
+				return 0;
+			}
+			byte[] data = readChunk(0);
+			int end = 0;
+			while (end < data.length && data[end] != '\n') {
+				end++;
+			}
+			int length = end > 0 && data[end - 1] == '\r' ? end - 1 : end;
+			List<String> names = splitCsv(new String(data, 0, length, UTF8),
+					separator);
+			header = names.toArray(new String[names.size()]);
+			geometryIndex = names.indexOf(geometryColumn);
+			if (geometryIndex < 0) {
+				String message = UNKNOWN_GEOMETRY_COLUMN + geometryColumn;
+				LOG.error(message);
+				throw new DaoException(message);
+			}
+			return Math.min(end + 1, size);
+		}
+
+		/**
+		 * Read the whole records from an offset, at least one
+		 */
+		private byte[] readChunk(long offset) throws IOException {
+			long length = Math.min(chunkBytes, size - offset);
+			while (true) {
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, offset, length);
+				int limit = (int) length;
+				if (offset + length < size) {
+					limit = buffer.limit() - 1;
+					while (limit >= 0 && buffer.get(limit) != '\n') {
+						limit--;
+					}
+					if (limit < 0) {
+						if (length >= Integer.MAX_VALUE / 2) {
+							String message = RECORD_TOO_LONG + offset;
+							LOG.error(message);
+							throw new DaoException(message);
+						}
+						length = Math.min(length * 2, size - offset);
+						continue;
+					}
+					limit++;
+				}
+				byte[] data = new byte[limit];
+				buffer.get(data);
+				return data;
+			}
+		}
+
+		private long readCheckpoint() throws IOException {
+			if (checkpoint == null || !checkpoint.exists()) {
+				return 0;
+			}
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(checkpoint);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			if (!file.getAbsolutePath().equals(properties.getProperty(FILE))
+					|| !String.valueOf(size).equals(
+							properties.getProperty(LENGTH))) {
+				String message = CHECKPOINT_MISMATCH + checkpoint;
+				LOG.error(message);
+				throw new DaoException(message);
+			}
+			return Long.parseLong(properties.getProperty(OFFSET));
+		}
+
+		private void saveCheckpoint(long offset) throws IOException {
+			if (checkpoint == null) {
+				return;
+			}
+			Properties properties = new Properties();
+			properties.setProperty(FILE, file.getAbsolutePath());
+			properties.setProperty(LENGTH, String.valueOf(size));
+			properties.setProperty(OFFSET, String.valueOf(offset));
+			File temporary = new File(checkpoint.getPath() + ".tmp");
+			OutputStream out = new FileOutputStream(temporary);
+			try {
+				properties.store(out, null);
+			} finally {
+				out.close();
+			}
+			if (!temporary.renameTo(checkpoint)
+					&& !(checkpoint.delete() && temporary.renameTo(checkpoint))) {
+				throw new IOException("Failed to save checkpoint "
+						+ checkpoint);
+			}
+		}
+
+		/**
+		 * 
+		 * @param e
+		 * @param chunk
+		 *            index of the chunk that failed, or -1 to stop writing at
+		 *            once
+		 */
+		private synchronized void fail(Exception e, long chunk) {
+			failure.compareAndSet(null, e);
+			if (chunk < failedChunk) {
+				failedChunk = chunk;
+			}
+		}
+
+		private void checkFailure() {
+			Exception e = failure.get();
+			if (e != null) {
+				String message = FAILED_TO_IMPORT + file + ": "
+						+ e.getMessage();
+				LOG.error(message);
+				throw new DaoException(message, e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Chunk<T> end() {
+			return (Chunk<T>) END;
+		}
+	}
+
+	/**
+	 * Split a CSV line, removing the quotes of quoted fields
+	 */
+	private static List<String> splitCsv(String line, char separator) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == separator) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static void joinQuietly(Thread thread) {
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Records of the file between two offsets, then their entities
+	 */
+	private static final class Chunk<T> {
+
+		private final long index;
+		private final long end;
+		private byte[] data;
+		private final int length;
+		private final List<T> entities = new ArrayList<T>();
+
+		private Chunk(long index, long end, byte[] data, int length) {
+			this.index = index;
+			this.end = end;
+			this.data = data;
+			this.length = length;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+package org.genericspatialdao.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Counters of a run of an {@link ImportPipeline}, updated while it runs. The
+ * time of a stage is the time its threads spent working, not waiting for the
+ * other stages, summed over the threads of the stage
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class ImportStatistics {
+
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong readNanos = new AtomicLong();
+	private final AtomicLong parseNanos = new AtomicLong();
+	private final AtomicLong writeNanos = new AtomicLong();
+	private final long start = System.nanoTime();
+
+	/**
+	 * 
+	 * @return bytes read from the file
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * 
+	 * @return records parsed
+	 */
+	public long getRecords() {
+		return records.get();
+	}
+
+	/**
+	 * 
+	 * @return records with an unreadable or invalid geometry
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * 
+	 * @return entities committed
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	public long getReadMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(readNanos.get());
+	}
+
+	public long getParseMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(parseNanos.get());
+	}
+
+	public long getWriteMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(writeNanos.get());
+	}
+
+	/**
+	 * 
+	 * @return time since the start of the run
+	 */
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	/**
+	 * 
+	 * @return megabytes read per second of reading
+	 */
+	public double getReadThroughput() {
+		return rate(bytes.get() / (1024d * 1024d), readNanos.get());
+	}
+
+	/**
+	 * 
+	 * @return records parsed per second of a parse worker
+	 */
+	public double getParseThroughput() {
+		return rate(records.get(), parseNanos.get());
+	}
+
+	/**
+	 * 
+	 * @return entities written per second of writing
+	 */
+	public double getWriteThroughput() {
+		return rate(written.get(), writeNanos.get());
+	}
+
+	void addRead(long byteCount, long nanos) {
+		bytes.addAndGet(byteCount);
+		readNanos.addAndGet(nanos);
+	}
+
+	void addParsed(long recordCount, long rejectedCount, long nanos) {
+		records.addAndGet(recordCount);
+		rejected.addAndGet(rejectedCount);
+		parseNanos.addAndGet(nanos);
+	}
+
+	void addWritten(long entityCount, long nanos) {
+		written.addAndGet(entityCount);
+		writeNanos.addAndGet(nanos);
+	}
+
+	private static double rate(double count, long nanos) {
+		if (nanos == 0) {
+			return 0;
+		}
+		return count * TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+				.append("bytes", getBytes()).append("records", getRecords())
+				.append("rejected", getRejected())
+				.append("written", getWritten())
+				.append("readMillis", getReadMillis())
+				.append("parseMillis", getParseMillis())
+				.append("writeMillis", getWriteMillis())
+				.append("elapsedMillis", getElapsedMillis()).toString();
+	}
+}
\ No newline at end of file
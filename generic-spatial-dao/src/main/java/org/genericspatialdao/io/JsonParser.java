@@ -0,0 +1,221 @@
+package org.genericspatialdao.io;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.genericspatialdao.exception.SpatialException;
+
+/**
+ * Small JSON parser for GeoJSON records. Objects become maps, arrays lists,
+ * numbers doubles and literals booleans or null. Not thread safe, a parser is
+ * reused for the records of a worker
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class JsonParser {
+
+	private static final String INVALID_JSON = "Invalid JSON at position ";
+
+	private String text;
+	private int position;
+	private final StringBuilder builder = new StringBuilder();
+
+	/**
+	 * 
+	 * @param json
+	 * @return the parsed value
+	 */
+	Object parse(String json) {
+		text = json;
+		position = 0;
+		Object value = readValue();
+		skipWhitespace();
+		if (position != text.length()) {
+			throw error();
+		}
+		return value;
+	}
+
+	private Object readValue() {
+		skipWhitespace();
+		if (position >= text.length()) {
+			throw error();
+		}
+		char c = text.charAt(position);
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			return readLiteral("true", Boolean.TRUE);
+		case 'f':
+			return readLiteral("false", Boolean.FALSE);
+		case 'n':
+			return readLiteral("null", null);
+		default:
+			return readNumber();
+		}
+	}
+
+	private Map<String, Object> readObject() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		position++;
+		skipWhitespace();
+		if (peek() == '}') {
+			position++;
+			return map;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error();
+			}
+			String key = readString();
+			skipWhitespace();
+			expect(':');
+			map.put(key, readValue());
+			skipWhitespace();
+			char c = next();
+			if (c == '}') {
+				return map;
+			}
+			if (c != ',') {
+				throw error();
+			}
+		}
+	}
+
+	private List<Object> readArray() {
+		List<Object> list = new ArrayList<Object>();
+		position++;
+		skipWhitespace();
+		if (peek() == ']') {
+			position++;
+			return list;
+		}
+		while (true) {
+			list.add(readValue());
+			skipWhitespace();
+			char c = next();
+			if (c == ']') {
+				return list;
+			}
+			if (c != ',') {
+				throw error();
+			}
+		}
+	}
+
+	private String readString() {
+		position++;
+		builder.setLength(0);
+		while (true) {
+			char c = next();
+			if (c == '"') {
+				return builder.toString();
+			}
+			if (c != '\\') {
+				builder.append(c);
+				continue;
+			}
+			c = next();
+			switch (c) {
+			case 'b':
+				builder.append('\b');
+				break;
+			case 'f':
+				builder.append('\f');
+				break;
+			case 'n':
+				builder.append('\n');
+				break;
+			case 'r':
+				builder.append('\r');
+				break;
+			case 't':
+				builder.append('\t');
+				break;
+			case 'u':
+				if (position + 4 > text.length()) {
+					throw error();
+				}
+				try {
+					builder.append((char) Integer.parseInt(
+							text.substring(position, position + 4), 16));
+				} catch (NumberFormatException e) {
+					throw error();
+				}
+				position += 4;
+				break;
+			default:
+				// quote, backslash and slash
+				builder.append(c);
+			}
+		}
+	}
+
+	private Object readLiteral(String literal, Object value) {
+		if (!text.startsWith(literal, position)) {
+			throw error();
+		}
+		position += literal.length();
+		return value;
+	}
+
+	private Double readNumber() {
+		int start = position;
+		while (position < text.length()) {
+			char c = text.charAt(position);
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.'
+					|| c == 'e' || c == 'E') {
+				position++;
+			} else {
+				break;
+			}
+		}
+		if (start == position) {
+			throw error();
+		}
+		try {
+			return Double.valueOf(text.substring(start, position));
+		} catch (NumberFormatException e) {
+			throw error();
+		}
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length()
+				&& Character.isWhitespace(text.charAt(position))) {
+			position++;
+		}
+	}
+
+	private char peek() {
+		if (position >= text.length()) {
+			throw error();
+		}
+		return text.charAt(position);
+	}
+
+	private char next() {
+		char c = peek();
+		position++;
+		return c;
+	}
+
+	private void expect(char c) {
+		if (next() != c) {
+			throw error();
+		}
+	}
+
+	private SpatialException error() {
+		return new SpatialException(INVALID_JSON + position);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+package org.genericspatialdao.io;
+
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Builds the entity of an imported record. Called concurrently by the parse
+ * workers of an {@link ImportPipeline}
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public interface RecordMapper<T> {
+
+	/**
+	 * 
+	 * @param geometry
+	 *            valid geometry of the record
+	 * @param properties
+	 *            other fields of the record: strings for CSV, JSON values
+	 *            (strings, doubles, booleans, maps and lists) for GeoJSON
+	 * @return the entity to persist, or null to skip the record
+	 */
+	T map(Geometry geometry, Map<String, Object> properties);
+}
\ No newline at end of file
@@ -0,0 +1,713 @@
+package org.genericspatialdao.io;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.configuration.CriteriaOptions;
+import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.dao.ResultHandler;
+import org.genericspatialdao.dao.impl.SpatialMetadata;
+import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.type.LazyGeometry;
+import org.genericspatialdao.util.WKBUtils;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.metadata.ClassMetadata;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKTWriter;
+
+/**
+ * Streams the results of a query to a channel as GeoJSON, CSV or FlatGeobuf.
+ * Rows are read with {@link Dao#streamByCriteria} and written through
+ * reusable buffers, so the heap needed does not depend on the number of rows.
+ * 
+ * Besides the geometry, the identifier and the basic properties of simple
+ * types (strings, numbers, booleans, dates and enums) are exported. Dates are
+ * written as ISO 8601 UTC strings
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class SpatialExporter<T> {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	public static final char DEFAULT_SEPARATOR = ',';
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String NOT_A_GEOMETRY_PROPERTY = "Not a geometry property: ";
+	private static final String FAILED_TO_EXPORT = "Failed to export: ";
+	private static final Logger LOG = Logger.getLogger(SpatialExporter.class);
+
+	private static final byte[] FLATGEOBUF_MAGIC = { 0x66, 0x67, 0x62, 0x03,
+			0x66, 0x67, 0x62, 0x00 };
+	private static final int FLATBUFFER_SIZE = 1024;
+	// FlatGeobuf geometry types
+	private static final int POINT = 1;
+	private static final int LINE_STRING = 2;
+	private static final int POLYGON = 3;
+	private static final int MULTI_POINT = 4;
+	private static final int MULTI_LINE_STRING = 5;
+	private static final int MULTI_POLYGON = 6;
+	private static final int GEOMETRY_COLLECTION = 7;
+	// FlatGeobuf column types
+	private static final int BYTE = 0;
+	private static final int BOOL = 2;
+	private static final int SHORT = 3;
+	private static final int INT = 5;
+	private static final int LONG = 7;
+	private static final int FLOAT = 9;
+	private static final int DOUBLE = 10;
+	private static final int STRING = 11;
+	private static final int DATE_TIME = 13;
+
+	private final Class<T> entityClass;
+	private final Dao<T> dao;
+	private final String geometryProperty;
+	private final ExportFormat format;
+	private boolean gzip;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private char separator = DEFAULT_SEPARATOR;
+
+	/**
+	 * 
+	 * @param entityClass
+	 * @param dao
+	 *            DAO of the entity, used from the calling thread
+	 * @param geometryProperty
+	 *            geometry written for each row
+	 * @param format
+	 */
+	public SpatialExporter(Class<T> entityClass, Dao<T> dao,
+			String geometryProperty, ExportFormat format) {
+		this.entityClass = entityClass;
+		this.dao = dao;
+		this.geometryProperty = geometryProperty;
+		this.format = format;
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	/**
+	 * 
+	 * @param gzip
+	 *            true to compress the output with gzip
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * 
+	 * @param bufferSize
+	 *            size of the output buffer
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public char getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * 
+	 * @param separator
+	 *            field separator of the CSV formats
+	 */
+	public void setSeparator(char separator) {
+		this.separator = separator;
+	}
+
+	/**
+	 * Write the results of a criteria query. The channel is not closed
+	 * 
+	 * @param list
+	 *            conditions, or null
+	 * @param criteriaOptions
+	 *            options of the query, or null
+	 * @param channel
+	 * @return number of rows written
+	 */
+	public long export(List<Criterion> list, CriteriaOptions criteriaOptions,
+			WritableByteChannel channel) {
+		SpatialMetadata metadata = SpatialMetadata.of(dao.getSession(),
+				entityClass);
+		List<Column> columns = getColumns(metadata);
+		try {
+			final ExportOutput out = new ExportOutput(channel, bufferSize,
+					gzip);
+			final Writer writer = createWriter(metadata, columns, out);
+			writer.start();
+			long count = dao.streamByCriteria(list, criteriaOptions,
+					new ResultHandler<T>() {
+						@Override
+						public void handle(List<T> chunk) {
+							try {
+								for (T t : chunk) {
+									writer.write(t);
+								}
+							} catch (IOException e) {
+								String message = FAILED_TO_EXPORT
+										+ e.getMessage();
+								LOG.error(message);
+								throw new DaoException(message, e);
+							}
+						}
+					});
+			writer.finish();
+			out.finish();
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Exported " + count + " rows of "
+						+ entityClass.getName() + " as " + format + ": "
+						+ out.getWritten() + " bytes");
+			}
+			return count;
+		} catch (IOException e) {
+			String message = FAILED_TO_EXPORT + e.getMessage();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		}
+	}
+
+	private Writer createWriter(SpatialMetadata metadata,
+			List<Column> columns, ExportOutput out) {
+		switch (format) {
+		case GEOJSON_SEQ:
+			return new GeoJsonWriter(metadata, columns, out);
+		case CSV_WKT:
+			return new CsvWriter(metadata, columns, out, false);
+		case CSV_WKB_HEX:
+			return new CsvWriter(metadata, columns, out, true);
+		default:
+			return new FlatGeobufWriter(metadata, columns, out);
+		}
+	}
+
+	private List<Column> getColumns(SpatialMetadata metadata) {
+		ClassMetadata classMetadata = metadata.getClassMetadata();
+		if (!metadata.isGeometryProperty(geometryProperty)) {
+			String message = NOT_A_GEOMETRY_PROPERTY + geometryProperty;
+			LOG.error(message);
+			throw new DaoException(message);
+		}
+		List<Column> columns = new ArrayList<Column>();
+		if (classMetadata.getIdentifierPropertyName() != null) {
+			Class<?> type = classMetadata.getIdentifierType()
+					.getReturnedClass();
+			if (isSimple(type)) {
+				columns.add(new Column(classMetadata
+						.getIdentifierPropertyName(), type, true));
+			}
+		}
+		for (String property : metadata.getBasicProperties()) {
+			Class<?> type = classMetadata.getPropertyType(property)
+					.getReturnedClass();
+			if (!metadata.isGeometryProperty(property) && isSimple(type)) {
+				columns.add(new Column(property, type, false));
+			}
+		}
+		return columns;
+	}
+
+	private static boolean isSimple(Class<?> type) {
+		return String.class == type || Character.class == type
+				|| Boolean.class == type || Number.class.isAssignableFrom(type)
+				|| Date.class.isAssignableFrom(type) || type.isEnum();
+	}
+
+	/**
+	 * Exported property
+	 */
+	private static final class Column {
+
+		private final String name;
+		private final Class<?> type;
+		private final boolean identifier;
+
+		private Column(String name, Class<?> type, boolean identifier) {
+			this.name = name;
+			this.type = type;
+			this.identifier = identifier;
+		}
+	}
+
+	/**
+	 * Writer of one format
+	 */
+	private abstract class Writer {
+
+		protected final SpatialMetadata metadata;
+		protected final List<Column> columns;
+		protected final ExportOutput out;
+		private final DateFormat dateFormat = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+		protected Writer(SpatialMetadata metadata, List<Column> columns,
+				ExportOutput out) {
+			this.metadata = metadata;
+			this.columns = columns;
+			this.out = out;
+			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+
+		void start() throws IOException {
+			// nothing before the first row
+		}
+
+		abstract void write(T t) throws IOException;
+
+		void finish() throws IOException {
+			// nothing after the last row
+		}
+
+		protected Geometry getGeometry(T t) {
+			Object value = metadata.getClassMetadata().getPropertyValue(t,
+					geometryProperty);
+			return value instanceof LazyGeometry ? ((LazyGeometry) value)
+					.getGeometry() : (Geometry) value;
+		}
+
+		protected Object getValue(T t, Column column) {
+			if (column.identifier) {
+				return metadata.getIdentifier(t);
+			}
+			return metadata.getClassMetadata().getPropertyValue(t,
+					column.name);
+		}
+
+		/**
+		 * 
+		 * @return text of a value that is neither a number nor a boolean
+		 */
+		protected String toText(Object value) {
+			if (value instanceof Date) {
+				return dateFormat.format((Date) value);
+			}
+			return value.toString();
+		}
+	}
+
+	/**
+	 * One GeoJSON feature per line
+	 */
+	private final class GeoJsonWriter extends Writer {
+
+		private GeoJsonWriter(SpatialMetadata metadata, List<Column> columns,
+				ExportOutput out) {
+			super(metadata, columns, out);
+		}
+
+		@Override
+		void write(T t) throws IOException {
+			out.write("{\"type\":\"Feature\"");
+			boolean first = true;
+			for (Column column : columns) {
+				if (column.identifier) {
+					out.write(",\"id\":");
+					writeValue(getValue(t, column));
+				}
+			}
+			out.write(",\"geometry\":");
+			Geometry geometry = getGeometry(t);
+			if (geometry == null) {
+				out.write("null");
+			} else {
+				GeoJson.write(geometry, out);
+			}
+			out.write(",\"properties\":{");
+			for (Column column : columns) {
+				if (column.identifier) {
+					continue;
+				}
+				if (!first) {
+					out.write(',');
+				}
+				first = false;
+				GeoJson.writeString(column.name, out);
+				out.write(':');
+				writeValue(getValue(t, column));
+			}
+			out.write("}}\n");
+		}
+
+		private void writeValue(Object value) throws IOException {
+			if (value == null) {
+				out.write("null");
+			} else if (value instanceof Double || value instanceof Float) {
+				GeoJson.writeNumber(((Number) value).doubleValue(), out);
+			} else if (value instanceof Long || value instanceof Integer
+					|| value instanceof Short || value instanceof Byte) {
+				out.write(((Number) value).longValue());
+			} else if (value instanceof BigDecimal
+					|| value instanceof BigInteger || value instanceof Boolean) {
+				out.write(value.toString());
+			} else {
+				GeoJson.writeString(toText(value), out);
+			}
+		}
+	}
+
+	/**
+	 * CSV with a header line, the geometry in the last column
+	 */
+	private final class CsvWriter extends Writer {
+
+		private final boolean wkb;
+		private final WKTWriter wktWriter = new WKTWriter();
+		private final java.io.Writer textWriter;
+
+		private CsvWriter(SpatialMetadata metadata, List<Column> columns,
+				ExportOutput out, boolean wkb) {
+			super(metadata, columns, out);
+			this.wkb = wkb;
+			this.textWriter = out.asWriter();
+		}
+
+		@Override
+		void start() throws IOException {
+			for (Column column : columns) {
+				writeField(column.name);
+				out.write(separator);
+			}
+			out.write(wkb ? "wkb\n" : "wkt\n");
+		}
+
+		@Override
+		void write(T t) throws IOException {
+			for (Column column : columns) {
+				Object value = getValue(t, column);
+				if (value != null) {
+					writeField(toText(value));
+				}
+				out.write(separator);
+			}
+			Geometry geometry = getGeometry(t);
+			if (geometry != null) {
+				if (wkb) {
+					out.writeHex(WKBUtils.write(geometry));
+				} else {
+					// WKT holds commas
+					out.write('"');
+					wktWriter.write(geometry, textWriter);
+					out.write('"');
+				}
+			}
+			out.write('\n');
+		}
+
+		private void writeField(String value) throws IOException {
+			boolean quote = false;
+			for (int i = 0; i < value.length() && !quote; i++) {
+				char c = value.charAt(i);
+				quote = c == separator || c == '"' || c == '\n' || c == '\r';
+			}
+			if (!quote) {
+				out.write(value);
+				return;
+			}
+			out.write('"');
+			int start = 0;
+			for (int i = 0; i < value.length(); i++) {
+				if (value.charAt(i) == '"') {
+					// doubled
+					out.write(value, start, i + 1);
+					start = i;
+				}
+			}
+			out.write(value, start, value.length());
+			out.write('"');
+		}
+	}
+
+	/**
+	 * FlatGeobuf: magic bytes, header and size prefixed features. The header
+	 * is written with the first feature, to get the SRID
+	 */
+	private final class FlatGeobufWriter extends Writer {
+
+		private final FlatBufferBuilder builder = new FlatBufferBuilder(
+				FLATBUFFER_SIZE);
+		private ByteBuffer properties = ByteBuffer.allocate(FLATBUFFER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		private final int[] types;
+		private boolean headerWritten;
+
+		private FlatGeobufWriter(SpatialMetadata metadata,
+				List<Column> columns, ExportOutput out) {
+			super(metadata, columns, out);
+			types = new int[columns.size()];
+			for (int i = 0; i < types.length; i++) {
+				types[i] = columnType(columns.get(i).type);
+			}
+		}
+
+		@Override
+		void start() throws IOException {
+			out.write(FLATGEOBUF_MAGIC, 0, FLATGEOBUF_MAGIC.length);
+		}
+
+		@Override
+		void write(T t) throws IOException {
+			Geometry geometry = getGeometry(t);
+			if (!headerWritten) {
+				writeHeader(geometry == null ? 0 : geometry.getSRID());
+			}
+			properties.clear();
+			for (int i = 0; i < types.length; i++) {
+				Object value = getValue(t, columns.get(i));
+				if (value != null) {
+					writeProperty(i, value);
+				}
+			}
+			builder.clear();
+			int geometryOffset = geometry == null ? 0 : writeGeometry(geometry);
+			int propertiesOffset = properties.position() == 0 ? 0 : builder
+					.createByteVector(properties.array(), properties.position());
+			builder.startTable(3);
+			builder.addOffset(0, geometryOffset);
+			builder.addOffset(1, propertiesOffset);
+			builder.finishSizePrefixed(builder.endTable());
+			flushBuilder();
+		}
+
+		@Override
+		void finish() throws IOException {
+			if (!headerWritten) {
+				writeHeader(0);
+			}
+		}
+
+		private void writeHeader(int srid) throws IOException {
+			builder.clear();
+			int name = builder.createString(entityClass.getSimpleName());
+			int[] columnOffsets = new int[types.length];
+			for (int i = 0; i < types.length; i++) {
+				int columnName = builder.createString(columns.get(i).name);
+				builder.startTable(2);
+				builder.addOffset(0, columnName);
+				builder.addByte(1, types[i], 0);
+				columnOffsets[i] = builder.endTable();
+			}
+			int columnVector = types.length == 0 ? 0 : builder
+					.createOffsetVector(columnOffsets, types.length);
+			int crs = 0;
+			if (srid != 0) {
+				builder.startTable(2);
+				builder.addInt(1, srid, 0);
+				crs = builder.endTable();
+			}
+			builder.startTable(11);
+			builder.addOffset(0, name);
+			builder.addOffset(7, columnVector);
+			builder.addOffset(10, crs);
+			// no spatial index
+			builder.addShort(9, 0, 16);
+			builder.finishSizePrefixed(builder.endTable());
+			flushBuilder();
+			headerWritten = true;
+		}
+
+		private void flushBuilder() throws IOException {
+			int position = builder.position();
+			byte[] array = builder.array();
+			out.write(array, position, array.length - position);
+		}
+
+		private int writeGeometry(Geometry geometry) {
+			int type = geometryType(geometry);
+			if (type == MULTI_POLYGON || type == GEOMETRY_COLLECTION) {
+				int[] parts = new int[geometry.getNumGeometries()];
+				for (int i = 0; i < parts.length; i++) {
+					parts[i] = writeGeometry(geometry.getGeometryN(i));
+				}
+				int partVector = builder.createOffsetVector(parts, parts.length);
+				builder.startTable(8);
+				builder.addOffset(7, partVector);
+				builder.addByte(6, type, 0);
+				return builder.endTable();
+			}
+			int sequences = sequenceCount(geometry);
+			int total = 0;
+			for (int i = 0; i < sequences; i++) {
+				total += sequence(geometry, i).size();
+			}
+			int ends = 0;
+			if (sequences > 1 && type != MULTI_POINT) {
+				builder.startVector(4, sequences, 4);
+				int end = total;
+				for (int i = sequences - 1; i >= 0; i--) {
+					builder.addUnsignedInt(end);
+					end -= sequence(geometry, i).size();
+				}
+				ends = builder.endVector(sequences);
+			}
+			builder.startVector(8, total * 2, 8);
+			for (int i = sequences - 1; i >= 0; i--) {
+				CoordinateSequence sequence = sequence(geometry, i);
+				for (int j = sequence.size() - 1; j >= 0; j--) {
+					builder.addDouble(sequence.getOrdinate(j,
+							CoordinateSequence.Y));
+					builder.addDouble(sequence.getOrdinate(j,
+							CoordinateSequence.X));
+				}
+			}
+			int xy = builder.endVector(total * 2);
+			builder.startTable(8);
+			builder.addOffset(0, ends);
+			builder.addOffset(1, xy);
+			builder.addByte(6, type, 0);
+			return builder.endTable();
+		}
+
+		private void writeProperty(int index, Object value) {
+			ensureProperties(16);
+			properties.putShort((short) index);
+			switch (types[index]) {
+			case BYTE:
+				properties.put(((Number) value).byteValue());
+				break;
+			case SHORT:
+				properties.putShort(((Number) value).shortValue());
+				break;
+			case INT:
+				properties.putInt(((Number) value).intValue());
+				break;
+			case LONG:
+				properties.putLong(((Number) value).longValue());
+				break;
+			case FLOAT:
+				properties.putFloat(((Number) value).floatValue());
+				break;
+			case DOUBLE:
+				properties.putDouble(((Number) value).doubleValue());
+				break;
+			case BOOL:
+				properties.put((byte) (((Boolean) value) ? 1 : 0));
+				break;
+			default:
+				byte[] bytes = toText(value).getBytes(UTF8);
+				ensureProperties(4 + bytes.length);
+				properties.putInt(bytes.length);
+				properties.put(bytes);
+			}
+		}
+
+		private void ensureProperties(int length) {
+			if (properties.remaining() < length) {
+				ByteBuffer grown = ByteBuffer.allocate(
+						Math.max(properties.capacity() * 2,
+								properties.position() + length)).order(
+						ByteOrder.LITTLE_ENDIAN);
+				properties.flip();
+				grown.put(properties);
+				properties = grown;
+			}
+		}
+	}
+
+	private static int columnType(Class<?> type) {
+		if (Byte.class == type) {
+			return BYTE;
+		}
+		if (Short.class == type) {
+			return SHORT;
+		}
+		if (Integer.class == type) {
+			return INT;
+		}
+		if (Long.class == type) {
+			return LONG;
+		}
+		if (Float.class == type) {
+			return FLOAT;
+		}
+		if (Double.class == type) {
+			return DOUBLE;
+		}
+		if (Boolean.class == type) {
+			return BOOL;
+		}
+		if (Date.class.isAssignableFrom(type)) {
+			return DATE_TIME;
+		}
+		return STRING;
+	}
+
+	private static int geometryType(Geometry geometry) {
+		if (geometry instanceof Point) {
+			return POINT;
+		}
+		if (geometry instanceof LineString) {
+			return LINE_STRING;
+		}
+		if (geometry instanceof Polygon) {
+			return POLYGON;
+		}
+		if (geometry instanceof MultiPoint) {
+			return MULTI_POINT;
+		}
+		if (geometry instanceof MultiLineString) {
+			return MULTI_LINE_STRING;
+		}
+		if (geometry instanceof MultiPolygon) {
+			return MULTI_POLYGON;
+		}
+		return GEOMETRY_COLLECTION;
+	}
+
+	/**
+	 * 
+	 * @return number of coordinate sequences of a geometry that is neither a
+	 *         multi polygon nor a collection
+	 */
+	private static int sequenceCount(Geometry geometry) {
+		if (geometry.isEmpty()) {
+			return 0;
+		}
+		if (geometry instanceof Polygon) {
+			return 1 + ((Polygon) geometry).getNumInteriorRing();
+		}
+		return geometry.getNumGeometries();
+	}
+
+	private static CoordinateSequence sequence(Geometry geometry, int index) {
+		if (geometry instanceof Polygon) {
+			Polygon polygon = (Polygon) geometry;
+			return (index == 0 ? polygon.getExteriorRing() : polygon
+					.getInteriorRingN(index - 1)).getCoordinateSequence();
+		}
+		if (geometry instanceof GeometryCollection) {
+			geometry = geometry.getGeometryN(index);
+		}
+		if (geometry instanceof Point) {
+			return ((Point) geometry).getCoordinateSequence();
+		}
+		return ((LineString) geometry).getCoordinateSequence();
+	}
+}
\ No newline at end of file
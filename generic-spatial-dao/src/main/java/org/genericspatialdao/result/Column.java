@@ -0,0 +1,321 @@
+package org.genericspatialdao.result;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.util.WKBUtils;
+
+/**
+ * A column of a {@link ColumnarResult}. Values are appended while the JDBC
+ * result set is read and then accessed by row number
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+abstract class Column {
+
+	private final String name;
+	private final ColumnType type;
+	private final SegmentAllocator allocator;
+	private final BitSet nulls = new BitSet();
+
+	Column(String name, ColumnType type, SegmentAllocator allocator) {
+		this.name = name;
+		this.type = type;
+		this.allocator = allocator;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	ColumnType getType() {
+		return type;
+	}
+
+	boolean isNull(long row) {
+		return nulls.get((int) row);
+	}
+
+	void close() {
+		allocator.close();
+	}
+
+	/**
+	 * Close the column and delete its file, if any
+	 */
+	void discard() {
+		allocator.discard();
+	}
+
+	/**
+	 * Append the value of the current row of the result set
+	 */
+	abstract void read(ResultSet rs, int index, long row) throws SQLException;
+
+	long getLong(long row) {
+		throw wrongType(ColumnType.LONG);
+	}
+
+	double getDouble(long row) {
+		throw wrongType(ColumnType.DOUBLE);
+	}
+
+	byte[] getBytes(long row) {
+		throw wrongType(ColumnType.BYTES);
+	}
+
+	String getString(long row) {
+		throw wrongType(ColumnType.STRING);
+	}
+
+	BigDecimal getDecimal(long row) {
+		throw wrongType(ColumnType.DECIMAL);
+	}
+
+	abstract List<ByteBuffer> getSegments();
+
+	protected void setNull(long row) {
+		nulls.set((int) row);
+	}
+
+	private DaoException wrongType(ColumnType requested) {
+		return new DaoException("Column " + name + " is " + type + ", not "
+				+ requested);
+	}
+
+	/**
+	 * How JDBC values are turned into longs
+	 */
+	enum LongKind {
+		NUMBER, BOOLEAN, TIMESTAMP
+	}
+
+	static final class LongColumn extends Column {
+
+		private final LongKind kind;
+		private final SegmentedBuffer data;
+
+		LongColumn(String name, LongKind kind, SegmentAllocator allocator) {
+			super(name, ColumnType.LONG, allocator);
+			this.kind = kind;
+			this.data = new SegmentedBuffer(allocator);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, long row) throws SQLException {
+			long value;
+			switch (kind) {
+			case BOOLEAN:
+				value = rs.getBoolean(index) ? 1 : 0;
+				break;
+			case TIMESTAMP:
+				Timestamp timestamp = rs.getTimestamp(index);
+				value = timestamp == null ? 0 : timestamp.getTime();
+				break;
+			default:
+				value = rs.getLong(index);
+				break;
+			}
+			if (rs.wasNull()) {
+				setNull(row);
+			}
+			data.putLong(value);
+		}
+
+		@Override
+		long getLong(long row) {
+			return data.getLong(row << 3);
+		}
+
+		@Override
+		List<ByteBuffer> getSegments() {
+			return data.getSegments();
+		}
+	}
+
+	static final class DoubleColumn extends Column {
+
+		private final SegmentedBuffer data;
+
+		DoubleColumn(String name, SegmentAllocator allocator) {
+			super(name, ColumnType.DOUBLE, allocator);
+			this.data = new SegmentedBuffer(allocator);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, long row) throws SQLException {
+			double value = rs.getDouble(index);
+			if (rs.wasNull()) {
+				setNull(row);
+			}
+			data.putDouble(value);
+		}
+
+		@Override
+		double getDouble(long row) {
+			return data.getDouble(row << 3);
+		}
+
+		@Override
+		List<ByteBuffer> getSegments() {
+			return data.getSegments();
+		}
+	}
+
+	/**
+	 * Variable length values: end offsets in one buffer, bytes in another
+	 */
+	abstract static class VariableColumn extends Column {
+
+		private final SegmentedBuffer offsets;
+		private final SegmentedBuffer data;
+
+		VariableColumn(String name, ColumnType type, SegmentAllocator allocator) {
+			super(name, type, allocator);
+			this.offsets = new SegmentedBuffer(allocator);
+			this.data = new SegmentedBuffer(allocator);
+		}
+
+		protected void append(byte[] value, long row) {
+			if (value == null) {
+				setNull(row);
+			} else {
+				data.put(value);
+			}
+			offsets.putLong(data.size());
+		}
+
+		protected byte[] valueAt(long row) {
+			if (isNull(row)) {
+				return null;
+			}
+			long start = row == 0 ? 0 : offsets.getLong((row - 1) << 3);
+			long end = offsets.getLong(row << 3);
+			byte[] bytes = new byte[(int) (end - start)];
+			data.get(start, bytes, 0, bytes.length);
+			return bytes;
+		}
+
+		@Override
+		List<ByteBuffer> getSegments() {
+			return data.getSegments();
+		}
+	}
+
+	static final class BytesColumn extends VariableColumn {
+
+		private final boolean hexText;
+
+		/**
+		 * 
+		 * @param hexText
+		 *            true for geometry columns, which the driver may return as
+		 *            hexadecimal text or, through bytea, as binary
+		 */
+		BytesColumn(String name, boolean hexText, SegmentAllocator allocator) {
+			super(name, ColumnType.BYTES, allocator);
+			this.hexText = hexText;
+		}
+
+		@Override
+		void read(ResultSet rs, int index, long row) throws SQLException {
+			byte[] value = rs.getBytes(index);
+			if (hexText) {
+				value = WKBUtils.fromColumn(value);
+			}
+			append(value, row);
+		}
+
+		@Override
+		byte[] getBytes(long row) {
+			return valueAt(row);
+		}
+	}
+
+	/**
+	 * Exact decimals, stored as their plain text so no digit is lost
+	 */
+	static final class DecimalColumn extends VariableColumn {
+
+		private static final Charset ASCII = Charset.forName("US-ASCII");
+
+		DecimalColumn(String name, SegmentAllocator allocator) {
+			super(name, ColumnType.DECIMAL, allocator);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, long row) throws SQLException {
+			BigDecimal value = rs.getBigDecimal(index);
+			append(value == null ? null : value.toString().getBytes(ASCII),
+					row);
+		}
+
+		@Override
+		BigDecimal getDecimal(long row) {
+			byte[] bytes = valueAt(row);
+			return bytes == null ? null : new BigDecimal(new String(bytes,
+					ASCII));
+		}
+	}
+
+	/**
+	 * Strings are replaced by int codes. The dictionary stays in the heap, so
+	 * this suits low cardinality values
+	 */
+	static final class StringColumn extends Column {
+
+		private static final int NULL_CODE = -1;
+
+		private final SegmentedBuffer codes;
+		private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		private final List<String> values = new ArrayList<String>();
+
+		StringColumn(String name, SegmentAllocator allocator) {
+			super(name, ColumnType.STRING, allocator);
+			this.codes = new SegmentedBuffer(allocator);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, long row) throws SQLException {
+			String value = rs.getString(index);
+			if (value == null) {
+				setNull(row);
+				codes.putInt(NULL_CODE);
+				return;
+			}
+			Integer code = dictionary.get(value);
+			if (code == null) {
+				code = values.size();
+				dictionary.put(value, code);
+				values.add(value);
+			}
+			codes.putInt(code);
+		}
+
+		@Override
+		String getString(long row) {
+			int code = codes.getInt(row << 2);
+			return code == NULL_CODE ? null : values.get(code);
+		}
+
+		int getDictionarySize() {
+			return values.size();
+		}
+
+		@Override
+		List<ByteBuffer> getSegments() {
+			return codes.getSegments();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,35 @@
+package org.genericspatialdao.result;
+
+/**
+ * Storage type of a column of a {@link ColumnarResult}
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public enum ColumnType {
+
+	/**
+	 * Integral numbers, booleans (0/1) and dates (epoch milliseconds)
+	 */
+	LONG,
+
+	/**
+	 * Floating point numbers
+	 */
+	DOUBLE,
+
+	/**
+	 * Exact numeric and decimal values
+	 */
+	DECIMAL,
+
+	/**
+	 * Binary values, geometries as EWKB included
+	 */
+	BYTES,
+
+	/**
+	 * Text values stored as codes of an in-memory dictionary
+	 */
+	STRING
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+package org.genericspatialdao.result;
+
+import java.math.BigDecimal;
+
+import org.genericspatialdao.util.WKBUtils;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Forward and random access reader over a {@link ColumnarResult}. Numeric
+ * getters do not allocate
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public class ColumnarCursor {
+
+	private final ColumnarResult result;
+	private long row = -1;
+
+	ColumnarCursor(ColumnarResult result) {
+		this.result = result;
+	}
+
+	/**
+	 * Move to the next row
+	 * 
+	 * @return false when there are no more rows
+	 */
+	public boolean next() {
+		if (row + 1 >= result.getRowCount()) {
+			row = result.getRowCount();
+			return false;
+		}
+		row++;
+		return true;
+	}
+
+	/**
+	 * Move to a row
+	 * 
+	 * @param row
+	 *            zero based row number
+	 */
+	public void seek(long row) {
+		if (row < 0 || row >= result.getRowCount()) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", rows: "
+					+ result.getRowCount());
+		}
+		this.row = row;
+	}
+
+	public long getRow() {
+		return row;
+	}
+
+	public boolean isNull(int column) {
+		return result.getColumn(column).isNull(checkedRow());
+	}
+
+	/**
+	 * 
+	 * @param column
+	 * @return value of a LONG column, 0 if it is null
+	 */
+	public long getLong(int column) {
+		return result.getColumn(column).getLong(checkedRow());
+	}
+
+	/**
+	 * 
+	 * @param column
+	 * @return value of a DOUBLE column, 0 if it is null
+	 */
+	public double getDouble(int column) {
+		return result.getColumn(column).getDouble(checkedRow());
+	}
+
+	/**
+	 * 
+	 * @param column
+	 * @return value of a DECIMAL column or null
+	 */
+	public BigDecimal getDecimal(int column) {
+		return result.getColumn(column).getDecimal(checkedRow());
+	}
+
+	/**
+	 * 
+	 * @param column
+	 * @return copy of the value of a BYTES column
+	 */
+	public byte[] getBytes(int column) {
+		return result.getColumn(column).getBytes(checkedRow());
+	}
+
+	/**
+	 * 
+	 * @param column
+	 * @return value of a STRING column, shared with the dictionary
+	 */
+	public String getString(int column) {
+		return result.getColumn(column).getString(checkedRow());
+	}
+
+	/**
+	 * 
+	 * @param column
+	 *            BYTES column holding (E)WKB
+	 * @return decoded geometry or null
+	 */
+	public Geometry getGeometry(int column) {
+		byte[] bytes = getBytes(column);
+		if (bytes == null) {
+			return null;
+		}
+		return WKBUtils.read(bytes, false);
+	}
+
+	private long checkedRow() {
+		if (row < 0 || row >= result.getRowCount()) {
+			throw new IllegalStateException("Cursor is not on a row");
+		}
+		return row;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,199 @@
+package org.genericspatialdao.result;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Query result stored column by column outside the Java heap, in direct or
+ * memory-mapped buffers. Rows are read with a {@link ColumnarCursor}. Null
+ * flags and string dictionaries stay in the heap, so mapped files are only
+ * meaningful to the result that wrote them
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public class ColumnarResult {
+
+	private static final String GEOMETRY_TYPE_NAME = "geometry";
+	private static final Logger LOG = Logger.getLogger(ColumnarResult.class);
+
+	private final Column[] columns;
+	private long rowCount;
+
+	private ColumnarResult(Column[] columns) {
+		this.columns = columns;
+	}
+
+	/**
+	 * Read a result set until its end
+	 * 
+	 * @param rs
+	 * @param directory
+	 *            directory where each column is memory-mapped to its own file
+	 *            (col0.data, col1.data...) or null to use direct buffers. The
+	 *            files are deleted if reading fails
+	 * @return columnar copy of the result set
+	 * @throws SQLException
+	 */
+	public static ColumnarResult read(ResultSet rs, File directory)
+			throws SQLException {
+		ResultSetMetaData metadata = rs.getMetaData();
+		Column[] columns = new Column[metadata.getColumnCount()];
+		ColumnarResult result = new ColumnarResult(columns);
+		try {
+			for (int i = 0; i < columns.length; i++) {
+				SegmentAllocator allocator = directory == null ? SegmentAllocator
+						.direct() : SegmentAllocator.mapped(new File(
+						directory, "col" + i + ".data"));
+				try {
+					columns[i] = createColumn(metadata, i + 1, allocator);
+				} catch (SQLException e) {
+					allocator.discard();
+					throw e;
+				}
+			}
+			while (rs.next()) {
+				for (int i = 0; i < columns.length; i++) {
+					columns[i].read(rs, i + 1, result.rowCount);
+				}
+				result.rowCount++;
+			}
+		} catch (SQLException e) {
+			result.discard();
+			throw e;
+		} catch (RuntimeException e) {
+			result.discard();
+			throw e;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Read " + result.rowCount + " rows into "
+					+ columns.length + " columns");
+		}
+		return result;
+	}
+
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public String getColumnName(int column) {
+		return columns[column].getName();
+	}
+
+	public ColumnType getColumnType(int column) {
+		return columns[column].getType();
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @return index of a column or -1 if there is none with this name
+	 */
+	public int getColumnIndex(String name) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].getName().equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 
+	 * @return a new cursor positioned before the first row. Cursors do not
+	 *         change the result, so several of them can be used at once
+	 */
+	public ColumnarCursor cursor() {
+		return new ColumnarCursor(this);
+	}
+
+	/**
+	 * 
+	 * @param column
+	 * @return read-only views of the buffers of a column: little endian longs
+	 *         or doubles, int dictionary codes, or the concatenated values of
+	 *         BYTES and DECIMAL columns, without their offsets
+	 */
+	public List<ByteBuffer> getSegments(int column) {
+		return columns[column].getSegments();
+	}
+
+	/**
+	 * Close mapped files. Direct buffers are released by the garbage
+	 * collector once the result is no longer referenced
+	 */
+	public void close() {
+		for (Column column : columns) {
+			column.close();
+		}
+	}
+
+	private void discard() {
+		for (Column column : columns) {
+			if (column != null) {
+				column.discard();
+			}
+		}
+	}
+
+	Column getColumn(int column) {
+		return columns[column];
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarResult [columns=" + columns.length + ", rows="
+				+ rowCount + "]";
+	}
+
+	private static Column createColumn(ResultSetMetaData metadata, int index,
+			SegmentAllocator allocator) throws SQLException {
+		String name = metadata.getColumnLabel(index);
+		switch (metadata.getColumnType(index)) {
+		case Types.BIGINT:
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return new Column.LongColumn(name, Column.LongKind.NUMBER,
+					allocator);
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return new Column.LongColumn(name, Column.LongKind.BOOLEAN,
+					allocator);
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return new Column.LongColumn(name, Column.LongKind.TIMESTAMP,
+					allocator);
+		case Types.DOUBLE:
+		case Types.FLOAT:
+		case Types.REAL:
+			return new Column.DoubleColumn(name, allocator);
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return new Column.DecimalColumn(name, allocator);
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return new Column.BytesColumn(name, false, allocator);
+		default:
+			if (GEOMETRY_TYPE_NAME.equalsIgnoreCase(metadata
+					.getColumnTypeName(index))) {
+				return new Column.BytesColumn(name, true, allocator);
+			}
+			return new Column.StringColumn(name, allocator);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+package org.genericspatialdao.result;
+
+import java.util.Arrays;
+
+/**
+ * Point coordinates stored column by column in growable primitive arrays.
+ * Each point costs two doubles plus, when ids are kept, one long
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public class PointColumns {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private final boolean withIds;
+	private double[] xs;
+	private double[] ys;
+	private long[] ids;
+	private int size;
+
+	/**
+	 * 
+	 * @param withIds
+	 *            true to keep a long id for each point
+	 */
+	public PointColumns(boolean withIds) {
+		this(withIds, DEFAULT_CAPACITY);
+	}
+
+	public PointColumns(boolean withIds, int initialCapacity) {
+		int capacity = Math.max(1, initialCapacity);
+		this.withIds = withIds;
+		this.xs = new double[capacity];
+		this.ys = new double[capacity];
+		this.ids = withIds ? new long[capacity] : null;
+	}
+
+	public void add(double x, double y) {
+		ensureCapacity(size + 1);
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	public void add(double x, double y, long id) {
+		ensureCapacity(size + 1);
+		xs[size] = x;
+		ys[size] = y;
+		if (withIds) {
+			ids[size] = id;
+		}
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean hasIds() {
+		return withIds;
+	}
+
+	public double getX(int index) {
+		checkIndex(index);
+		return xs[index];
+	}
+
+	public double getY(int index) {
+		checkIndex(index);
+		return ys[index];
+	}
+
+	public long getId(int index) {
+		checkIndex(index);
+		if (!withIds) {
+			throw new IllegalStateException("Ids are not kept");
+		}
+		return ids[index];
+	}
+
+	/**
+	 * 
+	 * @return backing array of x ordinates. Only the first {@link #size()}
+	 *         positions are meaningful
+	 */
+	public double[] getXs() {
+		return xs;
+	}
+
+	/**
+	 * 
+	 * @return backing array of y ordinates. Only the first {@link #size()}
+	 *         positions are meaningful
+	 */
+	public double[] getYs() {
+		return ys;
+	}
+
+	/**
+	 * 
+	 * @return backing array of ids or null if ids are not kept. Only the
+	 *         first {@link #size()} positions are meaningful
+	 */
+	public long[] getIds() {
+		return ids;
+	}
+
+	/**
+	 * Shrink backing arrays to the number of points
+	 */
+	public void trim() {
+		if (xs.length > size) {
+			xs = Arrays.copyOf(xs, size);
+			ys = Arrays.copyOf(ys, size);
+			if (withIds) {
+				ids = Arrays.copyOf(ids, size);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PointColumns [size=" + size + ", withIds=" + withIds + "]";
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= xs.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, xs.length + (xs.length >> 1));
+		xs = Arrays.copyOf(xs, newCapacity);
+		ys = Arrays.copyOf(ys, newCapacity);
+		if (withIds) {
+			ids = Arrays.copyOf(ids, newCapacity);
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: "
+					+ size);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,131 @@
+package org.genericspatialdao.result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.DaoException;
+
+/**
+ * Source of the buffers backing columnar results. Buffers are little endian
+ * and live outside the Java heap
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public abstract class SegmentAllocator {
+
+	private static final Logger LOG = Logger.getLogger(SegmentAllocator.class);
+
+	/**
+	 * 
+	 * @param size
+	 * @return a new buffer of the given capacity
+	 */
+	public abstract ByteBuffer allocate(int size);
+
+	/**
+	 * Release resources held by the allocator. Buffers already returned must
+	 * not be used afterwards
+	 */
+	public void close() {
+
+	}
+
+	/**
+	 * Close the allocator and delete what it wrote, for results that are
+	 * abandoned before being returned
+	 */
+	public void discard() {
+		close();
+	}
+
+	/**
+	 * 
+	 * @return an allocator of direct buffers
+	 */
+	public static SegmentAllocator direct() {
+		return new DirectSegmentAllocator();
+	}
+
+	/**
+	 * 
+	 * @param file
+	 *            file holding the segments one after the other. It is created
+	 *            or truncated. It is scratch storage of a single result, not
+	 *            a format meant to be read elsewhere: segments of several
+	 *            buffers are interleaved and a first segment that grows
+	 *            leaves its previous region unused
+	 * @return an allocator of buffers mapped from a file
+	 */
+	public static SegmentAllocator mapped(File file) {
+		return new MappedSegmentAllocator(file);
+	}
+
+	private static final class DirectSegmentAllocator extends
+			SegmentAllocator {
+
+		@Override
+		public ByteBuffer allocate(int size) {
+			return ByteBuffer.allocateDirect(size).order(
+					ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private static final class MappedSegmentAllocator extends
+			SegmentAllocator {
+
+		private final File file;
+		private final RandomAccessFile randomAccessFile;
+		private long position;
+
+		private MappedSegmentAllocator(File file) {
+			this.file = file;
+			try {
+				randomAccessFile = new RandomAccessFile(file, "rw");
+				randomAccessFile.setLength(0);
+			} catch (IOException e) {
+				String message = "Failed to open " + file + ": "
+						+ e.getMessage();
+				LOG.error(message);
+				throw new DaoException(message, e);
+			}
+		}
+
+		@Override
+		public synchronized ByteBuffer allocate(int size) {
+			try {
+				ByteBuffer buffer = randomAccessFile.getChannel().map(
+						FileChannel.MapMode.READ_WRITE, position, size);
+				position += size;
+				return buffer.order(ByteOrder.LITTLE_ENDIAN);
+			} catch (IOException e) {
+				String message = "Failed to map " + file + ": "
+						+ e.getMessage();
+				LOG.error(message);
+				throw new DaoException(message, e);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			try {
+				randomAccessFile.close();
+			} catch (IOException e) {
+				LOG.warn("Failed to close " + file + ": " + e.getMessage());
+			}
+		}
+
+		@Override
+		public synchronized void discard() {
+			close();
+			if (!file.delete() && file.exists()) {
+				LOG.warn("Failed to delete " + file);
+			}
+		}
+	}
+}
\ No newline at end of file
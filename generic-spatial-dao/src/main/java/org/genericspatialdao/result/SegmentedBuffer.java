@@ -0,0 +1,155 @@
+package org.genericspatialdao.result;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only byte storage made of fixed size segments. Fixed width values
+ * are aligned, so they never cross two segments. The first segment starts
+ * small and doubles until it reaches the segment size, so small results do
+ * not reserve a whole segment
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class SegmentedBuffer {
+
+	static final int DEFAULT_SEGMENT_SHIFT = 20;
+	static final int INITIAL_SEGMENT_SHIFT = 12;
+
+	private final SegmentAllocator allocator;
+	private final int segmentShift;
+	private final int segmentSize;
+	private final int segmentMask;
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private long size;
+
+	SegmentedBuffer(SegmentAllocator allocator) {
+		this(allocator, DEFAULT_SEGMENT_SHIFT);
+	}
+
+	SegmentedBuffer(SegmentAllocator allocator, int segmentShift) {
+		this.allocator = allocator;
+		this.segmentShift = segmentShift;
+		this.segmentSize = 1 << segmentShift;
+		this.segmentMask = segmentSize - 1;
+	}
+
+	long size() {
+		return size;
+	}
+
+	void putLong(long value) {
+		segmentForWrite(8).putLong(offset(size), value);
+		size += 8;
+	}
+
+	void putDouble(double value) {
+		segmentForWrite(8).putDouble(offset(size), value);
+		size += 8;
+	}
+
+	void putInt(int value) {
+		segmentForWrite(4).putInt(offset(size), value);
+		size += 4;
+	}
+
+	void put(byte[] bytes) {
+		int written = 0;
+		while (written < bytes.length) {
+			int offset = offset(size);
+			ByteBuffer segment = segmentForWrite(Math.min(bytes.length
+					- written, segmentSize - offset));
+			int length = Math.min(bytes.length - written, segment.capacity()
+					- offset);
+			ByteBuffer target = segment.duplicate();
+			target.position(offset);
+			target.put(bytes, written, length);
+			written += length;
+			size += length;
+		}
+	}
+
+	long getLong(long position) {
+		return segment(position).getLong(offset(position));
+	}
+
+	double getDouble(long position) {
+		return segment(position).getDouble(offset(position));
+	}
+
+	int getInt(long position) {
+		return segment(position).getInt(offset(position));
+	}
+
+	void get(long position, byte[] bytes, int from, int length) {
+		int read = 0;
+		while (read < length) {
+			long current = position + read;
+			int offset = offset(current);
+			int chunk = Math.min(length - read, segmentSize - offset);
+			ByteBuffer source = segment(current).duplicate();
+			source.position(offset);
+			source.get(bytes, from + read, chunk);
+			read += chunk;
+		}
+	}
+
+	/**
+	 * 
+	 * @return read-only views of the segments. Only the first {@link #size()}
+	 *         bytes are meaningful
+	 */
+	List<ByteBuffer> getSegments() {
+		List<ByteBuffer> views = new ArrayList<ByteBuffer>(segments.size());
+		for (ByteBuffer segment : segments) {
+			views.add(segment.asReadOnlyBuffer().order(segment.order()));
+		}
+		return views;
+	}
+
+	/**
+	 * 
+	 * @param length
+	 *            bytes about to be written, at most up to the end of the
+	 *            segment
+	 * @return segment receiving the next bytes, grown if needed
+	 */
+	private ByteBuffer segmentForWrite(int length) {
+		int index = (int) (size >>> segmentShift);
+		if (index == segments.size()) {
+			segments.add(allocator.allocate(index == 0 ? Math.min(
+					1 << INITIAL_SEGMENT_SHIFT, segmentSize) : segmentSize));
+		}
+		ByteBuffer segment = segments.get(index);
+		int end = offset(size) + length;
+		if (end > segment.capacity()) {
+			// only the first segment is ever smaller than the segment size
+			int capacity = segment.capacity();
+			while (capacity < end) {
+				capacity <<= 1;
+			}
+			ByteBuffer grown = allocator.allocate(capacity);
+			ByteBuffer source = segment.duplicate();
+			source.clear();
+			source.limit(offset(size));
+			grown.duplicate().put(source);
+			segments.set(index, grown);
+			segment = grown;
+		}
+		return segment;
+	}
+
+	private ByteBuffer segment(long position) {
+		if (position < 0 || position >= size) {
+			throw new IndexOutOfBoundsException("Position: " + position
+					+ ", size: " + size);
+		}
+		return segments.get((int) (position >>> segmentShift));
+	}
+
+	private int offset(long position) {
+		return (int) (position & segmentMask);
+	}
+}
\ No newline at end of file
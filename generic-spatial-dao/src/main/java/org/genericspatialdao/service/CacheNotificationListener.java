@@ -0,0 +1,237 @@
+package org.genericspatialdao.service;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.cache.CacheEvent;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.type.StringRepresentableType;
+import org.hibernate.type.Type;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import com.mchange.v2.c3p0.C3P0ProxyConnection;
+
+/**
+ * Thread listening to the notification channel of a configuration on a
+ * connection of the configured connection provider, held while listening.
+ * Events of other processes invalidate the result
+ * caches and the second-level cache; on each (re)connection everything is
+ * invalidated, since events may have been missed
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+final class CacheNotificationListener implements Runnable {
+
+	private static final String THREAD_NAME_PREFIX = "genericspatialdao-cache-listener-";
+	private static final Logger LOG = Logger
+			.getLogger(CacheNotificationListener.class);
+
+	private final DaoConfiguration configuration;
+	private final SessionFactoryImplementor factory;
+	private final String origin;
+	private final char originSeparator;
+	private final String channel;
+	private final Thread thread;
+	private volatile boolean stopped;
+	private ConnectionProvider provider;
+	private Connection connection;
+
+	CacheNotificationListener(DaoConfiguration configuration,
+			SessionFactory factory, String origin, char originSeparator) {
+		this.configuration = configuration;
+		this.factory = (SessionFactoryImplementor) factory;
+		this.origin = origin;
+		this.originSeparator = originSeparator;
+		this.channel = configuration.getCacheNotificationChannel();
+		this.thread = new Thread(this, THREAD_NAME_PREFIX + channel);
+		thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	void stop() {
+		stopped = true;
+		thread.interrupt();
+	}
+
+	@Override
+	public void run() {
+		while (!stopped) {
+			try {
+				if (connection == null) {
+					connect();
+				}
+				poll();
+			} catch (SQLException e) {
+				LOG.error("Failed to read cache notifications of " + channel
+						+ ": " + e.getMessage());
+				close();
+			} catch (RuntimeException e) {
+				LOG.error("Failed to apply cache notification of " + channel
+						+ ": " + e.getMessage());
+			}
+			try {
+				Thread.sleep(configuration.getCacheNotificationPollMillis());
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		close();
+	}
+
+	private void connect() throws SQLException {
+		provider = factory.getServiceRegistry().getService(
+				ConnectionProvider.class);
+		connection = provider.getConnection();
+		connection.setAutoCommit(true);
+		execute("LISTEN " + channel);
+		LOG.debug("Listening to " + channel + ", invalidating caches");
+		apply(CacheEvent.all());
+	}
+
+	private void poll() throws SQLException {
+		// the driver reads notifications while processing a query
+		execute("SELECT 1");
+		PGNotification[] notifications = getNotifications();
+		if (notifications == null) {
+			return;
+		}
+		for (PGNotification notification : notifications) {
+			String payload = notification.getParameter();
+			int separator = payload.indexOf(originSeparator);
+			if (separator < 0 || payload.substring(0, separator).equals(origin)) {
+				continue;
+			}
+			CacheEvent event = CacheEvent.decode(payload
+					.substring(separator + 1));
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Cache notification: " + event);
+			}
+			apply(event);
+		}
+	}
+
+	private void apply(CacheEvent event) {
+		Cache cache = factory.getCache();
+		if (event.isAll()) {
+			SpatialCacheService.invalidate(configuration, event, null);
+			cache.evictEntityRegions();
+			cache.evictCollectionRegions();
+			return;
+		}
+		ClassMetadata metadata = factory.getClassMetadata(event
+				.getEntityName());
+		if (metadata == null) {
+			return;
+		}
+		List<Object> ids = toIdentifiers(event.getIds(),
+				metadata.getIdentifierType());
+		CacheEvent typed = new CacheEvent(event.getEntityName(),
+				event.getEnvelopes(), ids);
+		Set<String> spaces = new HashSet<String>();
+		for (Serializable space : ((AbstractEntityPersister) metadata)
+				.getQuerySpaces()) {
+			spaces.add(space.toString());
+		}
+		SpatialCacheService.invalidate(configuration, typed, spaces);
+		if (ids == null) {
+			cache.evictEntityRegion(event.getEntityName());
+		} else {
+			for (Object id : ids) {
+				cache.evictEntity(event.getEntityName(), (Serializable) id);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return identifiers parsed by the identifier type, or null if they are
+	 *         unknown or the type cannot parse them
+	 */
+	@SuppressWarnings("rawtypes")
+	private static List<Object> toIdentifiers(List<?> ids, Type type) {
+		if (ids == null || !(type instanceof StringRepresentableType)) {
+			return null;
+		}
+		List<Object> result = new ArrayList<Object>(ids.size());
+		for (Object id : ids) {
+			result.add(((StringRepresentableType) type).fromStringValue(id
+					.toString()));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * 
+	 * @return notifications received by the driver connection behind the
+	 *         pooled one
+	 */
+	private PGNotification[] getNotifications() throws SQLException {
+		if (connection instanceof PGConnection) {
+			return ((PGConnection) connection).getNotifications();
+		}
+		if (connection instanceof C3P0ProxyConnection) {
+			// c3p0 proxies do not implement unwrap
+			try {
+				return (PGNotification[]) ((C3P0ProxyConnection) connection)
+						.rawConnectionOperation(PGConnection.class
+								.getMethod("getNotifications"),
+								C3P0ProxyConnection.RAW_CONNECTION,
+								new Object[0]);
+			} catch (NoSuchMethodException e) {
+				throw new SQLException(e.getMessage(), e);
+			} catch (IllegalAccessException e) {
+				throw new SQLException(e.getMessage(), e);
+			} catch (InvocationTargetException e) {
+				throw new SQLException(e.getCause().getMessage(), e.getCause());
+			}
+		}
+		return connection.unwrap(PGConnection.class).getNotifications();
+	}
+
+	private void execute(String sql) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private void close() {
+		if (connection == null) {
+			return;
+		}
+		try {
+			try {
+				// the connection goes back to the pool
+				execute("UNLISTEN " + channel);
+			} finally {
+				provider.closeConnection(connection);
+			}
+		} catch (SQLException e) {
+			LOG.warn("Failed to close cache notification connection: "
+					+ e.getMessage());
+		}
+		connection = null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+package org.genericspatialdao.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.cache.CacheEvent;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.exception.DaoException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+
+/**
+ * Cache invalidation between processes through PostgreSQL LISTEN/NOTIFY.
+ * Writes are announced in their own transaction, so the database delivers
+ * them only if it commits. Each configuration with a notification channel
+ * has a daemon thread listening to it and invalidating the local caches
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class CacheNotificationService {
+
+	private static final String INVALID_CHANNEL = "Invalid cache notification channel: ";
+	private static final String NOTIFY = "SELECT pg_notify(?, ?)";
+	// PostgreSQL limits payloads to 8000 bytes
+	private static final int MAX_PAYLOAD = 7900;
+	private static final char ORIGIN_SEPARATOR = ';';
+	private static final Logger LOG = Logger
+			.getLogger(CacheNotificationService.class);
+
+	// tells the events of this process apart
+	private static final String ORIGIN = UUID.randomUUID().toString();
+	private static Map<DaoConfiguration, CacheNotificationListener> listeners = new HashMap<DaoConfiguration, CacheNotificationListener>();
+
+	private CacheNotificationService() {
+
+	}
+
+	/**
+	 * Announce a write in the current transaction of a session. Does nothing
+	 * if the configuration has no notification channel
+	 * 
+	 * @param session
+	 * @param configuration
+	 * @param event
+	 */
+	public static void publish(Session session, DaoConfiguration configuration,
+			CacheEvent event) {
+		final String channel = configuration.getCacheNotificationChannel();
+		if (channel == null) {
+			return;
+		}
+		checkChannel(channel);
+		final String payload = ORIGIN + ORIGIN_SEPARATOR
+				+ event.encode(MAX_PAYLOAD - ORIGIN.length() - 1);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Notifying " + channel + ": " + payload);
+		}
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection.prepareStatement(NOTIFY);
+				try {
+					statement.setString(1, channel);
+					statement.setString(2, payload);
+					statement.execute();
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start listening to the notification channel of a configuration, if not
+	 * already listening
+	 * 
+	 * @param configuration
+	 * @param factory
+	 *            session factory of the configuration
+	 */
+	public static synchronized void listen(DaoConfiguration configuration,
+			SessionFactory factory) {
+		String channel = configuration.getCacheNotificationChannel();
+		if (channel == null || listeners.containsKey(configuration)) {
+			return;
+		}
+		checkChannel(channel);
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Listening to cache notifications on " + channel);
+		}
+		CacheNotificationListener listener = new CacheNotificationListener(
+				configuration, factory, ORIGIN, ORIGIN_SEPARATOR);
+		configuration.lock();
+		listeners.put(configuration, listener);
+		listener.start();
+	}
+
+	/**
+	 * Stop the listener threads of all configurations
+	 */
+	public static synchronized void stopListeners() {
+		LOG.debug("Stopping cache notification listeners");
+		for (CacheNotificationListener listener : listeners.values()) {
+			listener.stop();
+		}
+		listeners.clear();
+	}
+
+	private static void checkChannel(String channel) {
+		if (!channel.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+			String message = INVALID_CHANNEL + channel;
+			LOG.error(message);
+			throw new DaoException(message);
+		}
+	}
+}
\ No newline at end of file
@@ -57,6 +57,7 @@ public final class EntityManagerFactoryService {
 			throw new DaoException(message, e);
 		}
 
+		configuration.lock();
 		factories.put(configuration, emf);
 		return emf;
 	}
@@ -66,6 +67,7 @@ public final class EntityManagerFactoryService {
 	 */
 	public static void closeFactories() {
 		LOG.debug("Closing entity manager factories");
+		CacheNotificationService.stopListeners();
 		for (Map.Entry<DaoConfiguration, EntityManagerFactory> entry : factories
 				.entrySet()) {
 			entry.getValue().close();
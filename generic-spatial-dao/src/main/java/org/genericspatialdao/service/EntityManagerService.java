@@ -10,6 +10,7 @@ import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
 import org.genericspatialdao.configuration.DaoConfiguration;
 import org.genericspatialdao.exception.DaoException;
+import org.hibernate.Session;
 
 /**
  * 
@@ -40,6 +41,7 @@ public final class EntityManagerService {
 		ThreadLocal<EntityManager> session = sessionMap.get(configuration);
 		if (session == null) {
 			session = new ThreadLocal<EntityManager>();
+			configuration.lock();
 			sessionMap.put(configuration, session);
 		}
 		EntityManager em = session.get();
@@ -49,6 +51,10 @@ public final class EntityManagerService {
 			LOG.debug("Creating entity manager");
 			em = emf.createEntityManager(configuration.getProperties());
 			session.set(em);
+			if (configuration.getCacheNotificationChannel() != null) {
+				CacheNotificationService.listen(configuration,
+						((Session) em.getDelegate()).getSessionFactory());
+			}
 		}
 		return em;
 	}
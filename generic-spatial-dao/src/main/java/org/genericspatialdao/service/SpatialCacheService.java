@@ -0,0 +1,166 @@
+package org.genericspatialdao.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.cache.CacheEvent;
+import org.genericspatialdao.cache.CacheListener;
+import org.genericspatialdao.cache.QueryResultCache;
+import org.genericspatialdao.cache.SpatialResultCache;
+import org.genericspatialdao.configuration.DaoConfiguration;
+
+/**
+ * Result caches of the DAOs, one of each kind per configuration
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class SpatialCacheService {
+
+	private static final Logger LOG = Logger
+			.getLogger(SpatialCacheService.class);
+	private static Map<DaoConfiguration, SpatialResultCache> caches = new HashMap<DaoConfiguration, SpatialResultCache>();
+	private static Map<DaoConfiguration, QueryResultCache> queryCaches = new HashMap<DaoConfiguration, QueryResultCache>();
+	private static Map<DaoConfiguration, List<CacheListener>> listeners = new HashMap<DaoConfiguration, List<CacheListener>>();
+
+	private SpatialCacheService() {
+
+	}
+
+	/**
+	 * 
+	 * @param configuration
+	 * @return the spatial result cache of a configuration, or null if it is
+	 *         disabled
+	 */
+	public static synchronized SpatialResultCache getCache(
+			DaoConfiguration configuration) {
+		if (configuration.getSpatialCacheMaxBytes() <= 0) {
+			return null;
+		}
+		SpatialResultCache cache = caches.get(configuration);
+		if (cache == null) {
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Creating spatial result cache using configuration: "
+						+ configuration);
+			}
+			cache = new SpatialResultCache(
+					configuration.getSpatialCacheMaxBytes(),
+					configuration.getSpatialCacheCellSize());
+			configuration.lock();
+			caches.put(configuration, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * 
+	 * @param configuration
+	 * @return the query result cache of a configuration, or null if it is
+	 *         disabled
+	 */
+	public static synchronized QueryResultCache getQueryCache(
+			DaoConfiguration configuration) {
+		if (configuration.getQueryCacheMaxEntries() <= 0) {
+			return null;
+		}
+		QueryResultCache cache = queryCaches.get(configuration);
+		if (cache == null) {
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Creating query result cache using configuration: "
+						+ configuration);
+			}
+			cache = new QueryResultCache(
+					configuration.getQueryCacheMaxEntries(),
+					configuration.getQueryCacheTtlMillis());
+			configuration.lock();
+			queryCaches.put(configuration, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Register a listener of the writes of a configuration
+	 * 
+	 * @param configuration
+	 * @param listener
+	 */
+	public static synchronized void addListener(
+			DaoConfiguration configuration, CacheListener listener) {
+		getListeners(configuration).add(listener);
+	}
+
+	public static synchronized void removeListener(
+			DaoConfiguration configuration, CacheListener listener) {
+		getListeners(configuration).remove(listener);
+	}
+
+	private static synchronized List<CacheListener> getListeners(
+			DaoConfiguration configuration) {
+		List<CacheListener> list = listeners.get(configuration);
+		if (list == null) {
+			list = new CopyOnWriteArrayList<CacheListener>();
+			configuration.lock();
+			listeners.put(configuration, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Drop the cached results of a configuration touched by a write, and tell
+	 * its listeners
+	 * 
+	 * @param configuration
+	 * @param event
+	 * @param spaces
+	 *            query spaces (tables) of the written entity, ignored when the
+	 *            event covers every entity
+	 */
+	public static void invalidate(DaoConfiguration configuration,
+			CacheEvent event, Set<String> spaces) {
+		for (CacheListener listener : getListeners(configuration)) {
+			listener.invalidated(event);
+		}
+		SpatialResultCache cache = getCache(configuration);
+		QueryResultCache queryCache = getQueryCache(configuration);
+		if (event.isAll()) {
+			if (cache != null) {
+				cache.clear();
+			}
+			if (queryCache != null) {
+				queryCache.clear();
+			}
+			return;
+		}
+		if (queryCache != null) {
+			queryCache.invalidate(spaces);
+		}
+		if (cache != null) {
+			if (event.isEntityWide()) {
+				cache.invalidate(event.getEntityName());
+			} else {
+				cache.invalidate(event.getEntityName(), event.getEnvelopes(),
+						event.getIds());
+			}
+		}
+	}
+
+	/**
+	 * Drop the result caches of all configurations
+	 */
+	public static synchronized void clearCaches() {
+		LOG.debug("Clearing result caches");
+		for (SpatialResultCache cache : caches.values()) {
+			cache.clear();
+		}
+		caches.clear();
+		for (QueryResultCache cache : queryCaches.values()) {
+			cache.clear();
+		}
+		queryCaches.clear();
+	}
+}
\ No newline at end of file
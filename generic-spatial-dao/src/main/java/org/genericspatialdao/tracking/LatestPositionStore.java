@@ -0,0 +1,504 @@
+package org.genericspatialdao.tracking;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.cache.CacheEvent;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.dao.ResultHandler;
+import org.genericspatialdao.dao.impl.DaoFactory;
+import org.genericspatialdao.dao.impl.SpatialMetadata;
+import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.service.CacheNotificationService;
+import org.genericspatialdao.service.SpatialCacheService;
+import org.genericspatialdao.util.SpatialUtils;
+import org.genericspatialdao.util.WKBUtils;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Latest position of each moving object, kept in memory and written to a
+ * table in the background.
+ * 
+ * Updates replace the position of their object in a concurrent map, so only
+ * the latest one per object is written, and move it between the cells of a
+ * grid answering live envelope queries. A background thread flushes the
+ * positions changed since the last flush at a fixed interval, with batched
+ * upserts (INSERT ... ON CONFLICT, PostgreSQL 9.5 or later) on the table of
+ * the backing entity: one row per object, whose id is the object id. Other
+ * columns get their defaults when a row is created. An upsert never replaces
+ * a newer row, so several stores may write the same table
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class LatestPositionStore<T> {
+
+	public static final long DEFAULT_FLUSH_MILLIS = 1000;
+	public static final double DEFAULT_CELL_SIZE = 0.01;
+
+	private static final int LOCK_STRIPES = 64;
+	private static final int MAX_QUERY_CELLS = 4096;
+	private static final int BATCH_SIZE = 1000;
+	private static final String THREAD_NAME_PREFIX = "genericspatialdao-positions-";
+	private static final String UNKNOWN_PROPERTY = "Unknown property: ";
+	private static final String FAILED_TO_FLUSH = "Failed to flush positions: ";
+	private static final Logger LOG = Logger
+			.getLogger(LatestPositionStore.class);
+
+	private final Class<T> entityClass;
+	private final DaoConfiguration configuration;
+	private final String pointProperty;
+	private final String timestampProperty;
+	private final int srid;
+	private final Dao<T> dao;
+	private double cellSize = DEFAULT_CELL_SIZE;
+	private long flushMillis = DEFAULT_FLUSH_MILLIS;
+
+	private final ConcurrentHashMap<Long, Position> positions = new ConcurrentHashMap<Long, Position>();
+	// positions not flushed yet, removed only if not replaced meanwhile
+	private final ConcurrentHashMap<Long, Position> dirty = new ConcurrentHashMap<Long, Position>();
+	private final ConcurrentHashMap<Long, Set<Long>> cells = new ConcurrentHashMap<Long, Set<Long>>();
+	private final Object[] locks = new Object[LOCK_STRIPES];
+	private final AtomicLong updates = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong flushed = new AtomicLong();
+	private volatile Thread thread;
+	private SpatialMetadata metadata;
+	private String upsert;
+	private boolean dateTimestamp;
+
+	/**
+	 * 
+	 * @param entityClass
+	 *            backing entity, with a long id
+	 * @param configuration
+	 * @param pointProperty
+	 *            point property of the entity
+	 * @param timestampProperty
+	 *            long or date property of the entity holding the time of the
+	 *            position
+	 * @param srid
+	 *            SRID of the positions
+	 */
+	public LatestPositionStore(Class<T> entityClass,
+			DaoConfiguration configuration, String pointProperty,
+			String timestampProperty, int srid) {
+		this.entityClass = entityClass;
+		this.configuration = configuration;
+		this.pointProperty = pointProperty;
+		this.timestampProperty = timestampProperty;
+		this.srid = srid;
+		this.dao = DaoFactory.getDAO(entityClass, configuration);
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * 
+	 * @param cellSize
+	 *            side of the cells of the grid, in the units of the positions.
+	 *            Set it before the first update
+	 */
+	public void setCellSize(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	public long getFlushMillis() {
+		return flushMillis;
+	}
+
+	/**
+	 * 
+	 * @param flushMillis
+	 *            time between two flushes of the background thread
+	 */
+	public void setFlushMillis(long flushMillis) {
+		this.flushMillis = flushMillis;
+	}
+
+	/**
+	 * Record a position. Safe to call from several threads
+	 * 
+	 * @param objectId
+	 * @param x
+	 * @param y
+	 * @param timestamp
+	 * @return false if the object has a newer position, which is kept
+	 */
+	public boolean update(long objectId, double x, double y, long timestamp) {
+		updates.incrementAndGet();
+		return put(new Position(objectId, x, y, timestamp), true);
+	}
+
+	/**
+	 * 
+	 * @param objectId
+	 * @return latest position of the object, or null
+	 */
+	public Position get(long objectId) {
+		return positions.get(objectId);
+	}
+
+	/**
+	 * 
+	 * @param envelope
+	 * @return latest positions inside the envelope
+	 */
+	public List<Position> within(Envelope envelope) {
+		List<Position> result = new ArrayList<Position>();
+		long minX = index(envelope.getMinX());
+		long maxX = index(envelope.getMaxX());
+		long minY = index(envelope.getMinY());
+		long maxY = index(envelope.getMaxY());
+		if ((maxX - minX + 1) * (maxY - minY + 1) > MAX_QUERY_CELLS) {
+			for (Position position : positions.values()) {
+				if (envelope.contains(position.getX(), position.getY())) {
+					result.add(position);
+				}
+			}
+			return result;
+		}
+		for (long x = minX; x <= maxX; x++) {
+			for (long y = minY; y <= maxY; y++) {
+				long key = cell(x, y);
+				Set<Long> ids = cells.get(key);
+				if (ids == null) {
+					continue;
+				}
+				for (Long id : ids) {
+					Position position = positions.get(id);
+					// an object moving right now may be seen in two cells
+					if (position != null && cell(position) == key
+							&& envelope.contains(position.getX(), position.getY())) {
+						result.add(position);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return number of objects
+	 */
+	public int size() {
+		return positions.size();
+	}
+
+	/**
+	 * 
+	 * @return number of positions received by {@link #update}
+	 */
+	public long getUpdateCount() {
+		return updates.get();
+	}
+
+	/**
+	 * 
+	 * @return number of positions replaced before being flushed
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * 
+	 * @return number of positions written to the table
+	 */
+	public long getFlushedCount() {
+		return flushed.get();
+	}
+
+	/**
+	 * 
+	 * @return number of positions waiting for the next flush
+	 */
+	public int getPendingCount() {
+		return dirty.size();
+	}
+
+	/**
+	 * Read the positions of the table, keeping the newer ones already in
+	 * memory
+	 */
+	public synchronized void load() {
+		final ClassMetadata classMetadata = getMetadata().getClassMetadata();
+		// streamed entities are detached from the entity manager of the thread
+		dao.streamByCriteria(null, null, new ResultHandler<T>() {
+			@Override
+			public void handle(List<T> chunk) {
+				for (T t : chunk) {
+					Point point = (Point) classMetadata.getPropertyValue(t,
+							pointProperty);
+					Object time = classMetadata.getPropertyValue(t,
+							timestampProperty);
+					if (point == null || point.isEmpty() || time == null) {
+						continue;
+					}
+					long timestamp = time instanceof Date ? ((Date) time)
+							.getTime() : ((Number) time).longValue();
+					put(new Position(((Number) metadata.getIdentifier(t))
+							.longValue(), point.getX(), point.getY(), timestamp),
+							false);
+				}
+			}
+		});
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Loaded positions of " + entityClass.getName() + ": "
+					+ positions.size());
+		}
+	}
+
+	/**
+	 * Write the positions changed since the last flush, in one transaction on
+	 * the entity manager of the calling thread. Positions of a failed flush
+	 * are kept for the next one
+	 * 
+	 * @return number of positions written
+	 */
+	public synchronized int flush() {
+		if (dirty.isEmpty()) {
+			return 0;
+		}
+		final List<Position> batch = new ArrayList<Position>(dirty.values());
+		getMetadata();
+		List<Envelope> envelopes = new ArrayList<Envelope>(batch.size());
+		List<Object> ids = new ArrayList<Object>(batch.size());
+		for (Position position : batch) {
+			envelopes.add(new Envelope(position.getX(), position.getX(),
+					position.getY(), position.getY()));
+			ids.add(position.getObjectId());
+		}
+		CacheEvent event = new CacheEvent(metadata.getClassMetadata()
+				.getEntityName(), envelopes, ids);
+		Session session = dao.getSession();
+		try {
+			dao.beginTransaction();
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection connection) throws SQLException {
+					write(connection, batch);
+				}
+			});
+			CacheNotificationService.publish(session, configuration, event);
+			dao.commit();
+		} catch (RuntimeException e) {
+			dao.rollback();
+			String message = FAILED_TO_FLUSH + e.getMessage();
+			LOG.error(message);
+			throw new DaoException(message, e);
+		}
+		for (Position position : batch) {
+			dirty.remove(position.getObjectId(), position);
+		}
+		flushed.addAndGet(batch.size());
+		session.getSessionFactory().getCache().evictEntityRegion(entityClass);
+		SpatialCacheService.invalidate(configuration, event, getSpaces());
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Flushed " + batch.size() + " positions of "
+					+ entityClass.getName());
+		}
+		return batch.size();
+	}
+
+	/**
+	 * Start a daemon thread flushing the store every flush interval
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		Thread newThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runFlushLoop();
+			}
+		}, THREAD_NAME_PREFIX + entityClass.getSimpleName());
+		newThread.setDaemon(true);
+		thread = newThread;
+		newThread.start();
+	}
+
+	/**
+	 * Stop the flush thread and flush the pending positions from the calling
+	 * thread
+	 */
+	public void stop() {
+		Thread current;
+		synchronized (this) {
+			current = thread;
+			thread = null;
+		}
+		if (current != null) {
+			current.interrupt();
+			try {
+				current.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	}
+
+	private void runFlushLoop() {
+		try {
+			while (thread == Thread.currentThread()) {
+				Thread.sleep(flushMillis);
+				try {
+					flush();
+				} catch (DaoException e) {
+					// already logged, retried by the next flush
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} finally {
+			dao.close();
+		}
+	}
+
+	private boolean put(Position position, boolean pending) {
+		Long key = position.getObjectId();
+		synchronized (locks[(int) ((key.longValue() >>> 1) % LOCK_STRIPES)]) {
+			Position previous = positions.get(key);
+			if (previous != null
+					&& previous.getTimestamp() > position.getTimestamp()) {
+				return false;
+			}
+			positions.put(key, position);
+			if (pending && dirty.put(key, position) != null) {
+				coalesced.incrementAndGet();
+			}
+			long newCell = cell(position);
+			if (previous != null) {
+				long oldCell = cell(previous);
+				if (oldCell == newCell) {
+					return true;
+				}
+				cells.get(oldCell).remove(key);
+			}
+			Set<Long> ids = cells.get(newCell);
+			if (ids == null) {
+				Set<Long> created = Collections
+						.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+				ids = cells.putIfAbsent(newCell, created);
+				if (ids == null) {
+					ids = created;
+				}
+			}
+			ids.add(key);
+			return true;
+		}
+	}
+
+	private void write(Connection connection, List<Position> batch)
+			throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(upsert);
+		try {
+			int count = 0;
+			for (Position position : batch) {
+				statement.setLong(1, position.getObjectId());
+				statement.setBytes(2, WKBUtils.write(SpatialUtils.createPoint(
+						position.getX(), position.getY(), srid)));
+				if (dateTimestamp) {
+					statement.setTimestamp(3,
+							new Timestamp(position.getTimestamp()));
+				} else {
+					statement.setLong(3, position.getTimestamp());
+				}
+				statement.addBatch();
+				if (++count % BATCH_SIZE == 0) {
+					statement.executeBatch();
+				}
+			}
+			if (count % BATCH_SIZE != 0) {
+				statement.executeBatch();
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	private synchronized SpatialMetadata getMetadata() {
+		if (metadata == null) {
+			SpatialMetadata spatialMetadata = SpatialMetadata.of(
+					dao.getSession(), entityClass);
+			checkProperty(spatialMetadata, pointProperty);
+			checkProperty(spatialMetadata, timestampProperty);
+			AbstractEntityPersister persister = (AbstractEntityPersister) spatialMetadata
+					.getClassMetadata();
+			String table = persister.getTableName();
+			String id = persister.getIdentifierColumnNames()[0];
+			String point = persister.getPropertyColumnNames(pointProperty)[0];
+			String time = persister.getPropertyColumnNames(timestampProperty)[0];
+			upsert = "INSERT INTO " + table + " AS t (" + id + ", " + point
+					+ ", " + time + ") VALUES (?, ST_GeomFromEWKB(?), ?)"
+					+ " ON CONFLICT (" + id + ") DO UPDATE SET " + point
+					+ " = EXCLUDED." + point + ", " + time + " = EXCLUDED."
+					+ time + " WHERE t." + time + " <= EXCLUDED." + time;
+			dateTimestamp = Date.class.isAssignableFrom(persister
+					.getPropertyType(timestampProperty).getReturnedClass());
+			metadata = spatialMetadata;
+		}
+		return metadata;
+	}
+
+	private static void checkProperty(SpatialMetadata spatialMetadata,
+			String property) {
+		for (String name : spatialMetadata.getClassMetadata()
+				.getPropertyNames()) {
+			if (name.equals(property)) {
+				return;
+			}
+		}
+		String message = UNKNOWN_PROPERTY + property;
+		LOG.error(message);
+		throw new DaoException(message);
+	}
+
+	private Set<String> getSpaces() {
+		Set<String> spaces = new HashSet<String>();
+		for (Serializable space : ((AbstractEntityPersister) metadata
+				.getClassMetadata()).getQuerySpaces()) {
+			spaces.add(space.toString());
+		}
+		return spaces;
+	}
+
+	private long index(double coordinate) {
+		return (long) Math.floor(coordinate / cellSize);
+	}
+
+	private long cell(Position position) {
+		return cell(index(position.getX()), index(position.getY()));
+	}
+
+	private static long cell(long x, long y) {
+		return (x << 32) | (y & 0xFFFFFFFFL);
+	}
+}
\ No newline at end of file
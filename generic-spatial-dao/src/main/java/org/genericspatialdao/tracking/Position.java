@@ -0,0 +1,52 @@
+package org.genericspatialdao.tracking;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Position of a moving object at a time
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class Position {
+
+	private final long objectId;
+	private final double x;
+	private final double y;
+	private final long timestamp;
+
+	public Position(long objectId, double x, double y, long timestamp) {
+		this.objectId = objectId;
+		this.x = x;
+		this.y = y;
+		this.timestamp = timestamp;
+	}
+
+	public long getObjectId() {
+		return objectId;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * 
+	 * @return time of the position, in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+				.append("objectId", objectId).append("x", x).append("y", y)
+				.append("timestamp", timestamp).toString();
+	}
+}
\ No newline at end of file
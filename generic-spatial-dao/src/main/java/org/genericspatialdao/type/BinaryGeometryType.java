@@ -0,0 +1,139 @@
+package org.genericspatialdao.type;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
+
+import org.genericspatialdao.util.WKBUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.spatial.GeometryType;
+import org.hibernate.usertype.ParameterizedType;
+import org.hibernate.usertype.UserType;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Hibernate type mapping a PostGIS geometry column to a JTS geometry through
+ * binary EWKB instead of the hexadecimal text PostGIS returns by default.
+ * Values are decoded straight from the bytes of the result set, so each row
+ * moves half the bytes and skips the hex decoding pass. Usage:
+ * 
+ * <pre>
+ * &#064;Type(type = &quot;org.genericspatialdao.type.BinaryGeometryType&quot;)
+ * &#064;ColumnTransformer(write = &quot;ST_GeomFromEWKB(?)&quot;)
+ * private Polygon polygon;
+ * </pre>
+ * 
+ * The column is selected as is, so restrictions on it still use its index.
+ * The binary format PostGIS sends for geometry is EWKB: set the driver
+ * property binaryTransferEnable (hibernate.connection.binaryTransferEnable)
+ * to the OID of the geometry type, given by SELECT 'geometry'::regtype::oid.
+ * The driver only transfers results as binary for server prepared statements
+ * (see the prepareThreshold connection parameter); text results are still
+ * read correctly. Parameters are bound as bytea, which PostGIS casts to
+ * geometry. The "packed" parameter (true/false) makes geometries use packed
+ * coordinate sequences
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public class BinaryGeometryType implements UserType, ParameterizedType {
+
+	public static final String PACKED = "packed";
+
+	// same column type as hibernate-spatial, so schema generation is unchanged
+	private static final int[] SQL_TYPES = { new GeometryType()
+			.getSqlTypeDescriptor().getSqlType() };
+
+	private boolean packed;
+
+	@Override
+	public void setParameterValues(Properties parameters) {
+		if (parameters != null) {
+			packed = Boolean.parseBoolean(parameters.getProperty(PACKED));
+		}
+	}
+
+	@Override
+	public int[] sqlTypes() {
+		return SQL_TYPES.clone();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class returnedClass() {
+		return Geometry.class;
+	}
+
+	@Override
+	public boolean equals(Object x, Object y) {
+		if (x == y) {
+			return true;
+		}
+		if (x == null || y == null) {
+			return false;
+		}
+		Geometry first = (Geometry) x;
+		Geometry second = (Geometry) y;
+		return first.getSRID() == second.getSRID()
+				&& first.equalsExact(second);
+	}
+
+	@Override
+	public int hashCode(Object x) {
+		return ((Geometry) x).getEnvelopeInternal().hashCode();
+	}
+
+	@Override
+	public Object nullSafeGet(ResultSet rs, String[] names,
+			SessionImplementor session, Object owner) throws SQLException {
+		byte[] bytes = rs.getBytes(names[0]);
+		if (bytes == null) {
+			return null;
+		}
+		return WKBUtils.read(WKBUtils.fromColumn(bytes), packed);
+	}
+
+	@Override
+	public void nullSafeSet(PreparedStatement st, Object value, int index,
+			SessionImplementor session) throws SQLException {
+		if (value == null) {
+			st.setNull(index, Types.BINARY);
+		} else {
+			st.setBytes(index, WKBUtils.write((Geometry) value));
+		}
+	}
+
+	@Override
+	public Object deepCopy(Object value) {
+		if (value == null) {
+			return null;
+		}
+		return ((Geometry) value).clone();
+	}
+
+	@Override
+	public boolean isMutable() {
+		return true;
+	}
+
+	@Override
+	public Serializable disassemble(Object value) {
+		return (Serializable) deepCopy(value);
+	}
+
+	@Override
+	public Object assemble(Serializable cached, Object owner) {
+		return deepCopy(cached);
+	}
+
+	@Override
+	public Object replace(Object original, Object target, Object owner)
+			throws HibernateException {
+		return deepCopy(original);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+package org.genericspatialdao.type;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.genericspatialdao.util.WKBUtils;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Geometry kept as EWKB bytes until it is actually used. SRID, envelope and
+ * size are answered from the bytes. Instances are immutable: to change a
+ * geometry, set a new LazyGeometry in the entity
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class LazyGeometry implements Serializable {
+
+	private static final long serialVersionUID = -2907519553427718155L;
+
+	private final boolean packed;
+	private volatile byte[] ewkb;
+	private transient volatile Geometry geometry;
+	private transient volatile Envelope envelope;
+
+	/**
+	 * 
+	 * @param ewkb
+	 *            bytes of the geometry. The array is not copied
+	 * @param packed
+	 *            true to decode into packed coordinate sequences
+	 */
+	public LazyGeometry(byte[] ewkb, boolean packed) {
+		if (ewkb == null) {
+			throw new IllegalArgumentException("EWKB must not be null");
+		}
+		this.ewkb = ewkb;
+		this.packed = packed;
+	}
+
+	/**
+	 * 
+	 * @param geometry
+	 *            already decoded geometry, encoded only when needed
+	 */
+	public LazyGeometry(Geometry geometry) {
+		if (geometry == null) {
+			throw new IllegalArgumentException("Geometry must not be null");
+		}
+		this.geometry = geometry;
+		this.packed = false;
+	}
+
+	/**
+	 * 
+	 * @return the geometry, decoded on the first call
+	 */
+	public Geometry getGeometry() {
+		Geometry result = geometry;
+		if (result == null) {
+			result = WKBUtils.read(ewkb, packed);
+			geometry = result;
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return true if the geometry has already been decoded
+	 */
+	public boolean isDecoded() {
+		return geometry != null;
+	}
+
+	/**
+	 * 
+	 * @return EWKB bytes of the geometry. The array must not be modified
+	 */
+	public byte[] getBytes() {
+		byte[] result = ewkb;
+		if (result == null) {
+			result = WKBUtils.write(geometry);
+			ewkb = result;
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return size in bytes of the EWKB representation
+	 */
+	public int getByteSize() {
+		return getBytes().length;
+	}
+
+	/**
+	 * 
+	 * @return SRID of the geometry, read from the EWKB header
+	 */
+	public int getSRID() {
+		Geometry decoded = geometry;
+		if (decoded != null) {
+			return decoded.getSRID();
+		}
+		return WKBUtils.getSRID(ewkb);
+	}
+
+	/**
+	 * 
+	 * @return envelope of the geometry, computed by scanning the bytes
+	 */
+	public Envelope getEnvelope() {
+		Envelope result = envelope;
+		if (result == null) {
+			Geometry decoded = geometry;
+			result = decoded != null ? decoded.getEnvelopeInternal()
+					: WKBUtils.getEnvelope(ewkb);
+			envelope = result;
+		}
+		return new Envelope(result);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(getBytes());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof LazyGeometry)) {
+			return false;
+		}
+		return Arrays.equals(getBytes(), ((LazyGeometry) obj).getBytes());
+	}
+
+	@Override
+	public String toString() {
+		if (geometry != null) {
+			return geometry.toString();
+		}
+		return "LazyGeometry [srid=" + getSRID() + ", bytes=" + ewkb.length
+				+ "]";
+	}
+
+	private Object writeReplace() {
+		getBytes();
+		return this;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package org.genericspatialdao.type;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
+
+import org.genericspatialdao.util.WKBUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.spatial.GeometryType;
+import org.hibernate.usertype.ParameterizedType;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Hibernate type mapping a PostGIS geometry column to a {@link LazyGeometry}.
+ * Rows only carry the EWKB bytes; JTS objects are built when
+ * {@link LazyGeometry#getGeometry()} is called. Usage:
+ * 
+ * <pre>
+ * &#064;Type(type = &quot;org.genericspatialdao.type.LazyGeometryType&quot;)
+ * private LazyGeometry polygon;
+ * </pre>
+ * 
+ * The "packed" parameter (true/false) makes decoded geometries use packed
+ * coordinate sequences. The "binary" parameter (true/false) writes EWKB as
+ * bytea, for columns mapped with the write transformer described in
+ * {@link BinaryGeometryType}. Both text and binary results are read
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public class LazyGeometryType implements UserType, ParameterizedType {
+
+	public static final String PACKED = "packed";
+	public static final String BINARY = "binary";
+
+	// same column type as hibernate-spatial, so schema generation is unchanged
+	private static final int[] SQL_TYPES = { new GeometryType()
+			.getSqlTypeDescriptor().getSqlType() };
+
+	private boolean packed;
+	private boolean binary;
+
+	@Override
+	public void setParameterValues(Properties parameters) {
+		if (parameters != null) {
+			packed = Boolean.parseBoolean(parameters.getProperty(PACKED));
+			binary = Boolean.parseBoolean(parameters.getProperty(BINARY));
+		}
+	}
+
+	@Override
+	public int[] sqlTypes() {
+		return SQL_TYPES.clone();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class returnedClass() {
+		return LazyGeometry.class;
+	}
+
+	@Override
+	public boolean equals(Object x, Object y) {
+		if (x == y) {
+			return true;
+		}
+		if (x == null || y == null) {
+			return false;
+		}
+		return x.equals(y);
+	}
+
+	@Override
+	public int hashCode(Object x) {
+		return x.hashCode();
+	}
+
+	@Override
+	public Object nullSafeGet(ResultSet rs, String[] names,
+			SessionImplementor session, Object owner) throws SQLException {
+		byte[] bytes = rs.getBytes(names[0]);
+		if (bytes == null) {
+			return null;
+		}
+		return new LazyGeometry(WKBUtils.fromColumn(bytes), packed);
+	}
+
+	@Override
+	public void nullSafeSet(PreparedStatement st, Object value, int index,
+			SessionImplementor session) throws SQLException {
+		if (value == null) {
+			st.setNull(index, binary ? Types.BINARY : Types.OTHER);
+		} else if (binary) {
+			st.setBytes(index, ((LazyGeometry) value).getBytes());
+		} else {
+			// PostGIS parses hexadecimal EWKB as geometry input
+			st.setObject(index,
+					WKBUtils.toHex(((LazyGeometry) value).getBytes()),
+					Types.OTHER);
+		}
+	}
+
+	@Override
+	public Object deepCopy(Object value) {
+		// LazyGeometry is immutable
+		return value;
+	}
+
+	@Override
+	public boolean isMutable() {
+		return false;
+	}
+
+	@Override
+	public Serializable disassemble(Object value) {
+		return (Serializable) value;
+	}
+
+	@Override
+	public Object assemble(Serializable cached, Object owner) {
+		return cached;
+	}
+
+	@Override
+	public Object replace(Object original, Object target, Object owner)
+			throws HibernateException {
+		return original;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,452 @@
+package org.genericspatialdao.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Encoder of a single layer Mapbox Vector Tile (version 2). Geometries, in
+ * the same coordinate system as the tile envelope, are quantized to the
+ * tile extent and written as command streams; repeated points left by the
+ * quantization are dropped. Clipping is up to the caller
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class MVTEncoder {
+
+	private static final int VERSION = 2;
+
+	// Tile
+	private static final int TILE_LAYERS = 3;
+	// Layer
+	private static final int LAYER_NAME = 1;
+	private static final int LAYER_FEATURES = 2;
+	private static final int LAYER_KEYS = 3;
+	private static final int LAYER_VALUES = 4;
+	private static final int LAYER_EXTENT = 5;
+	private static final int LAYER_VERSION = 15;
+	// Feature
+	private static final int FEATURE_ID = 1;
+	private static final int FEATURE_TAGS = 2;
+	private static final int FEATURE_TYPE = 3;
+	private static final int FEATURE_GEOMETRY = 4;
+	// Value
+	private static final int VALUE_STRING = 1;
+	private static final int VALUE_DOUBLE = 3;
+	private static final int VALUE_SINT = 6;
+	private static final int VALUE_BOOL = 7;
+
+	private static final int POINT_TYPE = 1;
+	private static final int LINE_STRING_TYPE = 2;
+	private static final int POLYGON_TYPE = 3;
+
+	private static final int MOVE_TO = 1;
+	private static final int LINE_TO = 2;
+	private static final int CLOSE_PATH = 7;
+
+	private static final int WIRE_VARINT = 0;
+	private static final int WIRE_FIXED64 = 1;
+	private static final int WIRE_LENGTH_DELIMITED = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String layerName;
+	private final Envelope envelope;
+	private final int extent;
+	private final Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
+	private final Map<Object, Integer> values = new LinkedHashMap<Object, Integer>();
+	private final ProtobufWriter features = new ProtobufWriter();
+	private int featureCount;
+
+	// geometry being encoded
+	private IntArray commands;
+	private int cursorX;
+	private int cursorY;
+
+	/**
+	 * 
+	 * @param layerName
+	 * @param envelope
+	 *            tile envelope
+	 * @param extent
+	 *            tile size in tile coordinates
+	 */
+	public MVTEncoder(String layerName, Envelope envelope, int extent) {
+		this.layerName = layerName;
+		this.envelope = envelope;
+		this.extent = extent;
+	}
+
+	/**
+	 * 
+	 * @param id
+	 *            feature id, may be null
+	 * @param geometry
+	 * @param attributes
+	 *            attribute values; null values are skipped, numbers and
+	 *            booleans are written as such, other objects as strings
+	 * @return false if nothing was left of the geometry after quantization
+	 */
+	public boolean addFeature(Long id, Geometry geometry,
+			Map<String, ?> attributes) {
+		if (geometry == null || geometry.isEmpty()) {
+			return false;
+		}
+		if (geometry.getClass() == GeometryCollection.class) {
+			// MVT features have a single geometry type
+			boolean added = false;
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				added |= addFeature(id, geometry.getGeometryN(i), attributes);
+			}
+			return added;
+		}
+		commands = new IntArray();
+		cursorX = 0;
+		cursorY = 0;
+		int type;
+		if (geometry instanceof Point || geometry instanceof MultiPoint) {
+			type = POINT_TYPE;
+			encodePoints(geometry);
+		} else if (geometry instanceof LineString
+				|| geometry instanceof MultiLineString) {
+			type = LINE_STRING_TYPE;
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				encodeLine(((LineString) geometry.getGeometryN(i))
+						.getCoordinateSequence());
+			}
+		} else if (geometry instanceof Polygon
+				|| geometry instanceof MultiPolygon) {
+			type = POLYGON_TYPE;
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				encodePolygon((Polygon) geometry.getGeometryN(i));
+			}
+		} else {
+			return false;
+		}
+		if (commands.size == 0) {
+			return false;
+		}
+
+		ProtobufWriter feature = new ProtobufWriter();
+		if (id != null) {
+			feature.writeVarint(FEATURE_ID, id);
+		}
+		if (attributes != null && !attributes.isEmpty()) {
+			IntArray tags = new IntArray();
+			for (Map.Entry<String, ?> attribute : attributes.entrySet()) {
+				Object value = normalize(attribute.getValue());
+				if (value != null) {
+					tags.add(index(keys, attribute.getKey()));
+					tags.add(index(values, value));
+				}
+			}
+			feature.writePacked(FEATURE_TAGS, tags);
+		}
+		feature.writeVarint(FEATURE_TYPE, type);
+		feature.writePacked(FEATURE_GEOMETRY, commands);
+		features.writeMessage(LAYER_FEATURES, feature);
+		featureCount++;
+		return true;
+	}
+
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+	/**
+	 * 
+	 * @return the tile, empty if no feature was added
+	 */
+	public byte[] encode() {
+		if (featureCount == 0) {
+			return new byte[0];
+		}
+		ProtobufWriter layer = new ProtobufWriter();
+		layer.writeVarint(LAYER_VERSION, VERSION);
+		layer.writeString(LAYER_NAME, layerName);
+		layer.writeRaw(features);
+		for (String key : keys.keySet()) {
+			layer.writeString(LAYER_KEYS, key);
+		}
+		for (Object value : values.keySet()) {
+			ProtobufWriter valueWriter = new ProtobufWriter();
+			if (value instanceof String) {
+				valueWriter.writeString(VALUE_STRING, (String) value);
+			} else if (value instanceof Boolean) {
+				valueWriter.writeVarint(VALUE_BOOL, ((Boolean) value) ? 1 : 0);
+			} else if (value instanceof Long) {
+				valueWriter.writeVarint(VALUE_SINT, zigZag((Long) value));
+			} else {
+				valueWriter.writeDouble(VALUE_DOUBLE, (Double) value);
+			}
+			layer.writeMessage(LAYER_VALUES, valueWriter);
+		}
+		layer.writeVarint(LAYER_EXTENT, extent);
+		ProtobufWriter tile = new ProtobufWriter();
+		tile.writeMessage(TILE_LAYERS, layer);
+		return tile.toByteArray();
+	}
+
+	private static Object normalize(Object value) {
+		if (value == null || value instanceof String
+				|| value instanceof Boolean) {
+			return value;
+		}
+		if (value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		return value.toString();
+	}
+
+	private static <K> int index(Map<K, Integer> map, K key) {
+		Integer index = map.get(key);
+		if (index == null) {
+			index = map.size();
+			map.put(key, index);
+		}
+		return index;
+	}
+
+	private void encodePoints(Geometry geometry) {
+		int[] points = new int[geometry.getNumGeometries() * 2];
+		int count = 0;
+		for (int i = 0; i < geometry.getNumGeometries(); i++) {
+			Point point = (Point) geometry.getGeometryN(i);
+			if (!point.isEmpty()) {
+				points[count * 2] = tileX(point.getX());
+				points[count * 2 + 1] = tileY(point.getY());
+				count++;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+		commands.add(command(MOVE_TO, count));
+		for (int i = 0; i < count; i++) {
+			moveCursor(points[i * 2], points[i * 2 + 1]);
+		}
+	}
+
+	private void encodeLine(CoordinateSequence sequence) {
+		int[] points = quantize(sequence, false);
+		int count = points.length / 2;
+		if (count < 2) {
+			return;
+		}
+		commands.add(command(MOVE_TO, 1));
+		moveCursor(points[0], points[1]);
+		commands.add(command(LINE_TO, count - 1));
+		for (int i = 1; i < count; i++) {
+			moveCursor(points[i * 2], points[i * 2 + 1]);
+		}
+	}
+
+	private void encodePolygon(Polygon polygon) {
+		int[] shell = quantize(polygon.getExteriorRing()
+				.getCoordinateSequence(), true);
+		if (shell.length < 6) {
+			return;
+		}
+		// exterior rings have positive area in tile coordinates (y down),
+		// interior rings negative
+		encodeRing(shell, true);
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+			int[] hole = quantize(polygon.getInteriorRingN(i)
+					.getCoordinateSequence(), true);
+			if (hole.length >= 6) {
+				encodeRing(hole, false);
+			}
+		}
+	}
+
+	private void encodeRing(int[] points, boolean exterior) {
+		int count = points.length / 2;
+		boolean reverse = (area(points) > 0) != exterior;
+		commands.add(command(MOVE_TO, 1));
+		int first = reverse ? count - 1 : 0;
+		moveCursor(points[first * 2], points[first * 2 + 1]);
+		commands.add(command(LINE_TO, count - 1));
+		for (int i = 1; i < count; i++) {
+			int j = reverse ? count - 1 - i : i;
+			moveCursor(points[j * 2], points[j * 2 + 1]);
+		}
+		commands.add(command(CLOSE_PATH, 1));
+	}
+
+	private static long area(int[] points) {
+		long area = 0;
+		int count = points.length / 2;
+		for (int i = 0; i < count; i++) {
+			int j = (i + 1) % count;
+			area += (long) points[i * 2] * points[j * 2 + 1]
+					- (long) points[j * 2] * points[i * 2 + 1];
+		}
+		return area;
+	}
+
+	/**
+	 * 
+	 * @param sequence
+	 * @param ring
+	 *            true to drop the closing point
+	 * @return tile coordinates without consecutive repeated points
+	 */
+	private int[] quantize(CoordinateSequence sequence, boolean ring) {
+		int size = sequence.size();
+		int[] points = new int[size * 2];
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			int x = tileX(sequence.getOrdinate(i, CoordinateSequence.X));
+			int y = tileY(sequence.getOrdinate(i, CoordinateSequence.Y));
+			if (count > 0 && points[count * 2 - 2] == x
+					&& points[count * 2 - 1] == y) {
+				continue;
+			}
+			points[count * 2] = x;
+			points[count * 2 + 1] = y;
+			count++;
+		}
+		if (ring && count > 1 && points[0] == points[count * 2 - 2]
+				&& points[1] == points[count * 2 - 1]) {
+			count--;
+		}
+		return Arrays.copyOf(points, count * 2);
+	}
+
+	private int tileX(double x) {
+		return (int) Math.round((x - envelope.getMinX()) * extent
+				/ envelope.getWidth());
+	}
+
+	private int tileY(double y) {
+		return (int) Math.round((envelope.getMaxY() - y) * extent
+				/ envelope.getHeight());
+	}
+
+	private void moveCursor(int x, int y) {
+		commands.add((int) zigZag(x - cursorX));
+		commands.add((int) zigZag(y - cursorY));
+		cursorX = x;
+		cursorY = y;
+	}
+
+	private static int command(int id, int count) {
+		return (id & 0x7) | (count << 3);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Growable int array
+	 */
+	private static final class IntArray {
+
+		private int[] values = new int[16];
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+	/**
+	 * Minimal protocol buffers writer, enough for the vector tile messages
+	 */
+	private static final class ProtobufWriter {
+
+		private byte[] buffer = new byte[64];
+		private int size;
+
+		private void writeVarint(int field, long value) {
+			writeTag(field, WIRE_VARINT);
+			writeRawVarint(value);
+		}
+
+		private void writeDouble(int field, double value) {
+			writeTag(field, WIRE_FIXED64);
+			long bits = Double.doubleToLongBits(value);
+			ensure(8);
+			for (int i = 0; i < 8; i++) {
+				buffer[size++] = (byte) (bits >>> (8 * i));
+			}
+		}
+
+		private void writeString(int field, String value) {
+			byte[] bytes = value.getBytes(UTF8);
+			writeTag(field, WIRE_LENGTH_DELIMITED);
+			writeRawVarint(bytes.length);
+			writeRaw(bytes, 0, bytes.length);
+		}
+
+		private void writeMessage(int field, ProtobufWriter message) {
+			writeTag(field, WIRE_LENGTH_DELIMITED);
+			writeRawVarint(message.size);
+			writeRaw(message);
+		}
+
+		private void writePacked(int field, IntArray array) {
+			ProtobufWriter packed = new ProtobufWriter();
+			for (int i = 0; i < array.size; i++) {
+				// uint32: the int bits as unsigned
+				packed.writeRawVarint(array.values[i] & 0xFFFFFFFFL);
+			}
+			writeMessage(field, packed);
+		}
+
+		private void writeRaw(ProtobufWriter other) {
+			writeRaw(other.buffer, 0, other.size);
+		}
+
+		private void writeRaw(byte[] bytes, int offset, int length) {
+			ensure(length);
+			System.arraycopy(bytes, offset, buffer, size, length);
+			size += length;
+		}
+
+		private void writeTag(int field, int wireType) {
+			writeRawVarint((field << 3) | wireType);
+		}
+
+		private void writeRawVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[size++] = (byte) value;
+		}
+
+		private void ensure(int length) {
+			if (size + length > buffer.length) {
+				buffer = Arrays.copyOf(buffer,
+						Math.max(buffer.length * 2, size + length));
+			}
+		}
+
+		private byte[] toByteArray() {
+			return Arrays.copyOf(buffer, size);
+		}
+	}
+}
\ No newline at end of file
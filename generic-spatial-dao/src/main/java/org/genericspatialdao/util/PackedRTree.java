@@ -0,0 +1,510 @@
+package org.genericspatialdao.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.SpatialException;
+import org.genericspatialdao.util.ParallelUtils.ChunkTask;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Static R-tree packed in primitive arrays. Items are sorted by the Hilbert
+ * value of the center of their boxes and grouped bottom up, so the tree holds
+ * four doubles and one int per node and no object per item. A tree can be
+ * saved to a file and opened again by mapping the file in memory, without
+ * reading or rebuilding it
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class PackedRTree {
+
+	public static final int DEFAULT_NODE_SIZE = 16;
+
+	private static final Logger LOG = Logger.getLogger(PackedRTree.class);
+
+	private static final int MAGIC = 0x47535254;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int MIN_CHUNK_SIZE = 16384;
+	private static final int HILBERT_MAX = 0xFFFF;
+	private static final int IO_BUFFER_SIZE = 65536;
+
+	private static final String INVALID_BOXES = "Boxes must hold four values per item: ";
+	private static final String INVALID_NODE_SIZE = "Node size must be at least 2: ";
+	private static final String INVALID_FILE = "Not a packed R-tree file: ";
+	private static final String TREE_TOO_LARGE = "Tree is too large to be mapped: ";
+
+	private final int numItems;
+	private final int nodeSize;
+	private final int numNodes;
+	private final int[] levelBounds;
+	private final DoubleBuffer boxes;
+	private final IntBuffer indices;
+
+	private PackedRTree(int numItems, int nodeSize, int[] levelBounds,
+			DoubleBuffer boxes, IntBuffer indices) {
+		this.numItems = numItems;
+		this.nodeSize = nodeSize;
+		this.levelBounds = levelBounds;
+		this.numNodes = levelBounds.length == 0 ? 0
+				: levelBounds[levelBounds.length - 1];
+		this.boxes = boxes;
+		this.indices = indices;
+	}
+
+	/**
+	 * 
+	 * @param envelopes
+	 * @return a tree whose items are the positions of the envelopes in the list
+	 */
+	public static PackedRTree build(List<Envelope> envelopes) {
+		double[] boxes = new double[envelopes.size() * 4];
+		int i = 0;
+		for (Envelope envelope : envelopes) {
+			boxes[i++] = envelope.getMinX();
+			boxes[i++] = envelope.getMinY();
+			boxes[i++] = envelope.getMaxX();
+			boxes[i++] = envelope.getMaxY();
+		}
+		return build(boxes, DEFAULT_NODE_SIZE);
+	}
+
+	/**
+	 * Build a tree. Hilbert values and leaves are computed by the shared worker
+	 * pool
+	 * 
+	 * @param boxes
+	 *            minX, minY, maxX and maxY of each item, one item after the
+	 *            other
+	 * @param nodeSize
+	 *            maximum number of children of a node
+	 * @return a tree whose items are the positions of the boxes in the array
+	 */
+	public static PackedRTree build(final double[] boxes, final int nodeSize) {
+		if (boxes.length % 4 != 0) {
+			LOG.error(INVALID_BOXES + boxes.length);
+			throw new SpatialException(INVALID_BOXES + boxes.length);
+		}
+		if (nodeSize < 2) {
+			LOG.error(INVALID_NODE_SIZE + nodeSize);
+			throw new SpatialException(INVALID_NODE_SIZE + nodeSize);
+		}
+		final int numItems = boxes.length / 4;
+		int[] levelBounds = levelBounds(numItems, nodeSize);
+		int numNodes = levelBounds.length == 0 ? 0
+				: levelBounds[levelBounds.length - 1];
+		final double[] nodeBoxes = new double[numNodes * 4];
+		final int[] nodeIndices = new int[numNodes];
+		if (numItems == 0) {
+			return new PackedRTree(0, nodeSize, levelBounds,
+					DoubleBuffer.wrap(nodeBoxes), IntBuffer.wrap(nodeIndices));
+		}
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < boxes.length; i += 4) {
+			minX = Math.min(minX, boxes[i]);
+			minY = Math.min(minY, boxes[i + 1]);
+			maxX = Math.max(maxX, boxes[i + 2]);
+			maxY = Math.max(maxY, boxes[i + 3]);
+		}
+		final double originX = minX;
+		final double originY = minY;
+		final double scaleX = maxX > minX ? HILBERT_MAX / (maxX - minX) : 0;
+		final double scaleY = maxY > minY ? HILBERT_MAX / (maxY - minY) : 0;
+
+		// the Hilbert value goes to the high bits and the item to the low
+		// ones, flipping the sign bit so that signed order is unsigned order
+		final long[] keys = new long[numItems];
+		ParallelUtils.forEachChunk(numItems, MIN_CHUNK_SIZE, new ChunkTask() {
+			@Override
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					int p = i * 4;
+					int x = (int) (scaleX
+							* ((boxes[p] + boxes[p + 2]) / 2 - originX));
+					int y = (int) (scaleY
+							* ((boxes[p + 1] + boxes[p + 3]) / 2 - originY));
+					keys[i] = (hilbert(x, y) << 32 | i) ^ Long.MIN_VALUE;
+				}
+			}
+		});
+		Arrays.sort(keys);
+		ParallelUtils.forEachChunk(numItems, MIN_CHUNK_SIZE, new ChunkTask() {
+			@Override
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					int item = (int) keys[i];
+					System.arraycopy(boxes, item * 4, nodeBoxes, i * 4, 4);
+					nodeIndices[i] = item;
+				}
+			}
+		});
+
+		int position = numItems;
+		int levelStart = 0;
+		for (int level = 0; level < levelBounds.length - 1; level++) {
+			int levelEnd = levelBounds[level];
+			for (int child = levelStart; child < levelEnd; child += nodeSize) {
+				int end = Math.min(child + nodeSize, levelEnd);
+				double nodeMinX = Double.POSITIVE_INFINITY;
+				double nodeMinY = Double.POSITIVE_INFINITY;
+				double nodeMaxX = Double.NEGATIVE_INFINITY;
+				double nodeMaxY = Double.NEGATIVE_INFINITY;
+				for (int i = child * 4; i < end * 4; i += 4) {
+					nodeMinX = Math.min(nodeMinX, nodeBoxes[i]);
+					nodeMinY = Math.min(nodeMinY, nodeBoxes[i + 1]);
+					nodeMaxX = Math.max(nodeMaxX, nodeBoxes[i + 2]);
+					nodeMaxY = Math.max(nodeMaxY, nodeBoxes[i + 3]);
+				}
+				int p = position * 4;
+				nodeBoxes[p] = nodeMinX;
+				nodeBoxes[p + 1] = nodeMinY;
+				nodeBoxes[p + 2] = nodeMaxX;
+				nodeBoxes[p + 3] = nodeMaxY;
+				nodeIndices[position++] = child;
+			}
+			levelStart = levelEnd;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Packed R-tree built: " + numItems + " items, "
+					+ numNodes + " nodes");
+		}
+		return new PackedRTree(numItems, nodeSize, levelBounds,
+				DoubleBuffer.wrap(nodeBoxes), IntBuffer.wrap(nodeIndices));
+	}
+
+	/**
+	 * 
+	 * @param numItems
+	 * @param nodeSize
+	 * @return exclusive end of each level, leaves first and root last
+	 */
+	private static int[] levelBounds(int numItems, int nodeSize) {
+		if (numItems == 0) {
+			return new int[0];
+		}
+		int[] bounds = new int[32];
+		int levels = 0;
+		long n = numItems;
+		long numNodes = n;
+		bounds[levels++] = (int) numNodes;
+		do {
+			n = (n + nodeSize - 1) / nodeSize;
+			numNodes += n;
+			if (numNodes > Integer.MAX_VALUE / 4) {
+				LOG.error(TREE_TOO_LARGE + numItems);
+				throw new SpatialException(TREE_TOO_LARGE + numItems);
+			}
+			bounds[levels++] = (int) numNodes;
+		} while (n != 1);
+		return Arrays.copyOf(bounds, levels);
+	}
+
+	/**
+	 * Open a tree saved by {@link #save(File)}. The file is mapped in memory
+	 * and read lazily by the operating system; it must not be changed while
+	 * the tree is used
+	 * 
+	 * @param file
+	 * @return the tree
+	 */
+	public static PackedRTree open(File file) {
+		RandomAccessFile randomAccessFile = null;
+		try {
+			randomAccessFile = new RandomAccessFile(file, "r");
+			FileChannel channel = randomAccessFile.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				LOG.error(INVALID_FILE + file);
+				throw new SpatialException(INVALID_FILE + file);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			int magic = header.getInt();
+			int version = header.getInt();
+			int numItems = header.getInt();
+			int nodeSize = header.getInt();
+			int numLevels = header.getInt();
+			if (magic != MAGIC || version != VERSION || numItems < 0
+					|| nodeSize < 2 || numLevels < 0) {
+				LOG.error(INVALID_FILE + file);
+				throw new SpatialException(INVALID_FILE + file);
+			}
+			int[] levelBounds = levelBounds(numItems, nodeSize);
+			int numNodes = levelBounds.length == 0 ? 0
+					: levelBounds[levelBounds.length - 1];
+			long size = fileSize(levelBounds.length, numNodes);
+			if (numLevels != levelBounds.length || channel.size() != size) {
+				LOG.error(INVALID_FILE + file);
+				throw new SpatialException(INVALID_FILE + file);
+			}
+			if (size > Integer.MAX_VALUE) {
+				LOG.error(TREE_TOO_LARGE + file);
+				throw new SpatialException(TREE_TOO_LARGE + file);
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					size).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.position(boxesOffset(numLevels));
+			DoubleBuffer boxes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN)
+					.asDoubleBuffer();
+			buffer.position(boxesOffset(numLevels) + numNodes * 32);
+			IntBuffer indices = buffer.slice().order(ByteOrder.LITTLE_ENDIAN)
+					.asIntBuffer();
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Packed R-tree opened from " + file + ": " + numItems
+						+ " items");
+			}
+			return new PackedRTree(numItems, nodeSize, levelBounds, boxes,
+					indices);
+		} catch (IOException e) {
+			String message = "Failed to open " + file + ": " + e.getMessage();
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		} finally {
+			close(randomAccessFile, file);
+		}
+	}
+
+	/**
+	 * Write the tree to a file, created or truncated
+	 * 
+	 * @param file
+	 */
+	public void save(File file) {
+		RandomAccessFile randomAccessFile = null;
+		try {
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			randomAccessFile.setLength(0);
+			FileChannel channel = randomAccessFile.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(numItems)
+					.putInt(nodeSize).putInt(levelBounds.length).putInt(0);
+			for (int bound : levelBounds) {
+				buffer.putInt(bound);
+			}
+			while (buffer.position() < boxesOffset(levelBounds.length)) {
+				buffer.put((byte) 0);
+			}
+			for (int i = 0; i < numNodes * 4; i++) {
+				if (buffer.remaining() < 8) {
+					write(channel, buffer);
+				}
+				buffer.putDouble(boxes.get(i));
+			}
+			for (int i = 0; i < numNodes; i++) {
+				if (buffer.remaining() < 4) {
+					write(channel, buffer);
+				}
+				buffer.putInt(indices.get(i));
+			}
+			write(channel, buffer);
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Packed R-tree saved to " + file + ": " + numItems
+						+ " items");
+			}
+		} catch (IOException e) {
+			String message = "Failed to save " + file + ": " + e.getMessage();
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		} finally {
+			close(randomAccessFile, file);
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static void close(RandomAccessFile randomAccessFile, File file) {
+		if (randomAccessFile != null) {
+			try {
+				randomAccessFile.close();
+			} catch (IOException e) {
+				LOG.warn("Failed to close " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param numLevels
+	 * @return offset of the boxes, aligned to doubles
+	 */
+	private static int boxesOffset(int numLevels) {
+		return (HEADER_SIZE + numLevels * 4 + 7) & ~7;
+	}
+
+	private static long fileSize(int numLevels, int numNodes) {
+		return boxesOffset(numLevels) + (long) numNodes * 36;
+	}
+
+	/**
+	 * 
+	 * @return number of items
+	 */
+	public int size() {
+		return numItems;
+	}
+
+	/**
+	 * 
+	 * @param envelope
+	 * @return the items whose boxes intersect the envelope, in no particular
+	 *         order
+	 */
+	public int[] search(Envelope envelope) {
+		if (envelope.isNull()) {
+			return new int[0];
+		}
+		return search(envelope.getMinX(), envelope.getMinY(),
+				envelope.getMaxX(), envelope.getMaxY());
+	}
+
+	/**
+	 * Search the tree. Safe to call from several threads
+	 * 
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @return the items whose boxes intersect the rectangle, in no particular
+	 *         order
+	 */
+	public int[] search(double minX, double minY, double maxX, double maxY) {
+		IntStack result = new IntStack();
+		if (numNodes == 0) {
+			return result.toArray();
+		}
+		IntStack queue = new IntStack();
+		int node = numNodes - 1;
+		while (true) {
+			// node is the first of a group of siblings
+			int end = Math.min(node + nodeSize, upperBound(node));
+			boolean leaves = node < numItems;
+			for (int i = node; i < end; i++) {
+				int p = i * 4;
+				if (maxX < boxes.get(p) || maxY < boxes.get(p + 1)
+						|| minX > boxes.get(p + 2) || minY > boxes.get(p + 3)) {
+					continue;
+				}
+				if (leaves) {
+					result.push(indices.get(i));
+				} else {
+					queue.push(indices.get(i));
+				}
+			}
+			if (queue.size == 0) {
+				return result.toArray();
+			}
+			node = queue.pop();
+		}
+	}
+
+	private int upperBound(int node) {
+		for (int bound : levelBounds) {
+			if (bound > node) {
+				return bound;
+			}
+		}
+		return numNodes;
+	}
+
+	private static final class IntStack {
+
+		private int[] values = new int[16];
+		private int size;
+
+		private void push(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		private int pop() {
+			return values[--size];
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Hilbert value of a point of a 65536 x 65536 grid, after "Fast Hilbert
+	 * curve generation, sorting, and range queries" by rawrunprotected
+	 * 
+	 * @param x
+	 * @param y
+	 * @return position of the point along the curve, from 0 to 2^32 - 1
+	 */
+	static long hilbert(int x, int y) {
+		int a = x ^ y;
+		int b = HILBERT_MAX ^ a;
+		int c = HILBERT_MAX ^ (x | y);
+		int d = x & (y ^ HILBERT_MAX);
+
+		int aa = a | (b >> 1);
+		int bb = (a >> 1) ^ a;
+		int cc = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+		int dd = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+		a = aa;
+		b = bb;
+		c = cc;
+		d = dd;
+		aa = (a & (a >> 2)) ^ (b & (b >> 2));
+		bb = (a & (b >> 2)) ^ (b & ((a ^ b) >> 2));
+		cc ^= (a & (c >> 2)) ^ (b & (d >> 2));
+		dd ^= (b & (c >> 2)) ^ ((a ^ b) & (d >> 2));
+
+		a = aa;
+		b = bb;
+		c = cc;
+		d = dd;
+		aa = (a & (a >> 4)) ^ (b & (b >> 4));
+		bb = (a & (b >> 4)) ^ (b & ((a ^ b) >> 4));
+		cc ^= (a & (c >> 4)) ^ (b & (d >> 4));
+		dd ^= (b & (c >> 4)) ^ ((a ^ b) & (d >> 4));
+
+		a = aa;
+		b = bb;
+		c = cc;
+		d = dd;
+		cc ^= (a & (c >> 8)) ^ (b & (d >> 8));
+		dd ^= (b & (c >> 8)) ^ ((a ^ b) & (d >> 8));
+
+		a = cc ^ (cc >> 1);
+		b = dd ^ (dd >> 1);
+
+		int i0 = x ^ y;
+		int i1 = b | (HILBERT_MAX ^ (i0 | a));
+		return ((long) ((interleave(i1) << 1) | interleave(i0))) & 0xFFFFFFFFL;
+	}
+
+	private static int interleave(int value) {
+		int v = (value | (value << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		return (v | (v << 1)) & 0x55555555;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,195 @@
+package org.genericspatialdao.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.SpatialException;
+
+/**
+ * Shared worker pool used by the parallel variants of the spatial utilities
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class ParallelUtils {
+
+	private static final String THREAD_NAME_PREFIX = "genericspatialdao-worker-";
+	private static final Logger LOG = Logger.getLogger(ParallelUtils.class);
+
+	private static final int PARALLELISM = Runtime.getRuntime()
+			.availableProcessors();
+	private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<Boolean>();
+	private static ExecutorService executor;
+
+	private ParallelUtils() {
+
+	}
+
+	/**
+	 * Task executed over a range of indexes
+	 */
+	public interface ChunkTask {
+
+		/**
+		 * 
+		 * @param from
+		 *            inclusive
+		 * @param to
+		 *            exclusive
+		 */
+		void run(int from, int to);
+	}
+
+	/**
+	 * 
+	 * @return number of workers of the shared pool
+	 */
+	public static int getParallelism() {
+		return PARALLELISM;
+	}
+
+	/**
+	 * 
+	 * @return the shared executor. Its threads are daemons, so it does not need
+	 *         to be shut down
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			LOG.debug("Creating shared executor with " + PARALLELISM
+					+ " threads");
+			executor = Executors.newFixedThreadPool(PARALLELISM,
+					new WorkerThreadFactory());
+		}
+		return executor;
+	}
+
+	/**
+	 * 
+	 * @return true if the current thread belongs to the shared pool
+	 */
+	public static boolean isWorkerThread() {
+		return WORKER.get() != null;
+	}
+
+	/**
+	 * Split [0, size) in chunks and run them in the shared pool. The caller
+	 * thread runs the last chunk and blocks until all chunks finish. Small
+	 * inputs, and calls made from a worker thread, run inline
+	 * 
+	 * @param size
+	 * @param minChunkSize
+	 * @param task
+	 */
+	public static void forEachChunk(int size, int minChunkSize,
+			final ChunkTask task) {
+		if (size <= 0) {
+			return;
+		}
+		int chunks = Math.min(PARALLELISM,
+				Math.max(1, size / Math.max(1, minChunkSize)));
+		if (chunks == 1 || isWorkerThread()) {
+			task.run(0, size);
+			return;
+		}
+		int chunkSize = (size + chunks - 1) / chunks;
+		List<Future<Object>> futures = new ArrayList<Future<Object>>(chunks);
+		int from = 0;
+		for (; from + chunkSize < size; from += chunkSize) {
+			final int start = from;
+			final int end = from + chunkSize;
+			futures.add(getExecutor().submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					task.run(start, end);
+					return null;
+				}
+			}));
+		}
+		task.run(from, size);
+		await(futures);
+	}
+
+	/**
+	 * Wait for all futures. The first failure is rethrown: runtime exceptions
+	 * as they are, other exceptions wrapped in a {@link SpatialException}
+	 * 
+	 * @param futures
+	 */
+	public static <V> List<V> await(List<Future<V>> futures) {
+		List<V> result = new ArrayList<V>(futures.size());
+		RuntimeException failure = null;
+		for (Future<V> future : futures) {
+			try {
+				result.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SpatialException("Interrupted while waiting for workers", e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = unwrap(e);
+				}
+			}
+		}
+		if (failure != null) {
+			LOG.error("Parallel task failed: " + failure.getMessage());
+			throw failure;
+		}
+		return result;
+	}
+
+	/**
+	 * Wait for a future, rethrowing its failure like {@link #await(List)}
+	 * 
+	 * @param future
+	 * @return result of the future
+	 */
+	public static <V> V await(Future<V> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SpatialException("Interrupted while waiting for workers", e);
+		} catch (ExecutionException e) {
+			RuntimeException failure = unwrap(e);
+			LOG.error("Parallel task failed: " + failure.getMessage());
+			throw failure;
+		}
+	}
+
+	private static RuntimeException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new SpatialException(e);
+	}
+
+	private static final class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					WORKER.set(Boolean.TRUE);
+					r.run();
+				}
+			}, THREAD_NAME_PREFIX + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,146 @@
+package org.genericspatialdao.util;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.SpatialException;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+/**
+ * Rounds geometries in place, working directly over their coordinate
+ * sequences. No coordinate copies are made, so the cost is linear in the
+ * number of vertices
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class PrecisionReducer {
+
+	private static final int MIN_CHUNK_SIZE = 64;
+	private static final String ROUNDING_COLLAPSED_GEOMETRY = "Rounding collapsed geometry: ";
+	private static final Logger LOG = Logger.getLogger(PrecisionReducer.class);
+
+	private final PrecisionModel precisionModel;
+	private final int maxFractionDigits;
+
+	/**
+	 * 
+	 * @param maxFractionDigits
+	 *            number of decimal places kept in each ordinate
+	 */
+	public PrecisionReducer(int maxFractionDigits) {
+		if (maxFractionDigits < 1) {
+			LOG.warn("It is recommended to use maxFractionDigits > 1");
+		}
+		this.maxFractionDigits = maxFractionDigits;
+		this.precisionModel = new PrecisionModel(Math.pow(10,
+				maxFractionDigits));
+	}
+
+	/**
+	 * Round a geometry in place. Polygonal geometries made invalid by rounding
+	 * are repaired, so the returned geometry may be a new instance
+	 * 
+	 * @param geometry
+	 * @return the rounded geometry
+	 */
+	public Geometry reduce(Geometry geometry) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Rounding geometry with " + geometry.getNumPoints()
+					+ " points to " + maxFractionDigits + " fraction digits");
+		}
+		geometry.apply(new RoundingFilter(precisionModel));
+		if (geometry.isValid()) {
+			return geometry;
+		}
+		if (!(geometry instanceof Polygonal)) {
+			String message = ROUNDING_COLLAPSED_GEOMETRY
+					+ geometry.getGeometryType();
+			LOG.error(message);
+			throw new SpatialException(message);
+		}
+		return repair(geometry);
+	}
+
+	/**
+	 * Round a list of geometries in parallel. Each position of the list is
+	 * replaced by its rounded geometry. The list must not contain the same
+	 * instance twice
+	 * 
+	 * @param geometries
+	 */
+	public <G extends Geometry> void reduce(final List<G> geometries) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Rounding " + geometries.size() + " geometries to "
+					+ maxFractionDigits + " fraction digits");
+		}
+		ParallelUtils.forEachChunk(geometries.size(), MIN_CHUNK_SIZE,
+				new ParallelUtils.ChunkTask() {
+					@SuppressWarnings("unchecked")
+					@Override
+					public void run(int from, int to) {
+						for (int i = from; i < to; i++) {
+							G geometry = geometries.get(i);
+							if (geometry != null) {
+								geometries.set(i, (G) reduce(geometry));
+							}
+						}
+					}
+				});
+	}
+
+	public int getMaxFractionDigits() {
+		return maxFractionDigits;
+	}
+
+	/**
+	 * buffer(0) fixes self-intersections introduced by snapping. The nodes it
+	 * creates are not on the grid, so the result is rounded once more
+	 */
+	private Geometry repair(Geometry geometry) {
+		LOG.debug("Repairing polygonal geometry invalidated by rounding");
+		Geometry repaired = geometry.buffer(0);
+		repaired.apply(new RoundingFilter(precisionModel));
+		if (repaired.isEmpty() || !repaired.isValid()) {
+			String message = ROUNDING_COLLAPSED_GEOMETRY
+					+ geometry.getGeometryType();
+			LOG.error(message);
+			throw new SpatialException(message);
+		}
+		repaired.setSRID(geometry.getSRID());
+		return repaired;
+	}
+
+	private static final class RoundingFilter implements
+			CoordinateSequenceFilter {
+
+		private final PrecisionModel precisionModel;
+
+		private RoundingFilter(PrecisionModel precisionModel) {
+			this.precisionModel = precisionModel;
+		}
+
+		@Override
+		public void filter(CoordinateSequence sequence, int i) {
+			sequence.setOrdinate(i, CoordinateSequence.X, precisionModel
+					.makePrecise(sequence.getOrdinate(i, CoordinateSequence.X)));
+			sequence.setOrdinate(i, CoordinateSequence.Y, precisionModel
+					.makePrecise(sequence.getOrdinate(i, CoordinateSequence.Y)));
+		}
+
+		@Override
+		public boolean isDone() {
+			return false;
+		}
+
+		@Override
+		public boolean isGeometryChanged() {
+			return true;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+package org.genericspatialdao.util;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+
+/**
+ * Relation between the geometry of an entity and a query shape, evaluated in
+ * Java against the prepared shape
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public enum SpatialRelation {
+
+	/**
+	 * The geometry intersects the shape, as ST_Intersects
+	 */
+	INTERSECTS {
+		@Override
+		public boolean evaluate(PreparedGeometry shape, Geometry geometry) {
+			return shape.intersects(geometry);
+		}
+	},
+
+	/**
+	 * The geometry is within the shape, as ST_Within
+	 */
+	WITHIN {
+		@Override
+		public boolean evaluate(PreparedGeometry shape, Geometry geometry) {
+			return shape.contains(geometry);
+		}
+	},
+
+	/**
+	 * The geometry is covered by the shape, as ST_CoveredBy
+	 */
+	COVERED_BY {
+		@Override
+		public boolean evaluate(PreparedGeometry shape, Geometry geometry) {
+			return shape.covers(geometry);
+		}
+	},
+
+	/**
+	 * The geometry contains the shape, as ST_Contains. The preparation of the
+	 * shape does not speed this one up
+	 */
+	CONTAINS {
+		@Override
+		public boolean evaluate(PreparedGeometry shape, Geometry geometry) {
+			return shape.within(geometry);
+		}
+	};
+
+	/**
+	 * 
+	 * @param shape
+	 *            prepared query shape
+	 * @param geometry
+	 *            geometry of an entity
+	 * @return true if the geometry satisfies the relation
+	 */
+	public abstract boolean evaluate(PreparedGeometry shape, Geometry geometry);
+}
\ No newline at end of file
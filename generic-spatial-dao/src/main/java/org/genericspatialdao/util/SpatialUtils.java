@@ -1,8 +1,11 @@
 package org.genericspatialdao.util;
 
-import java.text.NumberFormat;
+import java.io.File;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -19,6 +22,9 @@ import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import com.vividsolutions.jts.io.WKTReader;
 
 /**
@@ -37,6 +43,22 @@ public final class SpatialUtils {
 	private static final String RESULT = "Result: ";
 	private static final Logger LOG = Logger.getLogger(SpatialUtils.class);
 
+	private static final long GEOMETRY_OVERHEAD = 80;
+	private static final long COORDINATE_SIZE = 48;
+	private static final long PACKED_COORDINATE_SIZE = 16;
+	private static final PackedCoordinateSequenceFactory PACKED_SEQUENCE_FACTORY = new PackedCoordinateSequenceFactory(
+			PackedCoordinateSequenceFactory.DOUBLE, 2);
+
+	private static final int PREPARED_CACHE_SIZE = 8;
+	// exceeded only by the most recent shape, which is always kept
+	private static final int PREPARED_CACHE_POINTS = 100000;
+	private static final ThreadLocal<PreparedCache> PREPARED = new ThreadLocal<PreparedCache>() {
+		@Override
+		protected PreparedCache initialValue() {
+			return new PreparedCache();
+		}
+	};
+
 	private static PrecisionModel precisionModel = new PrecisionModel();
 
 	private SpatialUtils() {
@@ -298,42 +320,74 @@ public final class SpatialUtils {
 		return geometry;
 	}
 
+	/**
+	 * Same as {@link #createGeometry(String, int)} for a WKT too large to be
+	 * held in a String. The geometry is read with a {@link WKTStreamReader}
+	 * into packed coordinate sequences
+	 * 
+	 * @param wkt
+	 *            not closed
+	 * @param srid
+	 * @return a valid geometry
+	 */
+	public static Geometry createGeometry(Reader wkt, int srid) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Creating geometry from a WKT stream and SRID " + srid);
+		}
+		return checkStreamedGeometry(new WKTStreamReader(
+				getPackedGeometryFactory(srid)).read(wkt));
+	}
+
+	/**
+	 * Same as {@link #createGeometry(String, int)} for a WKT file, which is
+	 * memory mapped. The geometry is read with a {@link WKTStreamReader} into
+	 * packed coordinate sequences
+	 * 
+	 * @param wkt
+	 * @param srid
+	 * @return a valid geometry
+	 */
+	public static Geometry createGeometry(File wkt, int srid) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Creating geometry from WKT file " + wkt + " and SRID "
+					+ srid);
+		}
+		return checkStreamedGeometry(new WKTStreamReader(
+				getPackedGeometryFactory(srid)).read(wkt));
+	}
+
+	// the message does not hold the WKT, which may be huge
+	private static Geometry checkStreamedGeometry(Geometry geometry) {
+		if (isNotValid(geometry)) {
+			String message = INVALID_GEOMETRY + geometry.getGeometryType()
+					+ " of " + geometry.getNumPoints() + " points";
+			LOG.error(message);
+			throw new SpatialException(message);
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(RESULT + geometry.getGeometryType() + " of "
+					+ geometry.getNumPoints() + " points");
+		}
+		return geometry;
+	}
+
 	//
 	// OTHER METHODS
 	//
 
 	/**
-	 * Be careful, this method can create invalid geometries depending on the
-	 * case. In these cases, an exception will be thrown
+	 * Polygonal geometries invalidated by rounding are repaired. Other
+	 * geometries that rounding makes invalid cause an exception
 	 * 
 	 * @param geometry
 	 * @param maxFractionDigits
-	 * @return a rounded geometry
+	 * @return a rounded copy of the geometry
 	 */
 	public static Geometry getRoundedGeometry(Geometry geometry,
 			int maxFractionDigits) {
-		if (LOG.isInfoEnabled()) {
-			LOG.info("Rounding geometry " + geometry + " to "
-					+ maxFractionDigits + " fraction digits");
-		}
-		if (maxFractionDigits < 1) {
-			LOG.warn("It is recommended to use maxFractionDigits > 1");
-		}
-
 		Geometry newGeometry = (Geometry) geometry.clone();
-
-		NumberFormat nf = NumberFormat.getInstance();
-		// set decimal places
-		nf.setMaximumFractionDigits(maxFractionDigits);
-
-		for (int i = 0; i < newGeometry.getCoordinates().length; i++) {
-			Coordinate coordinate = newGeometry.getCoordinates()[i];
-			double roundedX = Double.valueOf(nf.format(coordinate.x));
-			double roundedY = Double.valueOf(nf.format(coordinate.y));
-			Coordinate roundedCoordinate = new Coordinate(roundedX, roundedY);
-			newGeometry.getCoordinates()[i].setCoordinate(roundedCoordinate);
-		}
-		newGeometry.geometryChanged();
+		newGeometry = new PrecisionReducer(maxFractionDigits)
+				.reduce(newGeometry);
 		checkGeometry(newGeometry);
 		if (LOG.isDebugEnabled()) {
 			LOG.debug(RESULT + newGeometry);
@@ -341,6 +395,129 @@ public final class SpatialUtils {
 		return newGeometry;
 	}
 
+	/**
+	 * Round a geometry in place. Polygonal geometries invalidated by rounding
+	 * are repaired, so the returned instance may differ from the given one
+	 * 
+	 * @param geometry
+	 * @param maxFractionDigits
+	 * @return the rounded geometry
+	 */
+	public static Geometry reducePrecision(Geometry geometry,
+			int maxFractionDigits) {
+		return new PrecisionReducer(maxFractionDigits).reduce(geometry);
+	}
+
+	/**
+	 * Round geometries in place and in parallel. Each position of the list is
+	 * replaced by its rounded geometry
+	 * 
+	 * @param geometries
+	 * @param maxFractionDigits
+	 */
+	public static <G extends Geometry> void reducePrecision(
+			List<G> geometries, int maxFractionDigits) {
+		new PrecisionReducer(maxFractionDigits).reduce(geometries);
+	}
+
+	/**
+	 * 
+	 * @param srid
+	 * @return a geometry factory that stores coordinates in packed double
+	 *         arrays (x and y only) instead of one Coordinate object per vertex
+	 */
+	public static GeometryFactory getPackedGeometryFactory(int srid) {
+		return new GeometryFactory(precisionModel, srid,
+				PACKED_SEQUENCE_FACTORY);
+	}
+
+	/**
+	 * 
+	 * @param geometry
+	 * @return a copy of the geometry backed by packed double arrays. Z
+	 *         ordinates are dropped. Geometries already packed are returned
+	 *         as they are
+	 */
+	public static Geometry toPackedGeometry(Geometry geometry) {
+		if (geometry == null || isPacked(geometry)) {
+			return geometry;
+		}
+		return getPackedGeometryFactory(geometry.getSRID()).createGeometry(
+				geometry);
+	}
+
+	/**
+	 * 
+	 * @param twkb
+	 *            Tiny WKB, as returned by ST_AsTWKB
+	 * @param srid
+	 *            TWKB does not carry the SRID
+	 * @param packed
+	 *            true to decode into packed coordinate sequences
+	 * @return decoded geometry
+	 */
+	public static Geometry readTWKB(byte[] twkb, int srid, boolean packed) {
+		GeometryFactory factory = packed ? getPackedGeometryFactory(srid)
+				: new GeometryFactory(precisionModel, srid);
+		return new TWKBReader(factory).read(twkb);
+	}
+
+	/**
+	 * 
+	 * @param geometry
+	 * @return rough heap size of a geometry in bytes: packed coordinates take
+	 *         two doubles, other coordinates an object of three doubles plus
+	 *         the array reference
+	 */
+	public static long estimateSize(Geometry geometry) {
+		if (geometry == null) {
+			return 0;
+		}
+		long coordinateSize = isPacked(geometry) ? PACKED_COORDINATE_SIZE
+				: COORDINATE_SIZE;
+		return GEOMETRY_OVERHEAD * geometry.getNumGeometries()
+				+ coordinateSize * geometry.getNumPoints();
+	}
+
+	/**
+	 * Prepare a geometry for repeated predicates, reusing the prepared
+	 * geometry of an exactly equal shape seen recently. Prepared geometries
+	 * build their indexes lazily and are not safe to share, so each thread
+	 * keeps its own. A thread keeps at most 8 shapes and 100000 points in
+	 * total, but always the last one prepared, however large, so the chunks
+	 * of one query share its index; see {@link #clearPreparedGeometries()}
+	 * 
+	 * @param geometry
+	 * @return a prepared geometry to be used by the calling thread only
+	 */
+	public static PreparedGeometry prepare(Geometry geometry) {
+		PreparedCache cache = PREPARED.get();
+		ShapeKey key = new ShapeKey(geometry);
+		PreparedGeometry prepared = cache.get(key);
+		if (prepared == null) {
+			prepared = PreparedGeometryFactory.prepare(geometry);
+			cache.put(key, prepared);
+		}
+		return prepared;
+	}
+
+	/**
+	 * Release the prepared geometries kept by the calling thread, for example
+	 * before returning a pooled thread
+	 */
+	public static void clearPreparedGeometries() {
+		PREPARED.remove();
+	}
+
+	/**
+	 * 
+	 * @param geometry
+	 * @return true if the geometry was built by a packed geometry factory
+	 */
+	public static boolean isPacked(Geometry geometry) {
+		return geometry.getFactory().getCoordinateSequenceFactory() instanceof PackedCoordinateSequenceFactory;
+	}
+
 	public static Coordinate createCoordinate(double x, double y) {
 		return new Coordinate(x, y);
 	}
@@ -381,6 +558,69 @@ public final class SpatialUtils {
 		SpatialUtils.precisionModel = precisionModel;
 	}
 
+	/**
+	 * Recently prepared geometries of a thread, bounded by count and by their
+	 * total number of points, except for the most recent one
+	 */
+	private static final class PreparedCache {
+
+		private final LinkedHashMap<ShapeKey, PreparedGeometry> map = new LinkedHashMap<ShapeKey, PreparedGeometry>(
+				16, 0.75f, true);
+		private int points;
+
+		private PreparedGeometry get(ShapeKey key) {
+			return map.get(key);
+		}
+
+		private void put(ShapeKey key, PreparedGeometry prepared) {
+			map.put(key, prepared);
+			points += key.geometry.getNumPoints();
+			Iterator<ShapeKey> iterator = map.keySet().iterator();
+			while (map.size() > 1
+					&& (map.size() > PREPARED_CACHE_SIZE || points > PREPARED_CACHE_POINTS)) {
+				ShapeKey eldest = iterator.next();
+				points -= eldest.geometry.getNumPoints();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Geometry compared by its coordinates, with a hash that does not read
+	 * them
+	 */
+	private static final class ShapeKey {
+
+		private final Geometry geometry;
+		private final int hash;
+
+		private ShapeKey(Geometry geometry) {
+			this.geometry = geometry;
+			this.hash = 31 * (31 * geometry.getEnvelopeInternal().hashCode() + geometry
+					.getNumPoints()) + geometry.getSRID();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ShapeKey)) {
+				return false;
+			}
+			ShapeKey other = (ShapeKey) obj;
+			return geometry == other.geometry
+					|| (hash == other.hash
+							&& geometry.getSRID() == other.geometry.getSRID() && geometry
+								.equalsExact(other.geometry));
+		}
+	}
+
 	private static Point[] getPointArrayFromList(List<Point> list) {
 		Point[] geometries = new Point[list.size()];
 		for (int i = 0; i < geometries.length; i++) {
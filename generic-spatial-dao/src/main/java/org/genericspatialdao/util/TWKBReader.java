@@ -0,0 +1,291 @@
+package org.genericspatialdao.util;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.SpatialException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Decoder of Tiny WKB, the format returned by PostGIS ST_AsTWKB. Coordinates
+ * are read from the zigzag varint delta stream straight into coordinate
+ * sequences; the M ordinate, if any, is dropped. Instances keep the decoding
+ * state, so they must not be shared between threads
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class TWKBReader {
+
+	private static final int POINT = 1;
+	private static final int LINE_STRING = 2;
+	private static final int POLYGON = 3;
+	private static final int MULTI_POINT = 4;
+	private static final int MULTI_LINE_STRING = 5;
+	private static final int MULTI_POLYGON = 6;
+	private static final int GEOMETRY_COLLECTION = 7;
+
+	private static final int BBOX_FLAG = 0x01;
+	private static final int SIZE_FLAG = 0x02;
+	private static final int ID_LIST_FLAG = 0x04;
+	private static final int EXTENDED_DIMENSIONS_FLAG = 0x08;
+	private static final int EMPTY_FLAG = 0x10;
+
+	private static final String INVALID_TWKB = "Invalid TWKB: ";
+	private static final Logger LOG = Logger.getLogger(TWKBReader.class);
+
+	private final GeometryFactory factory;
+
+	private byte[] bytes;
+	private int position;
+	// state of the geometry being read, reset by each header
+	private int dimension;
+	private boolean hasZ;
+	// ordinates are divided, not multiplied by 10^-precision, to get the
+	// closest double to the decimal value
+	private double[] divisors;
+	private long[] last;
+
+	public TWKBReader(GeometryFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * 
+	 * @param twkb
+	 * @return decoded geometry, with the SRID of the factory
+	 */
+	public Geometry read(byte[] twkb) {
+		return read(twkb, 0);
+	}
+
+	/**
+	 * 
+	 * @param twkb
+	 * @param offset
+	 *            position of the TWKB header in the array
+	 * @return decoded geometry, with the SRID of the factory
+	 */
+	public Geometry read(byte[] twkb, int offset) {
+		this.bytes = twkb;
+		this.position = offset;
+		try {
+			return readGeometry();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			String message = INVALID_TWKB + "unexpected end of data";
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		} finally {
+			this.bytes = null;
+		}
+	}
+
+	private Geometry readGeometry() {
+		int typeAndPrecision = bytes[position++] & 0xFF;
+		int type = typeAndPrecision & 0x0F;
+		int precision = decodeZigZag(typeAndPrecision >> 4);
+		int metadata = bytes[position++] & 0xFF;
+
+		hasZ = false;
+		boolean hasM = false;
+		int zPrecision = 0;
+		if ((metadata & EXTENDED_DIMENSIONS_FLAG) != 0) {
+			int extended = bytes[position++] & 0xFF;
+			hasZ = (extended & 0x01) != 0;
+			hasM = (extended & 0x02) != 0;
+			zPrecision = (extended >> 2) & 0x07;
+		}
+		int streamDimension = 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+		dimension = hasZ ? 3 : 2;
+		divisors = new double[streamDimension];
+		divisors[0] = Math.pow(10, precision);
+		divisors[1] = divisors[0];
+		if (hasZ) {
+			divisors[2] = Math.pow(10, zPrecision);
+		}
+		last = new long[streamDimension];
+
+		if ((metadata & SIZE_FLAG) != 0) {
+			readVarInt();
+		}
+		if ((metadata & BBOX_FLAG) != 0) {
+			for (int i = 0; i < streamDimension * 2; i++) {
+				readVarInt();
+			}
+		}
+		boolean empty = (metadata & EMPTY_FLAG) != 0;
+		boolean hasIds = (metadata & ID_LIST_FLAG) != 0;
+
+		switch (type) {
+		case POINT:
+			return empty ? factory.createPoint((CoordinateSequence) null)
+					: readPoint();
+		case LINE_STRING:
+			return empty ? factory.createLineString((CoordinateSequence) null)
+					: readLineString();
+		case POLYGON:
+			return empty ? factory.createPolygon(null, null) : readPolygon();
+		case MULTI_POINT:
+			if (empty) {
+				return factory.createMultiPoint((Point[]) null);
+			}
+			Point[] points = new Point[readParts(hasIds)];
+			for (int i = 0; i < points.length; i++) {
+				points[i] = readPoint();
+			}
+			return factory.createMultiPoint(points);
+		case MULTI_LINE_STRING:
+			if (empty) {
+				return factory.createMultiLineString(null);
+			}
+			LineString[] lines = new LineString[readParts(hasIds)];
+			for (int i = 0; i < lines.length; i++) {
+				lines[i] = readLineString();
+			}
+			return factory.createMultiLineString(lines);
+		case MULTI_POLYGON:
+			if (empty) {
+				return factory.createMultiPolygon(null);
+			}
+			Polygon[] polygons = new Polygon[readParts(hasIds)];
+			for (int i = 0; i < polygons.length; i++) {
+				polygons[i] = readPolygon();
+			}
+			return factory.createMultiPolygon(polygons);
+		case GEOMETRY_COLLECTION:
+			if (empty) {
+				return factory.createGeometryCollection(null);
+			}
+			// each member has its own header and delta state
+			Geometry[] geometries = new Geometry[readParts(hasIds)];
+			for (int i = 0; i < geometries.length; i++) {
+				geometries[i] = readGeometry();
+			}
+			return factory.createGeometryCollection(geometries);
+		default:
+			String message = INVALID_TWKB + "unknown type " + type;
+			LOG.error(message);
+			throw new SpatialException(message);
+		}
+	}
+
+	private int readParts(boolean hasIds) {
+		int parts = (int) readVarInt();
+		if (hasIds) {
+			for (int i = 0; i < parts; i++) {
+				readVarInt();
+			}
+		}
+		return parts;
+	}
+
+	private Point readPoint() {
+		return factory.createPoint(readCoordinates(1, false));
+	}
+
+	private LineString readLineString() {
+		return factory.createLineString(readCoordinates((int) readVarInt(),
+				false));
+	}
+
+	private Polygon readPolygon() {
+		int rings = (int) readVarInt();
+		if (rings == 0) {
+			return factory.createPolygon(null, null);
+		}
+		LinearRing shell = factory.createLinearRing(readCoordinates(
+				(int) readVarInt(), true));
+		LinearRing[] holes = new LinearRing[rings - 1];
+		for (int i = 0; i < holes.length; i++) {
+			holes[i] = factory.createLinearRing(readCoordinates(
+					(int) readVarInt(), true));
+		}
+		return factory.createPolygon(shell, holes);
+	}
+
+	/**
+	 * Read delta encoded coordinates
+	 * 
+	 * @param count
+	 * @param ring
+	 *            true to close the sequence if the stream left it open
+	 */
+	private CoordinateSequence readCoordinates(int count, boolean ring) {
+		double[] ordinates = new double[(ring ? count + 1 : count) * dimension];
+		for (int i = 0; i < count; i++) {
+			for (int d = 0; d < last.length; d++) {
+				last[d] += decodeZigZag(readVarInt());
+				if (d < dimension) {
+					ordinates[i * dimension + d] = last[d] / divisors[d];
+				}
+			}
+		}
+		int size = count;
+		if (ring && count > 0 && !closed(ordinates, count)) {
+			System.arraycopy(ordinates, 0, ordinates, count * dimension,
+					dimension);
+			size++;
+		}
+		return createSequence(ordinates, size);
+	}
+
+	private boolean closed(double[] ordinates, int count) {
+		int lastOffset = (count - 1) * dimension;
+		for (int d = 0; d < dimension; d++) {
+			if (ordinates[d] != ordinates[lastOffset + d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private CoordinateSequence createSequence(double[] ordinates, int size) {
+		CoordinateSequenceFactory sequenceFactory = factory
+				.getCoordinateSequenceFactory();
+		if (sequenceFactory instanceof PackedCoordinateSequenceFactory) {
+			double[] packed = ordinates;
+			if (ordinates.length != size * dimension) {
+				packed = new double[size * dimension];
+				System.arraycopy(ordinates, 0, packed, 0, packed.length);
+			}
+			return ((PackedCoordinateSequenceFactory) sequenceFactory).create(
+					packed, dimension);
+		}
+		Coordinate[] coordinates = new Coordinate[size];
+		for (int i = 0; i < size; i++) {
+			int offset = i * dimension;
+			coordinates[i] = hasZ ? new Coordinate(ordinates[offset],
+					ordinates[offset + 1], ordinates[offset + 2])
+					: new Coordinate(ordinates[offset], ordinates[offset + 1]);
+		}
+		return sequenceFactory.create(coordinates);
+	}
+
+	private long readVarInt() {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = bytes[position++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static int decodeZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long decodeZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package org.genericspatialdao.util;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.SpatialException;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Web mercator tile grid (EPSG:3857, XYZ tile numbering)
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class TileUtils {
+
+	public static final int WEB_MERCATOR_SRID = 3857;
+	public static final int WGS84_SRID = 4326;
+	public static final double WEB_MERCATOR_MAX = 20037508.342789244;
+
+	private static final double MAX_LATITUDE = 85.0511287798066;
+	private static final String INVALID_TILE = "Invalid tile: ";
+	private static final Logger LOG = Logger.getLogger(TileUtils.class);
+
+	private TileUtils() {
+
+	}
+
+	/**
+	 * 
+	 * @param z
+	 * @param x
+	 * @param y
+	 *            row, counted from the north
+	 * @return envelope of the tile in web mercator
+	 */
+	public static Envelope getTileEnvelope(int z, int x, int y) {
+		if (z < 0 || z > 30 || x < 0 || y < 0 || x >= (1 << z)
+				|| y >= (1 << z)) {
+			String message = INVALID_TILE + z + "/" + x + "/" + y;
+			LOG.error(message);
+			throw new SpatialException(message);
+		}
+		double size = 2 * WEB_MERCATOR_MAX / (1 << z);
+		double minX = -WEB_MERCATOR_MAX + x * size;
+		double maxY = WEB_MERCATOR_MAX - y * size;
+		return new Envelope(minX, minX + size, maxY - size, maxY);
+	}
+
+	/**
+	 * 
+	 * @param envelope
+	 * @param extent
+	 *            tile size in tile coordinates
+	 * @param buffer
+	 *            margin in tile coordinates
+	 * @return the envelope expanded by the margin
+	 */
+	public static Envelope buffer(Envelope envelope, int extent, int buffer) {
+		Envelope buffered = new Envelope(envelope);
+		buffered.expandBy(envelope.getWidth() * buffer / extent,
+				envelope.getHeight() * buffer / extent);
+		return buffered;
+	}
+
+	/**
+	 * 
+	 * @param geometry
+	 * @param srid
+	 *            SRID of the geometry, WGS84 (4326) or web mercator (3857)
+	 * @return a web mercator copy of the geometry, or the geometry itself if
+	 *         it is already in web mercator
+	 */
+	public static Geometry toWebMercator(Geometry geometry, int srid) {
+		if (srid == WEB_MERCATOR_SRID) {
+			return geometry;
+		}
+		if (srid != WGS84_SRID) {
+			String message = "Only SRIDs " + WGS84_SRID + " and "
+					+ WEB_MERCATOR_SRID + " can be projected in Java: " + srid;
+			LOG.error(message);
+			throw new SpatialException(message);
+		}
+		Geometry projected = (Geometry) geometry.clone();
+		projected.apply(new MercatorFilter());
+		projected.setSRID(WEB_MERCATOR_SRID);
+		return projected;
+	}
+
+	private static final class MercatorFilter implements
+			CoordinateSequenceFilter {
+
+		@Override
+		public void filter(CoordinateSequence sequence, int i) {
+			double longitude = sequence.getOrdinate(i, CoordinateSequence.X);
+			double latitude = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE,
+					sequence.getOrdinate(i, CoordinateSequence.Y)));
+			sequence.setOrdinate(i, CoordinateSequence.X, longitude
+					* WEB_MERCATOR_MAX / 180);
+			sequence.setOrdinate(
+					i,
+					CoordinateSequence.Y,
+					Math.log(Math.tan((90 + latitude) * Math.PI / 360))
+							* WEB_MERCATOR_MAX / Math.PI);
+		}
+
+		@Override
+		public boolean isDone() {
+			return false;
+		}
+
+		@Override
+		public boolean isGeometryChanged() {
+			return true;
+		}
+	}
+}
\ No newline at end of file
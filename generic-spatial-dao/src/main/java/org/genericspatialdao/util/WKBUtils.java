@@ -0,0 +1,271 @@
+package org.genericspatialdao.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.SpatialException;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Helpers over (E)WKB byte arrays. Header fields and envelopes are read
+ * straight from the bytes, without building JTS objects
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class WKBUtils {
+
+	private static final int Z_FLAG = 0x80000000;
+	private static final int M_FLAG = 0x40000000;
+	private static final int SRID_FLAG = 0x20000000;
+	private static final int FLAGS = Z_FLAG | M_FLAG | SRID_FLAG;
+	private static final int ISO_TYPE_FACTOR = 1000;
+	private static final int HEADER_SIZE = 5;
+	private static final int SRID_SIZE = 4;
+	private static final int DOUBLE_SIZE = 8;
+	private static final int BYTE_ORDER = ByteOrderValues.LITTLE_ENDIAN;
+
+	private static final int POINT = 1;
+	private static final int LINE_STRING = 2;
+	private static final int POLYGON = 3;
+	private static final int MULTI_POINT = 4;
+	private static final int MULTI_LINE_STRING = 5;
+	private static final int MULTI_POLYGON = 6;
+	private static final int GEOMETRY_COLLECTION = 7;
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final String INVALID_WKB = "Invalid WKB: ";
+	private static final Logger LOG = Logger.getLogger(WKBUtils.class);
+
+	private WKBUtils() {
+
+	}
+
+	/**
+	 * 
+	 * @param ewkb
+	 * @return the SRID stored in the EWKB header or 0 if there is none
+	 */
+	public static int getSRID(byte[] ewkb) {
+		ByteBuffer buffer = wrap(ewkb);
+		int type = buffer.getInt(1);
+		if ((type & SRID_FLAG) == 0) {
+			return 0;
+		}
+		return buffer.getInt(HEADER_SIZE);
+	}
+
+	/**
+	 * Scan the coordinates of a (E)WKB geometry without decoding it
+	 * 
+	 * @param ewkb
+	 * @return the envelope of the geometry, null envelope if it is empty
+	 */
+	public static Envelope getEnvelope(byte[] ewkb) {
+		Envelope envelope = new Envelope();
+		try {
+			scan(wrap(ewkb), envelope);
+		} catch (RuntimeException e) {
+			String message = INVALID_WKB + e.getMessage();
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		}
+		return envelope;
+	}
+
+	/**
+	 * 
+	 * @param ewkb
+	 * @param factory
+	 *            factory used to build the geometry. The SRID of the EWKB
+	 *            header, if any, overrides the factory one
+	 * @return decoded geometry
+	 */
+	public static Geometry read(byte[] ewkb, GeometryFactory factory) {
+		try {
+			Geometry geometry = new WKBReader(factory).read(ewkb);
+			int srid = getSRID(ewkb);
+			if (srid != 0) {
+				geometry.setSRID(srid);
+			}
+			return geometry;
+		} catch (Exception e) {
+			String message = INVALID_WKB + e.getMessage();
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param ewkb
+	 * @param packed
+	 *            true to decode into packed coordinate sequences
+	 * @return decoded geometry
+	 */
+	public static Geometry read(byte[] ewkb, boolean packed) {
+		int srid = getSRID(ewkb);
+		GeometryFactory factory = packed ? SpatialUtils
+				.getPackedGeometryFactory(srid) : new GeometryFactory(
+				SpatialUtils.getPrecisionModel(), srid);
+		return read(ewkb, factory);
+	}
+
+	/**
+	 * 
+	 * @param geometry
+	 * @return 2D EWKB of the geometry, SRID included when it is not 0
+	 */
+	public static byte[] write(Geometry geometry) {
+		byte[] wkb = new WKBWriter(2, BYTE_ORDER).write(geometry);
+		int srid = geometry.getSRID();
+		if (srid == 0) {
+			return wkb;
+		}
+		byte[] ewkb = new byte[wkb.length + SRID_SIZE];
+		ByteBuffer in = wrap(wkb);
+		ByteBuffer out = ByteBuffer.wrap(ewkb).order(in.order());
+		out.put(wkb[0]);
+		out.putInt(in.getInt(1) | SRID_FLAG);
+		out.putInt(srid);
+		out.put(wkb, HEADER_SIZE, wkb.length - HEADER_SIZE);
+		return ewkb;
+	}
+
+	public static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * 
+	 * @param hex
+	 * @return bytes of an hexadecimal string. A PostgreSQL bytea prefix (\x)
+	 *         is skipped
+	 */
+	public static byte[] fromHex(CharSequence hex) {
+		int offset = hex.length() > 1 && hex.charAt(0) == '\\'
+				&& hex.charAt(1) == 'x' ? 2 : 0;
+		int length = hex.length() - offset;
+		if (length % 2 != 0) {
+			throw new SpatialException("Odd hexadecimal length: " + length);
+		}
+		byte[] bytes = new byte[length / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(hex.charAt(offset + i * 2), 16);
+			int low = Character.digit(hex.charAt(offset + i * 2 + 1), 16);
+			if (high < 0 || low < 0) {
+				throw new SpatialException("Invalid hexadecimal character at "
+						+ (offset + i * 2));
+			}
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Normalize the bytes read from a geometry or bytea column. Binary
+	 * results (bytea in binary transfer) start with the WKB byte order flag
+	 * and are returned as they are; text results carry the hexadecimal
+	 * encoding and are decoded
+	 * 
+	 * @param value
+	 *            bytes returned by ResultSet.getBytes
+	 * @return (E)WKB bytes
+	 */
+	public static byte[] fromColumn(byte[] value) {
+		if (value == null || value.length == 0 || value[0] == 0
+				|| value[0] == 1) {
+			return value;
+		}
+		return fromHex(new String(value, ASCII));
+	}
+
+	private static ByteBuffer wrap(byte[] ewkb) {
+		if (ewkb == null || ewkb.length < HEADER_SIZE) {
+			throw new SpatialException(INVALID_WKB + "header is missing");
+		}
+		return ByteBuffer.wrap(ewkb).order(byteOrder(ewkb[0]));
+	}
+
+	private static ByteOrder byteOrder(byte flag) {
+		return flag == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+	}
+
+	/**
+	 * Read a geometry header and expand the envelope with its coordinates,
+	 * leaving the buffer after the geometry
+	 */
+	private static void scan(ByteBuffer buffer, Envelope envelope) {
+		buffer.order(byteOrder(buffer.get()));
+		int type = buffer.getInt();
+		int dimension = 2;
+		if ((type & Z_FLAG) != 0) {
+			dimension++;
+		}
+		if ((type & M_FLAG) != 0) {
+			dimension++;
+		}
+		if ((type & SRID_FLAG) != 0) {
+			buffer.getInt();
+		}
+		type &= ~FLAGS;
+		if (type > ISO_TYPE_FACTOR) {
+			int isoDimensions = type / ISO_TYPE_FACTOR;
+			dimension += isoDimensions == 3 ? 2 : 1;
+			type %= ISO_TYPE_FACTOR;
+		}
+		switch (type) {
+		case POINT:
+			scanCoordinates(buffer, 1, dimension, envelope);
+			break;
+		case LINE_STRING:
+			scanCoordinates(buffer, buffer.getInt(), dimension, envelope);
+			break;
+		case POLYGON:
+			int rings = buffer.getInt();
+			for (int i = 0; i < rings; i++) {
+				scanCoordinates(buffer, buffer.getInt(), dimension, envelope);
+			}
+			break;
+		case MULTI_POINT:
+		case MULTI_LINE_STRING:
+		case MULTI_POLYGON:
+		case GEOMETRY_COLLECTION:
+			int parts = buffer.getInt();
+			for (int i = 0; i < parts; i++) {
+				scan(buffer, envelope);
+			}
+			break;
+		default:
+			throw new SpatialException(INVALID_WKB + "unknown type " + type);
+		}
+	}
+
+	private static void scanCoordinates(ByteBuffer buffer, int count,
+			int dimension, Envelope envelope) {
+		for (int i = 0; i < count; i++) {
+			int position = buffer.position();
+			double x = buffer.getDouble(position);
+			double y = buffer.getDouble(position + DOUBLE_SIZE);
+			// empty points are written as NaN
+			if (!Double.isNaN(x)) {
+				envelope.expandToInclude(x, y);
+			}
+			buffer.position(position + dimension * DOUBLE_SIZE);
+		}
+	}
+}
\ No newline at end of file
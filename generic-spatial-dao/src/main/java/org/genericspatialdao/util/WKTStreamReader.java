@@ -0,0 +1,620 @@
+package org.genericspatialdao.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.genericspatialdao.exception.SpatialException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * WKT parser reading from a {@link Reader}, a {@link CharBuffer} or a
+ * memory mapped file instead of a String. Text is read through a small fixed
+ * buffer and numbers are parsed without creating strings, so besides the
+ * geometry itself only the coordinates of the sequence being read are held,
+ * in fixed-size blocks. With a packed factory the sequences are created
+ * straight from those blocks, without Coordinate objects.
+ * 
+ * Coordinates are made precise with the precision model of the factory, as
+ * the JTS WKTReader does. Z, M and ZM tags are accepted; M ordinates are
+ * dropped. Instances keep the parsing state, so they must not be shared
+ * between threads
+ * 
+ * @author Joao Savio C. Longo - joaosavio@gmail.com
+ * 
+ */
+public final class WKTStreamReader {
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int BLOCK_SHIFT = 13;
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+	private static final long MAP_WINDOW = 64L * 1024 * 1024;
+	private static final int MAX_NUMBER_LENGTH = 64;
+	private static final int MAX_WORD_LENGTH = 32;
+	// largest mantissa digits and powers of ten for which one double operation
+	// gives the correctly rounded value
+	private static final int MAX_FAST_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private static final String INVALID_WKT = "Invalid WKT at position ";
+	private static final Logger LOG = Logger.getLogger(WKTStreamReader.class);
+
+	private final GeometryFactory factory;
+	private final PrecisionModel precisionModel;
+
+	// sources, one at a time
+	private Reader reader;
+	private CharBuffer chars;
+	private FileChannel channel;
+	private MappedByteBuffer mapped;
+	private long mappedEnd;
+	private final byte[] bytes = new byte[BUFFER_SIZE];
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int bufferPosition;
+	private int bufferLimit;
+	private long position;
+	private final char[] number = new char[MAX_NUMBER_LENGTH];
+	private final StringBuilder word = new StringBuilder();
+
+	// ordinates of the sequence being read
+	private final List<double[]> blocks = new ArrayList<double[]>();
+	private int size;
+	private int dimension;
+	// tags of the geometry being read
+	private boolean hasZ;
+	private boolean hasM;
+	// last coordinate read
+	private double x;
+	private double y;
+	private double z;
+	private boolean readZ;
+
+	public WKTStreamReader(GeometryFactory factory) {
+		this.factory = factory;
+		this.precisionModel = factory.getPrecisionModel();
+	}
+
+	/**
+	 * 
+	 * @param reader
+	 *            not closed
+	 * @return the geometry, with the SRID of the factory
+	 */
+	public Geometry read(Reader reader) {
+		this.reader = reader;
+		try {
+			return read();
+		} finally {
+			this.reader = null;
+		}
+	}
+
+	/**
+	 * 
+	 * @param wkt
+	 *            read from its position
+	 * @return the geometry, with the SRID of the factory
+	 */
+	public Geometry read(CharBuffer wkt) {
+		this.chars = wkt;
+		try {
+			return read();
+		} finally {
+			this.chars = null;
+		}
+	}
+
+	/**
+	 * Read a WKT file by mapping it in windows. WKT is ASCII, so bytes are
+	 * read as characters
+	 * 
+	 * @param file
+	 * @return the geometry, with the SRID of the factory
+	 */
+	public Geometry read(File file) {
+		RandomAccessFile input = null;
+		try {
+			input = new RandomAccessFile(file, "r");
+			this.channel = input.getChannel();
+			mappedEnd = 0;
+			return read();
+		} catch (IOException e) {
+			String message = "Failed to read " + file + ": " + e.getMessage();
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		} finally {
+			this.channel = null;
+			this.mapped = null;
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					LOG.warn("Failed to close " + file + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private Geometry read() {
+		bufferPosition = 0;
+		bufferLimit = 0;
+		position = 0;
+		try {
+			return readGeometry();
+		} catch (IOException e) {
+			String message = INVALID_WKT + position + ": " + e.getMessage();
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		} catch (IllegalArgumentException e) {
+			// unclosed rings and too short sequences
+			String message = INVALID_WKT + position + ": " + e.getMessage();
+			LOG.error(message);
+			throw new SpatialException(message, e);
+		} finally {
+			// keep one block for the next geometry
+			while (blocks.size() > 1) {
+				blocks.remove(blocks.size() - 1);
+			}
+		}
+	}
+
+	private Geometry readGeometry() throws IOException {
+		String type = readWord();
+		boolean outerZ = hasZ;
+		boolean outerM = hasM;
+		readDimensionTag();
+		try {
+			if ("POINT".equals(type)) {
+				return readPoint();
+			}
+			if ("LINESTRING".equals(type)) {
+				return factory.createLineString(readEmpty() ? null
+						: readSequence());
+			}
+			if ("LINEARRING".equals(type)) {
+				return factory.createLinearRing(readEmpty() ? null
+						: readSequence());
+			}
+			if ("POLYGON".equals(type)) {
+				return readEmpty() ? factory.createPolygon(null, null)
+						: readPolygon();
+			}
+			if ("MULTIPOINT".equals(type)) {
+				return factory.createMultiPoint(readEmpty() ? null
+						: readMultiPoint());
+			}
+			if ("MULTILINESTRING".equals(type)) {
+				return factory.createMultiLineString(readEmpty() ? null
+						: readMultiLineString());
+			}
+			if ("MULTIPOLYGON".equals(type)) {
+				return factory.createMultiPolygon(readEmpty() ? null
+						: readMultiPolygon());
+			}
+			if ("GEOMETRYCOLLECTION".equals(type)) {
+				return factory.createGeometryCollection(readEmpty() ? null
+						: readGeometryCollection());
+			}
+			throw error("unknown type " + type);
+		} finally {
+			hasZ = outerZ;
+			hasM = outerM;
+		}
+	}
+
+	private Point readPoint() throws IOException {
+		if (readEmpty()) {
+			return factory.createPoint((CoordinateSequence) null);
+		}
+		CoordinateSequence sequence = readSequence();
+		if (sequence.size() != 1) {
+			throw error("a point has one coordinate");
+		}
+		return factory.createPoint(sequence);
+	}
+
+	private Polygon readPolygon() throws IOException {
+		expect('(');
+		LinearRing shell = factory.createLinearRing(readSequence());
+		List<LinearRing> holes = new ArrayList<LinearRing>();
+		while (nextIsComma()) {
+			holes.add(factory.createLinearRing(readSequence()));
+		}
+		expect(')');
+		return factory.createPolygon(shell,
+				holes.toArray(new LinearRing[holes.size()]));
+	}
+
+	private Point[] readMultiPoint() throws IOException {
+		expect('(');
+		List<Point> points = new ArrayList<Point>();
+		if (peekNonWhitespace() != '(' && !isLetter(peekNonWhitespace())) {
+			// MULTIPOINT(1 2, 3 4): one sequence, split into points
+			startSequence();
+			do {
+				appendCoordinate();
+			} while (nextIsComma());
+			expect(')');
+			int count = size / dimension;
+			for (int i = 0; i < count; i++) {
+				points.add(factory.createPoint(createSequence(i, 1)));
+			}
+			return points.toArray(new Point[points.size()]);
+		}
+		do {
+			points.add(readPoint());
+		} while (nextIsComma());
+		expect(')');
+		return points.toArray(new Point[points.size()]);
+	}
+
+	private LineString[] readMultiLineString() throws IOException {
+		expect('(');
+		List<LineString> lines = new ArrayList<LineString>();
+		do {
+			lines.add(factory.createLineString(readEmpty() ? null
+					: readSequence()));
+		} while (nextIsComma());
+		expect(')');
+		return lines.toArray(new LineString[lines.size()]);
+	}
+
+	private Polygon[] readMultiPolygon() throws IOException {
+		expect('(');
+		List<Polygon> polygons = new ArrayList<Polygon>();
+		do {
+			polygons.add(readEmpty() ? factory.createPolygon(null, null)
+					: readPolygon());
+		} while (nextIsComma());
+		expect(')');
+		return polygons.toArray(new Polygon[polygons.size()]);
+	}
+
+	private Geometry[] readGeometryCollection() throws IOException {
+		expect('(');
+		List<Geometry> geometries = new ArrayList<Geometry>();
+		do {
+			geometries.add(readGeometry());
+		} while (nextIsComma());
+		expect(')');
+		return geometries.toArray(new Geometry[geometries.size()]);
+	}
+
+	/**
+	 * Read a parenthesized list of coordinates
+	 */
+	private CoordinateSequence readSequence() throws IOException {
+		expect('(');
+		startSequence();
+		do {
+			appendCoordinate();
+		} while (nextIsComma());
+		expect(')');
+		return createSequence(0, size / dimension);
+	}
+
+	private void startSequence() {
+		size = 0;
+		dimension = 0;
+	}
+
+	private void appendCoordinate() throws IOException {
+		readCoordinate();
+		if (dimension == 0) {
+			dimension = hasZ || (readZ && !hasM) ? 3 : 2;
+		}
+		append(precisionModel.makePrecise(x));
+		append(precisionModel.makePrecise(y));
+		if (dimension == 3) {
+			append(readZ ? z : Coordinate.NULL_ORDINATE);
+		}
+	}
+
+	private void readCoordinate() throws IOException {
+		x = readNumber();
+		y = readNumber();
+		readZ = false;
+		if (isNumberStart(peekNonWhitespace())) {
+			double third = readNumber();
+			// with an M tag the third ordinate is M
+			if (!hasM || hasZ) {
+				z = third;
+				readZ = true;
+			}
+			if (isNumberStart(peekNonWhitespace())) {
+				readNumber();
+			}
+		}
+	}
+
+	private void append(double ordinate) {
+		int block = size >>> BLOCK_SHIFT;
+		if (block == blocks.size()) {
+			blocks.add(new double[BLOCK_SIZE]);
+		}
+		blocks.get(block)[size & BLOCK_MASK] = ordinate;
+		size++;
+	}
+
+	private double ordinate(int index) {
+		return blocks.get(index >>> BLOCK_SHIFT)[index & BLOCK_MASK];
+	}
+
+	/**
+	 * Create a sequence from the coordinates of the blocks
+	 */
+	private CoordinateSequence createSequence(int first, int count) {
+		CoordinateSequenceFactory sequenceFactory = factory
+				.getCoordinateSequenceFactory();
+		int start = first * dimension;
+		if (sequenceFactory instanceof PackedCoordinateSequenceFactory) {
+			double[] ordinates = new double[count * dimension];
+			for (int i = 0; i < ordinates.length;) {
+				int index = start + i;
+				int length = Math.min(ordinates.length - i, BLOCK_SIZE
+						- (index & BLOCK_MASK));
+				System.arraycopy(blocks.get(index >>> BLOCK_SHIFT), index
+						& BLOCK_MASK, ordinates, i, length);
+				i += length;
+			}
+			return ((PackedCoordinateSequenceFactory) sequenceFactory).create(
+					ordinates, dimension);
+		}
+		Coordinate[] coordinates = new Coordinate[count];
+		for (int i = 0; i < count; i++) {
+			int offset = start + i * dimension;
+			coordinates[i] = dimension == 3 ? new Coordinate(ordinate(offset),
+					ordinate(offset + 1), ordinate(offset + 2))
+					: new Coordinate(ordinate(offset), ordinate(offset + 1));
+		}
+		return sequenceFactory.create(coordinates);
+	}
+
+	private void readDimensionTag() throws IOException {
+		hasZ = false;
+		hasM = false;
+		int c = peekNonWhitespace();
+		if (c != 'Z' && c != 'z' && c != 'M' && c != 'm') {
+			return;
+		}
+		String tag = readWord();
+		if ("Z".equals(tag)) {
+			hasZ = true;
+		} else if ("M".equals(tag)) {
+			hasM = true;
+		} else if ("ZM".equals(tag)) {
+			hasZ = true;
+			hasM = true;
+		} else {
+			throw error("unknown dimension " + tag);
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if the next word is EMPTY, false if a list starts
+	 */
+	private boolean readEmpty() throws IOException {
+		if (peekNonWhitespace() == '(') {
+			return false;
+		}
+		String next = readWord();
+		if (!"EMPTY".equals(next)) {
+			throw error("expected EMPTY or '(' but found " + next);
+		}
+		return true;
+	}
+
+	private String readWord() throws IOException {
+		skipWhitespace();
+		word.setLength(0);
+		while (isLetter(peek())) {
+			if (word.length() == MAX_WORD_LENGTH) {
+				throw error("word too long");
+			}
+			word.append(Character.toUpperCase((char) next()));
+		}
+		if (word.length() == 0) {
+			throw error("expected a word");
+		}
+		return word.toString();
+	}
+
+	private double readNumber() throws IOException {
+		skipWhitespace();
+		int length = 0;
+		while (isNumberPart(peek())) {
+			if (length == MAX_NUMBER_LENGTH) {
+				throw error("number too long");
+			}
+			number[length++] = (char) next();
+		}
+		if (length == 0) {
+			throw error("expected a number");
+		}
+		return parseNumber(length);
+	}
+
+	private double parseNumber(int length) {
+		int i = 0;
+		boolean negative = false;
+		if (number[0] == '-' || number[0] == '+') {
+			negative = number[0] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		for (; i < length && isDigit(number[i]); i++) {
+			anyDigit = true;
+			if (digits <= MAX_FAST_DIGITS) {
+				mantissa = mantissa * 10 + (number[i] - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+			} else {
+				exponent++;
+			}
+		}
+		if (i < length && number[i] == '.') {
+			for (i++; i < length && isDigit(number[i]); i++) {
+				anyDigit = true;
+				if (digits <= MAX_FAST_DIGITS) {
+					mantissa = mantissa * 10 + (number[i] - '0');
+					if (mantissa != 0) {
+						digits++;
+					}
+					exponent--;
+				}
+			}
+		}
+		if (i < length && (number[i] == 'e' || number[i] == 'E')) {
+			i++;
+			int sign = 1;
+			if (i < length && (number[i] == '-' || number[i] == '+')) {
+				sign = number[i] == '-' ? -1 : 1;
+				i++;
+			}
+			int value = 0;
+			int start = i;
+			for (; i < length && isDigit(number[i]); i++) {
+				// larger exponents overflow or underflow anyway
+				value = Math.min(value * 10 + (number[i] - '0'), 100000);
+			}
+			if (i == start) {
+				throw error("invalid number " + new String(number, 0, length));
+			}
+			exponent += sign * value;
+		}
+		if (i != length || !anyDigit) {
+			throw error("invalid number " + new String(number, 0, length));
+		}
+		if (digits <= MAX_FAST_DIGITS && exponent >= -22 && exponent <= 22) {
+			double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+					: mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(new String(number, 0, length));
+	}
+
+	private boolean nextIsComma() throws IOException {
+		if (peekNonWhitespace() == ',') {
+			next();
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c) throws IOException {
+		int found = peekNonWhitespace();
+		if (found != c) {
+			throw error("expected '" + c + "' but found "
+					+ (found < 0 ? "end of text" : "'" + (char) found + "'"));
+		}
+		next();
+	}
+
+	private int peekNonWhitespace() throws IOException {
+		skipWhitespace();
+		return peek();
+	}
+
+	private void skipWhitespace() throws IOException {
+		int c = peek();
+		while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+			next();
+			c = peek();
+		}
+	}
+
+	private int peek() throws IOException {
+		if (bufferPosition == bufferLimit && !fill()) {
+			return -1;
+		}
+		return buffer[bufferPosition];
+	}
+
+	private int next() throws IOException {
+		int c = peek();
+		if (c >= 0) {
+			bufferPosition++;
+			position++;
+		}
+		return c;
+	}
+
+	private boolean fill() throws IOException {
+		bufferPosition = 0;
+		bufferLimit = 0;
+		if (reader != null) {
+			int read = reader.read(buffer, 0, buffer.length);
+			bufferLimit = Math.max(read, 0);
+		} else if (chars != null) {
+			int read = Math.min(buffer.length, chars.remaining());
+			chars.get(buffer, 0, read);
+			bufferLimit = read;
+		} else if (channel != null) {
+			if (mapped == null || !mapped.hasRemaining()) {
+				long remaining = channel.size() - mappedEnd;
+				if (remaining <= 0) {
+					return false;
+				}
+				long length = Math.min(MAP_WINDOW, remaining);
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, mappedEnd,
+						length);
+				mappedEnd += length;
+			}
+			int read = Math.min(bytes.length, mapped.remaining());
+			mapped.get(bytes, 0, read);
+			for (int i = 0; i < read; i++) {
+				buffer[i] = (char) (bytes[i] & 0xFF);
+			}
+			bufferLimit = read;
+		}
+		return bufferLimit > 0;
+	}
+
+	private SpatialException error(String reason) {
+		String message = INVALID_WKT + position + ": " + reason;
+		LOG.error(message);
+		return new SpatialException(message);
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isNumberStart(int c) {
+		return isDigit(c) || c == '-' || c == '+' || c == '.';
+	}
+
+	private static boolean isNumberPart(int c) {
+		return isNumberStart(c) || c == 'e' || c == 'E';
+	}
+}
\ No newline at end of file
@@ -0,0 +1,53 @@
+package org.genericspatialdao.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class CacheEventTest {
+
+	private static final String ENTITY = "org.genericspatialdao.data.SpatialTestVO";
+
+	@Test
+	public void encodeDecodeTest() {
+		CacheEvent event = new CacheEvent(ENTITY, Arrays.asList(new Envelope(
+				-46.5, -46.25, -23.75, -23.5), new Envelope(1, 2, 3, 4)),
+				Arrays.asList(1L, 2L));
+		CacheEvent decoded = CacheEvent.decode(event.encode(1000));
+		assertEquals(ENTITY, decoded.getEntityName());
+		assertEquals(event.getEnvelopes(), decoded.getEnvelopes());
+		assertEquals(Arrays.asList("1", "2"), decoded.getIds());
+
+		CacheEvent all = CacheEvent.decode(CacheEvent.all().encode(1000));
+		assertTrue(all.isAll());
+		assertTrue(all.isEntityWide());
+	}
+
+	@Test
+	public void coarsenTest() {
+		CacheEvent event = new CacheEvent(ENTITY, Arrays.asList(new Envelope(
+				0, 1, 0, 1), new Envelope(5, 6, 5, 6)), Arrays.asList(1L, 2L));
+		// envelopes merged to fit
+		CacheEvent merged = CacheEvent.decode(event.encode(ENTITY.length() + 30));
+		assertEquals(Arrays.asList(new Envelope(0, 6, 0, 6)),
+				merged.getEnvelopes());
+		assertEquals(Arrays.asList("1", "2"), merged.getIds());
+
+		// nothing but the entity fits
+		CacheEvent entityWide = CacheEvent.decode(event.encode(1));
+		assertTrue(entityWide.isEntityWide());
+		assertNull(entityWide.getEnvelopes());
+		assertNull(entityWide.getIds());
+
+		// identifiers that cannot be told apart from the separators
+		CacheEvent unknownIds = CacheEvent.decode(new CacheEvent(ENTITY,
+				Arrays.<Envelope> asList(), Arrays.asList("a|b")).encode(1000));
+		assertNull(unknownIds.getIds());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+package org.genericspatialdao.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.genericspatialdao.util.SpatialUtils;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+	private static final Set<String> SPACES = new HashSet<String>(
+			Arrays.asList("spatialtestvo"));
+	private static final List<Object> RESULT = Arrays.<Object> asList(1L, 2L);
+
+	@Test
+	public void keyTest() {
+		assertEquals(QueryKey.of("FROM  TestVO\n WHERE id = ?", 1L),
+				QueryKey.of(" FROM TestVO WHERE id = ? ", 1L));
+		assertFalse(QueryKey.of("FROM TestVO WHERE id = ?", 1L).equals(
+				QueryKey.of("FROM TestVO WHERE id = ?", 2L)));
+		// whitespace inside literals is kept
+		assertFalse(QueryKey.of("FROM TestVO WHERE name = 'a  b'").equals(
+				QueryKey.of("FROM TestVO WHERE name = 'a b'")));
+		assertEquals(QueryKey.of("FROM TestVO WHERE name = 'it''s  a'  AND id = 1"),
+				QueryKey.of("FROM TestVO WHERE name = 'it''s  a' AND id = 1"));
+		// geometries are compared by value
+		assertEquals(QueryKey.of("q", SpatialUtils.createPoint(1, 2, 4326)),
+				QueryKey.of("q", SpatialUtils.createPoint(1, 2, 4326)));
+		assertFalse(QueryKey.of("q", SpatialUtils.createPoint(1, 2, 4326))
+				.equals(QueryKey.of("q", SpatialUtils.createPoint(1, 2, 3857))));
+	}
+
+	@Test
+	public void hitMissEvictionTest() {
+		QueryResultCache cache = new QueryResultCache(2, 60000);
+		QueryKey first = QueryKey.of("first");
+		QueryKey second = QueryKey.of("second");
+		QueryKey third = QueryKey.of("third");
+		assertNull(cache.get(first));
+		assertTrue(cache.put(first, RESULT, SPACES, cache.nextStamp()));
+		assertTrue(cache.put(second, RESULT, SPACES, cache.nextStamp()));
+		assertEquals(RESULT, cache.get(first));
+		assertTrue(cache.put(third, RESULT, SPACES, cache.nextStamp()));
+		assertNull(cache.get(second));
+		assertNotNull(cache.get(first));
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void ttlTest() throws InterruptedException {
+		QueryResultCache cache = new QueryResultCache(10, 1);
+		QueryKey key = QueryKey.of("q");
+		cache.put(key, RESULT, SPACES, cache.nextStamp());
+		Thread.sleep(10);
+		assertNull(cache.get(key));
+		assertEquals(1, cache.getExpirations());
+	}
+
+	@Test
+	public void invalidateTest() {
+		QueryResultCache cache = new QueryResultCache(10, 60000);
+		QueryKey key = QueryKey.of("q");
+		QueryKey other = QueryKey.of("other");
+		cache.put(key, RESULT, SPACES, cache.nextStamp());
+		cache.put(other, RESULT, Collections.singleton("testvo"),
+				cache.nextStamp());
+		cache.invalidate(SPACES);
+		assertNull(cache.get(key));
+		assertNotNull(cache.get(other));
+
+		// a query running across a write is not stored
+		long stamp = cache.nextStamp();
+		cache.invalidate(SPACES);
+		assertFalse(cache.put(key, RESULT, SPACES, stamp));
+		assertTrue(cache.put(key, RESULT, SPACES, cache.nextStamp()));
+
+		stamp = cache.nextStamp();
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertFalse(cache.put(other, RESULT, Collections.singleton("testvo"),
+				stamp));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+package org.genericspatialdao.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class SpatialResultCacheTest {
+
+	private static final String ENTITY = "Entity";
+
+	@Test
+	public void hitMissTest() {
+		SpatialResultCache cache = new SpatialResultCache(1000, 1);
+		CellKey key = new CellKey(ENTITY, "", "point", 0, 0);
+		assertNull(cache.get(key));
+		cache.put(key, Arrays.asList("a"), new HashSet<Object>(
+				Arrays.asList(1L)), 10, cache.nextStamp());
+		assertEquals(Arrays.asList("a"), cache.get(key));
+		assertNull(cache.get(new CellKey(ENTITY, "other", "point", 0, 0)));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(10, cache.getBytes());
+	}
+
+	@Test
+	public void evictionTest() {
+		SpatialResultCache cache = new SpatialResultCache(100, 1);
+		CellKey first = new CellKey(ENTITY, "", "point", 0, 0);
+		CellKey second = new CellKey(ENTITY, "", "point", 1, 0);
+		CellKey third = new CellKey(ENTITY, "", "point", 2, 0);
+		cache.put(first, list(), ids(), 40, cache.nextStamp());
+		cache.put(second, list(), ids(), 40, cache.nextStamp());
+		// first becomes the most recently used
+		assertNotNull(cache.get(first));
+		cache.put(third, list(), ids(), 40, cache.nextStamp());
+		assertNull(cache.get(second));
+		assertNotNull(cache.get(first));
+		assertNotNull(cache.get(third));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(80, cache.getBytes());
+
+		// larger than the whole cache: not kept
+		cache.put(second, list(), ids(), 200, cache.nextStamp());
+		assertNull(cache.get(second));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void invalidateTest() {
+		SpatialResultCache cache = new SpatialResultCache(1000, 10);
+		CellKey near = new CellKey(ENTITY, "", "point", 0, 0);
+		CellKey far = new CellKey(ENTITY, "", "point", 5, 5);
+		CellKey other = new CellKey("Other", "", "point", 0, 0);
+		cache.put(near, list(), ids(), 1, cache.nextStamp());
+		cache.put(far, list("x"), ids(7L), 1, cache.nextStamp());
+		cache.put(other, list(), ids(), 1, cache.nextStamp());
+
+		// written inside the near cell
+		cache.invalidate(ENTITY,
+				Collections.singletonList(new Envelope(1, 2, 1, 2)),
+				Collections.emptyList());
+		assertNull(cache.get(near));
+		assertNotNull(cache.get(far));
+		assertNotNull(cache.get(other));
+
+		// moved away from the far cell
+		cache.invalidate(ENTITY,
+				Collections.singletonList(new Envelope(-100, -99, -100, -99)),
+				Arrays.asList(7L));
+		assertNull(cache.get(far));
+		assertNotNull(cache.get(other));
+
+		cache.invalidate("Other");
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void staleLoadTest() {
+		SpatialResultCache cache = new SpatialResultCache(1000, 10);
+		CellKey key = new CellKey(ENTITY, "", "point", 0, 0);
+		long stamp = cache.nextStamp();
+		// written while the cell was loading
+		cache.invalidate(ENTITY);
+		assertFalse(cache.put(key, list(), ids(), 1, stamp));
+		assertNull(cache.get(key));
+
+		stamp = cache.nextStamp();
+		cache.invalidate("Other");
+		assertTrue(cache.put(key, list(), ids(), 1, stamp));
+
+		stamp = cache.nextStamp();
+		cache.clear();
+		assertFalse(cache.put(key, list(), ids(), 1, stamp));
+	}
+
+	private static List<Object> list(Object... entries) {
+		return Arrays.asList(entries);
+	}
+
+	private static HashSet<Object> ids(Object... ids) {
+		return new HashSet<Object>(Arrays.asList(ids));
+	}
+}
\ No newline at end of file
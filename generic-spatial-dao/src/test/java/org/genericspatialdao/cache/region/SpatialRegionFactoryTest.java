@@ -0,0 +1,91 @@
+package org.genericspatialdao.cache.region;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.genericspatialdao.util.SpatialUtils;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+public class SpatialRegionFactoryTest {
+
+	private static final String REGION = "region";
+
+	private EntityRegionAccessStrategy buildAccess(long maxBytes) {
+		Properties properties = new Properties();
+		properties.setProperty(SpatialRegionFactory.MAX_BYTES_PREFIX + REGION,
+				String.valueOf(maxBytes));
+		SpatialRegionFactory factory = new SpatialRegionFactory(properties);
+		return factory.buildEntityRegion(REGION, properties, null)
+				.buildAccessStrategy(AccessType.READ_WRITE);
+	}
+
+	@Test
+	public void putFromLoadTest() {
+		EntityRegionAccessStrategy access = buildAccess(1024);
+		long txTimestamp = access.getRegion().nextTimestamp();
+		assertNull(access.get(1L, txTimestamp));
+		assertTrue(access.putFromLoad(1L, "a", txTimestamp, null));
+		assertEquals("a", access.get(1L, txTimestamp));
+		assertFalse(access.putFromLoad(1L, "b", txTimestamp, null, true));
+		assertEquals("a", access.get(1L, txTimestamp));
+	}
+
+	@Test
+	public void lockTest() {
+		EntityRegionAccessStrategy access = buildAccess(1024);
+		long before = access.getRegion().nextTimestamp();
+		access.putFromLoad(1L, "a", before, null);
+
+		SoftLock lock = access.lockItem(1L, null);
+		assertNull(access.get(1L, before));
+		// a load that started before the write is stale
+		assertFalse(access.putFromLoad(1L, "a", before, null));
+		assertFalse(access.afterUpdate(1L, "b", null, null, lock));
+		assertFalse(access.putFromLoad(1L, "a", before, null));
+
+		long after = access.getRegion().nextTimestamp();
+		assertTrue(access.putFromLoad(1L, "b", after, null));
+		assertEquals("b", access.get(1L, after));
+
+		assertTrue(access.afterInsert(2L, "c", null));
+		access.evictAll();
+		assertEquals(0, access.getRegion().getElementCountInMemory());
+	}
+
+	@Test
+	public void geometrySizeTest() {
+		Geometry small = SpatialUtils.createPolygon(
+				"POLYGON((0 0,1 0,1 1,0 1,0 0))", 4326);
+		Geometry large = small.buffer(10, 64);
+		assertTrue(BaseRegion.estimateSize(large) > 10 * BaseRegion
+				.estimateSize(small));
+
+		EntityRegionAccessStrategy access = buildAccess(BaseRegion
+				.estimateSize(large) * 2);
+		long txTimestamp = access.getRegion().nextTimestamp();
+		access.putFromLoad(1L, large, txTimestamp, null);
+		access.putFromLoad(2L, small, txTimestamp, null);
+		assertTrue(access.getRegion().getSizeInMemory() > BaseRegion
+				.estimateSize(large));
+		// the least recently used entry is evicted
+		access.putFromLoad(3L, large, txTimestamp, null);
+		assertNull(access.get(1L, txTimestamp));
+		assertEquals(small, access.get(2L, txTimestamp));
+	}
+
+	@Test(expected = CacheException.class)
+	public void transactionalTest() {
+		new SpatialRegionFactory().buildEntityRegion(REGION, new Properties(),
+				null).buildAccessStrategy(AccessType.TRANSACTIONAL);
+	}
+}
\ No newline at end of file
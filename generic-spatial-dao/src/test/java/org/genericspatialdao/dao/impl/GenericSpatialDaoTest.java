@@ -1,27 +1,80 @@
 package org.genericspatialdao.dao.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
-
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+import org.genericspatialdao.cache.QueryResultCache;
+import org.genericspatialdao.cache.SpatialMirror;
+import org.genericspatialdao.cache.SpatialResultCache;
 import org.genericspatialdao.configuration.CriteriaOptions;
+import org.genericspatialdao.configuration.DaoConfiguration;
+import org.genericspatialdao.configuration.TileSpec;
 import org.genericspatialdao.dao.Dao;
+import org.genericspatialdao.dao.ResultHandler;
+import org.genericspatialdao.data.BinarySpatialTestVO;
+import org.genericspatialdao.data.LazySpatialTestVO;
+import org.genericspatialdao.data.LodTestVO;
+import org.genericspatialdao.data.PositionTestVO;
 import org.genericspatialdao.data.SpatialTestVO;
+import org.genericspatialdao.data.SubdividedTestVO;
 import org.genericspatialdao.data.TestVO;
 import org.genericspatialdao.exception.DaoException;
+import org.genericspatialdao.geofence.GeofenceEngine;
+import org.genericspatialdao.geofence.GeofenceEvent;
+import org.genericspatialdao.io.ExportFormat;
+import org.genericspatialdao.io.ImportFormat;
+import org.genericspatialdao.io.ImportPipeline;
+import org.genericspatialdao.io.ImportStatistics;
+import org.genericspatialdao.io.RecordMapper;
+import org.genericspatialdao.io.SpatialExporter;
+import org.genericspatialdao.result.ColumnType;
+import org.genericspatialdao.result.ColumnarCursor;
+import org.genericspatialdao.result.ColumnarResult;
+import org.genericspatialdao.result.PointColumns;
+import org.genericspatialdao.service.SpatialCacheService;
+import org.genericspatialdao.tracking.LatestPositionStore;
+import org.genericspatialdao.tracking.Position;
+import org.genericspatialdao.type.LazyGeometry;
+import org.genericspatialdao.util.SpatialRelation;
 import org.genericspatialdao.util.SpatialUtils;
 import org.genericspatialdao.util.TestUtils;
 import org.genericspatialdao.util.TestUtils.Database;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 import org.hibernate.spatial.criterion.SpatialRestrictions;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 
@@ -354,6 +407,1155 @@ public class GenericSpatialDaoTest {
 		testDAO.close();
 	}
 
+	@Test
+	public void packedCoordinatesTest() {
+		System.out.println("packedCoordinatesTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		configuration.setPackedCoordinates(true);
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+
+		SpatialTestVO spatialTestVO = new SpatialTestVO();
+		spatialTestVO.setPolygon(SpatialUtils.createPolygon(
+				"POLYGON((0 0,4 0,4 4,0 4,0 0),(1 1, 2 1, 2 2, 1 2,1 1))",
+				SRID));
+		testDAO.persist(spatialTestVO);
+		testDAO.clear();
+
+		List<SpatialTestVO> result = testDAO.findAll();
+		assertEquals(1, result.size());
+		Polygon polygon = result.get(0).getPolygon();
+		assertTrue(SpatialUtils.isPacked(polygon));
+		assertEquals(spatialTestVO.getPolygon(), polygon);
+		assertEquals(SRID, polygon.getSRID());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void lazyGeometryTest() {
+		System.out.println("lazyGeometryTest");
+		Dao<LazySpatialTestVO> testDAO = TestUtils.getDAOTest(
+				LazySpatialTestVO.class, Database.DB_1);
+
+		Polygon polygon = SpatialUtils.createPolygon(
+				"POLYGON((0 0,4 0,4 4,0 4,0 0),(1 1, 2 1, 2 2, 1 2,1 1))",
+				SRID);
+		testDAO.persist(new LazySpatialTestVO(TestUtils.randomString(),
+				new LazyGeometry(polygon)));
+		testDAO.clear();
+
+		List<LazySpatialTestVO> result = testDAO.findAll();
+		assertEquals(1, result.size());
+		LazyGeometry geometry = result.get(0).getGeometry();
+		assertEquals(SRID, geometry.getSRID());
+		assertEquals(polygon.getEnvelopeInternal(), geometry.getEnvelope());
+		assertFalse(geometry.isDecoded());
+		assertEquals(polygon, geometry.getGeometry());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void binaryGeometryTest() {
+		System.out.println("binaryGeometryTest");
+		Dao<BinarySpatialTestVO> testDAO = TestUtils.getDAOTest(
+				BinarySpatialTestVO.class, Database.DB_1);
+
+		Polygon polygon = SpatialUtils.createPolygon(
+				"POLYGON((0 0,4 0,4 4,0 4,0 0),(1 1, 2 1, 2 2, 1 2,1 1))",
+				SRID);
+		testDAO.persist(new BinarySpatialTestVO(polygon));
+		testDAO.clear();
+
+		List<BinarySpatialTestVO> result = testDAO.findAll();
+		assertEquals(1, result.size());
+		assertEquals(polygon, result.get(0).getPolygon());
+		assertEquals(SRID, result.get(0).getPolygon().getSRID());
+
+		List<Criterion> criterions = new ArrayList<Criterion>();
+		criterions.add(SpatialRestrictions.intersects("polygon",
+				SpatialUtils.createPoint(3, 3, SRID)));
+		assertEquals(1, testDAO.findByCriteria(criterions).size());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void parallelHydrationTest() {
+		System.out.println("parallelHydrationTest");
+		Dao<LazySpatialTestVO> testDAO = TestUtils.getDAOTest(
+				LazySpatialTestVO.class, Database.DB_1);
+
+		int n = 2500;
+		for (int i = 0; i < n; i++) {
+			testDAO.persist(new LazySpatialTestVO(TestUtils.randomString(),
+					new LazyGeometry(TestUtils.randomLatLongPoint(SRID))));
+		}
+		testDAO.clear();
+
+		CriteriaOptions criteriaOptions = new CriteriaOptions(Order.asc("id"));
+		criteriaOptions.setParallelHydration(true);
+		List<LazySpatialTestVO> result = testDAO.findByCriteria(null,
+				criteriaOptions);
+		assertEquals(n, result.size());
+		for (int i = 0; i < n; i++) {
+			assertTrue(result.get(i).getGeometry().isDecoded());
+			if (i > 0) {
+				assertTrue(result.get(i - 1).getId() < result.get(i).getId());
+			}
+		}
+		testDAO.clear();
+
+		final List<Long> ids = new ArrayList<Long>();
+		long count = testDAO.streamByCriteria(null, criteriaOptions,
+				new ResultHandler<LazySpatialTestVO>() {
+					@Override
+					public void handle(List<LazySpatialTestVO> chunk) {
+						for (LazySpatialTestVO vo : chunk) {
+							assertTrue(vo.getGeometry().isDecoded());
+							ids.add(vo.getId());
+						}
+					}
+				});
+		assertEquals(n, count);
+		assertEquals(n, ids.size());
+		for (int i = 0; i < n; i++) {
+			assertEquals(result.get(i).getId(), ids.get(i).longValue());
+		}
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test(expected = DaoException.class)
+	public void parallelHydrationWithoutLazyGeometriesTest() {
+		System.out.println("parallelHydrationWithoutLazyGeometriesTest");
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+		CriteriaOptions criteriaOptions = new CriteriaOptions(Order.asc("id"));
+		criteriaOptions.setParallelHydration(true);
+		try {
+			testDAO.findByCriteria(null, criteriaOptions);
+		} finally {
+			testDAO.close();
+		}
+	}
+
+	@Test
+	public void fetchProfileTest() {
+		System.out.println("fetchProfileTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		configuration.addFetchProfile("summary", "point");
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+
+		SpatialTestVO spatialTestVO = new SpatialTestVO(
+				TestUtils.randomLatLongPoint(SRID));
+		spatialTestVO.setPolygon(SpatialUtils.createPolygon(
+				"POLYGON((0 0,4 0,4 4,0 4,0 0))", SRID));
+		testDAO.persist(spatialTestVO);
+
+		List<SpatialTestVO> result = testDAO.findAll(CriteriaOptions
+				.withProfile("summary"));
+		assertEquals(1, result.size());
+		assertEquals(spatialTestVO.getId(), result.get(0).getId());
+		assertEquals(spatialTestVO.getPoint(), result.get(0).getPoint());
+		assertNull(result.get(0).getPolygon());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void twkbTest() {
+		System.out.println("twkbTest");
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+
+		SpatialTestVO spatialTestVO = new SpatialTestVO(
+				SpatialUtils.createPoint(-46.1234567, -23.7654321, SRID));
+		spatialTestVO.setPolygon(SpatialUtils.createPolygon(
+				"POLYGON((0 0,4.5 0,4.5 4.25,0 4,0 0))", SRID));
+		testDAO.persist(spatialTestVO);
+
+		CriteriaOptions criteriaOptions = new CriteriaOptions((Order[]) null);
+		criteriaOptions.setTwkbPrecision(6);
+		List<SpatialTestVO> result = testDAO.findAll(criteriaOptions);
+		assertEquals(1, result.size());
+		assertEquals(spatialTestVO.getId(), result.get(0).getId());
+		assertEquals(SpatialUtils.createPoint(-46.123457, -23.765432, SRID),
+				result.get(0).getPoint());
+		assertEquals(SRID, result.get(0).getPoint().getSRID());
+		assertTrue(spatialTestVO.getPolygon().equalsExact(
+				result.get(0).getPolygon()));
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void levelsOfDetailTest() {
+		System.out.println("levelsOfDetailTest");
+		Dao<LodTestVO> testDAO = TestUtils.getDAOTest(LodTestVO.class,
+				Database.DB_1);
+
+		Polygon circle = (Polygon) SpatialUtils.createPoint(0, 0, SRID)
+				.buffer(10, 64);
+		circle.setSRID(SRID);
+		LodTestVO lodTestVO = new LodTestVO(circle);
+		testDAO.persist(lodTestVO);
+		assertTrue(lodTestVO.getPolygonLow().getNumPoints() < lodTestVO
+				.getPolygonMedium().getNumPoints());
+		assertTrue(lodTestVO.getPolygonMedium().getNumPoints() < circle
+				.getNumPoints());
+		assertEquals(SRID, lodTestVO.getPolygonLow().getSRID());
+		testDAO.clear();
+
+		CriteriaOptions criteriaOptions = new CriteriaOptions((Order[]) null);
+		criteriaOptions.setResolution(2.0);
+		LodTestVO result = testDAO.findAll(criteriaOptions).get(0);
+		assertEquals(lodTestVO.getPolygonLow(), result.getPolygon());
+		assertNull(result.getPolygonLow());
+
+		criteriaOptions.setResolution(0.5);
+		result = testDAO.findAll(criteriaOptions).get(0);
+		assertEquals(lodTestVO.getPolygonMedium(), result.getPolygon());
+
+		criteriaOptions.setResolution(0.01);
+		result = testDAO.findAll(criteriaOptions).get(0);
+		assertEquals(circle, result.getPolygon());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void tileTest() {
+		System.out.println("tileTest");
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+
+		SpatialTestVO spatialTestVO = new SpatialTestVO(
+				SpatialUtils.createPoint(-46.63, -23.55, SRID));
+		testDAO.persist(spatialTestVO);
+
+		TileSpec tileSpec = new TileSpec("point", "id");
+		// zoom 2 tile containing South America east coast
+		byte[] serverTile = testDAO.tile(2, 1, 2, tileSpec);
+		assertTrue(serverTile.length > 0);
+
+		tileSpec.setServerSide(false);
+		assertTrue(testDAO.tile(2, 1, 2, tileSpec).length > 0);
+		assertEquals(0, testDAO.tile(2, 3, 0, tileSpec).length);
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void lazyGeometryTileTest() {
+		System.out.println("lazyGeometryTileTest");
+		Dao<LazySpatialTestVO> testDAO = TestUtils.getDAOTest(
+				LazySpatialTestVO.class, Database.DB_1);
+
+		testDAO.persist(new LazySpatialTestVO(TestUtils.randomString(),
+				new LazyGeometry(SpatialUtils.createPoint(-46.63, -23.55, SRID))));
+		testDAO.clear();
+
+		TileSpec tileSpec = new TileSpec("geometry", "name");
+		tileSpec.setServerSide(false);
+		assertTrue(testDAO.tile(2, 1, 2, tileSpec).length > 0);
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void spatialCacheTest() {
+		System.out.println("spatialCacheTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		configuration.setSpatialCacheMaxBytes(1024 * 1024);
+		configuration.setSpatialCacheCellSize(1);
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+
+		testDAO.persist(new SpatialTestVO(SpatialUtils.createPoint(0.5, 0.5,
+				SRID)), new SpatialTestVO(SpatialUtils.createPoint(1.5, 0.5,
+				SRID)), new SpatialTestVO(SpatialUtils.createPoint(5.5, 5.5,
+				SRID)));
+
+		Envelope viewport = new Envelope(0.1, 1.9, 0.1, 0.9);
+		List<SpatialTestVO> result = testDAO.findByEnvelope("point",
+				viewport, SRID, null);
+		assertEquals(2, result.size());
+		// a smaller viewport inside the cached cells
+		List<SpatialTestVO> cached = testDAO.findByEnvelope("point",
+				new Envelope(0.2, 0.8, 0.2, 0.8), SRID, null);
+		assertEquals(1, cached.size());
+		assertTrue(result.contains(cached.get(0)));
+
+		// a write inside a cached cell invalidates it
+		testDAO.persist(new SpatialTestVO(SpatialUtils.createPoint(1.2, 0.2,
+				SRID)));
+		assertEquals(3, testDAO.findByEnvelope("point", viewport, SRID, null)
+				.size());
+
+		testDAO.removeAll();
+		assertEquals(0, testDAO.findByEnvelope("point", viewport, SRID, null)
+				.size());
+		testDAO.close();
+	}
+
+	@Test
+	public void queryCacheTest() {
+		System.out.println("queryCacheTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		configuration.setQueryCacheMaxEntries(100);
+		Dao<TestVO> testDAO = new GenericSpatialDao<TestVO>(TestVO.class,
+				configuration);
+		QueryResultCache cache = SpatialCacheService
+				.getQueryCache(configuration);
+
+		String login = TestUtils.randomString();
+		TestVO testVO = new TestVO();
+		testVO.setLogin(login);
+		testDAO.persist(testVO);
+
+		String hql = "FROM TestVO t WHERE login = ?";
+		assertEquals(1, testDAO.executeHQL(hql, login).size());
+		long hits = cache.getHits();
+		List<?> cached = testDAO.executeHQL(hql, login);
+		assertEquals(1, cached.size());
+		assertEquals(hits + 1, cache.getHits());
+		// entities are loaded through the session, not shared
+		assertTrue(testDAO.getSession().contains(cached.get(0)));
+
+		CriteriaOptions criteriaOptions = new CriteriaOptions((Order[]) null);
+		criteriaOptions.setCacheable(true);
+		List<Criterion> criterions = new ArrayList<Criterion>();
+		criterions.add(Restrictions.eq("login", login));
+		assertEquals(1, testDAO.findByCriteria(criterions, criteriaOptions)
+				.size());
+		assertEquals(1, testDAO.findByCriteria(criterions, criteriaOptions)
+				.size());
+		assertEquals(hits + 2, cache.getHits());
+
+		// a write through the DAO invalidates the entity results
+		TestVO other = new TestVO();
+		other.setLogin(login);
+		testDAO.persist(other);
+		assertEquals(2, testDAO.executeHQL(hql, login).size());
+		assertEquals(2, testDAO.findByCriteria(criterions, criteriaOptions)
+				.size());
+
+		testDAO.removeAll();
+		assertEquals(0, testDAO.executeHQL(hql, login).size());
+		testDAO.close();
+	}
+
+	@Test
+	public void queryCacheRollbackTest() {
+		System.out.println("queryCacheRollbackTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2), false);
+		configuration.setQueryCacheMaxEntries(100);
+		Dao<TestVO> testDAO = new GenericSpatialDao<TestVO>(TestVO.class,
+				configuration);
+
+		String login = TestUtils.randomString();
+		TestVO testVO = new TestVO();
+		testVO.setLogin(login);
+		testDAO.beginTransaction();
+		testDAO.persist(testVO);
+		testDAO.commit();
+
+		String hql = "FROM TestVO t WHERE login = ?";
+		assertEquals(1, testDAO.executeHQL(hql, login).size());
+
+		// the uncommitted row is cached inside the transaction...
+		TestVO other = new TestVO();
+		other.setLogin(login);
+		testDAO.beginTransaction();
+		testDAO.persist(other);
+		assertEquals(2, testDAO.executeHQL(hql, login).size());
+		testDAO.rollback();
+		testDAO.clear();
+		// ...and dropped when it completes
+		assertEquals(1, testDAO.executeHQL(hql, login).size());
+
+		testDAO.beginTransaction();
+		testDAO.removeAll();
+		testDAO.commit();
+		testDAO.close();
+	}
+
+	@Test
+	public void secondLevelCacheTest() {
+		System.out.println("secondLevelCacheTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		configuration.addEntityCache(SpatialTestVO.class, 1024 * 1024);
+		configuration.addProperty("hibernate.generate_statistics", "true");
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+
+		SpatialTestVO spatialTestVO = new SpatialTestVO(
+				SpatialUtils.createPoint(1, 2, SRID));
+		testDAO.persist(spatialTestVO);
+		testDAO.clear();
+
+		Statistics statistics = testDAO.getSession().getSessionFactory()
+				.getStatistics();
+		long hits = statistics.getSecondLevelCacheHitCount();
+		assertEquals(spatialTestVO.getPoint(),
+				testDAO.find(spatialTestVO.getId()).getPoint());
+		assertEquals(hits + 1, statistics.getSecondLevelCacheHitCount());
+		assertTrue(statistics.getSecondLevelCacheStatistics(
+				SpatialTestVO.class.getName()).getSizeInMemory() > 0);
+
+		testDAO.removeAll();
+		testDAO.clear();
+		assertNull(testDAO.find(spatialTestVO.getId()));
+		testDAO.close();
+	}
+
+	@Test
+	public void cacheNotificationTest() throws InterruptedException {
+		System.out.println("cacheNotificationTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		configuration.setSpatialCacheMaxBytes(1024 * 1024);
+		configuration.setSpatialCacheCellSize(1);
+		configuration.setCacheNotificationChannel("spatial_cache_test");
+		configuration.setCacheNotificationPollMillis(50);
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+		SpatialResultCache cache = SpatialCacheService.getCache(configuration);
+
+		// announced, but ignored by the process that wrote it
+		SpatialTestVO spatialTestVO = new SpatialTestVO(
+				SpatialUtils.createPoint(0.5, 0.5, SRID));
+		testDAO.persist(spatialTestVO);
+		// the listener invalidates everything once connected
+		Thread.sleep(1000);
+		assertEquals(1, testDAO.findByEnvelope("point",
+				new Envelope(0, 1, 0, 1), SRID, null).size());
+		assertEquals(1, cache.size());
+
+		// a write of another process in the cached cell
+		testDAO.beginTransaction();
+		testDAO.getSession().doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection
+						.prepareStatement("SELECT pg_notify(?, ?)");
+				statement.setString(1, "spatial_cache_test");
+				statement.setString(2, "other;"
+						+ SpatialTestVO.class.getName() + ";0.2,0.2,0.3,0.3;?");
+				statement.execute();
+				statement.close();
+			}
+		});
+		testDAO.commit();
+		for (int i = 0; i < 100 && cache.size() > 0; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, cache.size());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void spatialMirrorTest() {
+		System.out.println("spatialMirrorTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+
+		SpatialTestVO west = new SpatialTestVO();
+		west.setPolygon(SpatialUtils.createPolygon(
+				"POLYGON((0 0,10 0,10 10,0 10,0 0))", SRID));
+		testDAO.persist(west);
+
+		SpatialMirror<SpatialTestVO> mirror = new SpatialMirror<SpatialTestVO>(
+				SpatialTestVO.class, configuration, "polygon");
+		mirror.load();
+		assertEquals(1, mirror.size());
+		assertEquals(west.getId(),
+				mirror.containing(SpatialUtils.createPoint(5, 5, SRID)).get(0)
+						.getId());
+		assertTrue(mirror.containing(SpatialUtils.createPoint(15, 5, SRID))
+				.isEmpty());
+
+		// DAO writes are applied on sync
+		SpatialTestVO east = new SpatialTestVO();
+		east.setPolygon(SpatialUtils.createPolygon(
+				"POLYGON((10 0,20 0,20 10,10 10,10 0))", SRID));
+		testDAO.persist(east);
+		mirror.sync();
+		assertEquals(2, mirror.size());
+		assertEquals(1, mirror.containing(SpatialUtils.createPoint(15, 5, SRID))
+				.size());
+		assertEquals(2, mirror.intersecting(new Envelope(5, 15, 5, 6)).size());
+
+		// the mirror detached the entities it read in this thread
+		testDAO.remove(testDAO.find(west.getId()));
+		mirror.sync();
+		assertEquals(1, mirror.size());
+		assertTrue(mirror.containing(SpatialUtils.createPoint(5, 5, SRID))
+				.isEmpty());
+
+		mirror.stop();
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void geofenceTest() {
+		System.out.println("geofenceTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+		SpatialTestVO fence = new SpatialTestVO();
+		fence.setPolygon(SpatialUtils.createPolygon(
+				"POLYGON((0 0,10 0,10 10,0 10,0 0))", SRID));
+		testDAO.persist(fence);
+
+		GeofenceEngine<SpatialTestVO> engine = new GeofenceEngine<SpatialTestVO>(
+				SpatialTestVO.class, configuration, "polygon");
+		engine.setDwellMillis(1000);
+		engine.load();
+		assertEquals(1, engine.getFenceCount());
+
+		// object 1 enters, stays and leaves; object 2 stays outside
+		List<GeofenceEvent> events = engine.process(new long[] { 1, 2, 1 },
+				new double[] { 15, 15, 5 }, new double[] { 5, 15, 5 },
+				new long[] { 0, 0, 500 });
+		assertEquals(1, events.size());
+		assertEquals(GeofenceEvent.Type.ENTER, events.get(0).getType());
+		assertEquals(fence.getId(), events.get(0).getFenceId());
+		assertEquals(1, engine.getFences(1).size());
+
+		events = engine.process(new long[] { 1 }, new double[] { 6 },
+				new double[] { 6 }, new long[] { 1500 });
+		assertEquals(1, events.size());
+		assertEquals(GeofenceEvent.Type.DWELL, events.get(0).getType());
+
+		// an older position is ignored
+		assertTrue(engine.process(new long[] { 1 }, new double[] { 20 },
+				new double[] { 20 }, new long[] { 1000 }).isEmpty());
+		events = engine.process(new long[] { 1 }, new double[] { 20 },
+				new double[] { 20 }, new long[] { 2000 });
+		assertEquals(1, events.size());
+		assertEquals(GeofenceEvent.Type.EXIT, events.get(0).getType());
+		assertEquals(2, engine.getObjectCount());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void findByGeometryTest() {
+		System.out.println("findByGeometryTest");
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+		SpatialTestVO inside = new SpatialTestVO(SpatialUtils.createPoint(1,
+				1, SRID));
+		// inside the envelope of the triangle but outside the triangle
+		SpatialTestVO corner = new SpatialTestVO(SpatialUtils.createPoint(9,
+				9, SRID));
+		SpatialTestVO outside = new SpatialTestVO(SpatialUtils.createPoint(
+				20, 20, SRID));
+		testDAO.persist(inside, corner, outside);
+
+		Geometry triangle = SpatialUtils.createPolygon(
+				"POLYGON((0 0, 10 0, 0 10, 0 0))", SRID);
+		List<SpatialTestVO> result = testDAO.findByGeometry("point",
+				triangle, SpatialRelation.WITHIN, null);
+		assertEquals(1, result.size());
+		assertEquals(inside.getId(), result.get(0).getId());
+		// the prepared triangle is reused by the next query
+		assertEquals(1,
+				testDAO.findByGeometry("point", triangle,
+						SpatialRelation.INTERSECTS, null).size());
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test(expected = DaoException.class)
+	public void findByGeometryNotGeometryTest() {
+		System.out.println("findByGeometryNotGeometryTest");
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+		testDAO.findByGeometry("id",
+				SpatialUtils.createPoint(0, 0, SRID),
+				SpatialRelation.INTERSECTS, null);
+	}
+
+	@Test
+	public void subdividedTest() {
+		System.out.println("subdividedTest");
+		Dao<SubdividedTestVO> testDAO = TestUtils.getDAOTest(
+				SubdividedTestVO.class, Database.DB_1);
+		String pieces = "SELECT count(*) FROM subdividedtestvo_polygon_subdivided";
+		// a circle of 256 vertices
+		Polygon circle = (Polygon) SpatialUtils.createPoint(0, 0, SRID)
+				.buffer(10, 64);
+		circle.setSRID(SRID);
+		SubdividedTestVO subdivided = new SubdividedTestVO(circle);
+		testDAO.persist(subdivided);
+		assertTrue(((Number) testDAO.executeSQL(pieces).get(0)).intValue() > 1);
+
+		List<Criterion> inside = new ArrayList<Criterion>();
+		inside.add(SpatialRestrictions.intersects("polygon",
+				SpatialUtils.createPoint(5, 5, SRID)));
+		assertEquals(1, testDAO.findByCriteria(inside).size());
+		List<Criterion> corner = new ArrayList<Criterion>();
+		corner.add(SpatialRestrictions.intersects("polygon",
+				SpatialUtils.createPoint(9.5, 9.5, SRID)));
+		assertEquals(0, testDAO.findByCriteria(corner).size());
+		// containment is answered from the table
+		List<Criterion> contains = new ArrayList<Criterion>();
+		contains.add(SpatialRestrictions.contains("polygon",
+				SpatialUtils.createPoint(5, 5, SRID)));
+		assertEquals(1, testDAO.findByCriteria(contains).size());
+
+		// pieces follow a merged geometry
+		Polygon moved = (Polygon) SpatialUtils.createPoint(100, 0, SRID)
+				.buffer(10, 64);
+		moved.setSRID(SRID);
+		subdivided.setPolygon(moved);
+		testDAO.merge(subdivided);
+		assertEquals(0, testDAO.findByCriteria(inside).size());
+
+		// and a bulk update
+		testDAO.executeSQLUpdate("UPDATE subdividedtestvo SET polygon = ST_Translate(polygon, -100, 0)");
+		assertEquals(1, testDAO.findByCriteria(inside).size());
+		testDAO.clear();
+
+		testDAO.remove(testDAO.find(subdivided.getId()));
+		assertEquals(0, ((Number) testDAO.executeSQL(pieces).get(0)).intValue());
+		testDAO.close();
+	}
+
+	@Test
+	public void latestPositionStoreTest() {
+		System.out.println("latestPositionStoreTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<PositionTestVO> testDAO = new GenericSpatialDao<PositionTestVO>(
+				PositionTestVO.class, configuration);
+		LatestPositionStore<PositionTestVO> store = new LatestPositionStore<PositionTestVO>(
+				PositionTestVO.class, configuration,
+				"point", "timestamp", SRID);
+		assertTrue(store.update(1, 1, 1, 100));
+		assertTrue(store.update(1, 2, 2, 200));
+		assertTrue(store.update(2, 50, 50, 100));
+		// an older position is ignored
+		assertFalse(store.update(1, 3, 3, 150));
+		assertEquals(1, store.getCoalescedCount());
+		assertEquals(2, store.getPendingCount());
+		assertEquals(2, store.size());
+
+		List<Position> positions = store.within(new Envelope(0, 10, 0, 10));
+		assertEquals(1, positions.size());
+		assertEquals(200, positions.get(0).getTimestamp());
+		assertEquals(2, store.within(new Envelope(-180, 180, -90, 90)).size());
+
+		assertEquals(2, store.flush());
+		assertEquals(0, store.getPendingCount());
+		PositionTestVO row = testDAO.find(1L);
+		assertEquals(200, row.getTimestamp());
+		assertEquals(2, row.getPoint().getX(), 0);
+
+		assertTrue(store.update(1, 4, 4, 300));
+		assertEquals(1, store.flush());
+		testDAO.refresh(row);
+		assertEquals(300, row.getTimestamp());
+		assertEquals(0, store.flush());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void writeBehindDaoTest() {
+		System.out.println("writeBehindDaoTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<TestVO> testDAO = new GenericSpatialDao<TestVO>(TestVO.class,
+				configuration);
+		WriteBehindDao<TestVO> writeBehindDAO = new WriteBehindDao<TestVO>(
+				TestVO.class, configuration);
+		writeBehindDAO.setCapacity(100);
+		writeBehindDAO.setBatchSize(40);
+		writeBehindDAO.setWriters(2);
+		writeBehindDAO.start();
+		for (int i = 0; i < 250; i++) {
+			TestVO vo = new TestVO();
+			vo.setLogin(TestUtils.randomString());
+			writeBehindDAO.persist(vo);
+		}
+		writeBehindDAO.flush();
+		assertEquals(250, testDAO.count());
+		assertEquals(0, writeBehindDAO.getPendingCount());
+
+		TestVO last = new TestVO();
+		last.setLogin(TestUtils.randomString());
+		assertTrue(writeBehindDAO.offer(last, 1, TimeUnit.SECONDS));
+		writeBehindDAO.close();
+		assertEquals(251, writeBehindDAO.getWrittenCount());
+		assertEquals(0, writeBehindDAO.getFailedCount());
+		assertEquals(251, testDAO.count());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void writeBehindDaoCloseTest() throws InterruptedException {
+		System.out.println("writeBehindDaoCloseTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<TestVO> testDAO = new GenericSpatialDao<TestVO>(TestVO.class,
+				configuration);
+		final WriteBehindDao<TestVO> writeBehindDAO = new WriteBehindDao<TestVO>(
+				TestVO.class, configuration);
+		// producers wait for room while the DAO is closed
+		writeBehindDAO.setCapacity(10);
+		writeBehindDAO.setBatchSize(5);
+		writeBehindDAO.start();
+		Thread[] producers = new Thread[4];
+		for (int i = 0; i < producers.length; i++) {
+			producers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							TestVO vo = new TestVO();
+							vo.setLogin(TestUtils.randomString());
+							writeBehindDAO.persist(vo);
+						}
+					} catch (DaoException e) {
+						// closed
+					}
+				}
+			});
+			producers[i].start();
+		}
+		Thread.sleep(200);
+		writeBehindDAO.close();
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertEquals(0, writeBehindDAO.getPendingCount());
+		assertEquals(writeBehindDAO.getAcceptedCount(),
+				writeBehindDAO.getWrittenCount());
+		assertEquals(writeBehindDAO.getWrittenCount(), testDAO.count());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void importPipelineTest() throws IOException {
+		System.out.println("importPipelineTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+		RecordMapper<SpatialTestVO> mapper = new RecordMapper<SpatialTestVO>() {
+			@Override
+			public SpatialTestVO map(Geometry geometry,
+					Map<String, Object> properties) {
+				return new SpatialTestVO((Point) geometry);
+			}
+		};
+
+		File geoJson = File.createTempFile("import", ".geojsons");
+		geoJson.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(geoJson),
+				"UTF-8");
+		try {
+			for (int i = 0; i < 100; i++) {
+				writer.write("{\"type\":\"Feature\",\"id\":" + i
+						+ ",\"geometry\":{\"type\":\"Point\",\"coordinates\":["
+						+ i + "," + i + "]},\"properties\":{}}\n");
+			}
+			writer.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\"}}\n");
+		} finally {
+			writer.close();
+		}
+		ImportPipeline<SpatialTestVO> pipeline = new ImportPipeline<SpatialTestVO>(
+				SpatialTestVO.class, configuration, ImportFormat.GEOJSON_SEQ,
+				mapper, SRID);
+		// several chunks and parse workers
+		pipeline.setChunkBytes(512);
+		pipeline.setParsers(3);
+		File checkpoint = new File(geoJson.getPath() + ".checkpoint");
+		pipeline.setCheckpoint(checkpoint);
+		ImportStatistics statistics = pipeline.run(geoJson);
+		assertEquals(101, statistics.getRecords());
+		assertEquals(1, statistics.getRejected());
+		assertEquals(100, statistics.getWritten());
+		assertEquals(geoJson.length(), statistics.getBytes());
+		assertFalse(checkpoint.exists());
+		assertEquals(100, testDAO.count());
+
+		File csv = File.createTempFile("import", ".csv");
+		csv.deleteOnExit();
+		writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+		try {
+			writer.write("name;wkt\r\n");
+			writer.write("a;POINT(1 2)\r\n");
+			writer.write("\"b;c\";POINT(3 4)\r\n");
+			writer.write("d;POINT(3\n");
+		} finally {
+			writer.close();
+		}
+		pipeline = new ImportPipeline<SpatialTestVO>(SpatialTestVO.class,
+				configuration, ImportFormat.WKT_CSV, mapper, SRID);
+		pipeline.setSeparator(';');
+		statistics = pipeline.run(csv);
+		assertEquals(3, statistics.getRecords());
+		assertEquals(1, statistics.getRejected());
+		assertEquals(102, testDAO.count());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test
+	public void exportTest() throws IOException {
+		System.out.println("exportTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+		for (int i = 0; i < 10; i++) {
+			testDAO.persist(new SpatialTestVO(SpatialUtils.createPoint(i, i,
+					SRID)));
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SpatialExporter<SpatialTestVO> exporter = new SpatialExporter<SpatialTestVO>(
+				SpatialTestVO.class, testDAO, "point", ExportFormat.GEOJSON_SEQ);
+		// several buffer flushes
+		exporter.setBufferSize(64);
+		assertEquals(10,
+				exporter.export(null, null, Channels.newChannel(bytes)));
+		String[] lines = new String(bytes.toByteArray(), "UTF-8").split("\n");
+		assertEquals(10, lines.length);
+		assertTrue(lines[0].startsWith("{\"type\":\"Feature\",\"id\":"));
+		assertTrue(lines[0].contains("\"geometry\":{\"type\":\"Point\""));
+
+		bytes.reset();
+		exporter.setGzip(true);
+		exporter.export(null, null, Channels.newChannel(bytes));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+				"UTF-8"));
+		int count = 0;
+		while (reader.readLine() != null) {
+			count++;
+		}
+		reader.close();
+		assertEquals(10, count);
+
+		bytes.reset();
+		exporter = new SpatialExporter<SpatialTestVO>(SpatialTestVO.class,
+				testDAO, "point", ExportFormat.CSV_WKT);
+		exporter.export(null, null, Channels.newChannel(bytes));
+		lines = new String(bytes.toByteArray(), "UTF-8").split("\n");
+		assertEquals(11, lines.length);
+		assertEquals("id,wkt", lines[0]);
+		assertTrue(lines[1].contains(",\"POINT ("));
+
+		bytes.reset();
+		exporter = new SpatialExporter<SpatialTestVO>(SpatialTestVO.class,
+				testDAO, "point", ExportFormat.FLATGEOBUF);
+		exporter.export(null, null, Channels.newChannel(bytes));
+		ByteBuffer flatGeobuf = ByteBuffer.wrap(bytes.toByteArray()).order(
+				ByteOrder.LITTLE_ENDIAN);
+		assertEquals(0x66, flatGeobuf.get(0));
+		assertEquals(0x03, flatGeobuf.get(3));
+		assertEquals(0x00, flatGeobuf.get(7));
+
+		// size prefixed header: name, columns and CRS
+		int header = flatGeobuf.getInt(12) + 12;
+		assertEquals("SpatialTestVO", flatString(flatGeobuf, header, 0));
+		int columns = flatVector(flatGeobuf, header, 7);
+		assertEquals(1, flatGeobuf.getInt(columns));
+		int column = flatVectorTable(flatGeobuf, columns, 0);
+		assertEquals("id", flatString(flatGeobuf, column, 0));
+		// LONG
+		assertEquals(7, flatGeobuf.get(flatField(flatGeobuf, column, 1)));
+		int crs = flatTable(flatGeobuf, header, 10);
+		assertEquals(SRID, flatGeobuf.getInt(flatField(flatGeobuf, crs, 1)));
+
+		// first feature: a point at (i, i) and its id
+		int feature = 12 + flatGeobuf.getInt(8);
+		int featureTable = flatGeobuf.getInt(feature + 4) + feature + 4;
+		int geometry = flatTable(flatGeobuf, featureTable, 0);
+		// Point
+		assertEquals(1, flatGeobuf.get(flatField(flatGeobuf, geometry, 6)));
+		int xy = flatVector(flatGeobuf, geometry, 1);
+		assertEquals(2, flatGeobuf.getInt(xy));
+		double x = flatGeobuf.getDouble(xy + 4);
+		assertEquals(x, flatGeobuf.getDouble(xy + 12), 0);
+		assertTrue(x >= 0 && x < 10);
+		int properties = flatVector(flatGeobuf, featureTable, 1);
+		assertEquals(10, flatGeobuf.getInt(properties));
+		assertEquals(0, flatGeobuf.getShort(properties + 4));
+
+		// ten size prefixed features up to the end
+		int features = 0;
+		while (feature < flatGeobuf.limit()) {
+			feature += 4 + flatGeobuf.getInt(feature);
+			features++;
+		}
+		assertEquals(10, features);
+		assertEquals(flatGeobuf.limit(), feature);
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	/**
+	 * 
+	 * @return position of a field of a FlatBuffers table, or 0 if absent
+	 */
+	private static int flatField(ByteBuffer buffer, int table, int field) {
+		int vtable = table - buffer.getInt(table);
+		int entry = 4 + 2 * field;
+		if (entry >= buffer.getShort(vtable)) {
+			return 0;
+		}
+		int offset = buffer.getShort(vtable + entry);
+		return offset == 0 ? 0 : table + offset;
+	}
+
+	private static int flatTable(ByteBuffer buffer, int table, int field) {
+		int position = flatField(buffer, table, field);
+		assertTrue(position != 0);
+		return position + buffer.getInt(position);
+	}
+
+	/**
+	 * 
+	 * @return position of the length of a vector, followed by its elements
+	 */
+	private static int flatVector(ByteBuffer buffer, int table, int field) {
+		return flatTable(buffer, table, field);
+	}
+
+	private static int flatVectorTable(ByteBuffer buffer, int vector, int index) {
+		int element = vector + 4 + 4 * index;
+		return element + buffer.getInt(element);
+	}
+
+	private static String flatString(ByteBuffer buffer, int table, int field)
+			throws IOException {
+		int string = flatVector(buffer, table, field);
+		byte[] bytes = new byte[buffer.getInt(string)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(string + 4 + i);
+		}
+		return new String(bytes, "UTF-8");
+	}
+
+	@Test(expected = DaoException.class)
+	public void exportNotGeometryTest() {
+		System.out.println("exportNotGeometryTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+		try {
+			new SpatialExporter<SpatialTestVO>(SpatialTestVO.class, testDAO,
+					"id", ExportFormat.CSV_WKT).export(null, null,
+					Channels.newChannel(new ByteArrayOutputStream()));
+		} finally {
+			testDAO.close();
+		}
+	}
+
+	@Test
+	public void importPipelineResumeTest() throws IOException {
+		System.out.println("importPipelineResumeTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+		final boolean[] failing = { true };
+		RecordMapper<SpatialTestVO> mapper = new RecordMapper<SpatialTestVO>() {
+			@Override
+			public SpatialTestVO map(Geometry geometry,
+					Map<String, Object> properties) {
+				if (failing[0] && Double.valueOf(50).equals(properties.get("id"))) {
+					throw new IllegalStateException("Injected failure");
+				}
+				return new SpatialTestVO((Point) geometry);
+			}
+		};
+
+		File geoJson = File.createTempFile("import", ".geojsons");
+		geoJson.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(geoJson),
+				"UTF-8");
+		try {
+			for (int i = 0; i < 100; i++) {
+				writer.write("{\"type\":\"Feature\",\"id\":" + i
+						+ ",\"geometry\":{\"type\":\"Point\",\"coordinates\":["
+						+ i + "," + i + "]},\"properties\":{}}\n");
+			}
+		} finally {
+			writer.close();
+		}
+		ImportPipeline<SpatialTestVO> pipeline = new ImportPipeline<SpatialTestVO>(
+				SpatialTestVO.class, configuration, ImportFormat.GEOJSON_SEQ,
+				mapper, SRID);
+		pipeline.setChunkBytes(512);
+		pipeline.setParsers(3);
+		File checkpoint = new File(geoJson.getPath() + ".checkpoint");
+		checkpoint.deleteOnExit();
+		pipeline.setCheckpoint(checkpoint);
+		try {
+			pipeline.run(geoJson);
+			fail();
+		} catch (DaoException e) {
+			// the chunks before the failed one are committed
+			assertTrue(checkpoint.exists());
+		}
+		long committed = testDAO.count();
+		assertTrue(committed > 0 && committed <= 50);
+
+		failing[0] = false;
+		ImportStatistics statistics = pipeline.run(geoJson);
+		assertEquals(100 - committed, statistics.getWritten());
+		assertFalse(checkpoint.exists());
+		// no record is imported twice
+		assertEquals(100, testDAO.count());
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
+	@Test(expected = DaoException.class)
+	public void configurationInUseTest() {
+		System.out.println("configurationInUseTest");
+		DaoConfiguration configuration = new DaoConfiguration(
+				Database.DB_2.toString(),
+				TestUtils.buildPropertiesMap(Database.DB_2));
+		Dao<SpatialTestVO> testDAO = new GenericSpatialDao<SpatialTestVO>(
+				SpatialTestVO.class, configuration);
+		try {
+			testDAO.findAll();
+			assertTrue(configuration.isLocked());
+			configuration.addEntityCache(SpatialTestVO.class, 1024);
+		} finally {
+			testDAO.close();
+		}
+	}
+
+	@Test(expected = DaoException.class)
+	public void unknownFetchProfileTest() {
+		System.out.println("unknownFetchProfileTest");
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+		try {
+			testDAO.findAll(CriteriaOptions.withProfile("unknown"));
+		} finally {
+			testDAO.close();
+		}
+	}
+
+	@Test
+	public void projectCoordinatesTest() {
+		System.out.println("projectCoordinatesTest");
+		final int NUM = 20;
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+		List<SpatialTestVO> list = new ArrayList<SpatialTestVO>();
+		for (int i = 0; i < NUM; i++) {
+			list.add(new SpatialTestVO(TestUtils.randomLatLongPoint(SRID)));
+		}
+		list.add(new SpatialTestVO());
+		testDAO.persist(list);
+
+		PointColumns columns = testDAO.projectCoordinates("point", null);
+		assertEquals(NUM, columns.size());
+		assertTrue(columns.hasIds());
+		// the scroll must not detach what the caller has loaded
+		assertTrue(testDAO.getSession().contains(list.get(0)));
+		for (int i = 0; i < columns.size(); i++) {
+			SpatialTestVO vo = testDAO.find(columns.getId(i));
+			assertEquals(vo.getPoint().getX(), columns.getX(i), 0);
+			assertEquals(vo.getPoint().getY(), columns.getY(i), 0);
+		}
+
+		testDAO.remove(list);
+		testDAO.close();
+	}
+
+	@Test
+	public void sqlColumnarTest() {
+		System.out.println("sqlColumnarTest");
+		Dao<SpatialTestVO> testDAO = TestUtils.getDAOTest(SpatialTestVO.class,
+				Database.DB_1);
+		SpatialTestVO spatialTestVO = new SpatialTestVO(
+				TestUtils.randomLatLongPoint(SRID));
+		testDAO.persist(spatialTestVO, new SpatialTestVO());
+
+		ColumnarResult result = testDAO
+				.executeSQLColumnar("SELECT id, point, 12345678901234567.89 AS amount FROM SpatialTestVO ORDER BY point");
+		assertEquals(2, result.getRowCount());
+		assertEquals(ColumnType.LONG, result.getColumnType(0));
+		assertEquals(ColumnType.BYTES, result.getColumnType(1));
+		assertEquals(ColumnType.DECIMAL, result.getColumnType(2));
+
+		ColumnarCursor cursor = result.cursor();
+		assertTrue(cursor.next());
+		assertEquals(spatialTestVO.getId(), cursor.getLong(0));
+		assertEquals(spatialTestVO.getPoint(), cursor.getGeometry(1));
+		assertEquals(new BigDecimal("12345678901234567.89"),
+				cursor.getDecimal(2));
+		assertTrue(cursor.next());
+		assertTrue(cursor.isNull(1));
+		assertFalse(cursor.next());
+		result.close();
+
+		testDAO.removeAll();
+		testDAO.close();
+	}
+
 	@Test
 	public void findAddMergeRemoveAndRefreshEmptyTest() {
 		System.out.println("findAddMergeRemoveAndRefreshEmptyTest");
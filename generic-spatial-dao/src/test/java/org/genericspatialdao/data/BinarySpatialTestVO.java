@@ -0,0 +1,57 @@
+package org.genericspatialdao.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+import org.hibernate.annotations.ColumnTransformer;
+import org.hibernate.annotations.Type;
+
+import com.vividsolutions.jts.geom.Polygon;
+
+@Entity
+public class BinarySpatialTestVO implements Serializable {
+
+	private static final long serialVersionUID = -6218529094830178213L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private long id;
+
+	@Type(type = "org.genericspatialdao.type.BinaryGeometryType")
+	@ColumnTransformer(write = "ST_GeomFromEWKB(?)")
+	private Polygon polygon;
+
+	public BinarySpatialTestVO() {
+
+	}
+
+	public BinarySpatialTestVO(Polygon polygon) {
+		this.polygon = polygon;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public Polygon getPolygon() {
+		return polygon;
+	}
+
+	public void setPolygon(Polygon polygon) {
+		this.polygon = polygon;
+	}
+
+	@Override
+	public String toString() {
+		return "BinarySpatialTestVO [id=" + id + ", polygon=" + polygon + "]";
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package org.genericspatialdao.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+import org.genericspatialdao.type.LazyGeometry;
+import org.hibernate.annotations.Type;
+
+@Entity
+public class LazySpatialTestVO implements Serializable {
+
+	private static final long serialVersionUID = 4410651786395233290L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private long id;
+
+	private String name;
+
+	@Type(type = "org.genericspatialdao.type.LazyGeometryType")
+	private LazyGeometry geometry;
+
+	public LazySpatialTestVO() {
+
+	}
+
+	public LazySpatialTestVO(String name, LazyGeometry geometry) {
+		this.name = name;
+		this.geometry = geometry;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public LazyGeometry getGeometry() {
+		return geometry;
+	}
+
+	public void setGeometry(LazyGeometry geometry) {
+		this.geometry = geometry;
+	}
+
+	@Override
+	public String toString() {
+		return "LazySpatialTestVO [id=" + id + ", name=" + name
+				+ ", geometry=" + geometry + "]";
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+package org.genericspatialdao.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+import org.genericspatialdao.annotation.SpatialLod;
+import org.hibernate.annotations.Type;
+
+import com.vividsolutions.jts.geom.Polygon;
+
+@Entity
+public class LodTestVO implements Serializable {
+
+	private static final long serialVersionUID = 3027769418417960362L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private long id;
+
+	@SpatialLod(levels = { "polygonLow", "polygonMedium" }, tolerances = { 1,
+			0.1 })
+	@Type(type = "org.hibernate.spatial.GeometryType")
+	private Polygon polygon;
+
+	@Type(type = "org.hibernate.spatial.GeometryType")
+	private Polygon polygonLow;
+
+	@Type(type = "org.hibernate.spatial.GeometryType")
+	private Polygon polygonMedium;
+
+	public LodTestVO() {
+
+	}
+
+	public LodTestVO(Polygon polygon) {
+		this.polygon = polygon;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public Polygon getPolygon() {
+		return polygon;
+	}
+
+	public void setPolygon(Polygon polygon) {
+		this.polygon = polygon;
+	}
+
+	public Polygon getPolygonLow() {
+		return polygonLow;
+	}
+
+	public void setPolygonLow(Polygon polygonLow) {
+		this.polygonLow = polygonLow;
+	}
+
+	public Polygon getPolygonMedium() {
+		return polygonMedium;
+	}
+
+	public void setPolygonMedium(Polygon polygonMedium) {
+		this.polygonMedium = polygonMedium;
+	}
+
+	@Override
+	public String toString() {
+		return "LodTestVO [id=" + id + ", polygon=" + polygon + "]";
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+package org.genericspatialdao.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.hibernate.annotations.Type;
+
+import com.vividsolutions.jts.geom.Point;
+
+@Entity
+public class PositionTestVO implements Serializable {
+
+	private static final long serialVersionUID = -3920416624587514112L;
+
+	@Id
+	private long id;
+
+	@Type(type = "org.hibernate.spatial.GeometryType")
+	private Point point;
+
+	private long timestamp;
+
+	public PositionTestVO() {
+
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public Point getPoint() {
+		return point;
+	}
+
+	public void setPoint(Point point) {
+		this.point = point;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "PositionTestVO [id=" + id + "]";
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,57 @@
+package org.genericspatialdao.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+import org.genericspatialdao.annotation.Subdivided;
+import org.hibernate.annotations.Type;
+
+import com.vividsolutions.jts.geom.Polygon;
+
+@Entity
+public class SubdividedTestVO implements Serializable {
+
+	private static final long serialVersionUID = 4120861358790342671L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private long id;
+
+	@Subdivided(maxVertices = 16)
+	@Type(type = "org.hibernate.spatial.GeometryType")
+	private Polygon polygon;
+
+	public SubdividedTestVO() {
+
+	}
+
+	public SubdividedTestVO(Polygon polygon) {
+		this.polygon = polygon;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public Polygon getPolygon() {
+		return polygon;
+	}
+
+	public void setPolygon(Polygon polygon) {
+		this.polygon = polygon;
+	}
+
+	@Override
+	public String toString() {
+		return "SubdividedTestVO [id=" + id + "]";
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package org.genericspatialdao.result;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PointColumnsTest {
+
+	@Test
+	public void growTest() {
+		PointColumns columns = new PointColumns(true, 1);
+		for (int i = 0; i < 100; i++) {
+			columns.add(i, -i, i * 10L);
+		}
+		assertEquals(100, columns.size());
+		assertEquals(42, columns.getX(42), 0);
+		assertEquals(-42, columns.getY(42), 0);
+		assertEquals(420L, columns.getId(42));
+		columns.trim();
+		assertEquals(100, columns.getXs().length);
+		assertEquals(100, columns.getIds().length);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void outOfBoundsTest() {
+		PointColumns columns = new PointColumns(false);
+		columns.add(1, 2);
+		columns.getX(1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void withoutIdsTest() {
+		PointColumns columns = new PointColumns(false);
+		columns.add(1, 2);
+		columns.getId(0);
+	}
+}
\ No newline at end of file
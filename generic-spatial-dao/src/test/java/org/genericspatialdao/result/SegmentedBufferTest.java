@@ -0,0 +1,79 @@
+package org.genericspatialdao.result;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SegmentedBufferTest {
+
+	// 16 byte segments force values and arrays across segment boundaries
+	private static final int SHIFT = 4;
+
+	@Test
+	public void longsTest() {
+		SegmentedBuffer buffer = new SegmentedBuffer(
+				SegmentAllocator.direct(), SHIFT);
+		for (long i = 0; i < 100; i++) {
+			buffer.putLong(i * 3);
+		}
+		assertEquals(800, buffer.size());
+		assertEquals(99 * 3, buffer.getLong(99 * 8));
+		assertEquals(50, buffer.getSegments().size());
+	}
+
+	@Test
+	public void growthTest() {
+		SegmentedBuffer buffer = new SegmentedBuffer(SegmentAllocator.direct());
+		assertEquals(0, buffer.getSegments().size());
+		buffer.putLong(-1);
+		assertEquals(1 << SegmentedBuffer.INITIAL_SEGMENT_SHIFT, buffer
+				.getSegments().get(0).capacity());
+		for (long i = 1; i < 5000; i++) {
+			buffer.putLong(i);
+		}
+		assertEquals(1, buffer.getSegments().size());
+		assertEquals(-1, buffer.getLong(0));
+		assertEquals(4999, buffer.getLong(4999 * 8));
+	}
+
+	@Test
+	public void bytesTest() {
+		SegmentedBuffer buffer = new SegmentedBuffer(
+				SegmentAllocator.direct(), SHIFT);
+		byte[] bytes = new byte[37];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		buffer.put(new byte[5]);
+		buffer.put(bytes);
+		byte[] read = new byte[bytes.length];
+		buffer.get(5, read, 0, read.length);
+		assertArrayEquals(bytes, read);
+	}
+
+	@Test
+	public void mappedTest() throws IOException {
+		File file = File.createTempFile("segmented", ".data");
+		file.deleteOnExit();
+		SegmentAllocator allocator = SegmentAllocator.mapped(file);
+		SegmentedBuffer buffer = new SegmentedBuffer(allocator, SHIFT);
+		for (int i = 0; i < 10; i++) {
+			buffer.putDouble(i / 2d);
+		}
+		assertEquals(4.5, buffer.getDouble(9 * 8), 0);
+		assertEquals(80, file.length());
+		allocator.close();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void outOfBoundsTest() {
+		SegmentedBuffer buffer = new SegmentedBuffer(
+				SegmentAllocator.direct(), SHIFT);
+		buffer.putInt(1);
+		buffer.getInt(4);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+package org.genericspatialdao.type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.genericspatialdao.util.SpatialUtils;
+import org.genericspatialdao.util.WKBUtils;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+public class LazyGeometryTest {
+
+	private static final int SRID = 4326;
+
+	@Test
+	public void headerWithoutDecodingTest() {
+		Geometry polygon = SpatialUtils
+				.createPolygon(
+						"POLYGON((0 0,4 0,4 4,0 4,0 0),(1 1, 2 1, 2 2, 1 2,1 1))",
+						SRID);
+		byte[] ewkb = WKBUtils.write(polygon);
+		LazyGeometry lazy = new LazyGeometry(ewkb, false);
+
+		assertEquals(SRID, lazy.getSRID());
+		assertEquals(new Envelope(0, 4, 0, 4), lazy.getEnvelope());
+		assertEquals(ewkb.length, lazy.getByteSize());
+		assertFalse(lazy.isDecoded());
+
+		assertEquals(polygon, lazy.getGeometry());
+		assertEquals(SRID, lazy.getGeometry().getSRID());
+		assertTrue(lazy.isDecoded());
+	}
+
+	@Test
+	public void multiGeometryEnvelopeTest() {
+		Geometry multiPolygon = SpatialUtils
+				.createMultiPolygon(
+						"MULTIPOLYGON (((40 40, 20 45, 45 30, 40 40)),((20 35, 45 20, 30 5, 10 10, 10 30, 20 35),(30 20, 20 25, 20 15, 30 20)))",
+						SRID);
+		LazyGeometry lazy = new LazyGeometry(WKBUtils.write(multiPolygon),
+				false);
+		assertEquals(multiPolygon.getEnvelopeInternal(), lazy.getEnvelope());
+	}
+
+	@Test
+	public void fromColumnTest() {
+		Geometry point = SpatialUtils.createPoint(1, 2, SRID);
+		byte[] ewkb = WKBUtils.write(point);
+		assertTrue(ewkb == WKBUtils.fromColumn(ewkb));
+		byte[] hexText = WKBUtils.toHex(ewkb).getBytes();
+		assertTrue(Arrays.equals(ewkb, WKBUtils.fromColumn(hexText)));
+	}
+
+	@Test
+	public void packedTest() {
+		Geometry point = SpatialUtils.createPoint(1, 2, SRID);
+		LazyGeometry lazy = new LazyGeometry(WKBUtils.write(point), true);
+		assertTrue(SpatialUtils.isPacked(lazy.getGeometry()));
+		assertEquals(point, lazy.getGeometry());
+	}
+
+	@Test
+	public void equalsTest() {
+		Geometry point = SpatialUtils.createPoint(1, 2, SRID);
+		assertEquals(new LazyGeometry(point), new LazyGeometry(
+				WKBUtils.write(point), false));
+	}
+
+	@Test
+	public void hexTest() {
+		byte[] ewkb = WKBUtils.write(SpatialUtils.createPoint(1, 2, SRID));
+		String hex = WKBUtils.toHex(ewkb);
+		assertEquals(hex, WKBUtils.toHex(WKBUtils.fromHex(hex)));
+		assertEquals(hex, WKBUtils.toHex(WKBUtils.fromHex("\\x" + hex)));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+package org.genericspatialdao.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class MVTEncoderTest {
+
+	private static final int SRID = 3857;
+	private static final Envelope ENVELOPE = new Envelope(0, 4096, 0, 4096);
+
+	@Test
+	public void pointTest() {
+		MVTEncoder encoder = new MVTEncoder("l", ENVELOPE, 4096);
+		assertTrue(encoder.addFeature(null,
+				SpatialUtils.createPoint(1, 4095, SRID), null));
+		byte[] expected = { 0x1A, 0x11, 0x78, 0x02, 0x0A, 0x01, 0x6C, 0x12,
+				0x07, 0x18, 0x01, 0x22, 0x03, 0x09, 0x02, 0x02, 0x28,
+				(byte) 0x80, 0x20 };
+		assertArrayEquals(expected, encoder.encode());
+	}
+
+	@Test
+	public void emptyTileTest() {
+		MVTEncoder encoder = new MVTEncoder("l", new Envelope(0, 4096000, 0,
+				4096000), 4096);
+		// collapses to a single tile coordinate
+		assertFalse(encoder.addFeature(1L, SpatialUtils.createPolygon(
+				"POLYGON((0 0,10 0,10 10,0 10,0 0))", SRID), null));
+		assertEquals(0, encoder.getFeatureCount());
+		assertEquals(0, encoder.encode().length);
+	}
+
+	@Test
+	public void attributesTest() {
+		MVTEncoder encoder = new MVTEncoder("l", ENVELOPE, 4096);
+		assertTrue(encoder.addFeature(1L, SpatialUtils.createPolygon(
+				"POLYGON((0 0,10 0,10 10,0 10,0 0))", SRID), Collections
+				.singletonMap("name", "a")));
+		assertTrue(encoder.addFeature(2L, SpatialUtils.createLineString(
+				"LINESTRING(0 0,10 10)", SRID), Collections.singletonMap(
+				"name", "a")));
+		assertEquals(2, encoder.getFeatureCount());
+		assertTrue(encoder.encode().length > 0);
+	}
+
+	@Test
+	public void tileEnvelopeTest() {
+		Envelope world = TileUtils.getTileEnvelope(0, 0, 0);
+		assertEquals(-TileUtils.WEB_MERCATOR_MAX, world.getMinX(), 0);
+		assertEquals(TileUtils.WEB_MERCATOR_MAX, world.getMaxY(), 0);
+		Envelope northEast = TileUtils.getTileEnvelope(1, 1, 0);
+		assertEquals(0, northEast.getMinX(), 0);
+		assertEquals(0, northEast.getMinY(), 0);
+		assertEquals(TileUtils.WEB_MERCATOR_MAX, northEast.getMaxX(), 0);
+	}
+
+	@Test
+	public void toWebMercatorTest() {
+		assertEquals(SpatialUtils.createPoint(TileUtils.WEB_MERCATOR_MAX, 0,
+				SRID), TileUtils.toWebMercator(
+				SpatialUtils.createPoint(180, 0, TileUtils.WGS84_SRID),
+				TileUtils.WGS84_SRID));
+	}
+}
\ No newline at end of file
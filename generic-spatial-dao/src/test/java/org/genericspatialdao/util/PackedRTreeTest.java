@@ -0,0 +1,125 @@
+package org.genericspatialdao.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.genericspatialdao.exception.SpatialException;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class PackedRTreeTest {
+
+	private static final int ITEMS = 50000;
+
+	@Test
+	public void searchTest() {
+		double[] boxes = randomBoxes(ITEMS);
+		PackedRTree tree = PackedRTree.build(boxes, 16);
+		assertEquals(ITEMS, tree.size());
+		Random random = new Random(7);
+		for (int i = 0; i < 100; i++) {
+			Envelope envelope = randomEnvelope(random);
+			assertArrayEquals(bruteForce(boxes, envelope),
+					sorted(tree.search(envelope)));
+		}
+	}
+
+	@Test
+	public void saveAndOpenTest() throws IOException {
+		double[] boxes = randomBoxes(ITEMS);
+		PackedRTree tree = PackedRTree.build(boxes, 9);
+		File file = File.createTempFile("packed-rtree", ".bin");
+		file.deleteOnExit();
+		tree.save(file);
+		PackedRTree opened = PackedRTree.open(file);
+		assertEquals(ITEMS, opened.size());
+		Random random = new Random(11);
+		for (int i = 0; i < 100; i++) {
+			Envelope envelope = randomEnvelope(random);
+			assertArrayEquals(sorted(tree.search(envelope)),
+					sorted(opened.search(envelope)));
+		}
+		file.delete();
+	}
+
+	@Test
+	public void smallTreesTest() throws IOException {
+		PackedRTree empty = PackedRTree.build(new ArrayList<Envelope>());
+		assertEquals(0, empty.search(new Envelope(-180, 180, -90, 90)).length);
+
+		List<Envelope> envelopes = new ArrayList<Envelope>();
+		envelopes.add(new Envelope(1, 2, 1, 2));
+		PackedRTree single = PackedRTree.build(envelopes);
+		assertArrayEquals(new int[] { 0 },
+				single.search(new Envelope(0, 1.5, 0, 1.5)));
+		assertEquals(0, single.search(new Envelope(3, 4, 3, 4)).length);
+
+		File file = File.createTempFile("packed-rtree", ".bin");
+		file.deleteOnExit();
+		empty.save(file);
+		assertEquals(0, PackedRTree.open(file).size());
+		file.delete();
+	}
+
+	@Test(expected = SpatialException.class)
+	public void openInvalidFileTest() throws IOException {
+		File file = File.createTempFile("packed-rtree", ".bin");
+		file.deleteOnExit();
+		PackedRTree.open(file);
+	}
+
+	@Test(expected = SpatialException.class)
+	public void invalidBoxesTest() {
+		PackedRTree.build(new double[3], 16);
+	}
+
+	private static double[] randomBoxes(int n) {
+		Random random = new Random(3);
+		double[] boxes = new double[n * 4];
+		for (int i = 0; i < n; i++) {
+			double x = random.nextDouble() * 360 - 180;
+			double y = random.nextDouble() * 180 - 90;
+			boxes[i * 4] = x;
+			boxes[i * 4 + 1] = y;
+			boxes[i * 4 + 2] = x + random.nextDouble();
+			boxes[i * 4 + 3] = y + random.nextDouble();
+		}
+		return boxes;
+	}
+
+	private static Envelope randomEnvelope(Random random) {
+		double x = random.nextDouble() * 360 - 180;
+		double y = random.nextDouble() * 180 - 90;
+		double size = random.nextDouble() * 20;
+		return new Envelope(x, x + size, y, y + size);
+	}
+
+	private static int[] bruteForce(double[] boxes, Envelope envelope) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (int i = 0; i < boxes.length / 4; i++) {
+			if (envelope.intersects(new Envelope(boxes[i * 4],
+					boxes[i * 4 + 2], boxes[i * 4 + 1], boxes[i * 4 + 3]))) {
+				result.add(i);
+			}
+		}
+		int[] array = new int[result.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = result.get(i);
+		}
+		return array;
+	}
+
+	private static int[] sorted(int[] values) {
+		int[] copy = values.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+}
\ No newline at end of file
@@ -2,7 +2,16 @@ package org.genericspatialdao.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
-
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,6 +25,7 @@ import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 
 public class SpatialUtilsTest {
 
@@ -189,6 +199,99 @@ public class SpatialUtilsTest {
 		assertEquals(expected, SpatialUtils.getRoundedGeometry(polygon, 4));
 	}
 
+	@Test
+	public void roundGeometryRepairTest() {
+		// the notch collapses to a zero-width spike when rounded
+		Polygon polygon = SpatialUtils.createPolygon(
+				"POLYGON ((0 0, 4 0, 4 4, 2.4 4, 2.4 1, 1.6 1, 1.6 4, 0 4, 0 0))",
+				SRID);
+		Geometry rounded = SpatialUtils.getRoundedGeometry(polygon, 0);
+		assertTrue(rounded.isValid());
+		assertEquals(16, rounded.getArea(), 0);
+		assertEquals(SRID, rounded.getSRID());
+		// the given geometry is not changed
+		assertEquals(2.4, polygon.getCoordinates()[3].x, 0);
+	}
+
+	@Test
+	public void reducePrecisionTest() {
+		Polygon polygon = SpatialUtils
+				.createPolygon(
+						"POLYGON ((-23.6001133922035 -11.447739600371, -23.6001133922035 -11.4433407775865, -23.5930538180765 -11.4433407775865, -23.5930538180765 -11.447739600371, -23.6001133922035 -11.447739600371))",
+						SRID);
+		Polygon expected = SpatialUtils
+				.createPolygon(
+						"POLYGON ((-23.6001 -11.4477, -23.6001 -11.4433, -23.5931 -11.4433, -23.5931 -11.4477, -23.6001 -11.4477))",
+						SRID);
+		Geometry rounded = SpatialUtils.reducePrecision(polygon, 4);
+		assertSame(polygon, rounded);
+		assertEquals(expected, rounded);
+		assertEquals(SRID, rounded.getSRID());
+	}
+
+	@Test
+	public void reducePrecisionListTest() {
+		List<Point> list = SpatialUtils.generateLongLatPoints(1000, SRID);
+		SpatialUtils.reducePrecision(list, 2);
+		for (Point p : list) {
+			assertEquals(Math.round(p.getX() * 100) / 100d, p.getX(), 0);
+			assertEquals(Math.round(p.getY() * 100) / 100d, p.getY(), 0);
+		}
+	}
+
+	@Test
+	public void reducePrecisionRepairTest() {
+		// the notch collapses to a zero-width spike when rounded
+		Polygon polygon = SpatialUtils.createPolygon(
+				"POLYGON ((0 0, 4 0, 4 4, 2.4 4, 2.4 1, 1.6 1, 1.6 4, 0 4, 0 0))",
+				SRID);
+		Geometry rounded = SpatialUtils.reducePrecision(polygon, 0);
+		assertTrue(rounded.isValid());
+		assertEquals(16, rounded.getArea(), 0);
+		assertEquals(SRID, rounded.getSRID());
+	}
+
+	@Test
+	public void prepareTest() {
+		Polygon polygon = SpatialUtils.createPolygon(
+				"POLYGON ((0 0, 4 0, 4 4, 0 4, 0 0))", SRID);
+		PreparedGeometry prepared = SpatialUtils.prepare(polygon);
+		assertSame(prepared, SpatialUtils.prepare((Geometry) polygon.clone()));
+		SpatialUtils.clearPreparedGeometries();
+		assertNotSame(prepared, SpatialUtils.prepare(polygon));
+
+		// too many points to be kept with others, but kept while it is the
+		// last one prepared
+		Coordinate[] coordinates = new Coordinate[100001];
+		for (int i = 0; i < coordinates.length - 1; i++) {
+			double angle = 2 * Math.PI * i / (coordinates.length - 1);
+			coordinates[i] = new Coordinate(Math.cos(angle), Math.sin(angle));
+		}
+		coordinates[coordinates.length - 1] = coordinates[0];
+		Polygon large = polygon.getFactory().createPolygon(
+				polygon.getFactory().createLinearRing(coordinates), null);
+		PreparedGeometry preparedSmall = SpatialUtils.prepare(polygon);
+		PreparedGeometry preparedLarge = SpatialUtils.prepare(large);
+		assertSame(preparedLarge, SpatialUtils.prepare(large));
+		// the small shape was evicted for it, and evicts it in turn
+		assertNotSame(preparedSmall, SpatialUtils.prepare(polygon));
+		assertNotSame(preparedLarge, SpatialUtils.prepare(large));
+		SpatialUtils.clearPreparedGeometries();
+	}
+
+	@Test
+	public void toPackedGeometryTest() {
+		Polygon polygon = SpatialUtils.createPolygon(
+				"POLYGON((0 0,4 0,4 4,0 4,0 0),(1 1, 2 1, 2 2, 1 2,1 1))",
+				SRID);
+		assertFalse(SpatialUtils.isPacked(polygon));
+		Geometry packed = SpatialUtils.toPackedGeometry(polygon);
+		assertTrue(SpatialUtils.isPacked(packed));
+		assertEquals(polygon, packed);
+		assertEquals(SRID, packed.getSRID());
+		assertSame(packed, SpatialUtils.toPackedGeometry(packed));
+	}
+
 	@Test
 	public void createMultiPointTest() {
 		SpatialUtils.createMultiPoint(
@@ -250,6 +353,91 @@ public class SpatialUtilsTest {
 				.checkGeometry("MULTIPOINT ((10 10), (40 30), (20 20), (30 10))");
 	}
 
+	@Test
+	public void readTWKBTest() {
+		// POINT(100 2), precision 0
+		Geometry point = SpatialUtils.readTWKB(new byte[] { 0x01, 0x00,
+				(byte) 0xC8, 0x01, 0x04 }, SRID, false);
+		assertEquals(SpatialUtils.createPoint(100, 2, SRID), point);
+		assertEquals(SRID, point.getSRID());
+
+		// LINESTRING(0 0, 1.5 -2), precision 1
+		Geometry line = SpatialUtils.readTWKB(new byte[] { 0x22, 0x00, 0x02,
+				0x00, 0x00, 30, 39 }, SRID, false);
+		assertTrue(line.equalsExact(SpatialUtils.createLineString(
+				"LINESTRING(0 0, 1.5 -2)", SRID)));
+
+		// POLYGON((0 0, 1 0, 0 1, 0 0)), precision 0, packed
+		Geometry polygon = SpatialUtils.readTWKB(new byte[] { 0x03, 0x00,
+				0x01, 0x04, 0x00, 0x00, 0x02, 0x00, 0x01, 0x02, 0x00, 0x01 },
+				SRID, true);
+		assertTrue(SpatialUtils.isPacked(polygon));
+		assertTrue(polygon.equalsExact(SpatialUtils.createPolygon(
+				"POLYGON((0 0, 1 0, 0 1, 0 0))", SRID)));
+	}
+
+	@Test
+	public void createGeometryFromReaderTest() {
+		String[] wkts = {
+				"POINT(1.5 -2000)",
+				"LINESTRING(0 0, 0.1 0.2, 0.001 123456789.123456789)",
+				"POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))",
+				"MULTIPOINT(1 2, 3 4)",
+				"MULTILINESTRING((0 0, 1 1), (2 2, 3 3))",
+				"MULTIPOLYGON(((0 0, 1 0, 0 1, 0 0)), ((5 5, 6 5, 5 6, 5 5)))",
+				"GEOMETRYCOLLECTION(POINT(1 2), LINESTRING(0 0, 1 1))" };
+		for (String wkt : wkts) {
+			Geometry expected = SpatialUtils.createGeometry(wkt, SRID);
+			Geometry geometry = SpatialUtils.createGeometry(new StringReader(
+					wkt), SRID);
+			assertTrue(wkt, expected.equalsExact(geometry));
+			assertEquals(SRID, geometry.getSRID());
+			assertTrue(SpatialUtils.isPacked(geometry));
+		}
+		Geometry point = SpatialUtils.createGeometry(new StringReader(
+				"point z (1 2e-1 3)"), SRID);
+		assertEquals(new Coordinate(1, 0.2), point.getCoordinate());
+		assertEquals(3, point.getCoordinate().z, 0);
+		Geometry multiPoint = SpatialUtils.createGeometry(new StringReader(
+				"MULTIPOINT((1 2), (3 4))"), SRID);
+		assertTrue(multiPoint.equalsExact(SpatialUtils.createGeometry(
+				"MULTIPOINT(1 2, 3 4)", SRID)));
+	}
+
+	@Test
+	public void createGeometryFromFileTest() throws IOException {
+		File file = File.createTempFile("geometry", ".wkt");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"US-ASCII");
+		try {
+			writer.write("LINESTRING(");
+			for (int i = 0; i < 100000; i++) {
+				writer.write((i == 0 ? "" : ", ") + i + " " + (i * 0.5));
+			}
+			writer.write(")");
+		} finally {
+			writer.close();
+		}
+		Geometry line = SpatialUtils.createGeometry(file, SRID);
+		assertEquals(100000, line.getNumPoints());
+		assertEquals(new Coordinate(99999, 49999.5),
+				line.getCoordinates()[99999]);
+	}
+
+	@Test(expected = SpatialException.class)
+	public void createGeometryFromReaderWrongTest() {
+		SpatialUtils.createGeometry(new StringReader("POLYGON((0 0, 1 0))"),
+				SRID);
+	}
+
+	@Test(expected = SpatialException.class)
+	public void createGeometryFromReaderInvalidTest() {
+		// self intersecting
+		SpatialUtils.createGeometry(new StringReader(
+				"POLYGON((0 0, 1 1, 1 0, 0 1, 0 0))"), SRID);
+	}
+
 	@Test(expected = SpatialException.class)
 	public void checkGeometryWrongTest() {
 		SpatialUtils